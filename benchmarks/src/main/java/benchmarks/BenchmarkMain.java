@@ -0,0 +1,28 @@
+
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkMain runs the benchmarks with allocation profiling on.
+ *
+ * Takes the usual JMH command line options, the GC profiler is always
+ * added so every result comes with its allocation rate per operation.
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args)
+			throws CommandLineOptionException, RunnerException {
+
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		new Runner(new OptionsBuilder()
+				.parent(cmd)
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
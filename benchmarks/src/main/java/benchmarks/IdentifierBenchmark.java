@@ -0,0 +1,81 @@
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import collector.Model;
+import modelobject.IdentifierAllocator;
+import sequences.Sequence;
+
+/**
+ * Allocates identifiers, directly and through making model objects.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class IdentifierBenchmark {
+
+	/** Allocator shared by all benchmark threads */
+	@State(Scope.Benchmark)
+	public static class Shared {
+
+		IdentifierAllocator allocator;
+
+		@Setup(Level.Iteration)
+		public void setup() {
+			allocator = new IdentifierAllocator();
+		}
+	}
+
+	/**
+	 * A model with many sequences already. Each measured call removes
+	 * the sequence it made, so the model is only filled once.
+	 */
+	@State(Scope.Thread)
+	public static class Populated {
+
+		/** Sequences made before measuring */
+		@Param({"1000", "1000000"})
+		public int objects;
+
+		Model model;
+
+		@Setup(Level.Trial)
+		public void setup() {
+
+			model = new Model();
+			for (int i = 0; i < objects; i++) {
+				new Sequence(model);
+			}
+		}
+	}
+
+	/** Fresh identifiers only, the allocator grows throughout */
+	@Benchmark
+	public int allocate(Shared s) {
+		return s.allocator.allocate();
+	}
+
+	/** Fresh identifiers from four threads at once */
+	@Benchmark
+	@Threads(4)
+	public int allocateContended(Shared s) {
+		return s.allocator.allocate();
+	}
+
+	/** Released identifiers being reused */
+	@Benchmark
+	public boolean allocateRelease(Shared s) {
+		return s.allocator.release(s.allocator.allocate());
+	}
+
+	/** Making a sequence in a populated model and discarding it */
+	@Benchmark
+	public boolean sequenceLifecycle(Populated p) {
+		return p.model.removeModelObject(new Sequence(p.model));
+	}
+}
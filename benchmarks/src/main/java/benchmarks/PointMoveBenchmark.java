@@ -0,0 +1,120 @@
+
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import collector.Model;
+import modelobject.ModelObject;
+import point.Point;
+import sequences.Sequence;
+import topologies.Link;
+
+/**
+ * Moves a point around a sequence with <code>movePos</code> and
+ * <code>setPos</code>, on linear (clamping) and circular (wrapping)
+ * sequences. The point shares its topology with its neighbours, so
+ * every move also reorders the topology's point index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class PointMoveBenchmark {
+
+	/** Residues of the sequence */
+	@Param({"10000"})
+	public int length;
+
+	/** If the sequence is circular */
+	@Param({"false", "true"})
+	public boolean circular;
+
+	/** Other points of the topology, kept ordered with the moving point */
+	@Param({"0", "1000"})
+	public int neighbours;
+
+	private Sequence seq;
+
+	private Point point;
+
+	private int size;
+
+	private int target = 1;
+
+	@Setup
+	public void setup() {
+
+		StringBuilder residues = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			residues.append('A');
+		}
+
+		Model model = new Model();
+		seq = new Sequence(model);
+		seq.setSequence(residues);
+		if (circular) {
+			seq.setShape(ModelObject.PhysicalShape.SHAPE_CIRCULAR);
+		}
+		size = seq.getSize();
+
+		Link top = new Link(model);
+		point = new Point(seq, top, 1);
+		top.addPoint(point);
+
+		for (int i = 0; i < neighbours; i++) {
+			top.addPoint(new Point(seq, top,
+						(int) ((long) i * size / neighbours)));
+		}
+	}
+
+	/**
+	 * On linear targets the point starts over at the first position
+	 * once per lap, rather than stay clamped at the last
+	 */
+	@Benchmark
+	public boolean movePosForward() {
+
+		if (!circular && point.getPos() == size - 1) {
+			point.setPos(0);
+		}
+		return point.movePos(1);
+	}
+
+	/**
+	 * On linear targets the point starts over at the last position
+	 * once per lap, rather than stay clamped at the first
+	 */
+	@Benchmark
+	public boolean movePosBackward() {
+
+		if (!circular && point.getPos() == 0) {
+			point.setPos(size - 1);
+		}
+		return point.movePos(-1);
+	}
+
+	@Benchmark
+	public boolean setPosSequential() {
+
+		target += 2;
+		if (target >= size) {
+			target = 1;
+		}
+		return point.setPos(target);
+	}
+
+	/** Large negative positions, wrapped (or clamped) many laps */
+	@Benchmark
+	public boolean setPosNegativeWrap() {
+
+		target += 2;
+		if (target >= size) {
+			target = 1;
+		}
+		return point.setPos(target - 7 * size);
+	}
+}
@@ -0,0 +1,70 @@
+
+package benchmarks;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import collector.Model;
+import modelobject.ModelObject;
+import sequences.Sequence;
+
+/**
+ * Walks a whole nucleotide sequence with <code>SequenceWalker</code>.
+ * One operation is one complete walk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class SequenceWalkerBenchmark {
+
+	/** Residues of the sequence */
+	@Param({"100000"})
+	public int length;
+
+	/** Step of the walk in model-space */
+	@Param({"2", "6", "20"})
+	public int step;
+
+	/** Residues per slice */
+	@Param({"1", "3", "12"})
+	public int sliceSize;
+
+	/** If the sequence is circular */
+	@Param({"false", "true"})
+	public boolean circular;
+
+	private Sequence seq;
+
+	@Setup
+	public void setup() {
+
+		Random random = new Random(42);
+		StringBuilder residues = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			residues.append("ACGT".charAt(random.nextInt(4)));
+		}
+
+		seq = new Sequence(new Model());
+		seq.setSequenceType(Sequence.SequenceType.TYPE_NUCLEOTIDE);
+		seq.setSequence(residues);
+		if (circular) {
+			seq.setShape(ModelObject.PhysicalShape.SHAPE_CIRCULAR);
+		}
+	}
+
+	@Benchmark
+	public void walk(Blackhole bh) {
+
+		Iterator<String> it = seq.getSequenceWalker(1, step, sliceSize, true);
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+}
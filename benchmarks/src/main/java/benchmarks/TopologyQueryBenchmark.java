@@ -0,0 +1,93 @@
+
+package benchmarks;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import collector.Model;
+import point.Point;
+import sequences.Sequence;
+import topologies.Orphan;
+import topologies.Topology;
+
+/**
+ * Queries the points of a topology holding many points on one target.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class TopologyQueryBenchmark {
+
+	/** Points in the topology */
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int points;
+
+	private Sequence seq;
+
+	private Topology top;
+
+	/** Positions queried, in random order */
+	private int[] queries;
+
+	private int query = 0;
+
+	@Setup
+	public void setup() {
+
+		StringBuilder residues = new StringBuilder(points);
+		for (int i = 0; i < points; i++) {
+			residues.append('A');
+		}
+
+		seq = new Sequence(new Model());
+		seq.setSequence(residues);
+		int size = seq.getSize();
+
+		//Added in position order, which is the cheap order to index
+		Random random = new Random(42);
+		int[] positions = new int[points];
+		for (int i = 0; i < points; i++) {
+			positions[i] = random.nextInt(size);
+		}
+		Arrays.sort(positions);
+
+		top = new Orphan();
+		for (int pos: positions) {
+			top.addPoint(new Point(seq, top, pos));
+		}
+
+		queries = new int[4096];
+		for (int i = 0; i < queries.length; i++) {
+			queries[i] = random.nextInt(size);
+		}
+	}
+
+	@Benchmark
+	public void getPointAt(Blackhole bh) {
+
+		query = (query + 1) & (queries.length - 1);
+		Iterator<Point> it = top.getPointAt(seq, queries[query]);
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+
+	/** One operation visits every point */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void getPointIterator(Blackhole bh) {
+
+		Iterator<Point> it = top.getPointIterator(seq);
+		while (it.hasNext()) {
+			bh.consume(it.next());
+		}
+	}
+}
@@ -0,0 +1,55 @@
+
+package alignment;
+
+import annotation.Feature;
+import modelobject.PrototypeModelObject;
+
+/**
+ * Alignment is the annotation of two sequences with how they align.
+ *
+ * Each run of aligned residues is a <code>Link</code> of two
+ * <code>Segment</code>s, one on each sequence, so the aligned stretches
+ * follow the residues as the sequences are edited. Gaps are what lies
+ * between the links.
+ */
+public class Alignment extends Feature {
+
+	/** The alignment as it was made */
+	private final AlignmentPath path;
+
+	/**
+	 * Constructor
+	 *
+	 * @param path
+	 * 			The alignment
+	 * @param obj
+	 * 			The aligned objects
+	 */
+	public Alignment(AlignmentPath path, PrototypeModelObject... obj) {
+
+		super(obj);
+		this.path = path;
+		setType("alignment");
+	}
+
+	/**
+	 * Gets the alignment as it was made, in residue indexes of the
+	 * sequences at the time
+	 *
+	 * @return
+	 * 			The path
+	 */
+	public AlignmentPath getPath() {
+		return path;
+	}
+
+	/**
+	 * Gets the score
+	 *
+	 * @return
+	 * 			The score
+	 */
+	public int getScore() {
+		return path.getScore();
+	}
+}
@@ -0,0 +1,23 @@
+
+package alignment;
+
+/**
+ * AlignmentConsumer receives the alignments of a batch. It is called
+ * from the threads of the pool, several at a time.
+ */
+public interface AlignmentConsumer {
+
+	/**
+	 * Accepts an alignment
+	 *
+	 * @param query
+	 * 			Index of the query in the batch
+	 * @param target
+	 * 			Index of the target in the batch
+	 * @param score
+	 * 			The score
+	 * @param path
+	 * 			The alignment, null unless the batch traces alignments
+	 */
+	public void accept(int query, int target, int score, AlignmentPath path);
+}
@@ -0,0 +1,285 @@
+
+package alignment;
+
+import java.util.Arrays;
+
+/**
+ * AlignmentPath is how two sequences align: the parts aligned, the
+ * score and the operations, as runs, taking the first sequence to the
+ * second.
+ *
+ * Parts are given as residue indexes, the first inclusive and the last
+ * exclusive. A <code>MATCH</code> run pairs residues of both sequences
+ * (equal or not), an <code>INSERTION</code> run holds residues only of
+ * the second sequence and a <code>DELETION</code> run residues only of
+ * the first.
+ *
+ * Paths are immutable.
+ */
+public final class AlignmentPath {
+
+	/**
+	 * Operation is what a run of an alignment does
+	 */
+	public enum Operation {
+
+		/** Residues of both sequences aligned */
+		MATCH('M'),
+
+		/** Residues of the second sequence only */
+		INSERTION('I'),
+
+		/** Residues of the first sequence only */
+		DELETION('D');
+
+		/** Letter in CIGAR strings */
+		private final char symbol;
+
+		private Operation(char symbol) {
+			this.symbol = symbol;
+		}
+
+		/**
+		 * Gets the letter of the operation in CIGAR strings
+		 *
+		 * @return
+		 * 			The letter
+		 */
+		public char getSymbol() {
+			return symbol;
+		}
+	}
+
+	/**
+	 * Builder collects runs, joining runs of the same operation
+	 */
+	static final class Builder {
+
+		/** Operation of each run */
+		private Operation[] operations = new Operation[8];
+
+		/** Length of each run */
+		private int[] lengths = new int[8];
+
+		/** Number of runs */
+		private int count;
+
+		/**
+		 * Adds a run after the others
+		 *
+		 * @param op
+		 * 			The operation
+		 * @param length
+		 * 			Residues in the run, nothing is added for 0
+		 */
+		void add(Operation op, int length) {
+
+			if (length <= 0) {
+				return;
+			} else if (count > 0 && operations[count - 1] == op) {
+				lengths[count - 1] += length;
+				return;
+			} else if (count == operations.length) {
+				operations = Arrays.copyOf(operations, count * 2);
+				lengths = Arrays.copyOf(lengths, count * 2);
+			}
+			operations[count] = op;
+			lengths[count] = length;
+			count++;
+		}
+
+		/** Reverses the order of the runs */
+		void reverse() {
+
+			for (int i = 0, j = count - 1; i < j; i++, j--) {
+
+				Operation op = operations[i];
+				operations[i] = operations[j];
+				operations[j] = op;
+				int length = lengths[i];
+				lengths[i] = lengths[j];
+				lengths[j] = length;
+			}
+		}
+
+		/**
+		 * Makes the path
+		 *
+		 * @param score
+		 * 			The score
+		 * @param startA
+		 * 			First residue aligned of the first sequence
+		 * @param startB
+		 * 			First residue aligned of the second sequence
+		 * @return
+		 * 			The path
+		 */
+		AlignmentPath build(int score, int startA, int startB) {
+			return new AlignmentPath(score, startA, startB,
+					Arrays.copyOf(operations, count), Arrays.copyOf(lengths, count));
+		}
+	}
+
+	/** The score */
+	private final int score;
+
+	/** First residue aligned of the first sequence */
+	private final int startA;
+
+	/** Residue after the last aligned of the first sequence */
+	private final int endA;
+
+	/** First residue aligned of the second sequence */
+	private final int startB;
+
+	/** Residue after the last aligned of the second sequence */
+	private final int endB;
+
+	/** Operation of each run */
+	private final Operation[] operations;
+
+	/** Length of each run */
+	private final int[] lengths;
+
+	/**
+	 * Constructor
+	 *
+	 * @param score
+	 * 			The score
+	 * @param startA
+	 * 			First residue aligned of the first sequence
+	 * @param startB
+	 * 			First residue aligned of the second sequence
+	 * @param operations
+	 * 			Operation of each run
+	 * @param lengths
+	 * 			Length of each run
+	 */
+	private AlignmentPath(int score, int startA, int startB,
+			Operation[] operations, int[] lengths) {
+
+		this.score = score;
+		this.startA = startA;
+		this.startB = startB;
+		this.operations = operations;
+		this.lengths = lengths;
+
+		int a = startA;
+		int b = startB;
+		for (int i = 0; i < operations.length; i++) {
+			if (operations[i] != Operation.INSERTION) {
+				a += lengths[i];
+			}
+			if (operations[i] != Operation.DELETION) {
+				b += lengths[i];
+			}
+		}
+		endA = a;
+		endB = b;
+	}
+
+	/**
+	 * Gets the score
+	 *
+	 * @return
+	 * 			The score
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Gets the first residue aligned of the first sequence
+	 *
+	 * @return
+	 * 			Residue index
+	 */
+	public int getStartA() {
+		return startA;
+	}
+
+	/**
+	 * Gets the residue after the last aligned of the first sequence
+	 *
+	 * @return
+	 * 			Residue index
+	 */
+	public int getEndA() {
+		return endA;
+	}
+
+	/**
+	 * Gets the first residue aligned of the second sequence
+	 *
+	 * @return
+	 * 			Residue index
+	 */
+	public int getStartB() {
+		return startB;
+	}
+
+	/**
+	 * Gets the residue after the last aligned of the second sequence
+	 *
+	 * @return
+	 * 			Residue index
+	 */
+	public int getEndB() {
+		return endB;
+	}
+
+	/**
+	 * Gets the number of runs
+	 *
+	 * @return
+	 * 			Number of runs, 0 if nothing aligned
+	 */
+	public int getRunCount() {
+		return operations.length;
+	}
+
+	/**
+	 * Gets the operation of a run
+	 *
+	 * @param run
+	 * 			The run number
+	 * @return
+	 * 			The operation
+	 */
+	public Operation getOperation(int run) {
+		return operations[run];
+	}
+
+	/**
+	 * Gets the length of a run
+	 *
+	 * @param run
+	 * 			The run number
+	 * @return
+	 * 			Residues in the run
+	 */
+	public int getRunLength(int run) {
+		return lengths[run];
+	}
+
+	/**
+	 * Gets the path as a CIGAR string, as "12M2I30M"
+	 *
+	 * @return
+	 * 			The runs
+	 */
+	public String toCigar() {
+
+		StringBuilder sb = new StringBuilder(operations.length * 4);
+		for (int i = 0; i < operations.length; i++) {
+			sb.append(lengths[i]).append(operations[i].getSymbol());
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "[" + startA + ", " + endA + ") ~ [" + startB + ", " + endB +
+			") " + toCigar() + " (" + score + ")";
+	}
+}
@@ -0,0 +1,848 @@
+
+package alignment;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import collector.Model;
+import modelobject.ModelObject;
+import sequences.ResidueSource;
+import sequences.Sequence;
+
+/**
+ * BatchAligner aligns many sequences to many others, such as every
+ * sequence of a model to every other, on a fork-join pool.
+ *
+ * The pairs are cut into tiles of <code>tileSize</code> queries by
+ * <code>tileSize</code> targets. A tile profiles each of its queries
+ * once and aligns it to the targets of the tile, so the profiles and
+ * targets it works on stay in cache, and tiles are split among the
+ * threads of the pool by work stealing.
+ *
+ * Pairs are first screened by their minimizers: the smallest (by hash)
+ * k-mer of each window of <code>window</code> consecutive k-mers. Pairs
+ * sharing fewer than <code>minShared</code> minimizers are not aligned.
+ * Two sequences sharing a stretch of <code>kmerSize + window - 1</code>
+ * residues share a minimizer. Sequences shorter than
+ * <code>kmerSize</code> have no minimizers, so their pairs are aligned
+ * unscreened.
+ *
+ * Results are passed to a consumer as they are found, from the threads
+ * of the pool, and never held by the aligner. A batch runs in the
+ * background; its <code>Job</code> tells how far it has come and
+ * cancels it.
+ *
+ * The residues are read when a batch is submitted, so the sequences
+ * may change while it runs. Settings should not be changed while
+ * submitting; an aligner can run several batches at the same time.
+ */
+public class BatchAligner {
+
+	/** Default queries and targets per tile */
+	public static final int DEFAULT_TILE_SIZE = 32;
+
+	/** Default k-mer size of nucleotides */
+	public static final int DEFAULT_NUCLEOTIDE_KMER_SIZE = 11;
+
+	/** Default k-mer size of amino acids */
+	public static final int DEFAULT_AMINOACID_KMER_SIZE = 3;
+
+	/** Default k-mers per window of nucleotides */
+	public static final int DEFAULT_NUCLEOTIDE_WINDOW = 10;
+
+	/** Default k-mers per window of amino acids */
+	public static final int DEFAULT_AMINOACID_WINDOW = 1;
+
+	/**
+	 * Job is a running batch
+	 */
+	public static final class Job {
+
+		/** The queries */
+		private final List<ResidueSource> queries;
+
+		/** The targets */
+		private final List<ResidueSource> targets;
+
+		/** Number of pairs */
+		private final long total;
+
+		/** Pairs done, aligned or screened out */
+		private final AtomicLong completed = new AtomicLong();
+
+		/** Pairs screened out */
+		private final AtomicLong screened = new AtomicLong();
+
+		/** If cancelled */
+		private volatile boolean cancelled;
+
+		/** The task running the batch */
+		private ForkJoinTask<?> task;
+
+		/**
+		 * Constructor
+		 *
+		 * @param queries
+		 * 			The queries
+		 * @param targets
+		 * 			The targets
+		 * @param total
+		 * 			Number of pairs
+		 */
+		private Job(List<ResidueSource> queries, List<ResidueSource> targets,
+				long total) {
+
+			this.queries = queries;
+			this.targets = targets;
+			this.total = total;
+		}
+
+		/**
+		 * Gets the queries, whose indexes the consumer is given
+		 *
+		 * @return
+		 * 			The queries, not to be modified
+		 */
+		public List<ResidueSource> getQueries() {
+			return queries;
+		}
+
+		/**
+		 * Gets the targets, whose indexes the consumer is given
+		 *
+		 * @return
+		 * 			The targets, not to be modified
+		 */
+		public List<ResidueSource> getTargets() {
+			return targets;
+		}
+
+		/**
+		 * Gets the number of pairs of the batch
+		 *
+		 * @return
+		 * 			Number of pairs
+		 */
+		public long getTotal() {
+			return total;
+		}
+
+		/**
+		 * Gets the number of pairs done, aligned or screened out
+		 *
+		 * @return
+		 * 			Number of pairs
+		 */
+		public long getCompleted() {
+			return completed.get();
+		}
+
+		/**
+		 * Gets the number of pairs screened out
+		 *
+		 * @return
+		 * 			Number of pairs
+		 */
+		public long getScreened() {
+			return screened.get();
+		}
+
+		/**
+		 * Gets how far the batch has come
+		 *
+		 * @return
+		 * 			Fraction of the pairs done, from 0 to 1
+		 */
+		public double getProgress() {
+			return total == 0 ? 1 : completed.get() / (double) total;
+		}
+
+		/**
+		 * Cancels the batch. Pairs being aligned are finished, no
+		 * others are started.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * Checks if the batch was cancelled
+		 *
+		 * @return
+		 * 			If cancelled
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * Checks if the batch has finished, done or cancelled
+		 *
+		 * @return
+		 * 			If finished
+		 */
+		public boolean isDone() {
+			return task.isDone();
+		}
+
+		/**
+		 * Waits for the batch to finish. If the consumer threw, the
+		 * batch was cancelled: pairs being aligned on other threads
+		 * were finished, no others were started, and this throws what
+		 * the consumer threw, or one of its type with it as the cause
+		 * if thrown on another thread.
+		 */
+		public void await() {
+			task.join();
+		}
+	}
+
+	/**
+	 * Batch is what a submitted batch works on
+	 */
+	private final class Batch {
+
+		/** The job */
+		final Job job;
+
+		/** The aligner, a copy of the settings at submission */
+		final PairwiseAligner aligner;
+
+		/** The scoring */
+		final ScoringScheme scheme;
+
+		/** The queries, as alphabet indexes */
+		final byte[][] queries;
+
+		/** The targets, as alphabet indexes; the queries if all-vs-all */
+		final byte[][] targets;
+
+		/** If only pairs of a query with a later target are aligned */
+		final boolean allVsAll;
+
+		/** Residues per k-mer of the screen */
+		final int k;
+
+		/** K-mers per window of the screen */
+		final int w;
+
+		/** Minimizers of the queries, null if not screening */
+		final long[][] querySketches;
+
+		/** Minimizers of the targets, null if not screening */
+		final long[][] targetSketches;
+
+		/** Tiles, as row and column */
+		final int[] tiles;
+
+		/** Receiver of the alignments */
+		final AlignmentConsumer consumer;
+
+		/** Queries and targets per tile */
+		final int tileSize = BatchAligner.this.tileSize;
+
+		/** If the consumer gets the alignments */
+		final boolean traceback = BatchAligner.this.traceback;
+
+		/** Lowest score passed to the consumer */
+		final int minScore = BatchAligner.this.minScore;
+
+		/** Fewest minimizers pairs must share */
+		final int minShared = BatchAligner.this.minShared;
+
+		Batch(Job job, PairwiseAligner aligner, ScoringScheme scheme,
+				byte[][] queries, byte[][] targets, boolean allVsAll,
+				AlignmentConsumer consumer) {
+
+			this.job = job;
+			this.aligner = aligner;
+			this.scheme = scheme;
+			this.queries = queries;
+			this.targets = targets;
+			this.allVsAll = allVsAll;
+			this.consumer = consumer;
+
+			int rows = (queries.length + tileSize - 1) / tileSize;
+			int cols = (targets.length + tileSize - 1) / tileSize;
+			int[] list = new int[2 * rows * cols];
+			int count = 0;
+			for (int row = 0; row < rows; row++) {
+				for (int col = allVsAll ? row : 0; col < cols; col++) {
+					list[count++] = row;
+					list[count++] = col;
+				}
+			}
+			tiles = Arrays.copyOf(list, count);
+
+			boolean dna = scheme.getAlphabetSize() <= 5;
+			k = kmerSize > 0 ? kmerSize : dna ? DEFAULT_NUCLEOTIDE_KMER_SIZE :
+				DEFAULT_AMINOACID_KMER_SIZE;
+			w = window > 0 ? window : dna ? DEFAULT_NUCLEOTIDE_WINDOW :
+				DEFAULT_AMINOACID_WINDOW;
+
+			if (minShared > 0) {
+				querySketches = new long[queries.length][];
+				targetSketches = allVsAll ? querySketches :
+					new long[targets.length][];
+			} else {
+				querySketches = null;
+				targetSketches = null;
+			}
+		}
+
+		/**
+		 * Aligns the pairs of a tile
+		 *
+		 * @param row
+		 * 			Tile row, of queries
+		 * @param col
+		 * 			Tile column, of targets
+		 */
+		void runTile(int row, int col) {
+
+			int qFrom = row * tileSize;
+			int qTo = Math.min(queries.length, qFrom + tileSize);
+			int tFrom = col * tileSize;
+			int tTo = Math.min(targets.length, tFrom + tileSize);
+
+			for (int q = qFrom; q < qTo; q++) {
+
+				if (job.cancelled) {
+					return;
+				}
+
+				StripedProfile profile = null;
+				int first = allVsAll ? Math.max(tFrom, q + 1) : tFrom;
+				for (int t = first; t < tTo; t++) {
+
+					if (querySketches != null && screens(querySketches[q],
+								targetSketches[t])) {
+						job.screened.incrementAndGet();
+						continue;
+					}
+					if (profile == null) {
+						profile = new StripedProfile(queries[q], scheme);
+					}
+					int score = aligner.score(profile, targets[t]);
+					if (score >= minScore) {
+						accept(q, t, score, traceback ?
+								aligner.align(queries[q], targets[t], scheme) :
+								null);
+					}
+				}
+				job.completed.addAndGet(Math.max(0, tTo - first));
+			}
+		}
+
+		/**
+		 * Checks if the screen leaves out a pair. Pairs with a sequence
+		 * without minimizers, shorter than a k-mer, are not screened.
+		 *
+		 * @param query
+		 * 			Minimizers of the query
+		 * @param target
+		 * 			Minimizers of the target
+		 * @return
+		 * 			If the pair is not to be aligned
+		 */
+		boolean screens(long[] query, long[] target) {
+			return query.length > 0 && target.length > 0 &&
+				shared(query, target, minShared) < minShared;
+		}
+
+		/**
+		 * Passes an alignment to the consumer, cancelling the batch if
+		 * the consumer throws
+		 *
+		 * @param q
+		 * 			The query
+		 * @param t
+		 * 			The target
+		 * @param score
+		 * 			The score
+		 * @param alignment
+		 * 			The alignment, null without traceback
+		 */
+		void accept(int q, int t, int score, AlignmentPath alignment) {
+
+			try {
+				consumer.accept(q, t, score, alignment);
+			} catch (RuntimeException e) {
+				job.cancelled = true;
+				throw e;
+			} catch (Error e) {
+				job.cancelled = true;
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * TileTask aligns a range of tiles, splitting it until one tile is
+	 * left.
+	 */
+	private static final class TileTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The batch */
+		private final Batch batch;
+
+		/** First tile (inclusive) */
+		private final int from;
+
+		/** Last tile (exclusive) */
+		private final int to;
+
+		TileTask(Batch batch, int from, int to) {
+			this.batch = batch;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (batch.job.cancelled) {
+				return;
+			} else if (to - from == 1) {
+				batch.runTile(batch.tiles[2 * from], batch.tiles[2 * from + 1]);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new TileTask(batch, from, middle),
+						new TileTask(batch, middle, to));
+			}
+		}
+	}
+
+	/**
+	 * SketchTask finds the minimizers of a range of sequences, splitting
+	 * it until few are left.
+	 */
+	private static final class SketchTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The batch */
+		private final Batch batch;
+
+		/** If the targets, otherwise the queries */
+		private final boolean targets;
+
+		/** First sequence (inclusive) */
+		private final int from;
+
+		/** Last sequence (exclusive) */
+		private final int to;
+
+		SketchTask(Batch batch, boolean targets, int from, int to) {
+			this.batch = batch;
+			this.targets = targets;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (batch.job.cancelled) {
+				return;
+			} else if (to - from <= 16) {
+
+				byte[][] codes = targets ? batch.targets : batch.queries;
+				long[][] sketches = targets ? batch.targetSketches :
+					batch.querySketches;
+				int size = batch.scheme.getAlphabetSize();
+				for (int i = from; i < to; i++) {
+					sketches[i] = minimizers(codes[i], size, batch.k, batch.w);
+				}
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new SketchTask(batch, targets, from, middle),
+						new SketchTask(batch, targets, middle, to));
+			}
+		}
+	}
+
+	/** Settings of the alignments */
+	private final PairwiseAligner aligner;
+
+	/** Queries and targets per tile */
+	private int tileSize = DEFAULT_TILE_SIZE;
+
+	/** Residues per k-mer of the screen, 0 for the default */
+	private int kmerSize = 0;
+
+	/** K-mers per window of the screen, 0 for the default */
+	private int window = 0;
+
+	/** Fewest minimizers pairs must share, 0 to align every pair */
+	private int minShared = 1;
+
+	/** Lowest score passed to the consumer */
+	private int minScore = Integer.MIN_VALUE;
+
+	/** If the consumer gets the alignments, not only scores */
+	private boolean traceback = false;
+
+	/** The pool aligning the tiles */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Constructor
+	 *
+	 * @param aligner
+	 * 			The mode, scoring and band of the alignments
+	 */
+	public BatchAligner(PairwiseAligner aligner) {
+		this.aligner = aligner;
+	}
+
+	/**
+	 * Sets the number of queries and targets per tile. Each tile is one
+	 * task, so smaller tiles spread better over the pool, larger reuse
+	 * profiles more.
+	 *
+	 * @param tileSize
+	 * 			Sequences per tile side
+	 */
+	public void setTileSize(int tileSize) {
+
+		if (tileSize < 1) {
+			throw new IllegalArgumentException("Invalid tile size " + tileSize);
+		}
+		this.tileSize = tileSize;
+	}
+
+	/**
+	 * Gets the number of queries and targets per tile
+	 *
+	 * @return
+	 * 			Sequences per tile side
+	 */
+	public int getTileSize() {
+		return tileSize;
+	}
+
+	/**
+	 * Sets the screen of pairs
+	 *
+	 * @param kmerSize
+	 * 			Residues per k-mer, 0 for the default of the residues
+	 * @param window
+	 * 			K-mers per window, 0 for the default of the residues
+	 * @param minShared
+	 * 			Fewest minimizers a pair must share to be aligned, 0 to
+	 * 			align every pair
+	 */
+	public void setScreen(int kmerSize, int window, int minShared) {
+
+		if (kmerSize < 0 || window < 0) {
+			throw new IllegalArgumentException("Invalid screen " + kmerSize +
+					", " + window);
+		}
+		this.kmerSize = kmerSize;
+		this.window = window;
+		this.minShared = minShared;
+	}
+
+	/**
+	 * Sets the lowest score passed to the consumer
+	 *
+	 * @param minScore
+	 * 			The score
+	 */
+	public void setMinScore(int minScore) {
+		this.minScore = minScore;
+	}
+
+	/**
+	 * Sets if the consumer gets the alignments or only their scores.
+	 * Tracing takes about three times as long as scoring.
+	 *
+	 * @param traceback
+	 * 			If the alignments are traced
+	 */
+	public void setTraceback(boolean traceback) {
+		this.traceback = traceback;
+	}
+
+	/**
+	 * Sets the pool that aligns the tiles
+	 *
+	 * @param pool
+	 * 			The pool, the common pool by default
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Aligns every query to every target
+	 *
+	 * @param queries
+	 * 			The queries
+	 * @param targets
+	 * 			The targets
+	 * @param consumer
+	 * 			Receiver of the alignments
+	 * @return
+	 * 			The running batch
+	 */
+	public Job submit(List<? extends ResidueSource> queries,
+			List<? extends ResidueSource> targets, AlignmentConsumer consumer) {
+
+		List<ResidueSource> q = new ArrayList<ResidueSource>(queries);
+		List<ResidueSource> t = new ArrayList<ResidueSource>(targets);
+		return submit(new Job(Collections.unmodifiableList(q),
+				Collections.unmodifiableList(t), (long) q.size() * t.size()),
+				false, consumer);
+	}
+
+	/**
+	 * Aligns every sequence to every other, each pair once with the
+	 * earlier sequence as query
+	 *
+	 * @param sequences
+	 * 			The sequences
+	 * @param consumer
+	 * 			Receiver of the alignments
+	 * @return
+	 * 			The running batch
+	 */
+	public Job submitAllVsAll(List<? extends ResidueSource> sequences,
+			AlignmentConsumer consumer) {
+
+		List<ResidueSource> s = Collections.unmodifiableList(
+				new ArrayList<ResidueSource>(sequences));
+		long n = s.size();
+		return submit(new Job(s, s, n * (n - 1) / 2), true, consumer);
+	}
+
+	/**
+	 * Aligns every sequence of a model to every other
+	 *
+	 * @param model
+	 * 			The model
+	 * @param consumer
+	 * 			Receiver of the alignments, given indexes in the order of
+	 * 			addition to the model (see <code>Job.getQueries()</code>)
+	 * @return
+	 * 			The running batch
+	 */
+	public Job submitAllVsAll(Model model, AlignmentConsumer consumer) {
+
+		List<Sequence> sequences = new ArrayList<Sequence>();
+		for (Iterator<ModelObject> it = model.getModelObjects(); it.hasNext(); ) {
+			ModelObject obj = it.next();
+			if (obj instanceof Sequence) {
+				sequences.add((Sequence) obj);
+			}
+		}
+		return submitAllVsAll(sequences, consumer);
+	}
+
+	/**
+	 * Starts a batch
+	 *
+	 * @param job
+	 * 			The job
+	 * @param allVsAll
+	 * 			If the queries are the targets
+	 * @param consumer
+	 * 			Receiver of the alignments
+	 * @return
+	 * 			The job
+	 */
+	private Job submit(Job job, boolean allVsAll, AlignmentConsumer consumer) {
+
+		List<ResidueSource> queries = job.getQueries();
+		ScoringScheme scheme = queries.isEmpty() ?
+			ScoringScheme.NUCLEOTIDE : aligner.getScoring(queries.get(0));
+		PairwiseAligner copy = new PairwiseAligner(aligner.getMode());
+		copy.setScoring(scheme);
+		copy.setBand(aligner.getBand());
+
+		byte[][] q = encode(queries, scheme);
+		byte[][] t = allVsAll ? q : encode(job.getTargets(), scheme);
+		final Batch batch = new Batch(job, copy, scheme, q, t, allVsAll,
+				consumer);
+
+		job.task = pool.submit(new RecursiveAction() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+
+				if (batch.querySketches != null) {
+					new SketchTask(batch, false, 0, batch.queries.length).invoke();
+					if (!batch.allVsAll) {
+						new SketchTask(batch, true, 0, batch.targets.length).invoke();
+					}
+				}
+				if (batch.tiles.length > 0) {
+					new TileTask(batch, 0, batch.tiles.length / 2).invoke();
+				}
+			}
+		});
+		return job;
+	}
+
+	/**
+	 * Encodes the residues of sequences
+	 *
+	 * @param sources
+	 * 			The sequences
+	 * @param scheme
+	 * 			The scoring
+	 * @return
+	 * 			The residues, as alphabet indexes
+	 */
+	private static byte[][] encode(List<ResidueSource> sources,
+			ScoringScheme scheme) {
+
+		byte[][] codes = new byte[sources.size()][];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = PairwiseAligner.encode(sources.get(i), scheme);
+		}
+		return codes;
+	}
+
+	/**
+	 * Finds the distinct minimizers of residues. K-mers with the
+	 * wildcard (the last residue of the alphabet) are left out.
+	 *
+	 * @param codes
+	 * 			The residues, as alphabet indexes
+	 * @param size
+	 * 			Residues of the alphabet
+	 * @param k
+	 * 			Residues per k-mer
+	 * @param w
+	 * 			K-mers per window
+	 * @return
+	 * 			Hashes of the minimizers, sorted
+	 */
+	static long[] minimizers(byte[] codes, int size, int k, int w) {
+
+		if (Math.pow(size, k) >= Long.MAX_VALUE) {
+			throw new IllegalArgumentException("K-mers of " + k +
+					" residues are too long");
+		}
+
+		int count = codes.length - k + 1;
+		if (count <= 0) {
+			return new long[0];
+		}
+
+		//Hash of the k-mer at each position, MAX_VALUE if it has wildcards
+		long[] hashes = new long[count];
+		long top = 1;
+		for (int i = 1; i < k; i++) {
+			top *= size;
+		}
+		long kmer = 0;
+		int valid = 0;
+		for (int i = 0; i < codes.length; i++) {
+
+			int c = codes[i];
+			if (c == size - 1) {
+				valid = 0;
+				kmer = 0;
+			} else {
+				if (valid == k) {
+					kmer -= top * codes[i - k];
+				} else {
+					valid++;
+				}
+				kmer = kmer * size + c;
+			}
+			if (i >= k - 1) {
+				hashes[i - k + 1] = valid == k ? mix(kmer) : Long.MAX_VALUE;
+			}
+		}
+
+		//Smallest of each window, by a queue of increasing hashes
+		long[] found = new long[count];
+		int n = 0;
+		int[] queue = new int[count];
+		int head = 0;
+		int tail = 0;
+		for (int i = 0; i < count; i++) {
+
+			while (tail > head && hashes[queue[tail - 1]] >= hashes[i]) {
+				tail--;
+			}
+			queue[tail++] = i;
+			if (queue[head] <= i - w) {
+				head++;
+			}
+			if (i >= Math.min(w, count) - 1) {
+				long min = hashes[queue[head]];
+				if (min != Long.MAX_VALUE && (n == 0 || found[n - 1] != min)) {
+					found[n++] = min;
+				}
+			}
+		}
+
+		long[] sorted = Arrays.copyOf(found, n);
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (i == 0 || sorted[i] != sorted[i - 1]) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, distinct);
+	}
+
+	/**
+	 * Counts the minimizers two sequences share
+	 *
+	 * @param a
+	 * 			Minimizers of one, sorted
+	 * @param b
+	 * 			Minimizers of the other, sorted
+	 * @param enough
+	 * 			Count at which to stop counting
+	 * @return
+	 * 			Number shared, at most <code>enough</code>
+	 */
+	static int shared(long[] a, long[] b, int enough) {
+
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while (i < a.length && j < b.length && count < enough) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				count++;
+				i++;
+				j++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Scrambles the bits of a k-mer
+	 *
+	 * @param x
+	 * 			The k-mer
+	 * @return
+	 * 			The hash
+	 */
+	static long mix(long x) {
+
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+}
@@ -0,0 +1,387 @@
+
+package alignment;
+
+import java.util.Arrays;
+
+/**
+ * GapRuns is a row of a multiple alignment: the residues of a sequence
+ * in order, with runs of gaps between them.
+ *
+ * Only the runs are kept, each as the residue it comes before and the
+ * number of gaps up to it, so a row of ten thousand residues with a
+ * handful of gaps takes a few ints rather than a padded string. Columns
+ * and residues are found from each other by binary search over the
+ * runs, so any range of columns is read without walking the row from
+ * its start.
+ *
+ * Rows are immutable.
+ */
+public final class GapRuns {
+
+	/** Number of residues */
+	private final int residueCount;
+
+	/** Residue each run comes before, ascending; the residue count for
+	 * gaps at the end */
+	private final int[] before;
+
+	/** Gaps of the runs up to and including each run */
+	private final int[] gaps;
+
+	/**
+	 * Constructor
+	 *
+	 * @param residueCount
+	 * 			Number of residues
+	 * @param before
+	 * 			Residue each run comes before, ascending
+	 * @param gaps
+	 * 			Gaps up to and including each run
+	 */
+	private GapRuns(int residueCount, int[] before, int[] gaps) {
+
+		this.residueCount = residueCount;
+		this.before = before;
+		this.gaps = gaps;
+	}
+
+	/**
+	 * Makes a row without gaps
+	 *
+	 * @param residueCount
+	 * 			Number of residues
+	 * @return
+	 * 			The row
+	 */
+	public static GapRuns ungapped(int residueCount) {
+		return new GapRuns(residueCount, new int[0], new int[0]);
+	}
+
+	/**
+	 * Gets the number of residues
+	 *
+	 * @return
+	 * 			The number of residues
+	 */
+	public int getResidueCount() {
+		return residueCount;
+	}
+
+	/**
+	 * Gets the number of gaps
+	 *
+	 * @return
+	 * 			The number of gaps
+	 */
+	public int getGapCount() {
+		return before.length == 0 ? 0 : gaps[before.length - 1];
+	}
+
+	/**
+	 * Gets the number of columns
+	 *
+	 * @return
+	 * 			Residues and gaps
+	 */
+	public int getWidth() {
+		return residueCount + getGapCount();
+	}
+
+	/**
+	 * Gets the number of runs of gaps
+	 *
+	 * @return
+	 * 			The number of runs
+	 */
+	public int getRunCount() {
+		return before.length;
+	}
+
+	/**
+	 * Gets the residue a run of gaps comes before
+	 *
+	 * @param run
+	 * 			The run number
+	 * @return
+	 * 			Residue index, the residue count for gaps at the end
+	 */
+	public int getRunResidue(int run) {
+		return before[run];
+	}
+
+	/**
+	 * Gets the length of a run of gaps
+	 *
+	 * @param run
+	 * 			The run number
+	 * @return
+	 * 			Gaps in the run
+	 */
+	public int getRunLength(int run) {
+		return run == 0 ? gaps[0] : gaps[run] - gaps[run - 1];
+	}
+
+	/**
+	 * Gets the first column of a run of gaps
+	 *
+	 * @param run
+	 * 			The run number
+	 * @return
+	 * 			The column
+	 */
+	public int getRunColumn(int run) {
+		return before[run] + (run == 0 ? 0 : gaps[run - 1]);
+	}
+
+	/**
+	 * Gets the column of a residue
+	 *
+	 * @param residue
+	 * 			Residue index
+	 * @return
+	 * 			The column
+	 */
+	public int getColumn(int residue) {
+
+		checkResidue(residue);
+
+		//Runs before or at the residue
+		int low = 0;
+		int high = before.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (before[mid] <= residue) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return residue + (low == 0 ? 0 : gaps[low - 1]);
+	}
+
+	/**
+	 * Gets the residue in a column
+	 *
+	 * @param column
+	 * 			The column
+	 * @return
+	 * 			Residue index, -1 for a gap
+	 */
+	public int getResidue(int column) {
+
+		int run = findRun(column);
+		if (run >= 0 && column < getRunColumn(run) + getRunLength(run)) {
+			return -1;
+		}
+		return column - (run < 0 ? 0 : gaps[run]);
+	}
+
+	/**
+	 * Gets the first residue in or after a column
+	 *
+	 * @param column
+	 * 			The column
+	 * @return
+	 * 			Residue index, the residue count if only gaps follow
+	 */
+	public int getNextResidue(int column) {
+
+		int run = findRun(column);
+		if (run >= 0 && column < getRunColumn(run) + getRunLength(run)) {
+			return before[run];
+		}
+		return column - (run < 0 ? 0 : gaps[run]);
+	}
+
+	/**
+	 * Finds the last run starting at or before a column
+	 *
+	 * @param column
+	 * 			The column
+	 * @return
+	 * 			The run, -1 if none
+	 */
+	private int findRun(int column) {
+
+		if (column < 0 || column >= getWidth()) {
+			throw new IndexOutOfBoundsException("Column " + column +
+					" outside 0-" + getWidth());
+		}
+		int low = 0;
+		int high = before.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (getRunColumn(mid) <= column) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low - 1;
+	}
+
+	/**
+	 * Checks that a residue is in the row
+	 *
+	 * @param residue
+	 * 			Residue index
+	 */
+	private void checkResidue(int residue) {
+
+		if (residue < 0 || residue >= residueCount) {
+			throw new IndexOutOfBoundsException("Residue " + residue +
+					" outside 0-" + residueCount);
+		}
+	}
+
+	/**
+	 * Inserts columns of gaps, as when the profile of the row is aligned
+	 * to another profile.
+	 *
+	 * @param columns
+	 * 			Where the gaps go: a row whose residues are the columns
+	 * 			of this row
+	 * @return
+	 * 			The row with the gaps
+	 */
+	public GapRuns insertColumns(GapRuns columns) {
+
+		if (columns.residueCount != getWidth()) {
+			throw new IllegalArgumentException("Gaps for " +
+					columns.residueCount + " columns inserted in " + getWidth());
+		}
+
+		Builder row = new Builder();
+		int column = 0;
+		int run = 0;
+		for (int i = 0; i <= columns.before.length; i++) {
+
+			int to = i < columns.before.length ? columns.before[i] : getWidth();
+
+			//The columns of this row up to the inserted gaps
+			while (column < to) {
+
+				while (run < before.length &&
+						getRunColumn(run) + getRunLength(run) <= column) {
+					run++;
+				}
+				if (run < before.length && getRunColumn(run) <= column) {
+
+					int end = Math.min(to, getRunColumn(run) + getRunLength(run));
+					row.addGaps(end - column);
+					column = end;
+				} else {
+
+					int end = run < before.length ?
+						Math.min(to, getRunColumn(run)) : to;
+					row.addResidues(end - column);
+					column = end;
+				}
+			}
+			if (i < columns.before.length) {
+				row.addGaps(columns.getRunLength(i));
+			}
+		}
+		return row.build();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+
+		if (!(obj instanceof GapRuns)) {
+			return false;
+		}
+		GapRuns other = (GapRuns) obj;
+		return residueCount == other.residueCount &&
+			Arrays.equals(before, other.before) &&
+			Arrays.equals(gaps, other.gaps);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * residueCount + Arrays.hashCode(before);
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder s = new StringBuilder();
+		int residue = 0;
+		for (int run = 0; run < before.length; run++) {
+
+			if (before[run] > residue) {
+				s.append(before[run] - residue).append('R');
+			}
+			s.append(getRunLength(run)).append('G');
+			residue = before[run];
+		}
+		if (residueCount > residue) {
+			s.append(residueCount - residue).append('R');
+		}
+		return s.toString();
+	}
+
+	/**
+	 * Builder makes a row from left to right
+	 */
+	static final class Builder {
+
+		/** Residues added */
+		private int residues = 0;
+
+		/** Residue each run comes before */
+		private int[] before = new int[4];
+
+		/** Gaps up to and including each run */
+		private int[] gaps = new int[4];
+
+		/** Number of runs */
+		private int runs = 0;
+
+		/**
+		 * Adds residues
+		 *
+		 * @param count
+		 * 			Number of residues
+		 */
+		void addResidues(int count) {
+			residues += count;
+		}
+
+		/**
+		 * Adds gaps, joining them to gaps just before
+		 *
+		 * @param count
+		 * 			Number of gaps
+		 */
+		void addGaps(int count) {
+
+			if (count <= 0) {
+				return;
+			}
+			int total = runs == 0 ? 0 : gaps[runs - 1];
+			if (runs > 0 && before[runs - 1] == residues) {
+				gaps[runs - 1] = total + count;
+				return;
+			}
+			if (runs == before.length) {
+				before = Arrays.copyOf(before, 2 * runs);
+				gaps = Arrays.copyOf(gaps, 2 * runs);
+			}
+			before[runs] = residues;
+			gaps[runs] = total + count;
+			runs++;
+		}
+
+		/**
+		 * Makes the row
+		 *
+		 * @return
+		 * 			The row
+		 */
+		GapRuns build() {
+			return new GapRuns(residues, Arrays.copyOf(before, runs),
+					Arrays.copyOf(gaps, runs));
+		}
+	}
+}
@@ -0,0 +1,707 @@
+
+package alignment;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import collector.Model;
+import sequences.Sequence;
+import topologies.Link;
+import topologies.Segment;
+
+/**
+ * MultipleAligner aligns a set of sequences to each other by
+ * progressive alignment.
+ *
+ * The sequences are first joined into a guide tree (UPGMA) by k-mer
+ * distances: one minus the share of minimizers, as in the screen of
+ * <code>BatchAligner</code>, that the sequence with fewer has in common
+ * with the other. The alignment is then built from the leaves up, each
+ * node aligning the profiles of its two subtrees, and the subtrees of
+ * a node are aligned at the same time on a fork-join pool.
+ *
+ * Two profiles are aligned through their consensus, the most common
+ * residue of each column with residues in at least half of the rows,
+ * with the pairwise aligner given, so its scoring, band and striped
+ * linear-memory tracing are used for the profiles as for sequences.
+ * Columns left out of the consensus, or out of a local or semi-global
+ * alignment of it, are kept unaligned. The gaps
+ * a profile gets are inserted into each of its rows as runs, so rows
+ * are never padded.
+ *
+ * Circular sequences are aligned from their origins. Settings should
+ * not be changed while aligning; an aligner can be used by several
+ * threads.
+ */
+public class MultipleAligner {
+
+	/** Band of the default aligner */
+	public static final int DEFAULT_BAND = 128;
+
+	/** Settings of the profile alignments */
+	private final PairwiseAligner aligner;
+
+	/** Residues per k-mer of the distances, 0 for the default */
+	private int kmerSize = 0;
+
+	/** K-mers per window of the distances, 0 for the default */
+	private int window = 0;
+
+	/** The pool aligning subtrees */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Constructor for global alignments within <code>DEFAULT_BAND</code>
+	 * diagonals, which suits similar sequences; give an aligner without
+	 * a band for distant ones
+	 */
+	public MultipleAligner() {
+
+		aligner = new PairwiseAligner();
+		aligner.setBand(DEFAULT_BAND);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param aligner
+	 * 			The mode, scoring and band of the profile alignments
+	 */
+	public MultipleAligner(PairwiseAligner aligner) {
+		this.aligner = aligner;
+	}
+
+	/**
+	 * Sets the k-mers of the distances of the guide tree
+	 *
+	 * @param kmerSize
+	 * 			Residues per k-mer, 0 for the default of the residues
+	 * @param window
+	 * 			K-mers per window, 0 for the default of the residues
+	 */
+	public void setGuide(int kmerSize, int window) {
+
+		if (kmerSize < 0 || window < 0) {
+			throw new IllegalArgumentException("Invalid guide " + kmerSize +
+					", " + window);
+		}
+		this.kmerSize = kmerSize;
+		this.window = window;
+	}
+
+	/**
+	 * Sets the pool that aligns subtrees
+	 *
+	 * @param pool
+	 * 			The pool, the common pool by default
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Aligns sequences. The alignment annotates the sequences but is
+	 * not added to them.
+	 *
+	 * @param sequences
+	 * 			The sequences, at least one
+	 * @return
+	 * 			The alignment, a row per sequence in the given order
+	 */
+	public MultipleAlignment align(List<Sequence> sequences) {
+
+		if (sequences.isEmpty()) {
+			throw new IllegalArgumentException("Nothing to align");
+		}
+		ScoringScheme scheme = aligner.getScoring(sequences.get(0));
+		byte[][] codes = new byte[sequences.size()][];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = PairwiseAligner.encode(sequences.get(i), scheme);
+		}
+
+		boolean nucleotide = sequences.get(0).getSequenceType().equals(
+				Sequence.SequenceType.TYPE_NUCLEOTIDE);
+		int k = kmerSize > 0 ? kmerSize : nucleotide ?
+			BatchAligner.DEFAULT_NUCLEOTIDE_KMER_SIZE :
+			BatchAligner.DEFAULT_AMINOACID_KMER_SIZE;
+		int w = window > 0 ? window : nucleotide ?
+			BatchAligner.DEFAULT_NUCLEOTIDE_WINDOW :
+			BatchAligner.DEFAULT_AMINOACID_WINDOW;
+		int[][] tree = guideTree(distances(codes,
+					scheme.getAlphabetSize(), k, w));
+
+		Profile profile = pool.invoke(new MergeTask(tree, codes, scheme,
+					tree.length - 1));
+
+		GapRuns[] rows = new GapRuns[codes.length];
+		for (int i = 0; i < profile.members.length; i++) {
+			rows[profile.members[i]] = profile.rows[i];
+		}
+		return new MultipleAlignment(sequences, rows);
+	}
+
+	/**
+	 * Aligns sequences and annotates them with the alignment
+	 *
+	 * @param model
+	 * 			The model of the sequences
+	 * @param sequences
+	 * 			The sequences, at least one
+	 * @return
+	 * 			The annotation, added to the sequences
+	 */
+	public MultipleAlignment annotate(Model model, List<Sequence> sequences) {
+
+		MultipleAlignment alignment = align(sequences);
+		int rowCount = alignment.getRowCount();
+
+		//Columns where a row starts or ends a run of gaps
+		int[] cuts = new int[16];
+		int cutCount = 0;
+		for (int r = 0; r < rowCount; r++) {
+
+			GapRuns row = alignment.getRow(r);
+			for (int run = 0; run < row.getRunCount(); run++) {
+
+				if (cutCount + 2 > cuts.length) {
+					cuts = Arrays.copyOf(cuts, 2 * cuts.length);
+				}
+				cuts[cutCount++] = row.getRunColumn(run);
+				cuts[cutCount++] = row.getRunColumn(run) + row.getRunLength(run);
+			}
+		}
+		Arrays.sort(cuts, 0, cutCount);
+
+		model.beginBatch();
+		try {
+			int from = 0;
+			for (int c = 0; c <= cutCount; c++) {
+
+				int to = c < cutCount ? cuts[c] : alignment.getWidth();
+				if (to > from) {
+					linkBlock(model, alignment, from, to);
+					from = to;
+				}
+			}
+
+			for (Sequence seq: new LinkedHashSet<Sequence>(sequences)) {
+				seq.addAnnotation(alignment);
+			}
+			return alignment;
+		} finally {
+			model.endBatch();
+		}
+	}
+
+	/**
+	 * Links the residues of a block of columns without gaps starting
+	 * or ending in it
+	 *
+	 * @param model
+	 * 			The model
+	 * @param alignment
+	 * 			The alignment
+	 * @param from
+	 * 			First column of the block
+	 * @param to
+	 * 			Column after the last
+	 */
+	private static void linkBlock(Model model, MultipleAlignment alignment,
+			int from, int to) {
+
+		List<Segment> segments = new ArrayList<Segment>();
+		for (int r = 0; r < alignment.getRowCount(); r++) {
+
+			int residue = alignment.getResidue(r, from);
+			if (residue < 0) {
+				continue;
+			}
+			Segment segment = new Segment(model);
+			alignment.getSequence(r).getView().addRange(segment,
+					2 * residue + 1, 2 * (residue + to - from) - 1);
+			segments.add(segment);
+		}
+		if (segments.size() < 2) {
+			return;
+		}
+
+		Link link = new Link(model);
+		for (Segment segment: segments) {
+			link.addTopology(segment);
+		}
+		alignment.setTopology(link);
+	}
+
+	/**
+	 * Measures the k-mer distances of sequences
+	 *
+	 * @param codes
+	 * 			The sequences, as alphabet indexes
+	 * @param size
+	 * 			Residues of the alphabet
+	 * @param k
+	 * 			Residues per k-mer
+	 * @param w
+	 * 			K-mers per window
+	 * @return
+	 * 			The distance of each pair, between 0 and 1
+	 */
+	static double[][] distances(byte[][] codes, int size, int k, int w) {
+
+		long[][] kmers = new long[codes.length][];
+		for (int i = 0; i < codes.length; i++) {
+			kmers[i] = BatchAligner.minimizers(codes[i], size, k, w);
+		}
+
+		double[][] d = new double[codes.length][codes.length];
+		for (int i = 0; i < codes.length; i++) {
+			for (int j = i + 1; j < codes.length; j++) {
+
+				int fewer = Math.min(kmers[i].length, kmers[j].length);
+				double shared = fewer == 0 ? 0 : (double) BatchAligner.shared(
+						kmers[i], kmers[j], fewer) / fewer;
+				d[i][j] = 1 - shared;
+				d[j][i] = d[i][j];
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * Joins sequences into a tree by UPGMA: the two nearest clusters
+	 * are joined, at the average distance of their members, until one
+	 * is left. The nearest neighbour of each cluster is kept so that
+	 * a join usually costs one pass over the clusters.
+	 *
+	 * @param d
+	 * 			The distance of each pair, changed while joining
+	 * @return
+	 * 			For each node, its two children; leaves are the sequences
+	 * 			and have no children, the root is last
+	 */
+	static int[][] guideTree(double[][] d) {
+
+		int n = d.length;
+		int[][] tree = new int[Math.max(1, 2 * n - 1)][];
+		int[] node = new int[n];
+		int[] members = new int[n];
+		int[] nearest = new int[n];
+		boolean[] active = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			tree[i] = new int[0];
+			node[i] = i;
+			members[i] = 1;
+			active[i] = true;
+		}
+		for (int i = 0; i < n; i++) {
+			nearest[i] = findNearest(d, active, i);
+		}
+
+		for (int next = n; next < 2 * n - 1; next++) {
+
+			//The closest pair
+			int a = -1;
+			for (int i = 0; i < n; i++) {
+				if (active[i] && nearest[i] >= 0 &&
+						(a < 0 || d[i][nearest[i]] < d[a][nearest[a]])) {
+					a = i;
+				}
+			}
+			int b = nearest[a];
+			tree[next] = new int[] {node[a], node[b]};
+
+			//The cluster takes the place of a
+			active[b] = false;
+			for (int i = 0; i < n; i++) {
+				if (active[i] && i != a) {
+					d[a][i] = (members[a] * d[a][i] + members[b] * d[b][i]) /
+						(members[a] + members[b]);
+					d[i][a] = d[a][i];
+				}
+			}
+			members[a] += members[b];
+			node[a] = next;
+
+			nearest[a] = findNearest(d, active, a);
+			for (int i = 0; i < n; i++) {
+
+				if (!active[i] || i == a) {
+					continue;
+				}
+				if (nearest[i] == a || nearest[i] == b) {
+					nearest[i] = findNearest(d, active, i);
+				} else if (d[i][a] < d[i][nearest[i]]) {
+					nearest[i] = a;
+				}
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * Finds the nearest active cluster
+	 *
+	 * @param d
+	 * 			The distances
+	 * @param active
+	 * 			If each cluster is active
+	 * @param i
+	 * 			The cluster
+	 * @return
+	 * 			The nearest other, -1 if none
+	 */
+	private static int findNearest(double[][] d, boolean[] active, int i) {
+
+		int best = -1;
+		for (int j = 0; j < d.length; j++) {
+			if (active[j] && j != i && (best < 0 || d[i][j] < d[i][best])) {
+				best = j;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Aligns the profiles of two subtrees
+	 *
+	 * @param a
+	 * 			The first profile
+	 * @param b
+	 * 			The second profile
+	 * @param codes
+	 * 			The sequences, as alphabet indexes
+	 * @param scheme
+	 * 			The scoring
+	 * @return
+	 * 			The profile of both
+	 */
+	Profile merge(Profile a, Profile b, byte[][] codes, ScoringScheme scheme) {
+
+		Consensus consA = new Consensus(a, codes, scheme);
+		Consensus consB = new Consensus(b, codes, scheme);
+		AlignmentPath path = aligner.align(consA.residues, consB.residues,
+				scheme);
+
+		//Gaps to insert in the columns of each profile
+		ColumnMerge columns = new ColumnMerge(consA.columns, consB.columns);
+		for (int i = 0; i < path.getStartA(); i++) {
+			columns.addA(i);
+		}
+		for (int i = 0; i < path.getStartB(); i++) {
+			columns.addB(i);
+		}
+		int ia = path.getStartA();
+		int ib = path.getStartB();
+		for (int run = 0; run < path.getRunCount(); run++) {
+
+			int length = path.getRunLength(run);
+			AlignmentPath.Operation op = path.getOperation(run);
+			for (int i = 0; i < length; i++) {
+
+				if (op == AlignmentPath.Operation.MATCH) {
+					columns.addBoth(ia++, ib++);
+				} else if (op == AlignmentPath.Operation.DELETION) {
+					columns.addA(ia++);
+				} else {
+					columns.addB(ib++);
+				}
+			}
+		}
+		for (int i = ia; i < consA.residues.length; i++) {
+			columns.addA(i);
+		}
+		for (int i = ib; i < consB.residues.length; i++) {
+			columns.addB(i);
+		}
+		columns.flush(a.getWidth(), b.getWidth());
+
+		GapRuns columnsA = columns.gapsA.build();
+		GapRuns columnsB = columns.gapsB.build();
+		int[] members = new int[a.members.length + b.members.length];
+		GapRuns[] rows = new GapRuns[members.length];
+		for (int i = 0; i < a.members.length; i++) {
+			members[i] = a.members[i];
+			rows[i] = a.rows[i].insertColumns(columnsA);
+		}
+		for (int i = 0; i < b.members.length; i++) {
+			members[a.members.length + i] = b.members[i];
+			rows[a.members.length + i] = b.rows[i].insertColumns(columnsB);
+		}
+		return new Profile(members, rows);
+	}
+
+	/**
+	 * Consensus is the most common residue of each column of a profile
+	 * with residues in at least half of its rows, the wildcard only
+	 * where nothing else is. Columns mostly of gaps, such as residues
+	 * inserted in a few rows, are left out so they neither widen the
+	 * alignment of profiles nor weigh on it.
+	 */
+	static final class Consensus {
+
+		/** The consensus, as alphabet indexes */
+		final byte[] residues;
+
+		/** Column of the profile of each consensus residue */
+		final int[] columns;
+
+		/**
+		 * Constructor
+		 *
+		 * @param profile
+		 * 			The profile
+		 * @param codes
+		 * 			The sequences, as alphabet indexes
+		 * @param scheme
+		 * 			The scoring
+		 */
+		Consensus(Profile profile, byte[][] codes, ScoringScheme scheme) {
+
+			int width = profile.getWidth();
+			if (profile.members.length == 1) {
+
+				residues = codes[profile.members[0]];
+				columns = new int[width];
+				for (int c = 0; c < width; c++) {
+					columns[c] = c;
+				}
+				return;
+			}
+
+			int size = scheme.getAlphabetSize();
+			int[] counts = new int[width * size];
+			int[] filled = new int[width];
+			for (int i = 0; i < profile.members.length; i++) {
+
+				byte[] row = codes[profile.members[i]];
+				GapRuns gaps = profile.rows[i];
+				int column = 0;
+				int residue = 0;
+				for (int run = 0; run <= gaps.getRunCount(); run++) {
+
+					int end = run < gaps.getRunCount() ?
+						gaps.getRunResidue(run) : row.length;
+					while (residue < end) {
+						filled[column]++;
+						counts[column++ * size + row[residue++]]++;
+					}
+					if (run < gaps.getRunCount()) {
+						column += gaps.getRunLength(run);
+					}
+				}
+			}
+
+			byte[] picked = new byte[width];
+			int[] kept = new int[width];
+			int count = 0;
+			for (int c = 0; c < width; c++) {
+
+				if (2 * filled[c] < profile.members.length) {
+					continue;
+				}
+				int best = size - 1;
+				for (int r = 0; r < size - 1; r++) {
+					if (counts[c * size + r] > 0 &&
+							(best == size - 1 ||
+							 counts[c * size + r] > counts[c * size + best])) {
+						best = r;
+					}
+				}
+				picked[count] = (byte) best;
+				kept[count++] = c;
+			}
+			residues = Arrays.copyOf(picked, count);
+			columns = Arrays.copyOf(kept, count);
+		}
+	}
+
+	/**
+	 * ColumnMerge lays out the columns of two profiles side by side
+	 * from the alignment of their consensus. Columns left out of a
+	 * consensus stay next to the column before them, facing gaps.
+	 */
+	private static final class ColumnMerge {
+
+		/** Gaps to insert in the columns of the first profile */
+		final GapRuns.Builder gapsA = new GapRuns.Builder();
+
+		/** Gaps to insert in the columns of the second profile */
+		final GapRuns.Builder gapsB = new GapRuns.Builder();
+
+		/** Column of the first profile of each consensus residue */
+		private final int[] columnsA;
+
+		/** Column of the second profile of each consensus residue */
+		private final int[] columnsB;
+
+		/** Next column of the first profile */
+		private int nextA = 0;
+
+		/** Next column of the second profile */
+		private int nextB = 0;
+
+		/**
+		 * Constructor
+		 *
+		 * @param columnsA
+		 * 			Column of the first profile of each consensus residue
+		 * @param columnsB
+		 * 			Column of the second profile of each consensus residue
+		 */
+		ColumnMerge(int[] columnsA, int[] columnsB) {
+
+			this.columnsA = columnsA;
+			this.columnsB = columnsB;
+		}
+
+		/**
+		 * Adds a consensus residue of the first profile facing a gap
+		 *
+		 * @param residue
+		 * 			The consensus residue
+		 */
+		void addA(int residue) {
+			flush(columnsA[residue] + 1, nextB);
+		}
+
+		/**
+		 * Adds a consensus residue of the second profile facing a gap
+		 *
+		 * @param residue
+		 * 			The consensus residue
+		 */
+		void addB(int residue) {
+			flush(nextA, columnsB[residue] + 1);
+		}
+
+		/**
+		 * Adds consensus residues of both profiles facing each other
+		 *
+		 * @param a
+		 * 			The consensus residue of the first profile
+		 * @param b
+		 * 			The consensus residue of the second profile
+		 */
+		void addBoth(int a, int b) {
+
+			flush(columnsA[a], columnsB[b]);
+			gapsA.addResidues(1);
+			gapsB.addResidues(1);
+			nextA++;
+			nextB++;
+		}
+
+		/**
+		 * Adds the columns of each profile up to a column, facing gaps
+		 *
+		 * @param toA
+		 * 			Column of the first profile after the last added
+		 * @param toB
+		 * 			Column of the second profile after the last added
+		 */
+		void flush(int toA, int toB) {
+
+			int a = Math.max(0, toA - nextA);
+			gapsA.addResidues(a);
+			gapsB.addGaps(a);
+			nextA += a;
+			int b = Math.max(0, toB - nextB);
+			gapsB.addResidues(b);
+			gapsA.addGaps(b);
+			nextB += b;
+		}
+	}
+
+	/**
+	 * Profile is the alignment of the sequences of a subtree
+	 */
+	static final class Profile {
+
+		/** Sequence of each row */
+		final int[] members;
+
+		/** The rows */
+		final GapRuns[] rows;
+
+		/**
+		 * Constructor
+		 *
+		 * @param members
+		 * 			Sequence of each row
+		 * @param rows
+		 * 			The rows
+		 */
+		Profile(int[] members, GapRuns[] rows) {
+
+			this.members = members;
+			this.rows = rows;
+		}
+
+		/**
+		 * Gets the number of columns
+		 *
+		 * @return
+		 * 			The number of columns
+		 */
+		int getWidth() {
+			return rows[0].getWidth();
+		}
+	}
+
+	/**
+	 * MergeTask aligns a subtree, its two halves in parallel
+	 */
+	private final class MergeTask extends RecursiveTask<Profile> {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The guide tree */
+		private final int[][] tree;
+
+		/** The sequences, as alphabet indexes */
+		private final byte[][] codes;
+
+		/** The scoring */
+		private final ScoringScheme scheme;
+
+		/** The node of the subtree */
+		private final int node;
+
+		/**
+		 * Constructor
+		 *
+		 * @param tree
+		 * 			The guide tree
+		 * @param codes
+		 * 			The sequences, as alphabet indexes
+		 * @param scheme
+		 * 			The scoring
+		 * @param node
+		 * 			The node of the subtree
+		 */
+		MergeTask(int[][] tree, byte[][] codes, ScoringScheme scheme,
+				int node) {
+
+			this.tree = tree;
+			this.codes = codes;
+			this.scheme = scheme;
+			this.node = node;
+		}
+
+		@Override
+		protected Profile compute() {
+
+			if (tree[node].length == 0) {
+				return new Profile(new int[] {node},
+						new GapRuns[] {GapRuns.ungapped(codes[node].length)});
+			}
+
+			MergeTask left = new MergeTask(tree, codes, scheme, tree[node][0]);
+			left.fork();
+			Profile right = new MergeTask(tree, codes, scheme,
+					tree[node][1]).compute();
+			return merge(left.join(), right, codes, scheme);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+
+package alignment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import annotation.Feature;
+import modelobject.PrototypeModelObject;
+import sequences.ResidueStore;
+import sequences.Sequence;
+
+/**
+ * MultipleAlignment is the annotation of sequences with how they align
+ * to each other, one row per sequence.
+ *
+ * The rows are kept as <code>GapRuns</code>, in residue indexes of the
+ * sequences at the time they were aligned. When added to a model by
+ * <code>MultipleAligner.annotate</code>, each block of columns in which
+ * no row starts or ends a gap is also a <code>Link</code> of
+ * <code>Segment</code>s, one on each sequence with residues in the
+ * block, so the corresponding stretches follow the residues as the
+ * sequences are edited.
+ */
+public class MultipleAlignment extends Feature {
+
+	/** The sequence of each row */
+	private final List<Sequence> sequences;
+
+	/** The rows */
+	private final GapRuns[] rows;
+
+	/** Number of columns */
+	private final int width;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sequences
+	 * 			The sequence of each row
+	 * @param rows
+	 * 			The rows, all as wide
+	 */
+	public MultipleAlignment(List<Sequence> sequences, GapRuns[] rows) {
+
+		super(sequences.toArray(new PrototypeModelObject[sequences.size()]));
+		if (sequences.size() != rows.length) {
+			throw new IllegalArgumentException("Rows do not match sequences");
+		}
+		this.sequences = Collections.unmodifiableList(
+				new ArrayList<Sequence>(sequences));
+		this.rows = rows.clone();
+		width = rows.length == 0 ? 0 : rows[0].getWidth();
+		for (GapRuns row: rows) {
+			if (row.getWidth() != width) {
+				throw new IllegalArgumentException("Rows of different width");
+			}
+		}
+		setType("multiple alignment");
+	}
+
+	/**
+	 * Gets the number of rows
+	 *
+	 * @return
+	 * 			The number of rows
+	 */
+	public int getRowCount() {
+		return rows.length;
+	}
+
+	/**
+	 * Gets the number of columns
+	 *
+	 * @return
+	 * 			The number of columns
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Gets the sequences
+	 *
+	 * @return
+	 * 			The sequence of each row
+	 */
+	public List<Sequence> getSequences() {
+		return sequences;
+	}
+
+	/**
+	 * Gets the sequence of a row
+	 *
+	 * @param row
+	 * 			The row
+	 * @return
+	 * 			The sequence
+	 */
+	public Sequence getSequence(int row) {
+		return sequences.get(row);
+	}
+
+	/**
+	 * Gets a row
+	 *
+	 * @param row
+	 * 			The row
+	 * @return
+	 * 			Where the row has gaps
+	 */
+	public GapRuns getRow(int row) {
+		return rows[row];
+	}
+
+	/**
+	 * Gets the residue of a row in a column
+	 *
+	 * @param row
+	 * 			The row
+	 * @param column
+	 * 			The column
+	 * @return
+	 * 			Residue index, -1 for a gap
+	 */
+	public int getResidue(int row, int column) {
+		return rows[row].getResidue(column);
+	}
+
+	/**
+	 * Gets the column of a residue of a row
+	 *
+	 * @param row
+	 * 			The row
+	 * @param residue
+	 * 			Residue index
+	 * @return
+	 * 			The column
+	 */
+	public int getColumn(int row, int residue) {
+		return rows[row].getColumn(residue);
+	}
+
+	/**
+	 * Gets the text of a range of columns of a row, with
+	 * <code>'-'</code> for gaps
+	 *
+	 * @param row
+	 * 			The row
+	 * @param from
+	 * 			First column
+	 * @param to
+	 * 			Column after the last
+	 * @return
+	 * 			The text
+	 */
+	public String getRowText(int row, int from, int to) {
+
+		if (from < 0 || to > width || from > to) {
+			throw new IndexOutOfBoundsException("Columns " + from + "-" + to +
+					" outside 0-" + width);
+		}
+		GapRuns gaps = rows[row];
+		ResidueStore residues = sequences.get(row).getResidueStore();
+		char[] text = new char[to - from];
+		for (int column = from; column < to; column++) {
+
+			int residue = gaps.getResidue(column);
+			text[column - from] = residue < 0 ? '-' : residues.charAt(residue);
+		}
+		return new String(text);
+	}
+}
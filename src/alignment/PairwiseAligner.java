@@ -0,0 +1,449 @@
+
+package alignment;
+
+import collector.Model;
+import sequences.ResidueSource;
+import sequences.Sequence;
+import sequences.SequenceView;
+import topologies.Link;
+import topologies.Segment;
+
+/**
+ * PairwiseAligner aligns two sequences with affine gap costs.
+ *
+ * Alignments are global (end to end), local (the best scoring parts)
+ * or semi-global (one sequence overlapping or containing the other:
+ * gaps at the ends of either sequence are free).
+ *
+ * Without a band, alignments are scored with the striped kernel of
+ * <code>StripedProfile</code> and traced in linear memory, so long
+ * sequences can be aligned: local and semi-global alignments are first
+ * scored forwards to find where they end, then backwards from there to
+ * find where they start, and the part between is aligned globally.
+ *
+ * With a band, only cells on diagonals within the band of the main
+ * diagonals are scored, which is much faster for similar sequences;
+ * the band is widened to hold the corner of sequences of different
+ * length. Banded traceback keeps a byte per cell of the band.
+ *
+ * Circular sequences are aligned from their origins. Aligners are not
+ * changed by aligning and can be used by several threads.
+ */
+public class PairwiseAligner {
+
+	/**
+	 * Mode is the kind of alignment
+	 */
+	public enum Mode {
+
+		/** End to end */
+		GLOBAL,
+
+		/** The best scoring parts */
+		LOCAL,
+
+		/** Free gaps at the ends of both sequences */
+		SEMI_GLOBAL
+	}
+
+	/** The kind of alignment */
+	private Mode mode = Mode.GLOBAL;
+
+	/** The scoring, null for the default of the sequence type */
+	private ScoringScheme scoring;
+
+	/** Diagonals on each side within the band, negative for no band */
+	private int band = -1;
+
+	/** Constructor for global alignments */
+	public PairwiseAligner() {
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param mode
+	 * 			The kind of alignment
+	 */
+	public PairwiseAligner(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Gets the kind of alignment
+	 *
+	 * @return
+	 * 			The mode
+	 */
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * Sets the kind of alignment
+	 *
+	 * @param mode
+	 * 			The mode
+	 */
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Gets the scoring
+	 *
+	 * @return
+	 * 			The scoring, null if by sequence type
+	 */
+	public ScoringScheme getScoring() {
+		return scoring;
+	}
+
+	/**
+	 * Sets the scoring
+	 *
+	 * @param scoring
+	 * 			The scoring, null to use <code>ScoringScheme.forType</code>
+	 * 			of the first sequence
+	 */
+	public void setScoring(ScoringScheme scoring) {
+		this.scoring = scoring;
+	}
+
+	/**
+	 * Gets the band
+	 *
+	 * @return
+	 * 			Diagonals on each side, negative for no band
+	 */
+	public int getBand() {
+		return band;
+	}
+
+	/**
+	 * Sets the band
+	 *
+	 * @param width
+	 * 			Diagonals on each side of the main diagonals that may be
+	 * 			part of alignments, negative for no band
+	 */
+	public void setBand(int width) {
+		band = width;
+	}
+
+	/**
+	 * Scores the best alignment of two sequences
+	 *
+	 * @param a
+	 * 			The first sequence
+	 * @param b
+	 * 			The second sequence
+	 * @return
+	 * 			The score
+	 */
+	public int score(ResidueSource a, ResidueSource b) {
+
+		ScoringScheme scheme = getScoring(a);
+		return score(createProfile(a, scheme), encode(b, scheme));
+	}
+
+	/**
+	 * Aligns two sequences
+	 *
+	 * @param a
+	 * 			The first sequence
+	 * @param b
+	 * 			The second sequence
+	 * @return
+	 * 			The alignment
+	 */
+	public AlignmentPath align(ResidueSource a, ResidueSource b) {
+
+		ScoringScheme scheme = getScoring(a);
+		return align(encode(a, scheme), encode(b, scheme), scheme);
+	}
+
+	/**
+	 * Aligns two sequences and annotates them with the alignment
+	 *
+	 * @param model
+	 * 			The model of the sequences
+	 * @param a
+	 * 			The first sequence
+	 * @param b
+	 * 			The second sequence
+	 * @return
+	 * 			The annotation, added to both sequences
+	 */
+	public Alignment annotate(Model model, Sequence a, Sequence b) {
+		return annotate(model, a.getView(), b.getView());
+	}
+
+	/**
+	 * Aligns views of sequences, such as a minus strand, and annotates
+	 * their sequences with the alignment
+	 *
+	 * @param model
+	 * 			The model of the sequences
+	 * @param a
+	 * 			View of the first sequence
+	 * @param b
+	 * 			View of the second sequence
+	 * @return
+	 * 			The annotation, added to both sequences
+	 */
+	public Alignment annotate(Model model, SequenceView a, SequenceView b) {
+
+		AlignmentPath path = align(a, b);
+		Sequence first = a.getParent();
+		Sequence second = b.getParent();
+
+		model.beginBatch();
+		try {
+			Alignment alignment = new Alignment(path, first, second);
+			int ia = path.getStartA();
+			int ib = path.getStartB();
+			for (int run = 0; run < path.getRunCount(); run++) {
+
+				int length = path.getRunLength(run);
+				AlignmentPath.Operation op = path.getOperation(run);
+				if (op == AlignmentPath.Operation.MATCH) {
+
+					Link link = new Link(model);
+					Segment onA = new Segment(model);
+					a.addRange(onA, 2 * ia + 1, 2 * (ia + length) - 1);
+					Segment onB = new Segment(model);
+					b.addRange(onB, 2 * ib + 1, 2 * (ib + length) - 1);
+					link.addTopology(onA);
+					link.addTopology(onB);
+					alignment.setTopology(link);
+				}
+				if (op != AlignmentPath.Operation.INSERTION) {
+					ia += length;
+				}
+				if (op != AlignmentPath.Operation.DELETION) {
+					ib += length;
+				}
+			}
+
+			first.addAnnotation(alignment);
+			if (second != first) {
+				second.addAnnotation(alignment);
+			}
+			return alignment;
+		} finally {
+			model.endBatch();
+		}
+	}
+
+	/**
+	 * Gets the scoring used for a sequence
+	 *
+	 * @param a
+	 * 			The first sequence
+	 * @return
+	 * 			The scoring
+	 */
+	ScoringScheme getScoring(ResidueSource a) {
+		return scoring != null ? scoring :
+			ScoringScheme.forType(a.getSequenceType());
+	}
+
+	/**
+	 * Encodes the residues of a sequence
+	 *
+	 * @param source
+	 * 			The sequence
+	 * @param scheme
+	 * 			The scoring
+	 * @return
+	 * 			The residues, as alphabet indexes
+	 */
+	static byte[] encode(ResidueSource source, ScoringScheme scheme) {
+
+		sequences.ResidueStore store = source.getResidueStore();
+		return scheme.encode(store, 0, store.length());
+	}
+
+	/**
+	 * Makes the profile of a sequence to score it against others
+	 *
+	 * @param query
+	 * 			The sequence
+	 * @param scheme
+	 * 			The scoring
+	 * @return
+	 * 			The profile
+	 */
+	static StripedProfile createProfile(ResidueSource query,
+			ScoringScheme scheme) {
+		return new StripedProfile(encode(query, scheme), scheme);
+	}
+
+	/**
+	 * Scores the best alignment of a profiled sequence to another
+	 *
+	 * @param query
+	 * 			The profile of the first sequence
+	 * @param target
+	 * 			The second sequence, as alphabet indexes
+	 * @return
+	 * 			The score
+	 */
+	int score(StripedProfile query, byte[] target) {
+
+		byte[] a = query.getQuery();
+		if (band >= 0 && a.length > 0 && target.length > 0) {
+			return Traceback.banded(a, target, query.getScoring(),
+					getLowDiagonal(a.length, target.length),
+					getHighDiagonal(a.length, target.length),
+					mode == Mode.GLOBAL, mode == Mode.LOCAL, getEndRule(),
+					null)[0];
+		}
+		return query.align(target, mode == Mode.GLOBAL, mode == Mode.LOCAL,
+				getEndRule())[0];
+	}
+
+	/**
+	 * Aligns two sequences
+	 *
+	 * @param a
+	 * 			The first sequence, as alphabet indexes
+	 * @param b
+	 * 			The second sequence, as alphabet indexes
+	 * @param scheme
+	 * 			The scoring
+	 * @return
+	 * 			The alignment
+	 */
+	AlignmentPath align(byte[] a, byte[] b, ScoringScheme scheme) {
+
+		int m = a.length;
+		int n = b.length;
+		AlignmentPath.Builder path = new AlignmentPath.Builder();
+		if (m == 0 || n == 0) {
+
+			if (mode != Mode.GLOBAL) {
+				return path.build(0, 0, 0);
+			}
+			path.add(AlignmentPath.Operation.DELETION, m);
+			path.add(AlignmentPath.Operation.INSERTION, n);
+			return path.build(-scheme.getGapCost(m + n), 0, 0);
+		}
+
+		if (band >= 0) {
+
+			int[] found = Traceback.banded(a, b, scheme, getLowDiagonal(m, n),
+					getHighDiagonal(m, n), mode == Mode.GLOBAL,
+					mode == Mode.LOCAL, getEndRule(), path);
+			if (mode == Mode.LOCAL && found[0] == 0) {
+				return new AlignmentPath.Builder().build(0, 0, 0);
+			}
+			return path.build(found[0], found[1], found[3]);
+		}
+
+		if (mode == Mode.GLOBAL) {
+			int score = Traceback.linear(a, 0, m, b, 0, n, scheme, path);
+			return path.build(score, 0, 0);
+		}
+
+		//Where the alignment ends, then where it starts
+		int[] end = new StripedProfile(a, scheme).align(b, false,
+				mode == Mode.LOCAL, getEndRule());
+		if (mode == Mode.LOCAL && end[0] == 0) {
+			return path.build(0, 0, 0);
+		}
+		int endA = end[1] + 1;
+		int endB = end[2] + 1;
+		int[] start = new StripedProfile(reverse(a, endA), scheme).align(
+				reverse(b, endB), true, false, getEndRule());
+		int startA = endA - 1 - start[1];
+		int startB = endB - 1 - start[2];
+		if (mode == Mode.SEMI_GLOBAL) {
+
+			//Starts on row or column 0 with a gap, beyond the reverse pass
+			int best = start[0];
+			if (-scheme.getGapCost(endB) > best) {
+
+				best = -scheme.getGapCost(endB);
+				startA = endA;
+				startB = 0;
+			}
+			if (-scheme.getGapCost(endA) > best) {
+
+				startA = 0;
+				startB = endB;
+			}
+		}
+
+		int score = Traceback.linear(a, startA, endA, b, startB, endB, scheme,
+				path);
+		return path.build(score, startA, startB);
+	}
+
+	/**
+	 * Gets where alignments may end
+	 *
+	 * @return
+	 * 			One of the <code>END_</code> constants of
+	 * 			<code>StripedProfile</code>
+	 */
+	private int getEndRule() {
+
+		switch (mode) {
+		case LOCAL:
+			return StripedProfile.END_ANY;
+		case SEMI_GLOBAL:
+			return StripedProfile.END_EDGE;
+		default:
+			return StripedProfile.END_CORNER;
+		}
+	}
+
+	/**
+	 * Gets the lowest diagonal of the band
+	 *
+	 * @param m
+	 * 			Residues of the first sequence
+	 * @param n
+	 * 			Residues of the second sequence
+	 * @return
+	 * 			The diagonal
+	 */
+	private int getLowDiagonal(int m, int n) {
+		return Math.max(Math.min(0, n - m) - band, -m);
+	}
+
+	/**
+	 * Gets the highest diagonal of the band
+	 *
+	 * @param m
+	 * 			Residues of the first sequence
+	 * @param n
+	 * 			Residues of the second sequence
+	 * @return
+	 * 			The diagonal
+	 */
+	private int getHighDiagonal(int m, int n) {
+		return Math.min(Math.max(0, n - m) + band, n);
+	}
+
+	/**
+	 * Reverses the start of a sequence
+	 *
+	 * @param codes
+	 * 			The sequence
+	 * @param length
+	 * 			Residues to reverse
+	 * @return
+	 * 			The residues backwards
+	 */
+	private static byte[] reverse(byte[] codes, int length) {
+
+		byte[] reversed = new byte[length];
+		for (int i = 0; i < length; i++) {
+			reversed[i] = codes[length - 1 - i];
+		}
+		return reversed;
+	}
+}
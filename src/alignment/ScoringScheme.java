@@ -0,0 +1,291 @@
+
+package alignment;
+
+import java.util.Arrays;
+
+import sequences.Sequence;
+
+/**
+ * ScoringScheme holds how alignments are scored: a substitution score
+ * for each pair of residues and the cost of gaps.
+ *
+ * The residues are those of an alphabet. Residues outside it are
+ * scored as its last residue, which is the wildcard (N or X). A gap of
+ * <code>k</code> residues costs <code>gapOpen + k * gapExtend</code>.
+ */
+public class ScoringScheme {
+
+	/** BLOSUM62 with the NCBI default gap costs */
+	public static final ScoringScheme BLOSUM62 = new ScoringScheme("BLOSUM62",
+			"ARNDCQEGHILKMFPSTWYVBZ*X", new int[] {
+		 4, -1, -2, -2,  0, -1, -1,  0, -2, -1, -1, -1, -1, -2, -1,  1,  0, -3, -2,  0, -2, -1, -4,  0,
+		-1,  5,  0, -2, -3,  1,  0, -2,  0, -3, -2,  2, -1, -3, -2, -1, -1, -3, -2, -3, -1,  0, -4, -1,
+		-2,  0,  6,  1, -3,  0,  0,  0,  1, -3, -3,  0, -2, -3, -2,  1,  0, -4, -2, -3,  3,  0, -4, -1,
+		-2, -2,  1,  6, -3,  0,  2, -1, -1, -3, -4, -1, -3, -3, -1,  0, -1, -4, -3, -3,  4,  1, -4, -1,
+		 0, -3, -3, -3,  9, -3, -4, -3, -3, -1, -1, -3, -1, -2, -3, -1, -1, -2, -2, -1, -3, -3, -4, -2,
+		-1,  1,  0,  0, -3,  5,  2, -2,  0, -3, -2,  1,  0, -3, -1,  0, -1, -2, -1, -2,  0,  3, -4, -1,
+		-1,  0,  0,  2, -4,  2,  5, -2,  0, -3, -3,  1, -2, -3, -1,  0, -1, -3, -2, -2,  1,  4, -4, -1,
+		 0, -2,  0, -1, -3, -2, -2,  6, -2, -4, -4, -2, -3, -3, -2,  0, -2, -2, -3, -3, -1, -2, -4, -1,
+		-2,  0,  1, -1, -3,  0,  0, -2,  8, -3, -3, -1, -2, -1, -2, -1, -2, -2,  2, -3,  0,  0, -4, -1,
+		-1, -3, -3, -3, -1, -3, -3, -4, -3,  4,  2, -3,  1,  0, -3, -2, -1, -3, -1,  3, -3, -3, -4, -1,
+		-1, -2, -3, -4, -1, -2, -3, -4, -3,  2,  4, -2,  2,  0, -3, -2, -1, -2, -1,  1, -4, -3, -4, -1,
+		-1,  2,  0, -1, -3,  1,  1, -2, -1, -3, -2,  5, -1, -3, -1,  0, -1, -3, -2, -2,  0,  1, -4, -1,
+		-1, -1, -2, -3, -1,  0, -2, -3, -2,  1,  2, -1,  5,  0, -2, -1, -1, -1, -1,  1, -3, -1, -4, -1,
+		-2, -3, -3, -3, -2, -3, -3, -3, -1,  0,  0, -3,  0,  6, -4, -2, -2,  1,  3, -1, -3, -3, -4, -1,
+		-1, -2, -2, -1, -3, -1, -1, -2, -2, -3, -3, -1, -2, -4,  7, -1, -1, -4, -3, -2, -2, -1, -4, -2,
+		 1, -1,  1,  0, -1,  0,  0,  0, -1, -2, -2,  0, -1, -2, -1,  4,  1, -3, -2, -2,  0,  0, -4,  0,
+		 0, -1,  0, -1, -1, -1, -1, -2, -2, -1, -1, -1, -1, -2, -1,  1,  5, -2, -2,  0, -1, -1, -4,  0,
+		-3, -3, -4, -4, -2, -2, -3, -2, -2, -3, -2, -3, -1,  1, -4, -3, -2, 11,  2, -3, -4, -3, -4, -2,
+		-2, -2, -2, -3, -2, -1, -2, -3,  2, -1, -1, -2, -1,  3, -3, -2, -2,  2,  7, -1, -3, -2, -4, -1,
+		 0, -3, -3, -3, -1, -2, -2, -3, -3,  3,  1, -2,  1, -1, -2, -2,  0, -3, -1,  4, -3, -2, -4, -1,
+		-2, -1,  3,  4, -3,  0,  1, -1,  0, -3, -4,  0, -3, -3, -2,  0, -1, -4, -3, -3,  4,  1, -4, -1,
+		-1,  0,  0,  1, -3,  3,  4, -2,  0, -3, -3,  1, -1, -3, -1,  0, -1, -3, -2, -2,  1,  4, -4, -1,
+		-4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4, -4,  1, -4,
+		 0, -1, -1, -1, -2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -2,  0,  0, -2, -1, -1, -1, -1, -4, -1
+	}, 11, 1);
+
+	/** Nucleotide scores with the NCBI blastn default costs */
+	public static final ScoringScheme NUCLEOTIDE = nucleotide(2, -3, 5, 2);
+
+	/** Name of the scheme */
+	private final String name;
+
+	/** The alphabet, wildcard last */
+	private final String alphabet;
+
+	/** Alphabet index by character */
+	private final byte[] indexes = new byte[128];
+
+	/** Scores, row by row */
+	private final int[] scores;
+
+	/** Cost of opening a gap */
+	private final int gapOpen;
+
+	/** Cost of each residue of a gap */
+	private final int gapExtend;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name
+	 * 			Name of the scheme
+	 * @param alphabet
+	 * 			The residues in upper case, the wildcard last
+	 * @param scores
+	 * 			Score of each pair, row by row in alphabet order
+	 * @param gapOpen
+	 * 			Cost of opening a gap, not negative
+	 * @param gapExtend
+	 * 			Cost of each residue of a gap, positive
+	 */
+	public ScoringScheme(String name, String alphabet, int[] scores,
+			int gapOpen, int gapExtend) {
+
+		int size = alphabet.length();
+		if (size == 0 || scores.length != size * size) {
+			throw new IllegalArgumentException(
+					"Scores must be given for every pair of residues");
+		} else if (gapOpen < 0 || gapExtend <= 0) {
+			throw new IllegalArgumentException("Invalid gap costs " + gapOpen +
+					", " + gapExtend);
+		}
+		this.name = name;
+		this.alphabet = alphabet;
+		this.scores = scores.clone();
+		this.gapOpen = gapOpen;
+		this.gapExtend = gapExtend;
+
+		Arrays.fill(indexes, (byte) (size - 1));
+		for (int i = 0; i < size; i++) {
+			char c = alphabet.charAt(i);
+			indexes[Character.toUpperCase(c)] = (byte) i;
+			indexes[Character.toLowerCase(c)] = (byte) i;
+		}
+	}
+
+	/**
+	 * Makes a nucleotide scheme, U counting as T and anything that is
+	 * not A, C, G or T as N, which scores -1 against everything
+	 *
+	 * @param match
+	 * 			Score of equal nucleotides
+	 * @param mismatch
+	 * 			Score of different nucleotides
+	 * @param gapOpen
+	 * 			Cost of opening a gap
+	 * @param gapExtend
+	 * 			Cost of each residue of a gap
+	 * @return
+	 * 			The scheme
+	 */
+	public static ScoringScheme nucleotide(int match, int mismatch,
+			int gapOpen, int gapExtend) {
+
+		int[] scores = new int[25];
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 5; j++) {
+				scores[i * 5 + j] = i == 4 || j == 4 ? -1 :
+					i == j ? match : mismatch;
+			}
+		}
+		ScoringScheme scheme = new ScoringScheme("Nucleotide " + match + "/" +
+				mismatch, "ACGTN", scores, gapOpen, gapExtend);
+		scheme.indexes['U'] = scheme.indexes['T'];
+		scheme.indexes['u'] = scheme.indexes['T'];
+		return scheme;
+	}
+
+	/**
+	 * Gets the default scheme of a type of sequence
+	 *
+	 * @param type
+	 * 			The type
+	 * @return
+	 * 			<code>BLOSUM62</code> for amino acids, otherwise
+	 * 			<code>NUCLEOTIDE</code>
+	 */
+	public static ScoringScheme forType(Sequence.SequenceType type) {
+
+		if (type.equals(Sequence.SequenceType.TYPE_AMINOACID)) {
+			return BLOSUM62;
+		}
+		return NUCLEOTIDE;
+	}
+
+	/**
+	 * Gets a copy with other gap costs
+	 *
+	 * @param gapOpen
+	 * 			Cost of opening a gap
+	 * @param gapExtend
+	 * 			Cost of each residue of a gap
+	 * @return
+	 * 			The scheme
+	 */
+	public ScoringScheme withGaps(int gapOpen, int gapExtend) {
+
+		ScoringScheme scheme = new ScoringScheme(name, alphabet, scores,
+				gapOpen, gapExtend);
+		System.arraycopy(indexes, 0, scheme.indexes, 0, indexes.length);
+		return scheme;
+	}
+
+	/**
+	 * Gets the name
+	 *
+	 * @return
+	 * 			The name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the cost of opening a gap
+	 *
+	 * @return
+	 * 			The cost
+	 */
+	public int getGapOpen() {
+		return gapOpen;
+	}
+
+	/**
+	 * Gets the cost of each residue of a gap
+	 *
+	 * @return
+	 * 			The cost
+	 */
+	public int getGapExtend() {
+		return gapExtend;
+	}
+
+	/**
+	 * Gets the cost of a gap
+	 *
+	 * @param length
+	 * 			Residues in the gap
+	 * @return
+	 * 			The cost, 0 for no gap
+	 */
+	public int getGapCost(int length) {
+		return length == 0 ? 0 : gapOpen + length * gapExtend;
+	}
+
+	/**
+	 * Gets the score of two residues
+	 *
+	 * @param a
+	 * 			A residue
+	 * @param b
+	 * 			Another residue
+	 * @return
+	 * 			The score
+	 */
+	public int score(char a, char b) {
+		return scores[index(a) * alphabet.length() + index(b)];
+	}
+
+	/**
+	 * Gets the number of residues of the alphabet
+	 *
+	 * @return
+	 * 			The size
+	 */
+	int getAlphabetSize() {
+		return alphabet.length();
+	}
+
+	/**
+	 * Gets the score of two residues by alphabet index
+	 *
+	 * @param a
+	 * 			Index of a residue
+	 * @param b
+	 * 			Index of another residue
+	 * @return
+	 * 			The score
+	 */
+	int score(int a, int b) {
+		return scores[a * alphabet.length() + b];
+	}
+
+	/**
+	 * Gets the alphabet index of a residue
+	 *
+	 * @param c
+	 * 			The residue
+	 * @return
+	 * 			The index
+	 */
+	int index(char c) {
+		return c < indexes.length ? indexes[c] : alphabet.length() - 1;
+	}
+
+	/**
+	 * Gets the alphabet indexes of residues
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param from
+	 * 			First index (inclusive)
+	 * @param to
+	 * 			Last index (exclusive)
+	 * @return
+	 * 			The alphabet indexes
+	 */
+	byte[] encode(sequences.ResidueStore residues, int from, int to) {
+
+		byte[] codes = new byte[to - from];
+		for (int i = from; i < to; i++) {
+			codes[i - from] = (byte) index(residues.charAt(i));
+		}
+		return codes;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,331 @@
+
+package alignment;
+
+import java.util.Arrays;
+
+/**
+ * StripedProfile scores one sequence, the query, against others with
+ * Farrar's striped dynamic programming.
+ *
+ * The query is laid out in <code>LANES</code> lanes: lane <code>k</code>
+ * holds the query rows <code>k * segLength</code> up to
+ * <code>(k + 1) * segLength</code>, and segment <code>s</code> holds row
+ * <code>s</code> of every lane next to each other. The rows of a segment
+ * do not depend on each other, so each column of the matrix is filled
+ * segment by segment with simple loops over the lanes that the JIT
+ * compiles to vector instructions. Gaps running down from one lane into
+ * the next are added afterwards, in one sweep that usually stops after
+ * a segment or two ("lazy F").
+ *
+ * The profile holds the score of every query residue against every
+ * residue of the alphabet in that layout, so it is made once per query
+ * and reused for every sequence it is compared to. It can be used by
+ * several threads at once.
+ *
+ * Only scores and the cells where alignments end are computed, in
+ * memory linear in the length of the query.
+ */
+final class StripedProfile {
+
+	/** Rows computed together */
+	static final int LANES = 16;
+
+	/** Score of cells that can not be part of an alignment */
+	static final int NEG = -(1 << 28);
+
+	/** End rule: the alignment ends in the last cell */
+	static final int END_CORNER = 0;
+
+	/** End rule: the alignment may end in any cell */
+	static final int END_ANY = 1;
+
+	/** End rule: the alignment ends in the last row or last column */
+	static final int END_EDGE = 2;
+
+	/** The query, as alphabet indexes */
+	private final byte[] query;
+
+	/** The scoring */
+	private final ScoringScheme scoring;
+
+	/** Rows per lane */
+	private final int segLength;
+
+	/** Striped scores for each residue of the alphabet */
+	private final int[][] profile;
+
+	/**
+	 * Constructor
+	 *
+	 * @param query
+	 * 			The query, as alphabet indexes of the scheme
+	 * @param scoring
+	 * 			The scoring
+	 */
+	StripedProfile(byte[] query, ScoringScheme scoring) {
+
+		this.query = query;
+		this.scoring = scoring;
+		segLength = Math.max(1, (query.length + LANES - 1) / LANES);
+
+		int size = scoring.getAlphabetSize();
+		profile = new int[size][segLength * LANES];
+		for (int r = 0; r < size; r++) {
+
+			int[] row = profile[r];
+			for (int s = 0; s < segLength; s++) {
+				for (int k = 0; k < LANES; k++) {
+
+					int i = k * segLength + s;
+					row[s * LANES + k] = i < query.length ?
+						scoring.score(query[i], r) : NEG;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the query
+	 *
+	 * @return
+	 * 			The query, as alphabet indexes
+	 */
+	byte[] getQuery() {
+		return query;
+	}
+
+	/**
+	 * Gets the scoring
+	 *
+	 * @return
+	 * 			The scoring
+	 */
+	ScoringScheme getScoring() {
+		return scoring;
+	}
+
+	/**
+	 * Scores the best alignment of the query to a target.
+	 *
+	 * Row <code>i</code> is query residue <code>i</code>, column
+	 * <code>j</code> target residue <code>j</code>. With a penalised
+	 * start, the alignment starts in the first cell and residues left
+	 * out before it are gaps; otherwise it may start anywhere for free.
+	 *
+	 * @param target
+	 * 			The target, as alphabet indexes of the scheme
+	 * @param penalisedStart
+	 * 			If leading gaps cost
+	 * @param floorZero
+	 * 			If scores never go below zero (local alignment)
+	 * @param endRule
+	 * 			Where the alignment may end, one of the <code>END_</code>
+	 * 			constants
+	 * @return
+	 * 			The score, the row and the column of the cell where the
+	 * 			alignment ends; the cell is -1, -1 if the query or target
+	 * 			is empty
+	 */
+	int[] align(byte[] target, boolean penalisedStart, boolean floorZero,
+			int endRule) {
+
+		int m = query.length;
+		int n = target.length;
+		if (m == 0 || n == 0) {
+			int gap = penalisedStart && endRule == END_CORNER ?
+				-scoring.getGapCost(m + n) : 0;
+			return new int[] {gap, -1, -1};
+		}
+
+		int open = scoring.getGapOpen();
+		int ext = scoring.getGapExtend();
+		int gapOpen = open + ext;
+		int gapExt = ext;
+		int floor = floorZero ? 0 : NEG;
+		int size = segLength * LANES;
+
+		int[] hLoad = new int[size];
+		int[] hStore = new int[size];
+		int[] vE = new int[size];
+		int[] vH = new int[LANES];
+		int[] vF = new int[LANES];
+		int[] vMax = new int[LANES];
+		int[] carry = new int[LANES];
+
+		//Column -1: the query against nothing
+		for (int s = 0; s < segLength; s++) {
+			for (int k = 0; k < LANES; k++) {
+
+				int i = k * segLength + s;
+				int h = i >= m ? NEG : penalisedStart ? -(open + (i + 1) * ext) : 0;
+				hLoad[s * LANES + k] = h;
+				vE[s * LANES + k] = h == NEG ? NEG : h - gapOpen;
+			}
+		}
+
+		int lastRow = ((m - 1) % segLength) * LANES + (m - 1) / segLength;
+		int best = NEG;
+		int bestI = -1;
+		int bestJ = -1;
+
+		for (int j = 0; j < n; j++) {
+
+			int[] prof = profile[target[j]];
+			int diag = !penalisedStart ? 0 : j == 0 ? 0 : -(open + j * ext);
+			int top = penalisedStart ? -(open + (j + 1) * ext) : 0;
+
+			//Diagonals of the first segment come from the last one
+			int last = (segLength - 1) * LANES;
+			vH[0] = diag;
+			for (int k = 1; k < LANES; k++) {
+				vH[k] = hLoad[last + k - 1];
+			}
+			Arrays.fill(vF, NEG);
+			vF[0] = top - gapOpen;
+			Arrays.fill(vMax, NEG);
+
+			for (int s = 0; s < segLength; s++) {
+
+				int base = s * LANES;
+				for (int k = 0; k < LANES; k++) {
+
+					int e = vE[base + k];
+					int f = vF[k];
+					int h = Math.max(vH[k] + prof[base + k], Math.max(e, f));
+					h = Math.max(h, floor);
+					vH[k] = hLoad[base + k];
+					hStore[base + k] = h;
+					vMax[k] = Math.max(vMax[k], h);
+					int o = h - gapOpen;
+					vE[base + k] = Math.max(e - gapExt, o);
+					vF[k] = Math.max(f - gapExt, o);
+				}
+			}
+
+			lazyF(hStore, vE, vF, carry, gapOpen, gapExt);
+
+			if (endRule == END_ANY) {
+
+				int colMax = NEG;
+				for (int k = 0; k < LANES; k++) {
+					colMax = Math.max(colMax, vMax[k]);
+				}
+				if (colMax > best) {
+					best = colMax;
+					bestJ = j;
+					bestI = findRow(hStore, best);
+				}
+			} else if (endRule == END_EDGE && hStore[lastRow] > best) {
+				best = hStore[lastRow];
+				bestI = m - 1;
+				bestJ = j;
+			}
+
+			int[] swap = hLoad;
+			hLoad = hStore;
+			hStore = swap;
+		}
+
+		if (endRule == END_CORNER) {
+			return new int[] {hLoad[lastRow], m - 1, n - 1};
+		} else if (endRule == END_EDGE) {
+
+			//The last column
+			for (int i = 0; i < m; i++) {
+
+				int h = hLoad[(i % segLength) * LANES + i / segLength];
+				if (h > best) {
+					best = h;
+					bestI = i;
+					bestJ = n - 1;
+				}
+			}
+		}
+		return new int[] {best, bestI, bestJ};
+	}
+
+	/**
+	 * Adds gaps running down from one lane into the next to a column.
+	 *
+	 * Raising a cell to the gap running into it never makes a longer
+	 * gap out of it, so a gap into a lane leaves it no more than
+	 * <code>segLength</code> extensions weaker. What runs into each lane
+	 * is therefore known from the lanes before, and a single sweep down
+	 * the segments adds it, stopping once no lane gains from it.
+	 *
+	 * @param hStore
+	 * 			Scores of the column
+	 * @param vE
+	 * 			Scores of horizontal gaps into the next column
+	 * @param vF
+	 * 			Vertical gaps out of the last row of each lane
+	 * @param carry
+	 * 			Room for the gaps into each lane
+	 * @param gapOpen
+	 * 			Cost of a gap of one
+	 * @param gapExt
+	 * 			Cost of each further residue of a gap
+	 */
+	private void lazyF(int[] hStore, int[] vE, int[] vF, int[] carry,
+			int gapOpen, int gapExt) {
+
+		int span = segLength * gapExt;
+		int in = NEG;
+		boolean any = false;
+		for (int k = 0; k < LANES; k++) {
+			carry[k] = in;
+			any |= in > NEG;
+			in = Math.max(vF[k], Math.max(in - span, NEG));
+		}
+		if (!any) {
+			return;
+		}
+
+		for (int s = 0; s < segLength; s++) {
+
+			int base = s * LANES;
+			boolean alive = false;
+			for (int k = 0; k < LANES; k++) {
+
+				int f = carry[k];
+				if (f == NEG) {
+					continue;
+				}
+				int h = hStore[base + k];
+				if (f > h) {
+					hStore[base + k] = f;
+					vE[base + k] = Math.max(vE[base + k], f - gapOpen);
+				}
+				if (f - gapExt > h - gapOpen) {
+					carry[k] = f - gapExt;
+					alive = true;
+				} else {
+					carry[k] = NEG;
+				}
+			}
+			if (!alive) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Finds the first query row of a column holding a score
+	 *
+	 * @param column
+	 * 			Scores of the column
+	 * @param score
+	 * 			The score
+	 * @return
+	 * 			The row
+	 */
+	private int findRow(int[] column, int score) {
+
+		for (int i = 0; i < query.length; i++) {
+			if (column[(i % segLength) * LANES + i / segLength] == score) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,505 @@
+
+package alignment;
+
+/**
+ * Traceback finds the operations of optimal alignments.
+ *
+ * Without a band it uses the divide and conquer of Myers and Miller,
+ * which aligns globally in memory linear in the length of the second
+ * sequence and about twice the time of scoring alone: the middle row of
+ * the first sequence is scored from both ends, the cell (and kind of
+ * cell, as gaps may cross the row) where the best alignment crosses it
+ * splits the problem in two, and so on down to single rows.
+ *
+ * With a band, all cells within the band are scored keeping two bits
+ * of history each, and the alignment is read backwards from them.
+ *
+ * Internally costs are minimised (the negated scores), following the
+ * presentation of Myers and Miller.
+ */
+final class Traceback {
+
+	/** History: the cell came from the diagonal */
+	private static final int FROM_DIAGONAL = 0;
+
+	/** History: the cell ends a horizontal gap */
+	private static final int FROM_E = 1;
+
+	/** History: the cell ends a vertical gap */
+	private static final int FROM_F = 2;
+
+	/** History: a local alignment starts after the cell */
+	private static final int FROM_START = 3;
+
+	/** History: the horizontal gap into the cell extends another */
+	private static final int E_EXTENDS = 4;
+
+	/** History: the vertical gap into the cell extends another */
+	private static final int F_EXTENDS = 8;
+
+	/** The first sequence */
+	private final byte[] a;
+
+	/** The second sequence */
+	private final byte[] b;
+
+	/** The scoring */
+	private final ScoringScheme scoring;
+
+	/** Cost of opening a gap */
+	private final int g;
+
+	/** Cost of each residue of a gap */
+	private final int h;
+
+	/** Costs of the forward half */
+	private final int[] cc;
+
+	/** Costs of the forward half ending in a vertical gap */
+	private final int[] dd;
+
+	/** Costs of the reverse half */
+	private final int[] rr;
+
+	/** Costs of the reverse half starting with a vertical gap */
+	private final int[] ss;
+
+	/** Where the operations go */
+	private final AlignmentPath.Builder out;
+
+	/**
+	 * Constructor
+	 *
+	 * @param a
+	 * 			The first sequence
+	 * @param b
+	 * 			The second sequence
+	 * @param columns
+	 * 			Most residues of the second sequence aligned at once
+	 * @param scoring
+	 * 			The scoring
+	 * @param out
+	 * 			Where the operations go
+	 */
+	private Traceback(byte[] a, byte[] b, int columns, ScoringScheme scoring,
+			AlignmentPath.Builder out) {
+
+		this.a = a;
+		this.b = b;
+		this.scoring = scoring;
+		this.out = out;
+		g = scoring.getGapOpen();
+		h = scoring.getGapExtend();
+		cc = new int[columns + 1];
+		dd = new int[columns + 1];
+		rr = new int[columns + 1];
+		ss = new int[columns + 1];
+	}
+
+	/**
+	 * Aligns parts of two sequences globally in linear memory
+	 *
+	 * @param a
+	 * 			The first sequence, as alphabet indexes
+	 * @param aFrom
+	 * 			First residue of the part of the first sequence
+	 * @param aTo
+	 * 			Residue after the part of the first sequence
+	 * @param b
+	 * 			The second sequence, as alphabet indexes
+	 * @param bFrom
+	 * 			First residue of the part of the second sequence
+	 * @param bTo
+	 * 			Residue after the part of the second sequence
+	 * @param scoring
+	 * 			The scoring
+	 * @param out
+	 * 			Where the operations go
+	 * @return
+	 * 			The score
+	 */
+	static int linear(byte[] a, int aFrom, int aTo, byte[] b, int bFrom,
+			int bTo, ScoringScheme scoring, AlignmentPath.Builder out) {
+
+		Traceback tb = new Traceback(a, b, bTo - bFrom, scoring, out);
+		return -tb.diff(aFrom, bFrom, aTo - aFrom, bTo - bFrom, tb.g, tb.g);
+	}
+
+	/**
+	 * Aligns two sequences within a band of diagonals
+	 *
+	 * @param a
+	 * 			The first sequence, as alphabet indexes, not empty
+	 * @param b
+	 * 			The second sequence, as alphabet indexes, not empty
+	 * @param scoring
+	 * 			The scoring
+	 * @param low
+	 * 			Lowest diagonal, residue of <code>b</code> less residue of
+	 * 			<code>a</code>
+	 * @param high
+	 * 			Highest diagonal
+	 * @param penalisedStart
+	 * 			If leading gaps cost
+	 * @param floorZero
+	 * 			If scores never go below zero (local alignment)
+	 * @param endRule
+	 * 			Where the alignment may end, one of the <code>END_</code>
+	 * 			constants of <code>StripedProfile</code>
+	 * @param out
+	 * 			Where the operations go, null to only score
+	 * @return
+	 * 			The score, the first residues aligned of <code>a</code>
+	 * 			and of <code>b</code> (only when traced) and the residues
+	 * 			after the last aligned of <code>a</code> and of
+	 * 			<code>b</code>
+	 */
+	static int[] banded(byte[] a, byte[] b, ScoringScheme scoring, int low,
+			int high, boolean penalisedStart, boolean floorZero, int endRule,
+			AlignmentPath.Builder out) {
+
+		final int neg = StripedProfile.NEG;
+		int m = a.length;
+		int n = b.length;
+		int open = scoring.getGapOpen();
+		int ext = scoring.getGapExtend();
+		int gapOpen = open + ext;
+		int width = high - low + 1;
+
+		byte[] history = null;
+		if (out != null) {
+			if ((long) m * width > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("The band is too wide");
+			}
+			history = new byte[m * width];
+		}
+
+		int[] hPrev = new int[n + 1];
+		int[] hCur = new int[n + 1];
+		int[] f = new int[n + 1];
+		for (int j = 0; j <= n; j++) {
+			hPrev[j] = j > high ? neg : !penalisedStart || j == 0 ? 0 :
+				-(open + j * ext);
+			f[j] = neg;
+		}
+
+		int best = neg;
+		int bestI = 0;
+		int bestJ = 0;
+
+		for (int i = 1; i <= m; i++) {
+
+			int from = Math.max(1, i + low);
+			int to = Math.min(n, i + high);
+			int boundary = -i < low ? neg : !penalisedStart ? 0 :
+				-(open + i * ext);
+			hCur[0] = boundary;
+			if (from > 1) {
+				hCur[from - 1] = neg;
+			}
+
+			int e = neg;
+			int row = (i - 1) * width - i - low;
+			int ai = a[i - 1];
+			for (int j = from; j <= to; j++) {
+
+				int t = FROM_DIAGONAL;
+				int diagonal = hPrev[j - 1] + scoring.score(ai, b[j - 1]);
+
+				int eOpen = hCur[j - 1] - gapOpen;
+				int eExtend = e - ext;
+				if (eExtend > eOpen) {
+					e = eExtend;
+					t |= E_EXTENDS;
+				} else {
+					e = eOpen;
+				}
+
+				int fOpen = hPrev[j] - gapOpen;
+				int fExtend = f[j] - ext;
+				int fv;
+				if (fExtend > fOpen) {
+					fv = fExtend;
+					t |= F_EXTENDS;
+				} else {
+					fv = fOpen;
+				}
+				f[j] = fv;
+
+				int hv = diagonal;
+				if (e > hv) {
+					hv = e;
+					t |= FROM_E;
+				}
+				if (fv > hv) {
+					hv = fv;
+					t = (t & ~3) | FROM_F;
+				}
+				if (floorZero && hv <= 0) {
+					hv = 0;
+					t |= FROM_START;
+				}
+				hCur[j] = hv;
+				if (history != null) {
+					history[row + j] = (byte) t;
+				}
+
+				if (endRule == StripedProfile.END_ANY && hv > best) {
+					best = hv;
+					bestI = i;
+					bestJ = j;
+				}
+			}
+			if (to < n) {
+				hCur[to + 1] = neg;
+				f[to + 1] = neg;
+			}
+
+			if (endRule == StripedProfile.END_EDGE) {
+				if (to == n && hCur[n] > best) {
+					best = hCur[n];
+					bestI = i;
+					bestJ = n;
+				}
+				if (i == m) {
+					for (int j = from; j <= to; j++) {
+						if (hCur[j] > best) {
+							best = hCur[j];
+							bestI = i;
+							bestJ = j;
+						}
+					}
+				}
+			}
+
+			int[] swap = hPrev;
+			hPrev = hCur;
+			hCur = swap;
+		}
+
+		if (endRule == StripedProfile.END_CORNER) {
+			best = hPrev[n];
+			bestI = m;
+			bestJ = n;
+		}
+		if (out == null) {
+			return new int[] {best, -1, bestI, -1, bestJ};
+		}
+
+		int i = bestI;
+		int j = bestJ;
+		int state = FROM_DIAGONAL;
+		while (i > 0 && j > 0) {
+
+			int t = history[(i - 1) * width + j - i - low];
+			if (state == FROM_DIAGONAL) {
+
+				int from = t & 3;
+				if (from == FROM_START) {
+					break;
+				} else if (from == FROM_DIAGONAL) {
+					out.add(AlignmentPath.Operation.MATCH, 1);
+					i--;
+					j--;
+				} else {
+					state = from;
+				}
+			} else if (state == FROM_E) {
+
+				out.add(AlignmentPath.Operation.INSERTION, 1);
+				j--;
+				if ((t & E_EXTENDS) == 0) {
+					state = FROM_DIAGONAL;
+				}
+			} else {
+
+				out.add(AlignmentPath.Operation.DELETION, 1);
+				i--;
+				if ((t & F_EXTENDS) == 0) {
+					state = FROM_DIAGONAL;
+				}
+			}
+		}
+		if (penalisedStart) {
+			out.add(AlignmentPath.Operation.DELETION, i);
+			out.add(AlignmentPath.Operation.INSERTION, j);
+			i = 0;
+			j = 0;
+		}
+		out.reverse();
+		return new int[] {best, i, bestI, j, bestJ};
+	}
+
+	/**
+	 * Gets the cost of a gap
+	 *
+	 * @param k
+	 * 			Residues in the gap
+	 * @return
+	 * 			The cost
+	 */
+	private int gap(int k) {
+		return k <= 0 ? 0 : g + h * k;
+	}
+
+	/**
+	 * Gets the cost of aligning two residues
+	 *
+	 * @param i
+	 * 			Residue of the first sequence
+	 * @param j
+	 * 			Residue of the second sequence
+	 * @return
+	 * 			The cost
+	 */
+	private int cost(int i, int j) {
+		return -scoring.score(a[i], b[j]);
+	}
+
+	/**
+	 * Aligns <code>M</code> residues of the first sequence from
+	 * <code>ai</code> to <code>N</code> residues of the second from
+	 * <code>bj</code>, adding the operations to the output
+	 *
+	 * @param ai
+	 * 			First residue of the first sequence
+	 * @param bj
+	 * 			First residue of the second sequence
+	 * @param M
+	 * 			Residues of the first sequence
+	 * @param N
+	 * 			Residues of the second sequence
+	 * @param tb
+	 * 			Cost of opening a vertical gap at the start, 0 if it
+	 * 			continues one before
+	 * @param te
+	 * 			Cost of opening a vertical gap at the end, 0 if it
+	 * 			continues one after
+	 * @return
+	 * 			The cost
+	 */
+	private int diff(int ai, int bj, int M, int N, int tb, int te) {
+
+		if (N <= 0) {
+			out.add(AlignmentPath.Operation.DELETION, M);
+			return M > 0 ? Math.min(tb, te) + h * M : 0;
+		} else if (M <= 0) {
+			out.add(AlignmentPath.Operation.INSERTION, N);
+			return gap(N);
+		} else if (M == 1) {
+
+			int midc = Math.min(tb, te) + h + gap(N);
+			int midj = 0;
+			for (int j = 1; j <= N; j++) {
+				int c = gap(j - 1) + cost(ai, bj + j - 1) + gap(N - j);
+				if (c < midc) {
+					midc = c;
+					midj = j;
+				}
+			}
+
+			if (midj == 0 && tb <= te) {
+				out.add(AlignmentPath.Operation.DELETION, 1);
+				out.add(AlignmentPath.Operation.INSERTION, N);
+			} else if (midj == 0) {
+				out.add(AlignmentPath.Operation.INSERTION, N);
+				out.add(AlignmentPath.Operation.DELETION, 1);
+			} else {
+				out.add(AlignmentPath.Operation.INSERTION, midj - 1);
+				out.add(AlignmentPath.Operation.MATCH, 1);
+				out.add(AlignmentPath.Operation.INSERTION, N - midj);
+			}
+			return midc;
+		}
+
+		int mid = M / 2;
+
+		//Forward: the first half of the rows
+		cc[0] = 0;
+		int t = g;
+		for (int j = 1; j <= N; j++) {
+			t += h;
+			cc[j] = t;
+			dd[j] = t + g;
+		}
+		t = tb;
+		for (int i = 1; i <= mid; i++) {
+
+			int s = cc[0];
+			t += h;
+			int c = t;
+			cc[0] = c;
+			int e = t + g;
+			int ri = ai + i - 1;
+			for (int j = 1; j <= N; j++) {
+
+				e = Math.min(e, c + g) + h;
+				int d = Math.min(dd[j], cc[j] + g) + h;
+				c = Math.min(Math.min(d, e), s + cost(ri, bj + j - 1));
+				s = cc[j];
+				cc[j] = c;
+				dd[j] = d;
+			}
+		}
+		dd[0] = cc[0];
+
+		//Reverse: the second half of the rows
+		rr[N] = 0;
+		t = g;
+		for (int j = N - 1; j >= 0; j--) {
+			t += h;
+			rr[j] = t;
+			ss[j] = t + g;
+		}
+		t = te;
+		for (int i = M - 1; i >= mid; i--) {
+
+			int s = rr[N];
+			t += h;
+			int c = t;
+			rr[N] = c;
+			int e = t + g;
+			int ri = ai + i;
+			for (int j = N - 1; j >= 0; j--) {
+
+				e = Math.min(e, c + g) + h;
+				int d = Math.min(ss[j], rr[j] + g) + h;
+				c = Math.min(Math.min(d, e), s + cost(ri, bj + j));
+				s = rr[j];
+				rr[j] = c;
+				ss[j] = d;
+			}
+		}
+		ss[N] = rr[N];
+
+		//Where the best alignment crosses the middle row
+		int midc = cc[0] + rr[0];
+		int midj = 0;
+		boolean throughGap = false;
+		for (int j = 0; j <= N; j++) {
+
+			int c = cc[j] + rr[j];
+			if (c < midc) {
+				midc = c;
+				midj = j;
+				throughGap = false;
+			}
+			c = dd[j] + ss[j] - g;
+			if (c < midc) {
+				midc = c;
+				midj = j;
+				throughGap = true;
+			}
+		}
+
+		if (throughGap) {
+			diff(ai, bj, mid - 1, midj, tb, 0);
+			out.add(AlignmentPath.Operation.DELETION, 2);
+			diff(ai + mid + 1, bj + midj, M - mid - 1, N - midj, 0, te);
+		} else {
+			diff(ai, bj, mid, midj, tb, g);
+			diff(ai + mid, bj + midj, M - mid, N - midj, g, te);
+		}
+		return midc;
+	}
+}
@@ -0,0 +1,183 @@
+
+package annotation;
+
+import java.util.*;
+
+import modelobject.ModelObject;
+import modelobject.PrototypeModelObject;
+import annotation.documentation.AnnotationDocumentation;
+import point.Point;
+import topologies.Topology;
+
+/**
+ * Feature is the general purpose annotation.
+ *
+ * It annotates any number of objects and holds, for each of them, the
+ * topologies that mark where on the object the feature is. Which object
+ * a topology belongs to is decided by the targets of its points.
+ */
+public class Feature implements Annotation {
+
+	/** The kind of feature (gene, CDS, primer and alike) */
+	private String type = "";
+
+	/** The topologies of each annotated object */
+	private LinkedHashMap<PrototypeModelObject, ArrayList<Topology>> topologies =
+		new LinkedHashMap<PrototypeModelObject, ArrayList<Topology>>(2);
+
+	/** Reference information */
+	private AnnotationDocumentation documentation =
+		new AnnotationDocumentation();
+
+	/**
+	 * Constructor
+	 *
+	 * @param obj
+	 * 			The object(s) to annotate
+	 */
+	public Feature(PrototypeModelObject... obj) {
+		setAnnotation(obj);
+	}
+
+	/**
+	 * Gets the kind of feature
+	 *
+	 * @return
+	 * 			The type
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * Sets the kind of feature
+	 *
+	 * @param type
+	 * 			The type
+	 */
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	@Override
+	public HashSet<PrototypeModelObject> getAnnotates() {
+		return new HashSet<PrototypeModelObject>(topologies.keySet());
+	}
+
+	@Override
+	public boolean isAllowedAnnotation(PrototypeModelObject obj) {
+		return obj != null;
+	}
+
+	@Override
+	public AnnotationDocumentation getDocumentation() {
+		return documentation;
+	}
+
+	@Override
+	public ArrayList<Topology> getTopologies(PrototypeModelObject obj) {
+
+		ArrayList<Topology> tops = topologies.get(obj);
+		if (tops == null) {
+			return new ArrayList<Topology>(0);
+		}
+		return new ArrayList<Topology>(tops);
+	}
+
+	@Override
+	public ArrayList<Topology> getAllTopologies() {
+
+		LinkedHashSet<Topology> all = new LinkedHashSet<Topology>();
+		for (ArrayList<Topology> tops: topologies.values()) {
+			all.addAll(tops);
+		}
+		return new ArrayList<Topology>(all);
+	}
+
+	@Override
+	public boolean setAnnotation(PrototypeModelObject... obj) {
+
+		boolean ret = true;
+		for (PrototypeModelObject o: obj) {
+
+			if (!isAllowedAnnotation(o)) {
+				ret = false;
+			} else if (!topologies.containsKey(o)) {
+				topologies.put(o, new ArrayList<Topology>(1));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds a topology to each annotated object that any of its points
+	 * (or its children's points) target.
+	 *
+	 * @param top
+	 * 			Topology to be add to the annoation
+	 * @return
+	 * 			If the topology targets an annotated object
+	 */
+	@Override
+	public boolean setTopology(Topology top) {
+
+		Set<ModelObject> targets = new HashSet<ModelObject>();
+		collectTargets(top, targets);
+
+		boolean ret = false;
+		for (ModelObject target: targets) {
+
+			ArrayList<Topology> tops = topologies.get(target);
+			if (tops != null) {
+				if (!tops.contains(top)) {
+					tops.add(top);
+					target.annotationsChanged();
+				}
+				target.pointsChanged();
+				ret = true;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Removes a topology from the feature
+	 *
+	 * @param top
+	 * 			The topology
+	 * @return
+	 * 			If the topology was part of the feature
+	 */
+	public boolean removeTopology(Topology top) {
+
+		boolean ret = false;
+		for (Map.Entry<PrototypeModelObject, ArrayList<Topology>> e:
+				topologies.entrySet()) {
+
+			if (e.getValue().remove(top)) {
+				e.getKey().annotationsChanged();
+				e.getKey().pointsChanged();
+				ret = true;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Collects the targets of a topology's points and its children's
+	 *
+	 * @param top
+	 * 			The topology
+	 * @param targets
+	 * 			Where to collect
+	 */
+	private static void collectTargets(Topology top, Set<ModelObject> targets) {
+
+		for (Iterator<Point> it = top.getPointIterator(); it.hasNext(); ) {
+			targets.add(it.next().getTarget());
+		}
+		for (Iterator<Topology> it = top.getChildIterator(); it.hasNext(); ) {
+			collectTargets(it.next(), targets);
+		}
+	}
+}
@@ -24,28 +24,3 @@ public class AnnotationDocumentation {
 	*/
 
 }
-
-class DocumentationField {
-
-	private boolean isSet = false;
-	private String data;
-
-	public void set(String s) {
-		data = s;
-		isSet = true;
-	}
-
-	public String get() {
-
-		if (isSet) {
-			return data;
-		} else {
-			return null;
-		}
-	}
-
-	public void unset() {
-		isSet = false;
-	}
-}
-
@@ -0,0 +1,26 @@
+package annotation.documentation;
+
+public class DocumentationField {
+
+	private boolean isSet = false;
+	private String data;
+
+	public void set(String s) {
+		data = s;
+		isSet = true;
+	}
+
+	public String get() {
+
+		if (isSet) {
+			return data;
+		} else {
+			return null;
+		}
+	}
+
+	public void unset() {
+		isSet = false;
+	}
+}
+
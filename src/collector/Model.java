@@ -1,16 +1,488 @@
 
+
 package collector;
 
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import point.Point;
 import topologies.Topology;
+import modelobject.IdentifierAllocator;
 import modelobject.ModelObject;
 
+/**
+ * Model collects the objects and topologies of a project and tells
+ * listeners about changes to them.
+ *
+ * Changes can be grouped into batches with <code>beginBatch()</code>
+ * and <code>endBatch()</code>. During a batch nothing is dispatched;
+ * when the outermost batch ends, listeners get one event per type of
+ * change that happened.
+ *
+ * Listeners are either invoked on the mutating thread or, if added as
+ * asynchronous, in order on a separate daemon thread of the model,
+ * which <code>close()</code> stops.
+ *
+ * The model, and so its batches, are changed from one thread at a
+ * time: loaders that parse on a pool still add what they read on the
+ * calling thread. Once snapshots are enabled, other threads can read
+ * it through <code>getSnapshot()</code> without locking: every change
+ * outside of a batch, and every outermost batch, is committed as a new
+ * immutable snapshot that replaces the previous one atomically.
+ */
 public class Model {
 
+	/** The identifiers of the model's objects */
+	private final IdentifierAllocator identifiers = new IdentifierAllocator();
+
+	/** The objects of the model */
+	private final Collection<ModelObject> objects =
+		new LinkedHashSet<ModelObject>();
+
+	/** The topologies of the model */
+	private final Collection<Topology> topologies =
+		new LinkedHashSet<Topology>();
+
+	/** Listeners invoked on the mutating thread */
+	private volatile ModelListener[] listeners = new ModelListener[0];
+
+	/** Listeners invoked on the dispatch thread */
+	private volatile ModelListener[] asyncListeners = new ModelListener[0];
+
+	/** Thread dispatching to asynchronous listeners, made when needed */
+	private ExecutorService dispatcher = null;
+
+	/** Guards the batch depth, the pending events and the uncommitted
+	 * changes */
+	private final Object batchLock = new Object();
+
+	/** Depth of nested batches */
+	private int batchDepth = 0;
+
+	/** The latest committed snapshot, null while snapshots are off */
+	private final AtomicReference<ModelSnapshot> snapshot =
+		new AtomicReference<ModelSnapshot>();
+
+	/** Objects and topologies changed since the last commit */
+	private final LinkedHashSet<Object> uncommitted =
+		new LinkedHashSet<Object>();
+
+	/** Subjects of changes made during the batch, by type */
+	private final EnumMap<ModelEvent.Type, LinkedHashSet<Object>> pending =
+		new EnumMap<ModelEvent.Type, LinkedHashSet<Object>>(
+				ModelEvent.Type.class);
+
+	/**
+	 * Gets the identifier allocator of the model
+	 *
+	 * @return
+	 * 			The allocator
+	 */
+	public IdentifierAllocator getIdentifierAllocator() {
+		return identifiers;
+	}
+
 	public void addModelObject(ModelObject obj) {
-		
+
+		if (objects.add(obj)) {
+			fireEvent(ModelEvent.Type.OBJECT_ADDED, obj);
+		}
+	}
+
+	/**
+	 * Removes an object from the model, releasing its identifier
+	 *
+	 * @param obj
+	 * 			The object
+	 * @return
+	 * 			If object was part of the model
+	 */
+	public boolean removeModelObject(ModelObject obj) {
+
+		if (!objects.remove(obj)) {
+			return false;
+		}
+		obj.discard();
+		fireEvent(ModelEvent.Type.OBJECT_REMOVED, obj);
+		return true;
 	}
 
 	public void addTopology(Topology top) {
 
+		if (topologies.add(top)) {
+			fireEvent(ModelEvent.Type.TOPOLOGY_ADDED, top);
+		}
+	}
+
+	/**
+	 * Removes a topology from the model
+	 *
+	 * @param top
+	 * 			The topology
+	 * @return
+	 * 			If topology was part of the model
+	 */
+	public boolean removeTopology(Topology top) {
+
+		if (!topologies.remove(top)) {
+			return false;
+		}
+		fireEvent(ModelEvent.Type.TOPOLOGY_REMOVED, top);
+		return true;
+	}
+
+	/**
+	 * Gets the objects of the model
+	 *
+	 * @return
+	 * 			Iterator over the objects, in order of addition
+	 */
+	public Iterator<ModelObject> getModelObjects() {
+		return Collections.unmodifiableCollection(objects).iterator();
+	}
+
+	/**
+	 * Gets the topologies of the model
+	 *
+	 * @return
+	 * 			Iterator over the topologies, in order of addition
+	 */
+	public Iterator<Topology> getTopologies() {
+		return Collections.unmodifiableCollection(topologies).iterator();
+	}
+
+	/**
+	 * Checks if an object is part of the model
+	 *
+	 * @param obj
+	 * 			The object
+	 * @return
+	 * 			If part of the model
+	 */
+	boolean hasModelObject(ModelObject obj) {
+		return objects.contains(obj);
+	}
+
+	/**
+	 * Checks if a topology is part of the model
+	 *
+	 * @param top
+	 * 			The topology
+	 * @return
+	 * 			If part of the model
+	 */
+	boolean hasTopology(Topology top) {
+		return topologies.contains(top);
+	}
+
+	/**
+	 * Starts committing snapshots, taking the first one. Like any change
+	 * it must be called on the mutating thread.
+	 */
+	public void enableSnapshots() {
+
+		if (snapshot.get() == null) {
+			snapshot.set(ModelSnapshot.capture(this));
+		}
+	}
+
+	/**
+	 * Gets the latest committed snapshot. It can be called on any thread.
+	 *
+	 * @return
+	 * 			The snapshot
+	 * @throws IllegalStateException
+	 * 			If snapshots are not enabled
+	 */
+	public ModelSnapshot getSnapshot() {
+
+		ModelSnapshot snap = snapshot.get();
+		if (snap == null) {
+			throw new IllegalStateException("Snapshots are not enabled");
+		}
+		return snap;
+	}
+
+	/**
+	 * Notes a change that the next snapshot should have, for changes
+	 * that listeners are not told about. Points count as changes of
+	 * their topology.
+	 *
+	 * Intended for the model objects and topologies; nothing is done
+	 * while snapshots are off.
+	 *
+	 * @param subject
+	 * 			The object, topology or point that changed, anything
+	 * 			else is ignored
+	 */
+	public void changed(Object subject) {
+
+		if (snapshot.get() == null) {
+			return;
+		}
+		if (subject instanceof Point) {
+			subject = ((Point) subject).getTopology();
+		}
+		synchronized (batchLock) {
+			if (subject instanceof ModelObject || subject instanceof Topology) {
+				uncommitted.add(subject);
+			}
+			if (batchDepth == 0) {
+				commit();
+			}
+		}
+	}
+
+	/**
+	 * Moves the points of all topologies on a target that are within a
+	 * range of positions, as one batch.
+	 *
+	 * @param target
+	 * 			The target
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive), before from if the range spans
+	 * 			the origin of a circular target
+	 * @param delta
+	 * 			Distance to move in model-space
+	 * @return
+	 * 			If every topology allowed the move (those that did not
+	 * 			kept their points)
+	 */
+	public boolean shiftRange(ModelObject target, int from, int to,
+			int delta) {
+
+		boolean ret = true;
+		beginBatch();
+		try {
+			for (Topology top: new ArrayList<Topology>(topologies)) {
+				if (!top.shiftRange(target, from, to, delta)) {
+					ret = false;
+				}
+			}
+		} finally {
+			endBatch();
+		}
+		return ret;
+	}
+
+	/**
+	 * Adds a listener invoked on the mutating thread
+	 *
+	 * @param listener
+	 * 			The listener
+	 */
+	public void addModelListener(ModelListener listener) {
+		addModelListener(listener, false);
+	}
+
+	/**
+	 * Adds a listener
+	 *
+	 * @param listener
+	 * 			The listener
+	 * @param async
+	 * 			If the listener should be invoked on the model's dispatch
+	 * 			thread so that it never holds up the mutating thread
+	 */
+	public synchronized void addModelListener(ModelListener listener,
+			boolean async) {
+
+		if (async) {
+			asyncListeners = append(asyncListeners, listener);
+		} else {
+			listeners = append(listeners, listener);
+		}
+	}
+
+	/**
+	 * Removes a listener
+	 *
+	 * @param listener
+	 * 			The listener
+	 */
+	public synchronized void removeModelListener(ModelListener listener) {
+		listeners = remove(listeners, listener);
+		asyncListeners = remove(asyncListeners, listener);
+	}
+
+	/**
+	 * Starts a batch. Batches nest, and must always be ended.
+	 *
+	 * <pre>
+	 * model.beginBatch();
+	 * try {
+	 *     ...
+	 * } finally {
+	 *     model.endBatch();
+	 * }
+	 * </pre>
+	 */
+	public void beginBatch() {
+
+		synchronized (batchLock) {
+			batchDepth++;
+		}
+	}
+
+	/**
+	 * Ends a batch, dispatching the coalesced events if it was the
+	 * outermost batch.
+	 */
+	public void endBatch() {
+
+		List<ModelEvent> events;
+		synchronized (batchLock) {
+
+			if (batchDepth == 0) {
+				throw new IllegalStateException("No batch to end");
+			}
+			batchDepth--;
+			if (batchDepth > 0) {
+				return;
+			}
+			commit();
+			if (pending.isEmpty()) {
+				return;
+			}
+
+			events = new ArrayList<ModelEvent>(pending.size());
+			for (Map.Entry<ModelEvent.Type, LinkedHashSet<Object>> e:
+					pending.entrySet()) {
+				events.add(new ModelEvent(this, e.getKey(),
+							new ArrayList<Object>(e.getValue()), true));
+			}
+			pending.clear();
+		}
+
+		for (ModelEvent event: events) {
+			dispatch(event);
+		}
+	}
+
+	/**
+	 * Reports a change.
+	 *
+	 * Intended for the model objects and topologies; the change is noted
+	 * for the next snapshot and nothing is dispatched if nobody listens.
+	 *
+	 * @param type
+	 * 			The kind of change
+	 * @param subject
+	 * 			What changed
+	 */
+	public void fireEvent(ModelEvent.Type type, Object subject) {
+
+		changed(subject);
+		if (listeners.length == 0 && asyncListeners.length == 0) {
+			return;
+		}
+
+		synchronized (batchLock) {
+			if (batchDepth > 0) {
+				LinkedHashSet<Object> subjects = pending.get(type);
+				if (subjects == null) {
+					subjects = new LinkedHashSet<Object>();
+					pending.put(type, subjects);
+				}
+				subjects.add(subject);
+				return;
+			}
+		}
+		dispatch(new ModelEvent(this, type,
+					Collections.singletonList(subject), false));
+	}
+
+	/**
+	 * Publishes the uncommitted changes as a new snapshot, with the
+	 * batch lock held
+	 */
+	private void commit() {
+
+		ModelSnapshot snap = snapshot.get();
+		if (snap == null || uncommitted.isEmpty()) {
+			return;
+		}
+		snapshot.set(snap.commit(this, uncommitted));
+		uncommitted.clear();
+	}
+
+	/**
+	 * Sends an event to all listeners
+	 *
+	 * @param event
+	 * 			The event
+	 */
+	private void dispatch(final ModelEvent event) {
+
+		for (ModelListener listener: listeners) {
+			listener.modelChanged(event);
+		}
+
+		final ModelListener[] async = asyncListeners;
+		if (async.length > 0) {
+			getDispatcher().execute(new Runnable() {
+				public void run() {
+					for (ModelListener listener: async) {
+						listener.modelChanged(event);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Stops the dispatch thread once it has delivered the events handed
+	 * to it. Asynchronous events dispatched later start it again.
+	 */
+	public synchronized void close() {
+
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+			dispatcher = null;
+		}
+	}
+
+	/**
+	 * Gets the dispatch thread, starting it if needed
+	 *
+	 * @return
+	 * 			The dispatcher
+	 */
+	private synchronized ExecutorService getDispatcher() {
+
+		if (dispatcher == null) {
+			dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Model event dispatch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return dispatcher;
+	}
+
+	/** Copy of array with listener added */
+	private static ModelListener[] append(ModelListener[] array,
+			ModelListener listener) {
+
+		ModelListener[] copy = Arrays.copyOf(array, array.length + 1);
+		copy[array.length] = listener;
+		return copy;
+	}
+
+	/** Copy of array with listener removed */
+	private static ModelListener[] remove(ModelListener[] array,
+			ModelListener listener) {
+
+		List<ModelListener> copy = new ArrayList<ModelListener>(
+				Arrays.asList(array));
+		copy.remove(listener);
+		return copy.toArray(new ModelListener[copy.size()]);
 	}
 }
@@ -0,0 +1,115 @@
+
+package collector;
+
+import java.util.*;
+
+/**
+ * ModelEvent tells listeners what changed in a model.
+ *
+ * An event has a type and the subjects it concerns. Outside of a batch
+ * each change is its own event with one subject; changes made during a
+ * batch are coalesced into one event per type, listing every subject
+ * once.
+ */
+public class ModelEvent {
+
+	/** The kinds of changes */
+	public enum Type {
+		/** Subjects are <code>ModelObject</code>s added to the model */
+		OBJECT_ADDED,
+		/** Subjects are <code>ModelObject</code>s removed from the model */
+		OBJECT_REMOVED,
+		/** Subjects are <code>ModelObject</code>s with new residues */
+		RESIDUES_CHANGED,
+		/** Subjects are <code>Topology</code>s added to the model */
+		TOPOLOGY_ADDED,
+		/** Subjects are <code>Topology</code>s removed from the model */
+		TOPOLOGY_REMOVED,
+		/** Subjects are <code>Point</code>s added to a topology */
+		POINT_ADDED,
+		/** Subjects are <code>Point</code>s removed from a topology */
+		POINT_REMOVED,
+		/** Subjects are <code>Point</code>s that moved */
+		POINT_MOVED,
+		/** Subjects are <code>Annotation</code>s attached to a sequence */
+		ANNOTATION_ATTACHED,
+		/** Subjects are <code>Annotation</code>s detached from a sequence */
+		ANNOTATION_DETACHED,
+		/** Subjects are <code>ModelObject</code>s on which topologies of
+		 * annotations were added or removed */
+		ANNOTATION_CHANGED;
+	}
+
+	/** The model that changed */
+	private final Model model;
+
+	/** The kind of change */
+	private final Type type;
+
+	/** What changed */
+	private final List<Object> subjects;
+
+	/** If the event sums up a batch */
+	private final boolean batched;
+
+	/**
+	 * Constructor
+	 *
+	 * @param model
+	 * 			The model that changed
+	 * @param type
+	 * 			The kind of change
+	 * @param subjects
+	 * 			What changed, not to be modified afterwards
+	 * @param batched
+	 * 			If the event sums up a batch
+	 */
+	ModelEvent(Model model, Type type, List<Object> subjects,
+			boolean batched) {
+		this.model = model;
+		this.type = type;
+		this.subjects = Collections.unmodifiableList(subjects);
+		this.batched = batched;
+	}
+
+	/**
+	 * Gets the model that changed
+	 *
+	 * @return
+	 * 			The model
+	 */
+	public Model getModel() {
+		return model;
+	}
+
+	/**
+	 * Gets the kind of change
+	 *
+	 * @return
+	 * 			The type
+	 */
+	public Type getType() {
+		return type;
+	}
+
+	/**
+	 * Gets what changed. The class of the subjects is given by
+	 * the type.
+	 *
+	 * @return
+	 * 			The subjects, each once
+	 */
+	public List<Object> getSubjects() {
+		return subjects;
+	}
+
+	/**
+	 * Checks if the event sums up a batch
+	 *
+	 * @return
+	 * 			If batched
+	 */
+	public boolean isBatched() {
+		return batched;
+	}
+}
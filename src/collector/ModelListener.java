@@ -0,0 +1,17 @@
+
+package collector;
+
+/**
+ * ModelListener is notified of changes to a model.
+ */
+public interface ModelListener {
+
+	/**
+	 * Invoked for every change, or once per type of change for
+	 * batches.
+	 *
+	 * @param event
+	 * 			What changed
+	 */
+	public void modelChanged(ModelEvent event);
+}
@@ -0,0 +1,402 @@
+
+package collector;
+
+import java.util.*;
+
+import modelobject.ModelObject;
+import point.Point;
+import topologies.Topology;
+
+/**
+ * ModelSnapshot is an immutable view of a model as it was when a
+ * change was committed.
+ *
+ * It holds a state for each object of the model and for each of its
+ * topologies. Snapshots are made from the one before by replacing the
+ * states of what changed, and everything else is shared, so they are
+ * cheap to make and to keep. They can be read on any thread without
+ * locking while the model goes on changing.
+ *
+ * Objects that are <code>Snapshotable</code> give their own state (a
+ * sequence gives its residues and annotations), other objects get an
+ * <code>ObjectState</code>.
+ *
+ * @see Model#getSnapshot()
+ */
+public final class ModelSnapshot {
+
+	/**
+	 * ObjectState is the state of an object that does not make its own
+	 */
+	public static final class ObjectState {
+
+		/** The shape */
+		private final ModelObject.PhysicalShape shape;
+
+		/** The size in model-space */
+		private final int size;
+
+		/** The revision */
+		private final int revision;
+
+		/**
+		 * Constructor
+		 *
+		 * @param obj
+		 * 			The object
+		 */
+		ObjectState(ModelObject obj) {
+			shape = obj.getShape();
+			size = obj.getSize();
+			revision = obj.getRevision();
+		}
+
+		/**
+		 * Gets the shape
+		 *
+		 * @return
+		 * 			The shape
+		 */
+		public ModelObject.PhysicalShape getShape() {
+			return shape;
+		}
+
+		/**
+		 * Gets the size in model-space
+		 *
+		 * @return
+		 * 			The size
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * Gets the revision of the extent
+		 *
+		 * @return
+		 * 			The revision
+		 */
+		public int getRevision() {
+			return revision;
+		}
+	}
+
+	/**
+	 * TopologyState is the state of a topology: its caption, its points
+	 * with the positions they had, and its children.
+	 */
+	public static final class TopologyState {
+
+		/** The caption */
+		private final String caption;
+
+		/** The points */
+		private final Point[] points;
+
+		/** Position of each point */
+		private final int[] positions;
+
+		/** The children */
+		private final List<Topology> children;
+
+		/**
+		 * Constructor
+		 *
+		 * @param top
+		 * 			The topology
+		 */
+		TopologyState(Topology top) {
+
+			caption = top.getCaption();
+			List<Point> list = new ArrayList<Point>(2);
+			for (Iterator<Point> it = top.getPointIterator(); it.hasNext(); ) {
+				list.add(it.next());
+			}
+			points = list.toArray(new Point[list.size()]);
+			positions = new int[points.length];
+			for (int i = 0; i < points.length; i++) {
+				positions[i] = points[i].getPos();
+			}
+
+			List<Topology> kids = new ArrayList<Topology>(1);
+			for (Iterator<Topology> it = top.getChildIterator(); it.hasNext(); ) {
+				kids.add(it.next());
+			}
+			children = Collections.unmodifiableList(kids);
+		}
+
+		/**
+		 * Gets the caption
+		 *
+		 * @return
+		 * 			The caption
+		 */
+		public String getCaption() {
+			return caption;
+		}
+
+		/**
+		 * Gets the number of points
+		 *
+		 * @return
+		 * 			Number of points
+		 */
+		public int getPointCount() {
+			return points.length;
+		}
+
+		/**
+		 * Gets a point. Only its identity and target are part of the
+		 * snapshot, its position is <code>getPosition(i)</code>.
+		 *
+		 * @param i
+		 * 			Point number, in the order of the topology
+		 * @return
+		 * 			The point
+		 */
+		public Point getPoint(int i) {
+			return points[i];
+		}
+
+		/**
+		 * Gets the target of a point
+		 *
+		 * @param i
+		 * 			Point number
+		 * @return
+		 * 			The target
+		 */
+		public ModelObject getTarget(int i) {
+			return points[i].getTarget();
+		}
+
+		/**
+		 * Gets the position a point had
+		 *
+		 * @param i
+		 * 			Point number
+		 * @return
+		 * 			The position in model-space
+		 */
+		public int getPosition(int i) {
+			return positions[i];
+		}
+
+		/**
+		 * Gets the child topologies
+		 *
+		 * @return
+		 * 			The children, not to be modified
+		 */
+		public List<Topology> getChildren() {
+			return children;
+		}
+	}
+
+	/** The number of commits before this snapshot */
+	private final long version;
+
+	/** State of each object */
+	private final PersistentMap<ModelObject, Object> objects;
+
+	/** State of each topology */
+	private final PersistentMap<Topology, TopologyState> topologies;
+
+	/**
+	 * Constructor
+	 *
+	 * @param version
+	 * 			The number of commits before
+	 * @param objects
+	 * 			State of each object
+	 * @param topologies
+	 * 			State of each topology
+	 */
+	ModelSnapshot(long version, PersistentMap<ModelObject, Object> objects,
+			PersistentMap<Topology, TopologyState> topologies) {
+
+		this.version = version;
+		this.objects = objects;
+		this.topologies = topologies;
+	}
+
+	/**
+	 * Gets the version, which grows by one with every commit
+	 *
+	 * @return
+	 * 			The version
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the number of objects
+	 *
+	 * @return
+	 * 			Number of objects
+	 */
+	public int getObjectCount() {
+		return objects.size();
+	}
+
+	/**
+	 * Gets the number of topologies
+	 *
+	 * @return
+	 * 			Number of topologies
+	 */
+	public int getTopologyCount() {
+		return topologies.size();
+	}
+
+	/**
+	 * Gets the objects of the model
+	 *
+	 * @return
+	 * 			Iterator over the objects, in no particular order
+	 */
+	public Iterator<ModelObject> getModelObjects() {
+		return keys(objects.iterator());
+	}
+
+	/**
+	 * Gets the topologies of the model
+	 *
+	 * @return
+	 * 			Iterator over the topologies, in no particular order
+	 */
+	public Iterator<Topology> getTopologies() {
+		return keys(topologies.iterator());
+	}
+
+	/**
+	 * Gets the state of an object
+	 *
+	 * @param obj
+	 * 			The object
+	 * @return
+	 * 			What <code>Snapshotable.snapshot()</code> gave, or an
+	 * 			<code>ObjectState</code>; null if the object was not
+	 * 			part of the model
+	 */
+	public Object getState(ModelObject obj) {
+		return objects.get(obj);
+	}
+
+	/**
+	 * Gets the state of a topology
+	 *
+	 * @param top
+	 * 			The topology
+	 * @return
+	 * 			The state, null if the topology was not part of the model
+	 */
+	public TopologyState getState(Topology top) {
+		return topologies.get(top);
+	}
+
+	/**
+	 * Makes a snapshot with the states of changed objects and topologies
+	 * taken anew
+	 *
+	 * @param model
+	 * 			The model
+	 * @param changed
+	 * 			The objects and topologies that changed
+	 * @return
+	 * 			The next snapshot
+	 */
+	ModelSnapshot commit(Model model, Collection<Object> changed) {
+
+		PersistentMap<ModelObject, Object> objs = objects;
+		PersistentMap<Topology, TopologyState> tops = topologies;
+		for (Object subject: changed) {
+
+			if (subject instanceof ModelObject) {
+				ModelObject obj = (ModelObject) subject;
+				objs = model.hasModelObject(obj) ?
+					objs.plus(obj, capture(obj)) : objs.minus(obj);
+			} else if (subject instanceof Topology) {
+				Topology top = (Topology) subject;
+				tops = model.hasTopology(top) ?
+					tops.plus(top, new TopologyState(top)) : tops.minus(top);
+			}
+		}
+		return new ModelSnapshot(version + 1, objs, tops);
+	}
+
+	/**
+	 * Makes the first snapshot of a model
+	 *
+	 * @param model
+	 * 			The model
+	 * @return
+	 * 			The snapshot
+	 */
+	static ModelSnapshot capture(Model model) {
+
+		PersistentMap<ModelObject, Object> objs =
+			PersistentMap.<ModelObject, Object>empty();
+		for (Iterator<ModelObject> it = model.getModelObjects(); it.hasNext(); ) {
+			ModelObject obj = it.next();
+			objs = objs.plus(obj, capture(obj));
+		}
+
+		PersistentMap<Topology, TopologyState> tops =
+			PersistentMap.<Topology, TopologyState>empty();
+		for (Iterator<Topology> it = model.getTopologies(); it.hasNext(); ) {
+			Topology top = it.next();
+			tops = tops.plus(top, new TopologyState(top));
+		}
+		return new ModelSnapshot(0, objs, tops);
+	}
+
+	/**
+	 * Takes the state of an object
+	 *
+	 * @param obj
+	 * 			The object
+	 * @return
+	 * 			The state
+	 */
+	private static Object capture(ModelObject obj) {
+
+		if (obj instanceof Snapshotable) {
+			return ((Snapshotable) obj).snapshot();
+		}
+		return new ObjectState(obj);
+	}
+
+	/**
+	 * Gets the keys of entries
+	 *
+	 * @param entries
+	 * 			The entries
+	 * @return
+	 * 			Iterator over the keys
+	 */
+	private static <K, V> Iterator<K> keys(
+			final Iterator<Map.Entry<K, V>> entries) {
+
+		return new Iterator<K>() {
+
+			@Override
+			public boolean hasNext() {
+				return entries.hasNext();
+			}
+
+			@Override
+			public K next() {
+				return entries.next().getKey();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException(
+						"Snapshots can not be changed");
+			}
+		};
+	}
+}
@@ -0,0 +1,621 @@
+
+package collector;
+
+import java.util.*;
+
+/**
+ * PersistentMap is an immutable hash map whose changed copies share
+ * everything but the changed path with the original.
+ *
+ * It is a hash array mapped trie: each node branches on five bits of
+ * the key's hash and keeps its entries and child nodes packed in one
+ * array, selected by two bitmaps. Adding or removing a key copies the
+ * at most seven nodes on the way to it, so taking a changed copy costs
+ * O(log32 n) whatever the size, and any number of copies may be read
+ * from any thread while newer ones are made.
+ *
+ * Keys are compared with <code>equals</code>; iteration is in no
+ * particular order.
+ *
+ * @param <K>
+ * 			The key type
+ * @param <V>
+ * 			The value type
+ */
+public final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+	/** Bits of the hash used per level */
+	private static final int BITS = 5;
+
+	/** Mask of the bits used per level */
+	private static final int MASK = (1 << BITS) - 1;
+
+	/** The empty map */
+	private static final PersistentMap<Object, Object> EMPTY =
+		new PersistentMap<Object, Object>(BitmapNode.EMPTY, 0);
+
+	/**
+	 * Change records what an update did, so that the size can follow
+	 */
+	private static final class Change {
+
+		/** Entries added (1) or removed (-1) */
+		int delta = 0;
+	}
+
+	/**
+	 * Node is a node of the trie
+	 */
+	private abstract static class Node {
+
+		/**
+		 * Finds the value of a key
+		 *
+		 * @param key
+		 * 			The key
+		 * @param hash
+		 * 			Hash of the key
+		 * @param shift
+		 * 			Hash bits used above the node
+		 * @return
+		 * 			The value, null if absent
+		 */
+		abstract Object get(Object key, int hash, int shift);
+
+		/**
+		 * Makes a node with a key set
+		 *
+		 * @param key
+		 * 			The key
+		 * @param value
+		 * 			The value
+		 * @param hash
+		 * 			Hash of the key
+		 * @param shift
+		 * 			Hash bits used above the node
+		 * @param change
+		 * 			Told if the key was added
+		 * @return
+		 * 			The new node, this if nothing changed
+		 */
+		abstract Node put(Object key, Object value, int hash, int shift,
+				Change change);
+
+		/**
+		 * Makes a node without a key
+		 *
+		 * @param key
+		 * 			The key
+		 * @param hash
+		 * 			Hash of the key
+		 * @param shift
+		 * 			Hash bits used above the node
+		 * @param change
+		 * 			Told if the key was removed
+		 * @return
+		 * 			The new node, this if the key was absent
+		 */
+		abstract Node remove(Object key, int hash, int shift, Change change);
+
+		/** Number of entries held directly */
+		abstract int entryCount();
+
+		/** Number of child nodes */
+		abstract int nodeCount();
+
+		/** Key of an entry held directly */
+		abstract Object keyAt(int i);
+
+		/** Value of an entry held directly */
+		abstract Object valueAt(int i);
+
+		/** A child node */
+		abstract Node nodeAt(int i);
+	}
+
+	/**
+	 * BitmapNode holds up to 32 entries and children, one per value of
+	 * its five hash bits. The array holds key and value of each entry
+	 * followed by the children.
+	 */
+	private static final class BitmapNode extends Node {
+
+		/** Node without anything */
+		static final BitmapNode EMPTY = new BitmapNode(0, 0, new Object[0]);
+
+		/** Hash bit values held as entries */
+		final int dataMap;
+
+		/** Hash bit values held as children */
+		final int nodeMap;
+
+		/** Entries, then children */
+		final Object[] content;
+
+		BitmapNode(int dataMap, int nodeMap, Object[] content) {
+			this.dataMap = dataMap;
+			this.nodeMap = nodeMap;
+			this.content = content;
+		}
+
+		@Override
+		Object get(Object key, int hash, int shift) {
+
+			int bit = bit(hash, shift);
+			if ((dataMap & bit) != 0) {
+				int i = dataIndex(bit);
+				return key.equals(content[2 * i]) ? content[2 * i + 1] : null;
+			} else if ((nodeMap & bit) != 0) {
+				return ((Node) content[nodeIndex(bit)]).get(key, hash,
+						shift + BITS);
+			}
+			return null;
+		}
+
+		@Override
+		Node put(Object key, Object value, int hash, int shift,
+				Change change) {
+
+			int bit = bit(hash, shift);
+			if ((dataMap & bit) != 0) {
+
+				int i = dataIndex(bit);
+				Object present = content[2 * i];
+				if (key.equals(present)) {
+					if (content[2 * i + 1] == value) {
+						return this;
+					}
+					Object[] copy = content.clone();
+					copy[2 * i + 1] = value;
+					return new BitmapNode(dataMap, nodeMap, copy);
+				}
+
+				//Both keys go one level down
+				change.delta = 1;
+				Node child = merge(present, content[2 * i + 1],
+						present.hashCode(), key, value, hash, shift + BITS);
+				int entries = Integer.bitCount(dataMap);
+				int nodesBefore = Integer.bitCount(nodeMap & (bit - 1));
+				int at = 2 * entries - 2 + nodesBefore;
+				Object[] copy = new Object[content.length - 1];
+				System.arraycopy(content, 0, copy, 0, 2 * i);
+				System.arraycopy(content, 2 * i + 2, copy, 2 * i,
+						at - 2 * i);
+				copy[at] = child;
+				System.arraycopy(content, at + 2, copy, at + 1,
+						content.length - at - 2);
+				return new BitmapNode(dataMap ^ bit, nodeMap | bit, copy);
+
+			} else if ((nodeMap & bit) != 0) {
+
+				int at = nodeIndex(bit);
+				Node child = (Node) content[at];
+				Node changed = child.put(key, value, hash, shift + BITS, change);
+				if (changed == child) {
+					return this;
+				}
+				Object[] copy = content.clone();
+				copy[at] = changed;
+				return new BitmapNode(dataMap, nodeMap, copy);
+			}
+
+			change.delta = 1;
+			int i = dataIndex(bit);
+			Object[] copy = new Object[content.length + 2];
+			System.arraycopy(content, 0, copy, 0, 2 * i);
+			copy[2 * i] = key;
+			copy[2 * i + 1] = value;
+			System.arraycopy(content, 2 * i, copy, 2 * i + 2,
+					content.length - 2 * i);
+			return new BitmapNode(dataMap | bit, nodeMap, copy);
+		}
+
+		@Override
+		Node remove(Object key, int hash, int shift, Change change) {
+
+			int bit = bit(hash, shift);
+			if ((dataMap & bit) != 0) {
+
+				int i = dataIndex(bit);
+				if (!key.equals(content[2 * i])) {
+					return this;
+				}
+				change.delta = -1;
+				Object[] copy = new Object[content.length - 2];
+				System.arraycopy(content, 0, copy, 0, 2 * i);
+				System.arraycopy(content, 2 * i + 2, copy, 2 * i,
+						content.length - 2 * i - 2);
+				return new BitmapNode(dataMap ^ bit, nodeMap, copy);
+
+			} else if ((nodeMap & bit) != 0) {
+
+				int at = nodeIndex(bit);
+				Node child = (Node) content[at];
+				Node changed = child.remove(key, hash, shift + BITS, change);
+				if (changed == child) {
+					return this;
+				}
+
+				if (changed.entryCount() + changed.nodeCount() == 0) {
+					Object[] copy = new Object[content.length - 1];
+					System.arraycopy(content, 0, copy, 0, at);
+					System.arraycopy(content, at + 1, copy, at,
+							content.length - at - 1);
+					return new BitmapNode(dataMap, nodeMap ^ bit, copy);
+
+				} else if (changed.entryCount() == 1 &&
+						changed.nodeCount() == 0 &&
+						changed instanceof BitmapNode) {
+
+					//A lone entry moves up in place of its node
+					int i = dataIndex(bit);
+					Object[] copy = new Object[content.length + 1];
+					System.arraycopy(content, 0, copy, 0, 2 * i);
+					copy[2 * i] = changed.keyAt(0);
+					copy[2 * i + 1] = changed.valueAt(0);
+					System.arraycopy(content, 2 * i, copy, 2 * i + 2,
+							at - 2 * i);
+					System.arraycopy(content, at + 1, copy, at + 2,
+							content.length - at - 1);
+					return new BitmapNode(dataMap | bit, nodeMap ^ bit, copy);
+				}
+
+				Object[] copy = content.clone();
+				copy[at] = changed;
+				return new BitmapNode(dataMap, nodeMap, copy);
+			}
+			return this;
+		}
+
+		@Override
+		int entryCount() {
+			return Integer.bitCount(dataMap);
+		}
+
+		@Override
+		int nodeCount() {
+			return Integer.bitCount(nodeMap);
+		}
+
+		@Override
+		Object keyAt(int i) {
+			return content[2 * i];
+		}
+
+		@Override
+		Object valueAt(int i) {
+			return content[2 * i + 1];
+		}
+
+		@Override
+		Node nodeAt(int i) {
+			return (Node) content[2 * entryCount() + i];
+		}
+
+		/** Index of an entry */
+		private int dataIndex(int bit) {
+			return Integer.bitCount(dataMap & (bit - 1));
+		}
+
+		/** Array index of a child */
+		private int nodeIndex(int bit) {
+			return 2 * Integer.bitCount(dataMap) +
+				Integer.bitCount(nodeMap & (bit - 1));
+		}
+	}
+
+	/**
+	 * CollisionNode holds the keys whose hashes are all equal, below
+	 * the levels that use up the hash.
+	 */
+	private static final class CollisionNode extends Node {
+
+		/** The common hash */
+		final int hash;
+
+		/** Keys and values, alternating */
+		final Object[] content;
+
+		CollisionNode(int hash, Object[] content) {
+			this.hash = hash;
+			this.content = content;
+		}
+
+		@Override
+		Object get(Object key, int hash, int shift) {
+
+			for (int i = 0; i < content.length; i += 2) {
+				if (key.equals(content[i])) {
+					return content[i + 1];
+				}
+			}
+			return null;
+		}
+
+		@Override
+		Node put(Object key, Object value, int hash, int shift,
+				Change change) {
+
+			for (int i = 0; i < content.length; i += 2) {
+				if (key.equals(content[i])) {
+					if (content[i + 1] == value) {
+						return this;
+					}
+					Object[] copy = content.clone();
+					copy[i + 1] = value;
+					return new CollisionNode(hash, copy);
+				}
+			}
+			change.delta = 1;
+			Object[] copy = Arrays.copyOf(content, content.length + 2);
+			copy[content.length] = key;
+			copy[content.length + 1] = value;
+			return new CollisionNode(hash, copy);
+		}
+
+		@Override
+		Node remove(Object key, int hash, int shift, Change change) {
+
+			for (int i = 0; i < content.length; i += 2) {
+				if (key.equals(content[i])) {
+					change.delta = -1;
+					Object[] copy = new Object[content.length - 2];
+					System.arraycopy(content, 0, copy, 0, i);
+					System.arraycopy(content, i + 2, copy, i,
+							content.length - i - 2);
+					return new CollisionNode(hash, copy);
+				}
+			}
+			return this;
+		}
+
+		@Override
+		int entryCount() {
+			return content.length / 2;
+		}
+
+		@Override
+		int nodeCount() {
+			return 0;
+		}
+
+		@Override
+		Object keyAt(int i) {
+			return content[2 * i];
+		}
+
+		@Override
+		Object valueAt(int i) {
+			return content[2 * i + 1];
+		}
+
+		@Override
+		Node nodeAt(int i) {
+			throw new IndexOutOfBoundsException();
+		}
+	}
+
+	/** The root */
+	private final Node root;
+
+	/** Number of entries */
+	private final int size;
+
+	/** Constructor */
+	private PersistentMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the empty map
+	 *
+	 * @return
+	 * 			The map
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentMap<K, V> empty() {
+		return (PersistentMap<K, V>) EMPTY;
+	}
+
+	/**
+	 * Gets the number of entries
+	 *
+	 * @return
+	 * 			The size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the value of a key
+	 *
+	 * @param key
+	 * 			The key
+	 * @return
+	 * 			The value, null if absent
+	 */
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		return (V) root.get(key, key.hashCode(), 0);
+	}
+
+	/**
+	 * Checks if a key is present
+	 *
+	 * @param key
+	 * 			The key
+	 * @return
+	 * 			If present
+	 */
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Gets a copy with a key set
+	 *
+	 * @param key
+	 * 			The key
+	 * @param value
+	 * 			The value, not null
+	 * @return
+	 * 			The copy, this map if it already had the value
+	 */
+	public PersistentMap<K, V> plus(K key, V value) {
+
+		if (value == null) {
+			throw new NullPointerException("Values can not be null");
+		}
+		Change change = new Change();
+		Node changed = root.put(key, value, key.hashCode(), 0, change);
+		return changed == root ? this :
+			new PersistentMap<K, V>(changed, size + change.delta);
+	}
+
+	/**
+	 * Gets a copy without a key
+	 *
+	 * @param key
+	 * 			The key
+	 * @return
+	 * 			The copy, this map if the key was absent
+	 */
+	public PersistentMap<K, V> minus(Object key) {
+
+		Change change = new Change();
+		Node changed = root.remove(key, key.hashCode(), 0, change);
+		return changed == root ? this :
+			new PersistentMap<K, V>(changed, size + change.delta);
+	}
+
+	/**
+	 * Iterates over the entries, which can not be removed
+	 *
+	 * @return
+	 * 			The iterator
+	 */
+	@Override
+	public Iterator<Map.Entry<K, V>> iterator() {
+
+		return new Iterator<Map.Entry<K, V>>() {
+
+			/** Nodes on the way down */
+			private final Node[] nodes = new Node[8];
+
+			/** Next child to visit of each node on the way down */
+			private final int[] children = new int[8];
+
+			/** Depth of the current node */
+			private int depth = 0;
+
+			/** Current node */
+			private Node node = root;
+
+			/** Next entry of the current node */
+			private int entry = 0;
+
+			{
+				nodes[0] = root;
+			}
+
+			@Override
+			public boolean hasNext() {
+
+				while (entry >= node.entryCount()) {
+
+					if (children[depth] < node.nodeCount()) {
+						Node child = node.nodeAt(children[depth]++);
+						depth++;
+						nodes[depth] = child;
+						children[depth] = 0;
+						node = child;
+						entry = 0;
+					} else if (depth == 0) {
+						return false;
+					} else {
+						depth--;
+						node = nodes[depth];
+						entry = node.entryCount();
+					}
+				}
+				return true;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public Map.Entry<K, V> next() {
+
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				Map.Entry<K, V> e = new AbstractMap.SimpleImmutableEntry<K, V>(
+						(K) node.keyAt(entry), (V) node.valueAt(entry));
+				entry++;
+				return e;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException(
+						"Persistent maps can not be changed");
+			}
+		};
+	}
+
+	/**
+	 * Gets the bit of a node's bitmaps for a hash
+	 *
+	 * @param hash
+	 * 			The hash
+	 * @param shift
+	 * 			Hash bits used above the node
+	 * @return
+	 * 			The bit
+	 */
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	/**
+	 * Makes the node holding two keys
+	 *
+	 * @param key1
+	 * 			First key
+	 * @param value1
+	 * 			Its value
+	 * @param hash1
+	 * 			Its hash
+	 * @param key2
+	 * 			Second key
+	 * @param value2
+	 * 			Its value
+	 * @param hash2
+	 * 			Its hash
+	 * @param shift
+	 * 			Hash bits used above the node
+	 * @return
+	 * 			The node
+	 */
+	private static Node merge(Object key1, Object value1, int hash1,
+			Object key2, Object value2, int hash2, int shift) {
+
+		if (shift >= 32) {
+			return new CollisionNode(hash1,
+					new Object[] {key1, value1, key2, value2});
+		}
+
+		int bit1 = bit(hash1, shift);
+		int bit2 = bit(hash2, shift);
+		if (bit1 == bit2) {
+			return new BitmapNode(0, bit1, new Object[] {merge(key1, value1,
+						hash1, key2, value2, hash2, shift + BITS)});
+		} else if (Integer.compareUnsigned(bit1, bit2) < 0) {
+			return new BitmapNode(bit1 | bit2, 0,
+					new Object[] {key1, value1, key2, value2});
+		}
+		return new BitmapNode(bit1 | bit2, 0,
+				new Object[] {key2, value2, key1, value1});
+	}
+}
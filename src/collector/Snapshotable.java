@@ -0,0 +1,19 @@
+
+package collector;
+
+/**
+ * Snapshotable is a model object that can copy its state for model
+ * snapshots.
+ */
+public interface Snapshotable {
+
+	/**
+	 * Makes an immutable copy of the state of the object. It is called
+	 * on the mutating thread when the object changed, and the copy may
+	 * then be read on any thread.
+	 *
+	 * @return
+	 * 			The state
+	 */
+	public Object snapshot();
+}
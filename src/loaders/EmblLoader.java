@@ -0,0 +1,216 @@
+
+package loaders;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import sequences.Sequence;
+
+/**
+ * EmblLoader reads EMBL flat files: each record from <code>ID</code> to
+ * <code>//</code> becomes a sequence, with its residues from
+ * <code>SQ</code> and its feature table (<code>FT</code> lines) as
+ * features.
+ *
+ * The <code>ID</code> line gives the name, if the residues are amino
+ * acids and if the sequence is circular. The first reference
+ * (<code>RN</code>) gives the title, publication, link (from
+ * <code>RX PUBMED</code>) and DOI (from <code>RX DOI</code>) of the
+ * features that have none of their own.
+ */
+public class EmblLoader extends FeatureLoader {
+
+	/** Column where the text of a line starts */
+	private static final int TEXT_COLUMN = 5;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 * 			The EMBL file, gzipped if ending with .gz
+	 */
+	public EmblLoader(File file) {
+		super(file);
+	}
+
+	@Override
+	boolean startsRecord(String line) {
+		return line.startsWith("ID   ");
+	}
+
+	@Override
+	List<FeatureRecord> parse(List<String> lines) {
+
+		List<FeatureRecord> records = new ArrayList<FeatureRecord>();
+		FeatureRecord record = null;
+		FeatureTable table = null;
+		StringBuilder residues = null;
+		StringBuilder title = null;
+		StringBuilder publication = null;
+		int references = 0;
+
+		for (String line: lines) {
+
+			if (line.startsWith("ID   ")) {
+
+				if (record != null) {
+					finish(record, table, residues, title, publication);
+				}
+				record = readId(line);
+				records.add(record);
+				table = new FeatureTable(this, record);
+				residues = null;
+				title = null;
+				publication = null;
+				references = 0;
+				continue;
+			}
+			if (record == null) {
+				continue;
+			}
+
+			if (line.startsWith("//")) {
+
+				finish(record, table, residues, title, publication);
+				record = null;
+				continue;
+			}
+			if (residues != null) {
+
+				GenBankLoader.appendResidues(residues, line);
+				continue;
+			}
+
+			String text = line.length() > TEXT_COLUMN ?
+				line.substring(TEXT_COLUMN).trim() : "";
+			if (line.startsWith("FT")) {
+				table.add(line);
+			} else if (line.startsWith("SQ")) {
+
+				table.finish();
+				residues = new StringBuilder();
+			} else if (line.startsWith("RN")) {
+				references++;
+			} else if (references != 1) {
+				continue;
+			} else if (line.startsWith("RT")) {
+
+				if (title == null) {
+					title = takeBuilder();
+				} else {
+					title.append(' ');
+				}
+				title.append(text);
+			} else if (line.startsWith("RL")) {
+
+				if (publication == null) {
+					publication = takeBuilder();
+				} else {
+					publication.append(' ');
+				}
+				publication.append(text);
+			} else if (line.startsWith("RX")) {
+				readCrossReference(record, text);
+			}
+		}
+		if (record != null) {
+			finish(record, table, residues, title, publication);
+		}
+		return records;
+	}
+
+	/**
+	 * Reads the <code>ID</code> line of a record
+	 *
+	 * @param line
+	 * 			The line
+	 * @return
+	 * 			The record
+	 */
+	private static FeatureRecord readId(String line) {
+
+		FeatureRecord record = new FeatureRecord();
+		String[] fields = line.substring(TEXT_COLUMN).split(";");
+		record.name = fields[0].trim();
+		for (int i = 1; i < fields.length; i++) {
+
+			String field = fields[i].trim();
+			if (field.equalsIgnoreCase("circular")) {
+				record.circular = true;
+			} else if (field.endsWith(" AA.")) {
+				record.type = Sequence.SequenceType.TYPE_AMINOACID;
+			} else if (field.endsWith(" BP.")) {
+				record.type = Sequence.SequenceType.TYPE_NUCLEOTIDE;
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * Reads a cross reference of the first reference, as
+	 * <code>DOI; 10.1007/BF00039495.</code>
+	 *
+	 * @param record
+	 * 			The record
+	 * @param text
+	 * 			The text of the line
+	 */
+	private static void readCrossReference(FeatureRecord record, String text) {
+
+		int split = text.indexOf(';');
+		if (split < 0) {
+			return;
+		}
+		String database = text.substring(0, split).trim();
+		String id = text.substring(split + 1).trim();
+		if (id.endsWith(".")) {
+			id = id.substring(0, id.length() - 1);
+		}
+		if (database.equals("DOI")) {
+			record.doi = id;
+		} else if (database.equals("PUBMED")) {
+			record.link = GenBankLoader.PUBMED_LINK + id + "/";
+		}
+	}
+
+	/**
+	 * Ends a record
+	 *
+	 * @param record
+	 * 			The record
+	 * @param table
+	 * 			Its feature table
+	 * @param residues
+	 * 			Its residues, null if it has none
+	 * @param title
+	 * 			Title of the first reference, null if none
+	 * @param publication
+	 * 			Publication of the first reference, null if none
+	 */
+	private void finish(FeatureRecord record, FeatureTable table,
+			StringBuilder residues, StringBuilder title,
+			StringBuilder publication) {
+
+		table.finish();
+		if (title != null) {
+
+			String text = release(title);
+			if (text.endsWith(";")) {
+				text = text.substring(0, text.length() - 1);
+			}
+			text = FeatureTable.unquote(text);
+			record.title = text.isEmpty() ? null : text;
+		}
+		if (publication != null) {
+			record.publication = release(publication);
+		}
+		if (residues != null) {
+
+			record.residues = toStore(residues, record.type);
+			if (record.type == null) {
+				record.type = FastaLoader.guessType(record.residues);
+			}
+		}
+	}
+}
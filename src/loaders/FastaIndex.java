@@ -0,0 +1,428 @@
+
+package loaders;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * FastaIndex is a .fai-style index of a FASTA file.
+ *
+ * For each record it holds the name, the number of residues, the byte
+ * offset of the first residue, the number of residues per line and the
+ * number of bytes per line (residues and line break). This is the same
+ * layout as samtools uses, so existing .fai files can be reused.
+ */
+public class FastaIndex {
+
+	/** The suffix of index files */
+	public static final String SUFFIX = ".fai";
+
+	/** Size of the buffer used when scanning the FASTA file */
+	private static final int SCAN_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Entry describes one record of the FASTA file.
+	 */
+	public static class Entry {
+
+		/** Name of the record */
+		private final String name;
+
+		/** Number of residues */
+		private final long length;
+
+		/** Byte offset of the first residue */
+		private final long offset;
+
+		/** Residues per line */
+		private final int lineBases;
+
+		/** Bytes per line */
+		private final int lineWidth;
+
+		/** Constructor with all parts */
+		Entry(String name, long length, long offset, int lineBases,
+				int lineWidth) {
+			this.name = name;
+			this.length = length;
+			this.offset = offset;
+			this.lineBases = lineBases;
+			this.lineWidth = lineWidth;
+		}
+
+		/**
+		 * Gets the name of the record
+		 *
+		 * @return
+		 * 			Name of the record
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the number of residues
+		 *
+		 * @return
+		 * 			Number of residues
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * Gets the byte offset of the first residue
+		 *
+		 * @return
+		 * 			Byte offset of the first residue
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Gets the residues per line
+		 *
+		 * @return
+		 * 			Residues per line
+		 */
+		public int getLineBases() {
+			return lineBases;
+		}
+
+		/**
+		 * Gets the bytes per line, including line break
+		 *
+		 * @return
+		 * 			Bytes per line, including line break
+		 */
+		public int getLineWidth() {
+			return lineWidth;
+		}
+
+		/**
+		 * Gets the number of bytes from the first to the last residue
+		 *
+		 * @return
+		 * 			The byte span
+		 */
+		public long getByteSpan() {
+
+			if (length == 0) {
+				return 0;
+			}
+			return ((length - 1) / lineBases) * lineWidth +
+				((length - 1) % lineBases) + 1;
+		}
+	}
+
+	/** The entries in file order */
+	private final List<Entry> entries = new ArrayList<Entry>();
+
+	/** Constructor for empty index, used when reading or building */
+	private FastaIndex() {
+	}
+
+	/**
+	 * Gets the index of a FASTA file.
+	 *
+	 * An existing index next to the file is used, unless it is older
+	 * than the FASTA file. Otherwise the index is built and, if
+	 * possible, written next to the file for the next time.
+	 *
+	 * @param fasta
+	 * 			The FASTA file
+	 * @return
+	 * 			The index
+	 * @throws IOException
+	 * 			If file could not be read or is not indexable
+	 */
+	public static FastaIndex open(File fasta) throws IOException {
+
+		File indexFile = new File(fasta.getPath() + SUFFIX);
+
+		if (indexFile.isFile() &&
+				indexFile.lastModified() >= fasta.lastModified()) {
+			return read(indexFile);
+		}
+
+		FastaIndex index = build(fasta);
+		try {
+			index.write(indexFile);
+		} catch (IOException e) {
+			//Not being able to cache the index is not fatal
+		}
+		return index;
+	}
+
+	/**
+	 * Reads an index file
+	 *
+	 * @param indexFile
+	 * 			The .fai file
+	 * @return
+	 * 			The index
+	 * @throws IOException
+	 * 			If file could not be read or is malformed
+	 */
+	public static FastaIndex read(File indexFile) throws IOException {
+
+		FastaIndex index = new FastaIndex();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+					new FileInputStream(indexFile), StandardCharsets.US_ASCII));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+
+				if (line.length() == 0) {
+					continue;
+				}
+				String[] fields = line.split("\t");
+				if (fields.length < 5) {
+					throw new IOException("Malformed index line: " + line);
+				}
+				try {
+					index.entries.add(new Entry(fields[0],
+								Long.parseLong(fields[1]),
+								Long.parseLong(fields[2]),
+								Integer.parseInt(fields[3]),
+								Integer.parseInt(fields[4])));
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed index line: " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return index;
+	}
+
+	/**
+	 * Builds an index by scanning a FASTA file once.
+	 *
+	 * @param fasta
+	 * 			The FASTA file
+	 * @return
+	 * 			The index
+	 * @throws IOException
+	 * 			If file could not be read or has irregular line lengths
+	 */
+	public static FastaIndex build(File fasta) throws IOException {
+
+		FastaIndex index = new FastaIndex();
+		Scanner scanner = index.new Scanner();
+		FileInputStream in = new FileInputStream(fasta);
+
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+
+			while (channel.read(buffer) >= 0) {
+
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					scanner.accept(buffer.get());
+				}
+				buffer.clear();
+			}
+			scanner.finish();
+		} finally {
+			in.close();
+		}
+		return index;
+	}
+
+	/**
+	 * Writes the index
+	 *
+	 * @param indexFile
+	 * 			The .fai file
+	 * @throws IOException
+	 * 			If file could not be written
+	 */
+	public void write(File indexFile) throws IOException {
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(indexFile), StandardCharsets.US_ASCII));
+		try {
+			for (Entry e: entries) {
+				writer.write(e.name + "\t" + e.length + "\t" + e.offset + "\t" +
+						e.lineBases + "\t" + e.lineWidth + "\n");
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Gets the entries
+	 *
+	 * @return
+	 * 			The entries in file order
+	 */
+	public List<Entry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Scanner is the byte-by-byte state machine that finds the records
+	 * and their line layout.
+	 */
+	private class Scanner {
+
+		/** Offset of the byte being scanned */
+		private long pos = 0;
+
+		/** If in a header line */
+		private boolean inHeader = false;
+
+		/** If the name part of the header is done */
+		private boolean nameDone = false;
+
+		/** If at the start of a line */
+		private boolean lineStart = true;
+
+		/** Name of current record */
+		private StringBuilder name = new StringBuilder();
+
+		/** If a record is being read */
+		private boolean inRecord = false;
+
+		/** Offset of first residue of current record */
+		private long offset;
+
+		/** Residues of current record */
+		private long length;
+
+		/** Residues per line of current record */
+		private int lineBases;
+
+		/** Bytes per line of current record */
+		private int lineWidth;
+
+		/** Residues in current line */
+		private int curBases;
+
+		/** Bytes in current line */
+		private int curWidth;
+
+		/** If a line shorter than the rest has been seen */
+		private boolean sawShort;
+
+		/** Handles next byte */
+		void accept(byte b) throws IOException {
+
+			if (lineStart && b == '>') {
+				finishRecord();
+				inHeader = true;
+				nameDone = false;
+				name.setLength(0);
+			} else if (inHeader) {
+				if (b == '\n') {
+					inHeader = false;
+					startRecord(pos + 1);
+				} else if (!nameDone) {
+					if (b == ' ' || b == '\t' || b == '\r') {
+						nameDone = true;
+					} else {
+						name.append((char) (b & 0xff));
+					}
+				}
+			} else if (inRecord) {
+				curWidth++;
+				if (b == '\n') {
+					finishLine(true);
+				} else if (b != '\r') {
+					curBases++;
+				}
+			}
+
+			lineStart = b == '\n';
+			pos++;
+		}
+
+		/** Handles end of file */
+		void finish() throws IOException {
+
+			if (inHeader) {
+				startRecord(pos);
+			}
+			if (curWidth > 0) {
+				finishLine(false);
+			}
+			finishRecord();
+		}
+
+		/** Starts a new record */
+		private void startRecord(long at) {
+
+			inRecord = true;
+			offset = at;
+			length = 0;
+			lineBases = -1;
+			lineWidth = -1;
+			curBases = 0;
+			curWidth = 0;
+			sawShort = false;
+		}
+
+		/**
+		 * Checks the layout of a finished line
+		 *
+		 * @param terminated
+		 * 			If the line ended with a line break, false for a last
+		 * 			line without one
+		 */
+		private void finishLine(boolean terminated) throws IOException {
+
+			if (curBases > 0) {
+
+				if (sawShort) {
+					throw irregular();
+				}
+				//A last line without line break is short by the terminator
+				if (!terminated && lineBases >= 0) {
+					curWidth += lineWidth - lineBases;
+				}
+				if (lineBases < 0) {
+					lineBases = curBases;
+					lineWidth = curWidth;
+				} else if (curBases > lineBases) {
+					throw irregular();
+				} else if (curBases < lineBases) {
+					sawShort = true;
+				} else if (curWidth != lineWidth) {
+					throw irregular();
+				}
+				length += curBases;
+
+			} else if (curWidth > 0) {
+				//Blank lines may only trail the record
+				sawShort = true;
+			}
+
+			curBases = 0;
+			curWidth = 0;
+		}
+
+		/** Adds the current record to the index */
+		private void finishRecord() {
+
+			if (!inRecord) {
+				return;
+			}
+			entries.add(new Entry(name.toString(), length, offset,
+						Math.max(lineBases, 0), Math.max(lineWidth, 0)));
+			inRecord = false;
+		}
+
+		/** Produces exception for irregular files */
+		private IOException irregular() {
+			return new IOException("Irregular line lengths in record " +
+					name + ", file can not be indexed");
+		}
+	}
+}
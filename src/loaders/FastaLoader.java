@@ -0,0 +1,115 @@
+
+package loaders;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import collector.Model;
+import sequences.NucleotideCode;
+import sequences.ResidueStore;
+import sequences.Sequence;
+
+/**
+ * FastaLoader opens a FASTA file as sequences without reading it.
+ *
+ * Each record is memory-mapped and the sequences read their residues
+ * from the mapping on demand, so opening is a matter of reading (or on
+ * the first open, building) the .fai index.
+ */
+public class FastaLoader {
+
+	/** Number of residues looked at when guessing the sequence type */
+	static final int TYPE_SAMPLE_SIZE = 1024;
+
+	/** Largest number of residues a sequence can hold in model-space */
+	static final long MAX_RESIDUES = (Integer.MAX_VALUE - 1) / 2;
+
+	/** The FASTA file */
+	private final File file;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 * 			The FASTA file
+	 */
+	public FastaLoader(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads all records as sequences of a model.
+	 *
+	 * @param model
+	 * 			The model the sequences belong to
+	 * @return
+	 * 			The sequences by record name, in file order
+	 * @throws IOException
+	 * 			If file could not be indexed or mapped
+	 */
+	public Map<String, Sequence> load(Model model) throws IOException {
+
+		FastaIndex index = FastaIndex.open(file);
+		Map<String, Sequence> sequences = new LinkedHashMap<String, Sequence>();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+
+			for (FastaIndex.Entry entry: index.getEntries()) {
+
+				if (entry.getLength() > MAX_RESIDUES) {
+					throw new IOException("Record " + entry.getName() +
+							" is too long for a sequence");
+				}
+
+				MappedByteBuffer region = channel.map(
+						FileChannel.MapMode.READ_ONLY, entry.getOffset(),
+						entry.getByteSpan());
+				ResidueStore store = new MappedFastaStore(region,
+						(int) entry.getLength(), entry.getLineBases(),
+						entry.getLineWidth());
+
+				Sequence seq = new Sequence(model);
+				seq.setSequenceType(guessType(store));
+				seq.setResidueStore(store);
+				sequences.put(entry.getName(), seq);
+			}
+		} finally {
+			raf.close();
+		}
+		return sequences;
+	}
+
+	/**
+	 * Guesses if the residues are nucleotides or amino acids from the
+	 * first residues.
+	 *
+	 * @param store
+	 * 			The residues
+	 * @return
+	 * 			The type
+	 */
+	static Sequence.SequenceType guessType(ResidueStore store) {
+
+		int n = Math.min(store.length(), TYPE_SAMPLE_SIZE);
+		if (n == 0) {
+			return Sequence.SequenceType.TYPE_UNKNOWN;
+		}
+
+		int nucleotides = 0;
+		for (int i = 0; i < n; i++) {
+			char c = store.charAt(i);
+			if (NucleotideCode.encode(c) >= 0 || c == 'N' || c == 'n') {
+				nucleotides++;
+			}
+		}
+
+		if (nucleotides * 10 >= n * 9) {
+			return Sequence.SequenceType.TYPE_NUCLEOTIDE;
+		}
+		return Sequence.SequenceType.TYPE_AMINOACID;
+	}
+}
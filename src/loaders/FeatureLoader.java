@@ -0,0 +1,522 @@
+
+package loaders;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.GZIPInputStream;
+
+import annotation.Feature;
+import annotation.documentation.AnnotationDocumentation;
+import annotation.documentation.DocumentationField;
+import collector.Model;
+import modelobject.ModelObject;
+import sequences.PackedNucleotideStore;
+import sequences.ResidueStore;
+import sequences.Sequence;
+import sequences.StringResidueStore;
+import topologies.Compound;
+import topologies.Topology;
+
+/**
+ * FeatureLoader reads the features of a feature file (GenBank, EMBL,
+ * GFF3) as annotations of sequences.
+ *
+ * The file is streamed: one thread reads lines and cuts them into
+ * batches of whole records, the batches are parsed on a fork-join pool
+ * and the parsed records are added to the model in file order, one
+ * model batch at a time, while the next batches are parsed. No more
+ * than two batches per thread of the pool are held at once, so files
+ * of any size are read in bounded memory besides what they add to the
+ * model. Feature keys and other often repeated strings are interned,
+ * and text is gathered in pooled builders.
+ *
+ * Each feature becomes a <code>Feature</code> of its key as type, on
+ * the topology of its location: a <code>Singularity</code> for a site,
+ * a <code>Segment</code> for a range and a <code>Compound</code> with
+ * the parts as children for <code>join</code>, <code>order</code> and
+ * <code>complement</code>. Files ending with <code>.gz</code> are read
+ * through gzip. A loader reads one file at a time.
+ */
+public abstract class FeatureLoader {
+
+	/** Default lines per parsed batch */
+	public static final int DEFAULT_BATCH_LINES = 1 << 14;
+
+	/** Most strings interned per load */
+	private static final int MAX_INTERNED = 1 << 16;
+
+	/** Largest builder kept for reuse, in characters */
+	private static final int MAX_POOLED_CAPACITY = 1 << 16;
+
+	/**
+	 * Joined is a feature whose parts are given as several entries
+	 */
+	private static final class Joined {
+
+		/** The feature */
+		final Feature feature;
+
+		/** The topology of the first entry */
+		final Topology first;
+
+		/** The join of the parts, null while there is one */
+		Compound join;
+
+		/**
+		 * Constructor
+		 *
+		 * @param feature
+		 * 			The feature
+		 * @param first
+		 * 			The topology of the first entry
+		 */
+		Joined(Feature feature, Topology first) {
+
+			this.feature = feature;
+			this.first = first;
+		}
+	}
+
+	/** The feature file */
+	private final File file;
+
+	/** The pool parsing batches */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/** Lines per parsed batch */
+	private int batchLines = DEFAULT_BATCH_LINES;
+
+	/** Interned strings */
+	private final ConcurrentHashMap<String, String> strings =
+		new ConcurrentHashMap<String, String>();
+
+	/** Builders for reuse */
+	private final ConcurrentLinkedQueue<StringBuilder> builders =
+		new ConcurrentLinkedQueue<StringBuilder>();
+
+	/** Features not loaded in the last load */
+	private int skipped = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 * 			The feature file
+	 */
+	FeatureLoader(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Sets the pool that parses batches
+	 *
+	 * @param pool
+	 * 			The pool, the common pool by default
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the number of lines per parsed batch. Batches are only cut
+	 * between records, so may be longer.
+	 *
+	 * @param batchLines
+	 * 			Lines per batch
+	 */
+	public void setBatchLines(int batchLines) {
+
+		if (batchLines < 1) {
+			throw new IllegalArgumentException("Invalid batch size " +
+					batchLines);
+		}
+		this.batchLines = batchLines;
+	}
+
+	/**
+	 * Gets the number of features of the last load that were left out,
+	 * such as those with malformed locations or only on other entries,
+	 * and of parts of loaded features left out for lying on other
+	 * entries
+	 *
+	 * @return
+	 * 			The number of features and parts
+	 */
+	public int getSkipped() {
+		return skipped;
+	}
+
+	/**
+	 * Loads the features and the sequences they are on
+	 *
+	 * @param model
+	 * 			The model the sequences belong to
+	 * @return
+	 * 			The sequences by name, in file order
+	 * @throws IOException
+	 * 			If the file could not be read
+	 */
+	public Map<String, Sequence> load(Model model) throws IOException {
+		return load(model, new LinkedHashMap<String, Sequence>());
+	}
+
+	/**
+	 * Loads the features onto sequences, such as those of a FASTA file.
+	 * Sequences that are not given are made, with the residues of the
+	 * file if it has them; the residues of given sequences are kept.
+	 *
+	 * @param model
+	 * 			The model the sequences belong to
+	 * @param sequences
+	 * 			The sequences by name, to which made sequences are added
+	 * @return
+	 * 			The sequences
+	 * @throws IOException
+	 * 			If the file could not be read
+	 */
+	public Map<String, Sequence> load(Model model,
+			Map<String, Sequence> sequences) throws IOException {
+
+		skipped = 0;
+		strings.clear();
+		Map<String, Joined> joined = new HashMap<String, Joined>();
+		Deque<ForkJoinTask<List<FeatureRecord>>> pending =
+			new ArrayDeque<ForkJoinTask<List<FeatureRecord>>>();
+		int window = 2 * pool.getParallelism();
+
+		BufferedReader in = open();
+		try {
+			startReading();
+			List<String> batch = new ArrayList<String>();
+			String line;
+			while ((line = in.readLine()) != null) {
+
+				if (startsRecord(line) && batch.size() >= batchLines) {
+
+					pending.addLast(submit(batch));
+					batch = new ArrayList<String>();
+					while (pending.size() > window) {
+						add(model, sequences, joined, pending.removeFirst().join());
+					}
+				}
+				batch.add(line);
+			}
+			if (!batch.isEmpty()) {
+				pending.addLast(submit(batch));
+			}
+			while (!pending.isEmpty()) {
+				add(model, sequences, joined, pending.removeFirst().join());
+			}
+		} finally {
+			for (ForkJoinTask<List<FeatureRecord>> task: pending) {
+				task.cancel(false);
+			}
+			in.close();
+			strings.clear();
+		}
+		return sequences;
+	}
+
+	/**
+	 * Opens the file for reading lines
+	 *
+	 * @return
+	 * 			The reader
+	 * @throws IOException
+	 * 			If the file could not be opened
+	 */
+	private BufferedReader open() throws IOException {
+
+		InputStream stream = new FileInputStream(file);
+		try {
+			if (file.getName().endsWith(".gz")) {
+				stream = new GZIPInputStream(stream, 1 << 16);
+			}
+		} catch (IOException e) {
+			stream.close();
+			throw e;
+		}
+		return new BufferedReader(new InputStreamReader(stream,
+					StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	/**
+	 * Starts parsing a batch on the pool
+	 *
+	 * @param lines
+	 * 			The lines of the batch
+	 * @return
+	 * 			The task
+	 */
+	private ForkJoinTask<List<FeatureRecord>> submit(final List<String> lines) {
+
+		return pool.submit(new Callable<List<FeatureRecord>>() {
+			@Override
+			public List<FeatureRecord> call() {
+				return parse(lines);
+			}
+		});
+	}
+
+	/**
+	 * Adds parsed records to the model
+	 *
+	 * @param model
+	 * 			The model
+	 * @param sequences
+	 * 			The sequences by name
+	 * @param joined
+	 * 			Features with identifiers, by identifier
+	 * @param records
+	 * 			The records
+	 */
+	private void add(Model model, Map<String, Sequence> sequences,
+			Map<String, Joined> joined, List<FeatureRecord> records) {
+
+		model.beginBatch();
+		try {
+			for (FeatureRecord record: records) {
+
+				skipped += record.skipped;
+				if (record.closesIdentifiers) {
+					joined.clear();
+				}
+				if (record.name == null) {
+					continue;
+				}
+
+				Sequence seq = getSequence(model, sequences, record);
+				for (FeatureRecord.Entry entry: record.entries) {
+
+					Joined part = entry.id == null ? null : joined.get(entry.id);
+					if (part != null &&
+							part.feature.getAnnotates().contains(seq)) {
+						addPart(model, part, entry.location.toTopology(model, seq));
+						continue;
+					}
+
+					Feature feature = new Feature(seq);
+					feature.setType(entry.key);
+					document(feature.getDocumentation(), entry, record);
+					Topology top = entry.location.toTopology(model, seq);
+					feature.setTopology(top);
+					seq.addAnnotation(feature);
+					if (entry.id != null) {
+						joined.put(entry.id, new Joined(feature, top));
+					}
+				}
+			}
+		} finally {
+			model.endBatch();
+		}
+	}
+
+	/**
+	 * Gets the sequence of a record, making it if needed
+	 *
+	 * @param model
+	 * 			The model
+	 * @param sequences
+	 * 			The sequences by name
+	 * @param record
+	 * 			The record
+	 * @return
+	 * 			The sequence
+	 */
+	private static Sequence getSequence(Model model,
+			Map<String, Sequence> sequences, FeatureRecord record) {
+
+		Sequence seq = sequences.get(record.name);
+		if (seq == null) {
+
+			seq = new Sequence(model);
+			if (record.circular) {
+				seq.setShape(ModelObject.PhysicalShape.SHAPE_CIRCULAR);
+			}
+			sequences.put(record.name, seq);
+		}
+		if (record.residues != null && seq.getResidueStore().length() == 0) {
+
+			seq.setSequenceType(record.type != null ? record.type :
+					FastaLoader.guessType(record.residues));
+			seq.setResidueStore(record.residues);
+		}
+		return seq;
+	}
+
+	/**
+	 * Adds a part to a feature given as several entries, joining the
+	 * parts if it is the second
+	 *
+	 * @param model
+	 * 			The model
+	 * @param part
+	 * 			The feature
+	 * @param top
+	 * 			The topology of the part
+	 */
+	private static void addPart(Model model, Joined part, Topology top) {
+
+		if (part.join == null) {
+
+			part.join = new Compound(model, "join");
+			part.feature.removeTopology(part.first);
+			part.join.addTopology(part.first);
+		}
+		part.join.addTopology(top);
+		part.feature.setTopology(part.join);
+	}
+
+	/**
+	 * Fills in the documentation of a feature, from the entry where it
+	 * has the field and otherwise from its record
+	 *
+	 * @param doc
+	 * 			The documentation
+	 * @param entry
+	 * 			The feature entry
+	 * @param record
+	 * 			The record of the entry
+	 */
+	private static void document(AnnotationDocumentation doc,
+			FeatureRecord.Entry entry, FeatureRecord record) {
+
+		set(doc.caption, entry.caption, null);
+		set(doc.title, entry.title, record.title);
+		set(doc.publication, record.publication, null);
+		set(doc.link, entry.link, record.link);
+		set(doc.doi, entry.doi, record.doi);
+	}
+
+	/**
+	 * Sets a documentation field if there is a value
+	 *
+	 * @param field
+	 * 			The field
+	 * @param value
+	 * 			The value, null if none
+	 * @param fallback
+	 * 			The value if there is none, null if none
+	 */
+	private static void set(DocumentationField field, String value,
+			String fallback) {
+
+		if (value != null) {
+			field.set(value);
+		} else if (fallback != null) {
+			field.set(fallback);
+		}
+	}
+
+	/**
+	 * Called on the reading thread before the first line of a load,
+	 * to reset what <code>startsRecord</code> keeps track of
+	 */
+	void startReading() {
+		//Defualt behaviour
+	}
+
+	/**
+	 * Tells if a line starts a record, so that a batch may be cut before
+	 * it. Called on the reading thread for every line in file order.
+	 *
+	 * @param line
+	 * 			The line
+	 * @return
+	 * 			If a batch may start with the line
+	 */
+	abstract boolean startsRecord(String line);
+
+	/**
+	 * Parses a batch of lines. Called on the pool, so must only use
+	 * what is given and the thread safe helpers of the loader.
+	 *
+	 * @param lines
+	 * 			The lines, starting at a record unless first of the file
+	 * @return
+	 * 			The records in file order
+	 */
+	abstract List<FeatureRecord> parse(List<String> lines);
+
+	/**
+	 * Gets the one copy of an often repeated string, such as a feature
+	 * key, while there are not too many
+	 *
+	 * @param s
+	 * 			The string
+	 * @return
+	 * 			The equal string kept by the loader
+	 */
+	String intern(String s) {
+
+		String kept = strings.get(s);
+		if (kept != null) {
+			return kept;
+		}
+		if (strings.size() >= MAX_INTERNED) {
+			return s;
+		}
+		kept = strings.putIfAbsent(s, s);
+		return kept != null ? kept : s;
+	}
+
+	/**
+	 * Takes an empty builder
+	 *
+	 * @return
+	 * 			The builder
+	 */
+	StringBuilder takeBuilder() {
+
+		StringBuilder builder = builders.poll();
+		return builder != null ? builder : new StringBuilder(256);
+	}
+
+	/**
+	 * Gets the text of a builder and gives it back for reuse
+	 *
+	 * @param builder
+	 * 			The builder
+	 * @return
+	 * 			The text
+	 */
+	String release(StringBuilder builder) {
+
+		String s = builder.toString();
+		if (builder.capacity() <= MAX_POOLED_CAPACITY) {
+			builder.setLength(0);
+			builders.offer(builder);
+		}
+		return s;
+	}
+
+	/**
+	 * Makes the store of read residues
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param type
+	 * 			Their type, null to guess it
+	 * @return
+	 * 			The store
+	 */
+	static ResidueStore toStore(CharSequence residues,
+			Sequence.SequenceType type) {
+
+		if (type == null) {
+			int n = Math.min(residues.length(), FastaLoader.TYPE_SAMPLE_SIZE);
+			type = FastaLoader.guessType(new StringResidueStore(
+						residues.subSequence(0, n).toString()));
+		}
+		if (type == Sequence.SequenceType.TYPE_NUCLEOTIDE) {
+			return new PackedNucleotideStore(residues);
+		}
+		return new StringResidueStore(residues.toString());
+	}
+}
@@ -0,0 +1,108 @@
+
+package loaders;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sequences.ResidueStore;
+import sequences.Sequence;
+
+/**
+ * FeatureRecord is what was parsed of a record of a feature file, ready
+ * to be added to a model: the sequence it is about and its features.
+ *
+ * Records are made by the parsing threads and only read afterwards.
+ */
+final class FeatureRecord {
+
+	/**
+	 * Entry is a parsed feature
+	 */
+	static final class Entry {
+
+		/** The feature key, as "CDS" */
+		final String key;
+
+		/** Where the feature lies */
+		final Location location;
+
+		/** Short description, null if none */
+		final String caption;
+
+		/** Title, null for the title of the record */
+		final String title;
+
+		/** Link, null for the link of the record */
+		final String link;
+
+		/** DOI, null for the DOI of the record */
+		final String doi;
+
+		/** Identifier joining entries into one feature, null if none */
+		final String id;
+
+		/**
+		 * Constructor
+		 *
+		 * @param key
+		 * 			The feature key
+		 * @param location
+		 * 			Where the feature lies
+		 * @param caption
+		 * 			Short description, null if none
+		 * @param title
+		 * 			Title, null for the title of the record
+		 * @param link
+		 * 			Link, null for the link of the record
+		 * @param doi
+		 * 			DOI, null for the DOI of the record
+		 * @param id
+		 * 			Identifier joining entries into one feature, null
+		 * 			if none
+		 */
+		Entry(String key, Location location, String caption, String title,
+				String link, String doi, String id) {
+
+			this.key = key;
+			this.location = location;
+			this.caption = caption;
+			this.title = title;
+			this.link = link;
+			this.doi = doi;
+			this.id = id;
+		}
+	}
+
+	/** Name of the sequence, null for records without one */
+	String name;
+
+	/** The type of the residues, null if not known */
+	Sequence.SequenceType type;
+
+	/** If the sequence is circular */
+	boolean circular;
+
+	/** The residues, null if the record has none */
+	ResidueStore residues;
+
+	/** Title of the first reference */
+	String title;
+
+	/** Journal of the first reference */
+	String publication;
+
+	/** Link to the first reference */
+	String link;
+
+	/** DOI of the first reference */
+	String doi;
+
+	/** If identifiers seen so far are not to be joined with later ones */
+	boolean closesIdentifiers;
+
+	/** Features, and parts of features, that could not be read */
+	int skipped;
+
+	/** The features */
+	final List<Entry> entries = new ArrayList<Entry>();
+}
@@ -0,0 +1,249 @@
+
+package loaders;
+
+/**
+ * FeatureTable parses the lines of an INSDC feature table into the
+ * entries of a record. GenBank and EMBL lay the table out alike: the
+ * feature key starts at column 5 and the location and qualifiers at
+ * column 21, continuing on lines with nothing before column 21.
+ *
+ * Only the qualifiers that have a place in the documentation of a
+ * feature are kept: <code>/label</code>, <code>/gene</code> or
+ * <code>/locus_tag</code> as caption and <code>/product</code> or
+ * <code>/note</code> as title.
+ */
+final class FeatureTable {
+
+	/** Column of the feature key */
+	private static final int KEY_COLUMN = 5;
+
+	/** Column of locations and qualifiers */
+	private static final int VALUE_COLUMN = 21;
+
+	/** Qualifiers kept for the caption, in order of preference */
+	private static final String[] CAPTIONS = {"label", "gene", "locus_tag"};
+
+	/** Qualifiers kept for the title, in order of preference */
+	private static final String[] TITLES = {"product", "note"};
+
+	/** The loader, for interning and builders */
+	private final FeatureLoader loader;
+
+	/** The record the entries are added to */
+	private final FeatureRecord record;
+
+	/** Key of the feature being read, null if none */
+	private String key;
+
+	/** Location of the feature being read */
+	private StringBuilder location;
+
+	/** If the qualifiers of the feature have started */
+	private boolean inQualifiers;
+
+	/** Values of kept qualifiers, by place in CAPTIONS then TITLES */
+	private final String[] values = new String[CAPTIONS.length +
+		TITLES.length];
+
+	/** Place in values of the qualifier being read, -1 if not kept */
+	private int qualifier = -1;
+
+	/** Value of the kept qualifier being read */
+	private StringBuilder value;
+
+	/** If the qualifier being read has an open quote */
+	private boolean inQuote;
+
+	/**
+	 * Constructor
+	 *
+	 * @param loader
+	 * 			The loader
+	 * @param record
+	 * 			The record the entries are added to
+	 */
+	FeatureTable(FeatureLoader loader, FeatureRecord record) {
+
+		this.loader = loader;
+		this.record = record;
+	}
+
+	/**
+	 * Reads a line of the table
+	 *
+	 * @param line
+	 * 			The line, with its line type (as "FT") if any
+	 */
+	void add(String line) {
+
+		if (line.length() > KEY_COLUMN && line.charAt(KEY_COLUMN) != ' ' &&
+				!inQuote) {
+
+			finish();
+			int end = Math.min(line.length(), VALUE_COLUMN);
+			key = loader.intern(line.substring(KEY_COLUMN, end).trim());
+			location = loader.takeBuilder();
+			inQualifiers = false;
+			if (line.length() > VALUE_COLUMN) {
+				location.append(line, VALUE_COLUMN, line.length());
+			}
+			return;
+		}
+		if (key == null || line.length() <= VALUE_COLUMN) {
+			return;
+		}
+
+		String text = line.substring(VALUE_COLUMN).trim();
+		if (!inQuote && text.startsWith("/")) {
+
+			endQualifier();
+			inQualifiers = true;
+			int eq = text.indexOf('=');
+			String name = eq < 0 ? text.substring(1) : text.substring(1, eq);
+			qualifier = indexOf(name);
+			text = eq < 0 ? "" : text.substring(eq + 1);
+			if (qualifier >= 0) {
+				value = loader.takeBuilder();
+			}
+		} else if (!inQualifiers) {
+			location.append(text);
+			return;
+		} else if (value != null && value.length() > 0) {
+			value.append(' ');
+		}
+
+		for (int i = 0; i < text.length(); i++) {
+			if (text.charAt(i) == '"') {
+				inQuote = !inQuote;
+			}
+		}
+		if (value != null) {
+			value.append(text);
+		}
+	}
+
+	/**
+	 * Adds the feature being read, if any, to the record
+	 */
+	void finish() {
+
+		if (key == null) {
+			return;
+		}
+		endQualifier();
+		inQuote = false;
+
+		String text = loader.release(location);
+		Location parsed = Location.parse(removeSpace(text));
+		if (parsed == null) {
+			record.skipped++;
+		} else {
+
+			record.skipped += parsed.getRemoteParts();
+			record.entries.add(new FeatureRecord.Entry(key, parsed,
+					first(0, CAPTIONS.length),
+					first(CAPTIONS.length, values.length), null, null, null));
+		}
+		for (int i = 0; i < values.length; i++) {
+			values[i] = null;
+		}
+		key = null;
+		location = null;
+	}
+
+	/**
+	 * Keeps the value of the qualifier being read if it is the first
+	 * of its name
+	 */
+	private void endQualifier() {
+
+		if (value != null) {
+
+			String text = loader.release(value);
+			if (values[qualifier] == null) {
+				values[qualifier] = unquote(text);
+			}
+		}
+		value = null;
+		qualifier = -1;
+	}
+
+	/**
+	 * Gets the first kept value in a range of qualifiers
+	 *
+	 * @param from
+	 * 			First place in values
+	 * @param to
+	 * 			Place after the last
+	 * @return
+	 * 			The value or null if none
+	 */
+	private String first(int from, int to) {
+
+		for (int i = from; i < to; i++) {
+			if (values[i] != null && values[i].length() > 0) {
+				return values[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the place of a kept qualifier
+	 *
+	 * @param name
+	 * 			The qualifier name
+	 * @return
+	 * 			The place in values or -1 if not kept
+	 */
+	private static int indexOf(String name) {
+
+		for (int i = 0; i < CAPTIONS.length; i++) {
+			if (CAPTIONS[i].equals(name)) {
+				return i;
+			}
+		}
+		for (int i = 0; i < TITLES.length; i++) {
+			if (TITLES[i].equals(name)) {
+				return CAPTIONS.length + i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Removes the quotes around a qualifier value, reading doubled
+	 * quotes as one
+	 *
+	 * @param text
+	 * 			The value
+	 * @return
+	 * 			The text
+	 */
+	static String unquote(String text) {
+
+		if (text.length() >= 2 && text.startsWith("\"") && text.endsWith("\"")) {
+			text = text.substring(1, text.length() - 1);
+		}
+		return text.replace("\"\"", "\"");
+	}
+
+	/**
+	 * Removes white space, as locations may be broken over lines
+	 *
+	 * @param text
+	 * 			The text
+	 * @return
+	 * 			The text without white space
+	 */
+	private static String removeSpace(String text) {
+
+		StringBuilder builder = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			if (!Character.isWhitespace(text.charAt(i))) {
+				builder.append(text.charAt(i));
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,264 @@
+
+package loaders;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import sequences.Sequence;
+
+/**
+ * GenBankLoader reads GenBank flat files: each record from
+ * <code>LOCUS</code> to <code>//</code> becomes a sequence, with its
+ * residues from <code>ORIGIN</code> and its feature table as features.
+ *
+ * The <code>LOCUS</code> line gives the name, if the residues are amino
+ * acids and if the sequence is circular. The first reference gives the
+ * title, publication, link (from <code>PUBMED</code>) and DOI of the
+ * features that have none of their own.
+ */
+public class GenBankLoader extends FeatureLoader {
+
+	/** Column where the text of header lines starts */
+	private static final int TEXT_COLUMN = 12;
+
+	/** A DOI anywhere in a text */
+	static final Pattern DOI = Pattern.compile("10\\.\\d{4,9}/\\S+");
+
+	/** Start of PubMed links */
+	static final String PUBMED_LINK = "https://pubmed.ncbi.nlm.nih.gov/";
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 * 			The GenBank file, gzipped if ending with .gz
+	 */
+	public GenBankLoader(File file) {
+		super(file);
+	}
+
+	@Override
+	boolean startsRecord(String line) {
+		return line.startsWith("LOCUS");
+	}
+
+	@Override
+	List<FeatureRecord> parse(List<String> lines) {
+
+		List<FeatureRecord> records = new ArrayList<FeatureRecord>();
+		FeatureRecord record = null;
+		FeatureTable table = null;
+		StringBuilder residues = null;
+		StringBuilder field = null;
+		String fieldName = null;
+		int references = 0;
+		boolean inFeatures = false;
+
+		for (String line: lines) {
+
+			if (line.startsWith("LOCUS")) {
+
+				if (record != null) {
+					finish(record, table, residues);
+				}
+				record = readLocus(line);
+				records.add(record);
+				table = new FeatureTable(this, record);
+				residues = null;
+				fieldName = null;
+				field = null;
+				references = 0;
+				inFeatures = false;
+				continue;
+			}
+			if (record == null) {
+				continue;
+			}
+
+			if (line.startsWith("//")) {
+
+				setField(record, fieldName, field);
+				finish(record, table, residues);
+				record = null;
+				fieldName = null;
+				field = null;
+				continue;
+			}
+			if (residues != null) {
+
+				appendResidues(residues, line);
+				continue;
+			}
+
+			boolean continued = line.length() > TEXT_COLUMN &&
+				line.substring(0, TEXT_COLUMN).trim().isEmpty();
+			if (inFeatures && (continued || line.startsWith("     "))) {
+
+				table.add(line);
+				continue;
+			}
+			if (continued) {
+
+				if (field != null) {
+					field.append(' ').append(line.substring(TEXT_COLUMN).trim());
+				}
+				continue;
+			}
+
+			setField(record, fieldName, field);
+			fieldName = null;
+			field = null;
+			if (inFeatures) {
+				table.finish();
+				inFeatures = false;
+			}
+
+			String name = line.length() > TEXT_COLUMN ?
+				line.substring(0, TEXT_COLUMN).trim() : line.trim();
+			String text = line.length() > TEXT_COLUMN ?
+				line.substring(TEXT_COLUMN).trim() : "";
+			if (name.equals("REFERENCE")) {
+				references++;
+			} else if (name.equals("FEATURES")) {
+				inFeatures = true;
+			} else if (name.equals("ORIGIN")) {
+				residues = new StringBuilder();
+			} else if (references == 1 && (name.equals("TITLE") ||
+					name.equals("JOURNAL") || name.equals("PUBMED") ||
+					name.equals("REMARK"))) {
+
+				fieldName = name;
+				field = takeBuilder().append(text);
+			}
+		}
+		if (record != null) {
+
+			setField(record, fieldName, field);
+			finish(record, table, residues);
+		}
+		return records;
+	}
+
+	/**
+	 * Reads the <code>LOCUS</code> line of a record
+	 *
+	 * @param line
+	 * 			The line
+	 * @return
+	 * 			The record
+	 */
+	private static FeatureRecord readLocus(String line) {
+
+		FeatureRecord record = new FeatureRecord();
+		String[] tokens = line.trim().split("\\s+");
+		record.name = tokens.length > 1 ? tokens[1] : "";
+		for (int i = 2; i < tokens.length; i++) {
+
+			if (tokens[i].equals("aa")) {
+				record.type = Sequence.SequenceType.TYPE_AMINOACID;
+			} else if (tokens[i].equals("bp")) {
+				record.type = Sequence.SequenceType.TYPE_NUCLEOTIDE;
+			} else if (tokens[i].equalsIgnoreCase("circular")) {
+				record.circular = true;
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * Keeps a field of the first reference
+	 *
+	 * @param record
+	 * 			The record
+	 * @param name
+	 * 			The field name, null if none is being read
+	 * @param field
+	 * 			The field text
+	 */
+	private void setField(FeatureRecord record, String name,
+			StringBuilder field) {
+
+		if (name == null) {
+			return;
+		}
+		String text = release(field);
+		if (name.equals("TITLE")) {
+			record.title = text;
+		} else if (name.equals("JOURNAL")) {
+			record.publication = text;
+		} else if (name.equals("PUBMED")) {
+			record.link = PUBMED_LINK + text + "/";
+		}
+		if (record.doi == null && !name.equals("PUBMED")) {
+			record.doi = findDoi(text);
+		}
+	}
+
+	/**
+	 * Ends a record
+	 *
+	 * @param record
+	 * 			The record
+	 * @param table
+	 * 			Its feature table
+	 * @param residues
+	 * 			Its residues, null if it has none
+	 */
+	private static void finish(FeatureRecord record, FeatureTable table,
+			StringBuilder residues) {
+
+		table.finish();
+		if (residues != null) {
+
+			record.residues = toStore(residues, record.type);
+			if (record.type == null) {
+				record.type = FastaLoader.guessType(record.residues);
+			}
+		}
+	}
+
+	/**
+	 * Appends the residues of a sequence line, leaving out numbers and
+	 * white space
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param line
+	 * 			The line
+	 */
+	static void appendResidues(StringBuilder residues, String line) {
+
+		for (int i = 0, n = line.length(); i < n; i++) {
+
+			char c = line.charAt(i);
+			if (Character.isLetter(c) || c == '*' || c == '-') {
+				residues.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Finds a DOI in a text
+	 *
+	 * @param text
+	 * 			The text
+	 * @return
+	 * 			The DOI or null if none
+	 */
+	static String findDoi(String text) {
+
+		Matcher m = DOI.matcher(text);
+		if (!m.find()) {
+			return null;
+		}
+		String doi = m.group();
+		while (doi.endsWith(".") || doi.endsWith(",") || doi.endsWith(";") ||
+				doi.endsWith(")")) {
+			doi = doi.substring(0, doi.length() - 1);
+		}
+		return doi;
+	}
+}
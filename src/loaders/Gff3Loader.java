@@ -0,0 +1,265 @@
+
+package loaders;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Gff3Loader reads GFF3 files: each feature line becomes a feature on
+ * the sequence of its <code>seqid</code>, and the records of a
+ * <code>##FASTA</code> section give the residues of the sequences.
+ *
+ * Lines sharing an <code>ID</code> make up one feature joined from
+ * their parts, until a <code>###</code> line. The attributes give the
+ * documentation: <code>Name</code> (or else <code>ID</code>) the
+ * caption, <code>product</code> or <code>Note</code> the title and
+ * <code>Dbxref</code> the DOI and PubMed link. Features on the minus
+ * strand are the complement of their range, and a region with
+ * <code>Is_circular=true</code> makes its sequence circular.
+ */
+public class Gff3Loader extends FeatureLoader {
+
+	/** Columns of a feature line */
+	private static final int COLUMNS = 9;
+
+	/** If the reading thread is in the FASTA section */
+	private boolean inFasta = false;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 * 			The GFF3 file, gzipped if ending with .gz
+	 */
+	public Gff3Loader(File file) {
+		super(file);
+	}
+
+	@Override
+	void startReading() {
+		inFasta = false;
+	}
+
+	@Override
+	boolean startsRecord(String line) {
+
+		if (line.startsWith(">")) {
+			inFasta = true;
+			return true;
+		}
+		if (inFasta) {
+			return false;
+		}
+		if (line.startsWith("##FASTA")) {
+			inFasta = true;
+			return true;
+		}
+		return !line.startsWith("#");
+	}
+
+	@Override
+	List<FeatureRecord> parse(List<String> lines) {
+
+		List<FeatureRecord> records = new ArrayList<FeatureRecord>();
+		FeatureRecord record = null;
+		StringBuilder residues = null;
+		boolean inFasta = false;
+		boolean closes = false;
+
+		for (String line: lines) {
+
+			if (line.startsWith(">")) {
+
+				finishResidues(record, residues);
+				inFasta = true;
+				record = new FeatureRecord();
+				record.name = readName(line);
+				records.add(record);
+				residues = new StringBuilder();
+			} else if (inFasta) {
+
+				if (residues != null) {
+					GenBankLoader.appendResidues(residues, line);
+				}
+			} else if (line.startsWith("##FASTA")) {
+
+				inFasta = true;
+				record = null;
+			} else if (line.startsWith("###")) {
+
+				closes = true;
+				record = null;
+			} else if (!line.startsWith("#") && !line.trim().isEmpty()) {
+
+				String[] columns = line.split("\t", -1);
+				if (columns.length != COLUMNS) {
+
+					if (record == null) {
+						record = new FeatureRecord();
+						records.add(record);
+					}
+					record.skipped++;
+					continue;
+				}
+				String name = unescape(columns[0]);
+				if (record == null || !name.equals(record.name)) {
+
+					record = new FeatureRecord();
+					record.name = name;
+					record.closesIdentifiers = closes;
+					closes = false;
+					records.add(record);
+				}
+				readFeature(record, columns);
+			}
+		}
+		finishResidues(record, residues);
+		if (closes) {
+
+			//Let a trailing ### close what comes before the next batch
+			record = new FeatureRecord();
+			record.closesIdentifiers = true;
+			records.add(record);
+		}
+		return records;
+	}
+
+	/**
+	 * Reads a feature line into a record
+	 *
+	 * @param record
+	 * 			The record of the sequence
+	 * @param columns
+	 * 			The columns of the line
+	 */
+	private void readFeature(FeatureRecord record, String[] columns) {
+
+		Location location;
+		try {
+			int start = Integer.parseInt(columns[3].trim());
+			int end = Integer.parseInt(columns[4].trim());
+			if (start < 1 || end < start) {
+				record.skipped++;
+				return;
+			}
+			location = new Location(start == end ? Location.Kind.SITE :
+					Location.Kind.RANGE, start, end);
+		} catch (NumberFormatException e) {
+			record.skipped++;
+			return;
+		}
+		if (columns[6].equals("-")) {
+			location = Location.complement(location);
+		}
+
+		String id = null;
+		String caption = null;
+		String title = null;
+		String link = null;
+		String doi = null;
+		for (String attribute: columns[8].split(";")) {
+
+			int eq = attribute.indexOf('=');
+			if (eq < 0) {
+				continue;
+			}
+			String tag = attribute.substring(0, eq).trim();
+			String value = attribute.substring(eq + 1);
+			if (tag.equals("ID")) {
+				id = unescape(value);
+			} else if (tag.equals("Name")) {
+				caption = unescape(value);
+			} else if (tag.equals("product") ||
+					tag.equals("Note") && title == null) {
+				title = unescape(value);
+			} else if (tag.equals("Is_circular")) {
+				record.circular |= value.equals("true");
+			} else if (tag.equals("Dbxref")) {
+
+				for (String xref: value.split(",")) {
+
+					xref = unescape(xref);
+					if (xref.startsWith("DOI:")) {
+						doi = xref.substring(4);
+					} else if (xref.startsWith("PMID:") ||
+							xref.startsWith("PubMed:")) {
+						link = GenBankLoader.PUBMED_LINK +
+							xref.substring(xref.indexOf(':') + 1) + "/";
+					}
+				}
+			}
+		}
+		record.entries.add(new FeatureRecord.Entry(
+					intern(unescape(columns[2])), location,
+					caption != null ? caption : id, title, link, doi, id));
+	}
+
+	/**
+	 * Gives a record of the FASTA section its residues
+	 *
+	 * @param record
+	 * 			The record, null if none
+	 * @param residues
+	 * 			Its residues, null if none
+	 */
+	private static void finishResidues(FeatureRecord record,
+			StringBuilder residues) {
+
+		if (record == null || residues == null) {
+			return;
+		}
+		record.residues = toStore(residues, null);
+		record.type = FastaLoader.guessType(record.residues);
+	}
+
+	/**
+	 * Reads the name of a FASTA header
+	 *
+	 * @param line
+	 * 			The header
+	 * @return
+	 * 			The name, up to the first white space
+	 */
+	private static String readName(String line) {
+
+		String header = line.substring(1).trim();
+		int end = 0;
+		while (end < header.length() &&
+				!Character.isWhitespace(header.charAt(end))) {
+			end++;
+		}
+		return unescape(header.substring(0, end));
+	}
+
+	/**
+	 * Reads the escapes (as <code>%3B</code>) of a column or value
+	 *
+	 * @param text
+	 * 			The text
+	 * @return
+	 * 			The text without escapes
+	 */
+	static String unescape(String text) {
+
+		if (text.indexOf('%') < 0) {
+			return text;
+		}
+		StringBuilder builder = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+
+			char c = text.charAt(i);
+			if (c == '%' && i + 2 < text.length() &&
+					Character.digit(text.charAt(i + 1), 16) >= 0 &&
+					Character.digit(text.charAt(i + 2), 16) >= 0) {
+
+				builder.append((char) Integer.parseInt(
+							text.substring(i + 1, i + 3), 16));
+				i += 2;
+			} else {
+				builder.append(c);
+			}
+		}
+		return builder.toString();
+	}
+}
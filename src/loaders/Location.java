@@ -0,0 +1,337 @@
+
+package loaders;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import collector.Model;
+import point.Point;
+import sequences.Sequence;
+import topologies.Compound;
+import topologies.Segment;
+import topologies.Singularity;
+import topologies.Topology;
+
+/**
+ * Location is a parsed feature location of the INSDC feature table, as
+ * used by GenBank and EMBL: residue positions counted from one, ranges
+ * <code>a..b</code>, sites <code>a</code>, places between residues
+ * <code>a^b</code> and the operators <code>join</code>,
+ * <code>order</code> and <code>complement</code>.
+ *
+ * Locations are only text until they are made into topologies, so
+ * they can be parsed on any thread.
+ */
+final class Location {
+
+	/**
+	 * Kind is the form of a location
+	 */
+	enum Kind {
+
+		/** A single residue */
+		SITE(null),
+
+		/** Residues from one to another */
+		RANGE(null),
+
+		/** Between two residues */
+		BETWEEN(null),
+
+		/** Parts that make up one stretch in order */
+		JOIN("join"),
+
+		/** Parts in order, not said to make up one stretch */
+		ORDER("order"),
+
+		/** The part on the minus strand */
+		COMPLEMENT("complement");
+
+		/** The operator of compound locations */
+		private final String operator;
+
+		private Kind(String operator) {
+			this.operator = operator;
+		}
+	}
+
+	/** The form */
+	private final Kind kind;
+
+	/** First residue, counted from one */
+	private final int from;
+
+	/** Last residue, counted from one */
+	private final int to;
+
+	/** The parts of compound locations */
+	private final List<Location> parts;
+
+	/** Parts left out for lying on other entries, at any depth */
+	private final int remoteParts;
+
+	/**
+	 * Constructor of simple locations
+	 *
+	 * @param kind
+	 * 			The form
+	 * @param from
+	 * 			First residue, counted from one
+	 * @param to
+	 * 			Last residue, counted from one
+	 */
+	Location(Kind kind, int from, int to) {
+
+		this.kind = kind;
+		this.from = from;
+		this.to = to;
+		parts = Collections.<Location>emptyList();
+		remoteParts = 0;
+	}
+
+	/**
+	 * Constructor of compound locations
+	 *
+	 * @param kind
+	 * 			The operator
+	 * @param parts
+	 * 			The parts
+	 */
+	Location(Kind kind, List<Location> parts) {
+		this(kind, parts, 0);
+	}
+
+	/**
+	 * Constructor of compound locations with parts left out
+	 *
+	 * @param kind
+	 * 			The operator
+	 * @param parts
+	 * 			The parts
+	 * @param left
+	 * 			Parts left out for lying on other entries, besides those
+	 * 			left out of the parts
+	 */
+	private Location(Kind kind, List<Location> parts, int left) {
+
+		this.kind = kind;
+		this.parts = parts;
+		from = 0;
+		to = 0;
+		for (Location part: parts) {
+			left += part.remoteParts;
+		}
+		remoteParts = left;
+	}
+
+	/**
+	 * Gets the form
+	 *
+	 * @return
+	 * 			The kind
+	 */
+	Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Gets the parts
+	 *
+	 * @return
+	 * 			The parts, empty for simple locations
+	 */
+	List<Location> getParts() {
+		return parts;
+	}
+
+	/**
+	 * Gets the parts that were left out for lying on other entries
+	 *
+	 * @return
+	 * 			The number of parts, at any depth
+	 */
+	int getRemoteParts() {
+		return remoteParts;
+	}
+
+	/**
+	 * Makes a location on the minus strand
+	 *
+	 * @param location
+	 * 			The location on the plus strand
+	 * @return
+	 * 			The complement
+	 */
+	static Location complement(Location location) {
+		return new Location(Kind.COMPLEMENT,
+				Collections.singletonList(location));
+	}
+
+	/**
+	 * Parses a location
+	 *
+	 * @param text
+	 * 			The location, without white space
+	 * @return
+	 * 			The location or null if it is malformed or lies only on
+	 * 			other entries
+	 */
+	static Location parse(String text) {
+
+		int[] at = new int[1];
+		try {
+			Location location = parse(text, at);
+			return at[0] == text.length() ? location : null;
+		} catch (NumberFormatException e) {
+			return null;
+		} catch (IndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parses the location starting at a place of the text
+	 *
+	 * @param text
+	 * 			The text
+	 * @param at
+	 * 			The place, moved past the location
+	 * @return
+	 * 			The location or null if on other entries
+	 */
+	private static Location parse(String text, int[] at) {
+
+		for (Kind kind: new Kind[] {Kind.JOIN, Kind.ORDER, Kind.COMPLEMENT}) {
+
+			if (!text.startsWith(kind.operator + "(", at[0])) {
+				continue;
+			}
+			at[0] += kind.operator.length() + 1;
+			List<Location> parts = new ArrayList<Location>(2);
+			int left = 0;
+			while (true) {
+
+				Location part = parse(text, at);
+				if (part != null) {
+					parts.add(part);
+				} else {
+					left++;
+				}
+				char c = text.charAt(at[0]++);
+				if (c == ')') {
+					break;
+				} else if (c != ',') {
+					throw new NumberFormatException("Expected , or ) in " + text);
+				}
+			}
+			if (parts.isEmpty() || kind == Kind.COMPLEMENT && parts.size() != 1) {
+				return null;
+			}
+			return new Location(kind, parts, left);
+		}
+
+		//Parts on other entries, as J00194.1:100..202
+		int end = at[0];
+		while (end < text.length() && text.charAt(end) != ',' &&
+				text.charAt(end) != ')') {
+			end++;
+		}
+		String simple = text.substring(at[0], end);
+		at[0] = end;
+		if (simple.indexOf(':') >= 0) {
+			return null;
+		}
+
+		int range = simple.indexOf("..");
+		if (range >= 0) {
+			return new Location(Kind.RANGE, toPosition(simple.substring(0, range)),
+					toPosition(simple.substring(range + 2)));
+		}
+		int between = simple.indexOf('^');
+		if (between >= 0) {
+			return new Location(Kind.BETWEEN,
+					toPosition(simple.substring(0, between)),
+					toPosition(simple.substring(between + 1)));
+		}
+		int site = toPosition(simple);
+		return new Location(Kind.SITE, site, site);
+	}
+
+	/**
+	 * Reads a position, dropping the marks of partial ends
+	 *
+	 * @param text
+	 * 			The position, as <code>&lt;1</code>
+	 * @return
+	 * 			The position
+	 */
+	private static int toPosition(String text) {
+
+		int start = 0;
+		if (text.startsWith("<") || text.startsWith(">")) {
+			start = 1;
+		}
+		int position = Integer.parseInt(text.substring(start));
+		if (position < 1) {
+			throw new NumberFormatException("Position " + position);
+		}
+		return position;
+	}
+
+	/**
+	 * Makes the topology of the location on a sequence. Compound
+	 * locations become a <code>Compound</code> with the parts as
+	 * children.
+	 *
+	 * @param model
+	 * 			The model
+	 * @param seq
+	 * 			The sequence
+	 * @return
+	 * 			The topology
+	 */
+	Topology toTopology(Model model, Sequence seq) {
+
+		switch (kind) {
+			case SITE:
+				return addPoints(new Singularity(model), seq, 2 * from - 1);
+			case RANGE:
+				return addPoints(new Segment(model), seq, 2 * from - 1,
+						2 * to - 1);
+			case BETWEEN:
+				int pos = 2 * from;
+				if (seq.getAllowsWrap() && seq.getSize() > 0) {
+					pos %= seq.getSize();
+				}
+				return addPoints(new Singularity(model), seq, pos);
+			default:
+				Compound compound = new Compound(model, kind.operator);
+				for (Location part: parts) {
+					compound.addTopology(part.toTopology(model, seq));
+				}
+				return compound;
+		}
+	}
+
+	/**
+	 * Adds points to a topology
+	 *
+	 * @param top
+	 * 			The topology
+	 * @param seq
+	 * 			The sequence
+	 * @param positions
+	 * 			Positions in model-space
+	 * @return
+	 * 			The topology
+	 */
+	private static Topology addPoints(Topology top, Sequence seq,
+			int... positions) {
+
+		for (int pos: positions) {
+			top.addPoint(new Point(seq, top, pos));
+		}
+		return top;
+	}
+}
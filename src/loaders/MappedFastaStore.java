@@ -0,0 +1,62 @@
+
+package loaders;
+
+import java.nio.MappedByteBuffer;
+
+import sequences.AbstractResidueStore;
+
+/**
+ * MappedFastaStore reads the residues of one FASTA record straight from
+ * a memory-mapped region of the file.
+ *
+ * Nothing but the line layout is held on the heap; residues are paged
+ * in by the operating system when they are first read.
+ */
+public class MappedFastaStore extends AbstractResidueStore {
+
+	/** The mapped region, starting at the first residue */
+	private final MappedByteBuffer region;
+
+	/** Number of residues */
+	private final int length;
+
+	/** Residues per line */
+	private final int lineBases;
+
+	/** Bytes per line */
+	private final int lineWidth;
+
+	/**
+	 * Constructor
+	 *
+	 * @param region
+	 * 			The mapped region, starting at the first residue
+	 * @param length
+	 * 			Number of residues
+	 * @param lineBases
+	 * 			Residues per line
+	 * @param lineWidth
+	 * 			Bytes per line, including the line break
+	 */
+	public MappedFastaStore(MappedByteBuffer region, int length,
+			int lineBases, int lineWidth) {
+		this.region = region;
+		this.length = length;
+		this.lineBases = lineBases;
+		this.lineWidth = lineWidth;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+
+		checkIndex(index);
+
+		int offset = (index / lineBases) * lineWidth + index % lineBases;
+		return (char) (region.get(offset) & 0xff);
+	}
+}
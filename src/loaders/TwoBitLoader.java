@@ -0,0 +1,207 @@
+
+package loaders;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import collector.Model;
+import sequences.ResidueRuns;
+import sequences.Sequence;
+
+/**
+ * TwoBitLoader opens a UCSC .2bit file as sequences without reading
+ * the residues.
+ *
+ * Only the file index and each record's N- and mask-blocks are read,
+ * the packed residues are memory-mapped.
+ */
+public class TwoBitLoader {
+
+	/** The signature of .2bit files */
+	private static final int SIGNATURE = 0x1A412743;
+
+	/** The .2bit file */
+	private final File file;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 * 			The .2bit file
+	 */
+	public TwoBitLoader(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Loads all records as sequences of a model.
+	 *
+	 * @param model
+	 * 			The model the sequences belong to
+	 * @return
+	 * 			The sequences by record name, in file order
+	 * @throws IOException
+	 * 			If file could not be read or is not a .2bit file
+	 */
+	public Map<String, Sequence> load(Model model) throws IOException {
+
+		Map<String, Sequence> sequences = new LinkedHashMap<String, Sequence>();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+
+			ByteBuffer header = read(channel, 0, 16, ByteOrder.LITTLE_ENDIAN);
+			ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+			if (header.getInt(0) != SIGNATURE) {
+				order = ByteOrder.BIG_ENDIAN;
+				header.order(order);
+				if (header.getInt(0) != SIGNATURE) {
+					throw new IOException(file + " is not a .2bit file");
+				}
+			}
+
+			int version = header.getInt(4);
+			if (version != 0 && version != 1) {
+				throw new IOException("Unsupported .2bit version " + version);
+			}
+			int count = header.getInt(8);
+			int offsetSize = version == 0 ? 4 : 8;
+
+			long pos = 16;
+			for (int i = 0; i < count; i++) {
+
+				int nameSize = read(channel, pos, 1, order).get(0) & 0xff;
+				ByteBuffer entry = read(channel, pos + 1, nameSize + offsetSize,
+						order);
+				byte[] name = new byte[nameSize];
+				entry.get(name);
+				long offset = offsetSize == 4 ?
+					entry.getInt() & 0xffffffffL : entry.getLong();
+				pos += 1 + nameSize + offsetSize;
+
+				sequences.put(new String(name, StandardCharsets.US_ASCII),
+						loadRecord(channel, offset, order, model));
+			}
+		} finally {
+			raf.close();
+		}
+		return sequences;
+	}
+
+	/**
+	 * Loads one record.
+	 *
+	 * @param channel
+	 * 			The file
+	 * @param offset
+	 * 			The offset of the record
+	 * @param order
+	 * 			The byte order of the file
+	 * @param model
+	 * 			The model the sequence belongs to
+	 * @return
+	 * 			The sequence
+	 * @throws IOException
+	 * 			If record could not be read
+	 */
+	private Sequence loadRecord(FileChannel channel, long offset,
+			ByteOrder order, Model model) throws IOException {
+
+		long dnaSize = read(channel, offset, 4, order).getInt(0) & 0xffffffffL;
+		if (dnaSize > FastaLoader.MAX_RESIDUES) {
+			throw new IOException("Record at " + offset +
+					" is too long for a sequence");
+		}
+		offset += 4;
+
+		ResidueRuns nBlocks = readBlocks(channel, offset, order, 'N');
+		offset += 4 + 8L * nBlocks.size();
+
+		ResidueRuns maskBlocks = readBlocks(channel, offset, order, 'a');
+		offset += 4 + 8L * maskBlocks.size();
+
+		//Reserved word
+		offset += 4;
+
+		MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY,
+				offset, (dnaSize + 3) / 4);
+
+		Sequence seq = new Sequence(model);
+		seq.setSequenceType(Sequence.SequenceType.TYPE_NUCLEOTIDE);
+		seq.setResidueStore(new TwoBitStore(region, (int) dnaSize, nBlocks,
+					maskBlocks));
+		return seq;
+	}
+
+	/**
+	 * Reads a block list (count, starts, sizes) as runs.
+	 *
+	 * @param channel
+	 * 			The file
+	 * @param offset
+	 * 			Offset of the count
+	 * @param order
+	 * 			The byte order of the file
+	 * @param c
+	 * 			The character of the runs
+	 * @return
+	 * 			The runs
+	 * @throws IOException
+	 * 			If blocks could not be read
+	 */
+	private ResidueRuns readBlocks(FileChannel channel, long offset,
+			ByteOrder order, char c) throws IOException {
+
+		int count = read(channel, offset, 4, order).getInt(0);
+		if (count == 0) {
+			return new ResidueRuns();
+		}
+
+		ByteBuffer blocks = read(channel, offset + 4, 8 * count, order);
+		int[] starts = new int[count];
+		int[] ends = new int[count];
+		char[] values = new char[count];
+
+		for (int i = 0; i < count; i++) {
+			starts[i] = blocks.getInt(4 * i);
+			ends[i] = starts[i] + blocks.getInt(4 * (count + i));
+			values[i] = c;
+		}
+		return new ResidueRuns(starts, ends, values);
+	}
+
+	/**
+	 * Reads a small part of the file.
+	 *
+	 * @param channel
+	 * 			The file
+	 * @param offset
+	 * 			Where to read
+	 * @param size
+	 * 			Number of bytes
+	 * @param order
+	 * 			The byte order of the file
+	 * @return
+	 * 			Buffer with the bytes, positioned at the start
+	 * @throws IOException
+	 * 			If file is too short
+	 */
+	private static ByteBuffer read(FileChannel channel, long offset, int size,
+			ByteOrder order) throws IOException {
+
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(order);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of .2bit file");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
@@ -0,0 +1,107 @@
+
+package loaders;
+
+import java.nio.MappedByteBuffer;
+
+import sequences.AbstractResidueStore;
+import sequences.NucleotideCode;
+import sequences.ResidueRuns;
+
+/**
+ * TwoBitStore reads the residues of one UCSC .2bit record straight from
+ * a memory-mapped region of the file.
+ *
+ * The file packs four residues per byte, first residue in the highest
+ * bits, using T=0, C=1, A=2 and G=3. N-blocks and mask blocks are kept
+ * on the heap as run tables since they are small compared to the
+ * residues.
+ */
+public class TwoBitStore extends AbstractResidueStore {
+
+	/** Residue characters of the file's codes */
+	private static final char[] CHARS = {'T', 'C', 'A', 'G'};
+
+	/** Nucleotide codes of the file's codes */
+	private static final int[] CODES = {NucleotideCode.T, NucleotideCode.C,
+		NucleotideCode.A, NucleotideCode.G};
+
+	/** The mapped packed residues */
+	private final MappedByteBuffer region;
+
+	/** Number of residues */
+	private final int length;
+
+	/** Runs of N */
+	private final ResidueRuns nBlocks;
+
+	/** Runs of lower case (masked) residues */
+	private final ResidueRuns maskBlocks;
+
+	/**
+	 * Constructor
+	 *
+	 * @param region
+	 * 			The mapped packed residues
+	 * @param length
+	 * 			Number of residues
+	 * @param nBlocks
+	 * 			Runs of N
+	 * @param maskBlocks
+	 * 			Runs of masked residues
+	 */
+	public TwoBitStore(MappedByteBuffer region, int length,
+			ResidueRuns nBlocks, ResidueRuns maskBlocks) {
+		this.region = region;
+		this.length = length;
+		this.nBlocks = nBlocks;
+		this.maskBlocks = maskBlocks;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+
+		checkIndex(index);
+
+		char c;
+		if (nBlocks.size() > 0 && nBlocks.find(index) >= 0) {
+			c = 'N';
+		} else {
+			c = CHARS[getFileCode(index)];
+		}
+
+		if (maskBlocks.size() > 0 && maskBlocks.find(index) >= 0) {
+			c = Character.toLowerCase(c);
+		}
+		return c;
+	}
+
+	@Override
+	public int codeAt(int index) {
+
+		checkIndex(index);
+
+		if (nBlocks.size() > 0 && nBlocks.find(index) >= 0) {
+			return NucleotideCode.AMBIGUOUS;
+		}
+		return CODES[getFileCode(index)];
+	}
+
+	/**
+	 * Gets the code as stored in the file
+	 *
+	 * @param index
+	 * 			The residue index
+	 * @return
+	 * 			The file's two-bit code
+	 */
+	private int getFileCode(int index) {
+
+		int b = region.get(index >>> 2);
+		return (b >>> (6 - ((index & 3) << 1))) & 3;
+	}
+}
@@ -0,0 +1,183 @@
+
+package modelobject;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * IdentifierAllocator hands out the identifiers of one model's objects.
+ *
+ * Used identifiers are marked in a paged bitset that is only ever
+ * changed by compare-and-set, and fresh identifiers come from an atomic
+ * counter that skips identifiers already claimed explicitly (as when
+ * loading saved models). Released identifiers are reused before the
+ * counter moves on. So allocation is amortized O(1) and never locks.
+ */
+public class IdentifierAllocator {
+
+	/** Identifiers per page, as a power of two */
+	private static final int PAGE_BITS = 15;
+
+	/** Pages per directory, as a power of two */
+	private static final int DIRECTORY_BITS = 8;
+
+	/** Number of directories (all positive ints are covered) */
+	private static final int DIRECTORIES = 1 << (31 - PAGE_BITS - DIRECTORY_BITS);
+
+	/** Directories of pages of used-bits, created when first needed */
+	private final AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>>
+		directories =
+		new AtomicReferenceArray<AtomicReferenceArray<AtomicLongArray>>(
+				DIRECTORIES);
+
+	/** Next never used identifier */
+	private final AtomicInteger next = new AtomicInteger(0);
+
+	/** Identifiers that have been released */
+	private final ConcurrentLinkedQueue<Integer> released =
+		new ConcurrentLinkedQueue<Integer>();
+
+	/**
+	 * Allocates an unused identifier
+	 *
+	 * @return
+	 * 			The identifier
+	 */
+	public int allocate() {
+
+		Integer reuse;
+		while ((reuse = released.poll()) != null) {
+			if (claim(reuse)) {
+				return reuse;
+			}
+		}
+
+		while (true) {
+			int id = next.getAndIncrement();
+			if (id < 0) {
+				throw new IllegalStateException("Out of identifiers");
+			}
+			if (claim(id)) {
+				return id;
+			}
+		}
+	}
+
+	/**
+	 * Claims a specific identifier
+	 *
+	 * @param id
+	 * 			The identifier
+	 * @return
+	 * 			If it was free and is now claimed
+	 */
+	public boolean claim(int id) {
+
+		if (id < 0) {
+			return false;
+		}
+
+		AtomicLongArray page = getPage(id, true);
+		int word = (id & ((1 << PAGE_BITS) - 1)) >>> 6;
+		long bit = 1L << (id & 63);
+
+		while (true) {
+			long current = page.get(word);
+			if ((current & bit) != 0) {
+				return false;
+			}
+			if (page.compareAndSet(word, current, current | bit)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases an identifier so that it can be allocated again
+	 *
+	 * @param id
+	 * 			The identifier
+	 * @return
+	 * 			If it was in use
+	 */
+	public boolean release(int id) {
+
+		AtomicLongArray page = id < 0 ? null : getPage(id, false);
+		if (page == null) {
+			return false;
+		}
+
+		int word = (id & ((1 << PAGE_BITS) - 1)) >>> 6;
+		long bit = 1L << (id & 63);
+
+		while (true) {
+			long current = page.get(word);
+			if ((current & bit) == 0) {
+				return false;
+			}
+			if (page.compareAndSet(word, current, current & ~bit)) {
+				released.offer(id);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Checks if an identifier is in use
+	 *
+	 * @param id
+	 * 			The identifier
+	 * @return
+	 * 			If it is in use
+	 */
+	public boolean isUsed(int id) {
+
+		AtomicLongArray page = id < 0 ? null : getPage(id, false);
+		if (page == null) {
+			return false;
+		}
+		int word = (id & ((1 << PAGE_BITS) - 1)) >>> 6;
+		return (page.get(word) & (1L << (id & 63))) != 0;
+	}
+
+	/**
+	 * Gets the page of used-bits holding an identifier
+	 *
+	 * @param id
+	 * 			The identifier, not negative
+	 * @param create
+	 * 			If missing pages should be created
+	 * @return
+	 * 			The page or null if missing and not created
+	 */
+	private AtomicLongArray getPage(int id, boolean create) {
+
+		int pageNumber = id >>> PAGE_BITS;
+		int dirNumber = pageNumber >>> DIRECTORY_BITS;
+		int inDir = pageNumber & ((1 << DIRECTORY_BITS) - 1);
+
+		AtomicReferenceArray<AtomicLongArray> dir = directories.get(dirNumber);
+		if (dir == null) {
+			if (!create) {
+				return null;
+			}
+			directories.compareAndSet(dirNumber, null,
+					new AtomicReferenceArray<AtomicLongArray>(
+						1 << DIRECTORY_BITS));
+			dir = directories.get(dirNumber);
+		}
+
+		AtomicLongArray page = dir.get(inDir);
+		if (page == null) {
+			if (!create) {
+				return null;
+			}
+			dir.compareAndSet(inDir, null,
+					new AtomicLongArray(1 << (PAGE_BITS - 6)));
+			page = dir.get(inDir);
+		}
+		return page;
+	}
+}
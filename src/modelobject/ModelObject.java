@@ -1,5 +1,8 @@
 package modelobject;
 
+import java.util.Iterator;
+
+import topologies.Topology;
 
 public interface ModelObject {
 
@@ -34,10 +37,71 @@ public interface ModelObject {
 	 */
 	public boolean getAllowsWrap();
 
+	/** Lets the object know that points annotating it have been
+	 * added, removed or moved.
+	 *
+	 * Anything the object derives from the points should be considered
+	 * out of date.
+	 */
+	public void pointsChanged();
+
+	/** Lets the object know that points of one topology annotating it
+	 * have been added, removed or moved.
+	 *
+	 * Anything the object derives from the points of that topology
+	 * should be considered out of date.
+	 *
+	 * @param top
+	 * 			The topology
+	 */
+	public void pointsChanged(Topology top);
+
+	/** Lets the object know that the topologies of an annotation on it
+	 * have been added or removed.
+	 */
+	public void annotationsChanged();
+
+	/** Lets the object know a topology has placed its first point on
+	 * it, or has removed its last.
+	 *
+	 * This lets edits of the object find the points to update without
+	 * looking through every topology of the model.
+	 *
+	 * @param top
+	 * 			The topology
+	 * @param attached
+	 * 			If the topology now has points on the object
+	 */
+	public void topologyAttached(Topology top, boolean attached);
+
+	/** Gets the topologies with points on the object.
+	 *
+	 * @return
+	 * 			Iterator over the topologies
+	 */
+	public Iterator<Topology> getAttachedTopologies();
+
 	//public ArrayList<ModelObject> getChildren();
 	//public void setUpdatingObject(int id);
 	//public void setFinishedUpdatingObject(int id);
 	public boolean setIdentifier(int id);
 	public boolean setIdentifier();
+	public int getIdentifier();
+
+	/** Lets the object know it is no longer part of the model,
+	 * releasing its identifier.
+	 */
+	public void discard();
 	public int getSize();
+
+	/** Gets the revision of the object's extent.
+	 *
+	 * The revision changes whenever the size or the shape of the object
+	 * may have changed, so that what is derived from them (like wrapped
+	 * point positions) can tell if it is out of date.
+	 *
+	 * @return
+	 * 			The revision
+	 */
+	public int getRevision();
 }
@@ -8,7 +8,10 @@
 package modelobject;
 
 import java.util.*;
+
+import collector.Model;
 import modelobject.ModelObject;
+import topologies.Topology;
 
 public abstract class PrototypeModelObject implements ModelObject {
 
@@ -17,11 +20,8 @@ public abstract class PrototypeModelObject implements ModelObject {
 	//	new HashSet<Integer>();
 	//
 	
-	/** Collection of identifiers used so far */
-	private static Collection<Integer> identifiers = new HashSet<Integer>();
-
-	/** Next available identifier */
-	private static int identifierNext;
+	/** The identifiers of the model the object belongs to */
+	private final IdentifierAllocator identifiers;
 
 	/** Instance's identifier */
 	private int identifier;
@@ -29,17 +29,25 @@ public abstract class PrototypeModelObject implements ModelObject {
 	/** Check if id is set */
 	private boolean hasAcquiredId = false;
 
+	/** Counts changes to the extent of the object */
+	private int revision = 0;
+
+	/** Topologies with points on the object */
+	private Set<Topology> attachedTopologies = new LinkedHashSet<Topology>(2);
+
 	/** The default shape is linear */
 	private PhysicalShape physicalShape = 
 		ModelObject.PhysicalShape.SHAPE_LINEAR;
 
-	/** Constructor when no parameter sets new id */
-	public PrototypeModelObject() {
+	/** Constructor when no id parameter sets new id */
+	public PrototypeModelObject(Model model) {
+		identifiers = model.getIdentifierAllocator();
 		hasAcquiredId = setIdentifier();
 	}
 
 	/** Constructor with id when loading saved stuff */
-	public PrototypeModelObject(int id) {
+	public PrototypeModelObject(Model model, int id) {
+		identifiers = model.getIdentifierAllocator();
 		hasAcquiredId = setIdentifier(id);
 	}
 
@@ -63,6 +71,7 @@ public abstract class PrototypeModelObject implements ModelObject {
 	@Override
 	public void setShape(PhysicalShape shape) {
 		physicalShape = shape;
+		revision++;
 	}
 
 	/**
@@ -79,33 +88,69 @@ public abstract class PrototypeModelObject implements ModelObject {
 		return physicalShape.equals(PhysicalShape.SHAPE_CIRCULAR);
 	}
 
-	/*
 	@Override
-	public void setUpdatingObject(int id) {
-		modelUpdatingObjects.add(id);
-		modelUpdateRunning = false;
+	public int getRevision() {
+		return revision;
 	}
 
+	/**
+	 * Lets anything derived from the size or shape of the object know
+	 * it is out of date. Subclasses call this when their size changes.
+	 */
+	protected void changeRevision() {
+		revision++;
+	}
+
+	/**
+	 * Default behaviour is to derive nothing from the points
+	 */
 	@Override
-	public void setFinishedUpdatingObject(int id) {
-		modelUpdatingObjects.remove(id);
-		modelUpdateRunning = modelUpdatingObjects.size() == 0;
+	public void pointsChanged() {
 	}
-	*/
 
 	/**
-	 * Sets next available identifier
+	 * Default behaviour is to treat it as a change of any points
 	 */
-	private void setFreeIdentifier() {
+	@Override
+	public void pointsChanged(Topology top) {
+		pointsChanged();
+	}
 
-		identifierNext = 0;
-		
-		while (identifiers.contains(identifierNext)) {
-			identifierNext++;
+	/**
+	 * Default behaviour is to keep nothing about the annotations
+	 */
+	@Override
+	public void annotationsChanged() {
+	}
+
+	@Override
+	public void topologyAttached(Topology top, boolean attached) {
+
+		if (attached) {
+			attachedTopologies.add(top);
+		} else {
+			attachedTopologies.remove(top);
 		}
+	}
+
+	@Override
+	public Iterator<Topology> getAttachedTopologies() {
+		return Collections.unmodifiableSet(attachedTopologies).iterator();
+	}
 
+	/*
+	@Override
+	public void setUpdatingObject(int id) {
+		modelUpdatingObjects.add(id);
+		modelUpdateRunning = false;
 	}
 
+	@Override
+	public void setFinishedUpdatingObject(int id) {
+		modelUpdatingObjects.remove(id);
+		modelUpdateRunning = modelUpdatingObjects.size() == 0;
+	}
+	*/
 
 	/**
 	 * Sets current identifier.
@@ -121,10 +166,17 @@ public abstract class PrototypeModelObject implements ModelObject {
 	@Override
 	public boolean setIdentifier(int id) {
 
-		boolean ret = identifiers.add(id);
+		if (hasAcquiredId && identifier == id) {
+			return true;
+		}
+
+		boolean ret = identifiers.claim(id);
 		if (ret) {
+			if (hasAcquiredId) {
+				identifiers.release(identifier);
+			}
 			identifier = id;
-			setFreeIdentifier();
+			hasAcquiredId = true;
 		}
 		return ret;
 	}
@@ -138,7 +190,38 @@ public abstract class PrototypeModelObject implements ModelObject {
 	 */
 	@Override
 	public boolean setIdentifier() {
-		return setIdentifier(identifierNext);
+
+		int id = identifiers.allocate();
+		if (hasAcquiredId) {
+			identifiers.release(identifier);
+		}
+		identifier = id;
+		hasAcquiredId = true;
+		return true;
+	}
+
+	/**
+	 * Gets the identifier
+	 *
+	 * @return
+	 * 			The identifier, or -1 if none could be acquired
+	 */
+	@Override
+	public int getIdentifier() {
+		return hasAcquiredId ? identifier : -1;
+	}
+
+	/**
+	 * Releases the identifier so that it can be reused by new objects
+	 * of the model. The object should not be used after this.
+	 */
+	@Override
+	public void discard() {
+
+		if (hasAcquiredId) {
+			identifiers.release(identifier);
+			hasAcquiredId = false;
+		}
 	}
 
 }
@@ -36,6 +36,15 @@ final public class Point {
 
 	/** If last positioning of any type involved wrapping. */
 	private boolean didWrap = false;
+
+	/** Size of the target when last looked at */
+	private int targetSize;
+
+	/** If the target allowed wrapping when last looked at */
+	private boolean targetWraps;
+
+	/** Revision of the target when last looked at, -1 for never */
+	private int targetRevision = -1;
 	
 	/**
 	 * Alternate constructor that also places
@@ -94,6 +103,16 @@ final public class Point {
 
 	}
 
+	/**
+	 * Gets the size of stepping
+	 *
+	 * @return
+	 * 			The step size
+	 */
+	public int getStepSize() {
+		return stepSize;
+	}
+
 	/**
 	 * Gets the target
 	 *
@@ -105,6 +124,16 @@ final public class Point {
 		return target;
 	}
 
+	/**
+	 * Gets the topology that uses the point
+	 *
+	 * @return
+	 * 			The topology
+	 */
+	public Topology getTopology() {
+		return topology;
+	}
+
 	/**
 	 * Checks if position is an inbetween position or not
 	 *
@@ -125,13 +154,109 @@ final public class Point {
 	 * 
 	 */
 	public boolean setPos(int p) {
-		p = checkWarp(p);
-		if (allowMove(p)) {
-			pos = p;
-			return true;
-		} else {
+		return moveTo(p);
+	}
+
+	/**
+	 * Puts the point at a position without asking or telling its
+	 * topology. Only for topologies updating their points after the
+	 * target was edited.
+	 *
+	 * @param p
+	 * 			New position, valid on the target
+	 */
+	public void relocate(int p) {
+		pos = p;
+	}
+
+	/**
+	 * Moves the point if allowed, normalizing the position only once
+	 *
+	 * @param p
+	 * 			Suggested new position, may be far out of bounds
+	 * @return
+	 * 			Success-value
+	 */
+	private boolean moveTo(long p) {
+
+		int newPos = checkWarp(p);
+		if (!topology.allowMove(this, newPos)) {
 			return false;
 		}
+
+		int oldPos = pos;
+		pos = newPos;
+		if (oldPos != newPos) {
+			topology.pointMoved(this, oldPos);
+		}
+		return true;
+	}
+
+	/**
+	 * Moves a number of points the same distance, all or none.
+	 *
+	 * Each topology is asked once for all its points, and told once
+	 * about all that moved, instead of once per point. The points are
+	 * best ordered by topology, since each run of points sharing a
+	 * topology is handled together.
+	 *
+	 * @param points
+	 * 			The points
+	 * @param delta
+	 * 			Distance to move in model-space
+	 * @return
+	 * 			If the topologies allowed the move (else nothing moved)
+	 */
+	public static boolean moveAll(Point[] points, int delta) {
+
+		int n = points.length;
+		int[] positions = new int[n];
+		for (int i = 0; i < n; i++) {
+			positions[i] = points[i].checkWarp((long) points[i].pos + delta);
+		}
+
+		for (int start = 0, end; start < n; start = end) {
+
+			end = endOfRun(points, start);
+			if (!points[start].topology.allowMoves(points, positions,
+						start, end)) {
+				return false;
+			}
+		}
+
+		int[] oldPositions = new int[n];
+		for (int i = 0; i < n; i++) {
+			oldPositions[i] = points[i].pos;
+			points[i].pos = positions[i];
+		}
+
+		for (int start = 0, end; start < n; start = end) {
+
+			end = endOfRun(points, start);
+			points[start].topology.pointsMoved(points, oldPositions,
+					start, end);
+		}
+		return true;
+	}
+
+	/**
+	 * Finds where a run of points sharing a topology ends
+	 *
+	 * @param points
+	 * 			The points
+	 * @param start
+	 * 			First point of the run
+	 * @return
+	 * 			First point after the run
+	 */
+	private static int endOfRun(Point[] points, int start) {
+
+		int end = start + 1;
+		while (end < points.length &&
+				points[end].topology == points[start].topology) {
+			end++;
+		}
+		return end;
 	}
 
 	/**
@@ -169,24 +294,7 @@ final public class Point {
      * 			Success-statement
      */
 	public boolean movePos(int step) {
-		return setPos(pos + stepSize * step);
-	}
-
-	/**
-	 * Evaluates if move is allowed by the
-	 * topologies using the point
-	 *
-	 * @param p
-	 * 			Suggested new position
-	 * @return
-	 * 			If allowed
-	 */
-	private boolean allowMove(int p) {
-
-		//Get absolute position according to wrap contditions
-		p = checkWarp(p);
-
-		return this.topology.allowMove(this, p);
+		return moveTo(pos + (long) stepSize * step);
 	}
 
 	/**
@@ -194,34 +302,38 @@ final public class Point {
 	 * it if neccesary. If no wrap it makes sure point
 	 * is in bounds.
 	 *
+	 * The size and shape of the target are only looked up again when
+	 * the target's revision has changed.
+	 *
 	 * @param p
 	 *			Suggested new position
 	 * @return
 	 * 			Potentially adjusted position
 	 */
-	private int checkWarp(int p) {
+	private int checkWarp(long p) {
+
+		int revision = target.getRevision();
+		if (revision != targetRevision) {
+			targetSize = target.getSize();
+			targetWraps = target.getAllowsWrap();
+			targetRevision = revision;
+		}
 
-		int maxPos = target.getSize();
+		int maxPos = targetSize;
 
 		didWrap = false;
 
 		//If wrapping
-		if (target.getAllowsWrap()) {
+		if (targetWraps) {
 
-			//Make sure values are positive
-			while (p < 0) {
-				p += maxPos;
-				didWrap = true;
+			if (maxPos == 0) {
+				throw new ArithmeticException(
+						"Wrap check only possible when target has a size");
 			}
 
-			//Invoke max overflow wrap
-			if (maxPos > 0 && p >= maxPos) {
-				p = p % maxPos;
+			if (p < 0 || p >= maxPos) {
+				p = Math.floorMod(p, (long) maxPos);
 				didWrap = true;
-
-			} else if (maxPos == 0) {
-				throw new ArithmeticException(
-						"Wrap check only possible when target has a size");
 			}
 
 		//if not wrapping
@@ -235,6 +347,6 @@ final public class Point {
 
 		}
 
-		return p;
+		return (int) p;
 	}
 }
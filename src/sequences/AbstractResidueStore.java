@@ -0,0 +1,63 @@
+
+package sequences;
+
+/**
+ * AbstractResidueStore gives the character-based default behaviour
+ * for stores that have no faster way of producing codes.
+ */
+public abstract class AbstractResidueStore implements ResidueStore {
+
+	@Override
+	public int codeAt(int index) {
+		return NucleotideCode.encode(charAt(index));
+	}
+
+	@Override
+	public void countCodes(int from, int to, int[] counts) {
+
+		for (int i = from; i < to; i++) {
+
+			int code = codeAt(i);
+			counts[code < 0 ? 4 : code]++;
+		}
+	}
+
+	/**
+	 * Checks that an index is within the store
+	 *
+	 * @param index
+	 * 			The residue index
+	 */
+	protected void checkIndex(int index) {
+
+		if (index < 0 || index >= length()) {
+			throw new StringIndexOutOfBoundsException(index);
+		}
+	}
+
+	/**
+	 * Checks that a range is within the store
+	 *
+	 * @param from
+	 * 			First index (inclusive)
+	 * @param to
+	 * 			Last index (exclusive)
+	 */
+	protected void checkRange(int from, int to) {
+
+		if (from < 0 || to > length() || from > to) {
+			throw new StringIndexOutOfBoundsException(
+					"Invalid range " + from + " to " + to);
+		}
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder(length());
+		for (int i = 0; i < length(); i++) {
+			sb.append(charAt(i));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,338 @@
+package sequences;
+
+import java.util.*;
+import java.util.function.IntConsumer;
+
+import annotation.Annotation;
+import point.Point;
+import topologies.Topology;
+
+/**
+ * AnnotationIndex answers which annotations of a sequence overlap a
+ * range of positions.
+ *
+ * Each topology an annotation has on the sequence (and each of its
+ * child topologies) becomes an interval from its first to its last
+ * point. On circular sequences a two-point topology whose first point
+ * lies after its second spans the origin, and is indexed as the two
+ * intervals on either side of it.
+ *
+ * The intervals are kept in a static tree. When the points of an
+ * indexed topology change, only that topology is marked stale: its
+ * intervals in the tree are skipped and its present intervals are
+ * looked up again when next queried and scanned beside the tree. So
+ * dragging a point costs one topology per query rather than a rebuild.
+ * Once too many topologies are stale the index asks to be rebuilt.
+ */
+class AnnotationIndex {
+
+	/** Most stale topologies before the index is rebuilt */
+	private static final int MAX_STALE = 64;
+
+	/** The annotations, by number */
+	private final Annotation[] annotations;
+
+	/** The indexed topologies, by number */
+	private final Topology[] topologies;
+
+	/** Number of each indexed topology */
+	private final Map<Topology, Integer> topologyNumbers;
+
+	/** Number of the annotation of each topology */
+	private final int[] annotationOf;
+
+	/** The intervals, by value of their topology's number */
+	private final IntervalIndex intervals;
+
+	/** The sequence */
+	private final Sequence seq;
+
+	/** Size of the sequence in model-space */
+	private final int size;
+
+	/** If the sequence wraps */
+	private final boolean wraps;
+
+	/** If a topology's intervals in the tree are out of date */
+	private final boolean[] stale;
+
+	/** Numbers of the stale topologies */
+	private final List<Integer> staleTopologies = new ArrayList<Integer>();
+
+	/** Present intervals of each stale topology, null until looked up */
+	private final Map<Integer, int[]> staleIntervals =
+		new HashMap<Integer, int[]>();
+
+	/** Query stamp of each annotation, for reporting them once */
+	private final int[] seen;
+
+	/** The stamp of the current query */
+	private int stamp = 0;
+
+	/**
+	 * Constructor, indexing the present state of the annotations
+	 *
+	 * @param seq
+	 * 			The sequence
+	 * @param annotations
+	 * 			The annotations of the sequence
+	 */
+	AnnotationIndex(Sequence seq, Collection<Annotation> annotations) {
+
+		this.seq = seq;
+		this.annotations = annotations.toArray(
+				new Annotation[annotations.size()]);
+		this.size = seq.getSize();
+		this.wraps = seq.getAllowsWrap();
+		this.seen = new int[this.annotations.length];
+
+		List<Topology> tops = new ArrayList<Topology>();
+		List<Integer> owners = new ArrayList<Integer>();
+		for (int i = 0; i < this.annotations.length; i++) {
+			for (Topology top: this.annotations[i].getTopologies(seq)) {
+				collect(top, i, tops, owners);
+			}
+		}
+
+		topologies = tops.toArray(new Topology[tops.size()]);
+		topologyNumbers = new HashMap<Topology, Integer>(
+				topologies.length * 2);
+		annotationOf = new int[topologies.length];
+		stale = new boolean[topologies.length];
+
+		IntervalIndex.Builder builder = new IntervalIndex.Builder();
+		int[] found = new int[4];
+		for (int i = 0; i < topologies.length; i++) {
+
+			topologyNumbers.put(topologies[i], i);
+			annotationOf[i] = owners.get(i);
+			int count = getIntervals(topologies[i], found);
+			for (int j = 0; j < count; j += 2) {
+				builder.add(found[j], found[j + 1], i);
+			}
+		}
+		intervals = builder.build();
+	}
+
+	/**
+	 * Collects a topology and its children
+	 *
+	 * @param top
+	 * 			The topology
+	 * @param annotation
+	 * 			The number of its annotation
+	 * @param tops
+	 * 			The topologies so far
+	 * @param owners
+	 * 			The number of the annotation of each
+	 */
+	private static void collect(Topology top, int annotation,
+			List<Topology> tops, List<Integer> owners) {
+
+		tops.add(top);
+		owners.add(annotation);
+		for (Iterator<Topology> it = top.getChildIterator(); it.hasNext(); ) {
+			collect(it.next(), annotation, tops, owners);
+		}
+	}
+
+	/**
+	 * Gets the intervals of a topology's own points on the sequence
+	 *
+	 * @param top
+	 * 			The topology
+	 * @param found
+	 * 			Receives first and last position of up to two intervals
+	 * @return
+	 * 			Number of positions received, 0, 2 or 4
+	 */
+	private int getIntervals(Topology top, int[] found) {
+
+		int count = 0;
+		int first = 0;
+		int last = 0;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+
+		for (Iterator<Point> it = top.getPointIterator(); it.hasNext(); ) {
+
+			Point p = it.next();
+			if (!p.annotatesObject(seq)) {
+				continue;
+			}
+			int pos = p.getPos();
+			if (count == 0) {
+				first = pos;
+			}
+			last = pos;
+			min = Math.min(min, pos);
+			max = Math.max(max, pos);
+			count++;
+		}
+
+		if (count == 2 && wraps && first > last) {
+			found[0] = first;
+			found[1] = size - 1;
+			found[2] = 0;
+			found[3] = last;
+			return 4;
+		} else if (count > 0) {
+			found[0] = min;
+			found[1] = max;
+			return 2;
+		}
+		return 0;
+	}
+
+	/**
+	 * Takes note that the points of a topology changed
+	 *
+	 * @param top
+	 * 			The topology
+	 * @return
+	 * 			If the index is still usable, false if it must be
+	 * 			rebuilt as the topology is not indexed or too many are
+	 * 			stale
+	 */
+	synchronized boolean topologyChanged(Topology top) {
+
+		Integer number = topologyNumbers.get(top);
+		if (number == null) {
+			return false;
+		}
+		if (!stale[number]) {
+
+			if (staleTopologies.size() >= MAX_STALE) {
+				return false;
+			}
+			stale[number] = true;
+			staleTopologies.add(number);
+		}
+		staleIntervals.remove(number);
+		return true;
+	}
+
+	/**
+	 * Gets the annotations overlapping a range.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive), before from if the range spans
+	 * 			the origin of a circular sequence
+	 * @return
+	 * 			The annotations, each once
+	 */
+	synchronized List<Annotation> getOverlapping(int from, int to) {
+
+		final List<Annotation> found = new ArrayList<Annotation>();
+		query(from, to, new IntConsumer() {
+			public void accept(int value) {
+				found.add(annotations[value]);
+			}
+		});
+		return found;
+	}
+
+	/**
+	 * Counts the annotations overlapping a range.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive), before from if the range spans
+	 * 			the origin of a circular sequence
+	 * @return
+	 * 			Number of annotations
+	 */
+	synchronized int countOverlapping(int from, int to) {
+
+		final int[] count = new int[1];
+		query(from, to, new IntConsumer() {
+			public void accept(int value) {
+				count[0]++;
+			}
+		});
+		return count[0];
+	}
+
+	/**
+	 * Runs a query, passing each overlapping annotation once
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @param consumer
+	 * 			Receiver of annotation numbers
+	 */
+	private void query(int from, int to, final IntConsumer consumer) {
+
+		stamp++;
+		if (stamp == 0) {
+			Arrays.fill(seen, 0);
+			stamp = 1;
+		}
+
+		IntConsumer once = new IntConsumer() {
+			public void accept(int value) {
+				if (stale[value]) {
+					return;
+				}
+				int annotation = annotationOf[value];
+				if (seen[annotation] != stamp) {
+					seen[annotation] = stamp;
+					consumer.accept(annotation);
+				}
+			}
+		};
+
+		if (from <= to) {
+			intervals.query(from, to, once);
+		} else if (wraps) {
+			intervals.query(from, size - 1, once);
+			intervals.query(0, to, once);
+		} else {
+			throw new IllegalArgumentException(
+					"Only ranges on circular sequences can span the origin");
+		}
+
+		for (int number: staleTopologies) {
+
+			int annotation = annotationOf[number];
+			if (seen[annotation] == stamp) {
+				continue;
+			}
+			int[] found = getStaleIntervals(number);
+			for (int j = 0; j < found.length; j += 2) {
+
+				if (from <= to ? found[j] <= to && from <= found[j + 1] :
+						found[j] <= to || from <= found[j + 1]) {
+					seen[annotation] = stamp;
+					consumer.accept(annotation);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the present intervals of a stale topology
+	 *
+	 * @param number
+	 * 			The number of the topology
+	 * @return
+	 * 			First and last position of each interval
+	 */
+	private int[] getStaleIntervals(int number) {
+
+		int[] found = staleIntervals.get(number);
+		if (found == null) {
+			int[] buffer = new int[4];
+			found = Arrays.copyOf(buffer,
+					getIntervals(topologies[number], buffer));
+			staleIntervals.put(number, found);
+		}
+		return found;
+	}
+}
@@ -0,0 +1,176 @@
+
+package sequences;
+
+/**
+ * CodonTable maps codons to amino acids.
+ *
+ * Codons are packed as three 2-bit nucleotide codes, first nucleotide
+ * in the highest bits, so a codon is a number from 0 to 63 and a
+ * translation is a single array lookup.
+ *
+ * Tables are defined the way NCBI publishes them: one amino acid
+ * character and one start flag per codon, with the codons ordered with
+ * T, C, A, G as the base order.
+ */
+public class CodonTable {
+
+	/** The NCBI base order */
+	private static final String NCBI_ORDER = "TCAG";
+
+	/** NCBI table 1 */
+	public static final CodonTable STANDARD = new CodonTable("Standard",
+			"FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+			"---M------**--*----M---------------M----------------------------");
+
+	/** NCBI table 2 */
+	public static final CodonTable VERTEBRATE_MITOCHONDRIAL = new CodonTable(
+			"Vertebrate Mitochondrial",
+			"FFLLSSSSYY**CCWWLLLLPPPPHHQQRRRRIIMMTTTTNNKKSS**VVVVAAAADDEEGGGG",
+			"----------**--------------------MMMM----------**---M------------");
+
+	/** NCBI table 11 */
+	public static final CodonTable BACTERIAL = new CodonTable(
+			"Bacterial, Archaeal and Plant Plastid",
+			"FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG",
+			"---M------**--*----M------------MMMM---------------M------------");
+
+	/** Amino acid produced by codons with ambiguous nucleotides */
+	public static final char UNKNOWN = 'X';
+
+	/** Amino acid character of stop codons */
+	public static final char STOP = '*';
+
+	/** Name of the table */
+	private final String name;
+
+	/** Amino acid by packed codon */
+	private final char[] aminoAcids = new char[64];
+
+	/** Amino acid by packed codon, read on the reverse strand */
+	private final char[] reverseAminoAcids = new char[64];
+
+	/** If packed codon is a start codon */
+	private final boolean[] starts = new boolean[64];
+
+	/**
+	 * Constructor from NCBI-style definition
+	 *
+	 * @param name
+	 * 			Name of the table
+	 * @param aminoAcids
+	 * 			64 amino acids, codons in NCBI order
+	 * @param starts
+	 * 			64 start flags ('M' for start), codons in NCBI order
+	 */
+	public CodonTable(String name, String aminoAcids, String starts) {
+
+		if (aminoAcids.length() != 64 || starts.length() != 64) {
+			throw new IllegalArgumentException(
+					"Codon tables must define 64 codons");
+		}
+		this.name = name;
+
+		for (int i = 0; i < 64; i++) {
+
+			int codon = encode(
+					NucleotideCode.encode(NCBI_ORDER.charAt(i >> 4)),
+					NucleotideCode.encode(NCBI_ORDER.charAt((i >> 2) & 3)),
+					NucleotideCode.encode(NCBI_ORDER.charAt(i & 3)));
+			this.aminoAcids[codon] = aminoAcids.charAt(i);
+			this.starts[codon] = starts.charAt(i) == 'M';
+		}
+
+		for (int codon = 0; codon < 64; codon++) {
+			reverseAminoAcids[codon] = this.aminoAcids[reverseComplement(codon)];
+		}
+	}
+
+	/**
+	 * Packs a codon
+	 *
+	 * @param first
+	 * 			Code of first nucleotide
+	 * @param second
+	 * 			Code of second nucleotide
+	 * @param third
+	 * 			Code of third nucleotide
+	 * @return
+	 * 			The packed codon
+	 */
+	public static int encode(int first, int second, int third) {
+		return (first << 4) | (second << 2) | third;
+	}
+
+	/**
+	 * Gets the reverse complement of a packed codon
+	 *
+	 * @param codon
+	 * 			The packed codon
+	 * @return
+	 * 			The packed codon on the other strand
+	 */
+	public static int reverseComplement(int codon) {
+		return encode(3 - (codon & 3), 3 - ((codon >> 2) & 3), 3 - (codon >> 4));
+	}
+
+	/**
+	 * Gets the name of the table
+	 *
+	 * @return
+	 * 			The name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Translates a packed codon
+	 *
+	 * @param codon
+	 * 			The packed codon
+	 * @return
+	 * 			The amino acid (<code>STOP</code> for stop codons)
+	 */
+	public char translate(int codon) {
+		return aminoAcids[codon];
+	}
+
+	/**
+	 * Translates the reverse complement of a packed codon.
+	 *
+	 * This is what is read on the minus strand where the plus strand
+	 * holds the codon.
+	 *
+	 * @param codon
+	 * 			The packed codon, as on the plus strand
+	 * @return
+	 * 			The amino acid
+	 */
+	public char translateReverse(int codon) {
+		return reverseAminoAcids[codon];
+	}
+
+	/**
+	 * Checks if a packed codon is a start codon
+	 *
+	 * @param codon
+	 * 			The packed codon
+	 * @return
+	 * 			If it is a start codon
+	 */
+	public boolean isStart(int codon) {
+		return starts[codon];
+	}
+
+	/**
+	 * Checks if a packed codon is a stop codon
+	 *
+	 * @param codon
+	 * 			The packed codon
+	 * @return
+	 * 			If it is a stop codon
+	 */
+	public boolean isStop(int codon) {
+		return aminoAcids[codon] == STOP;
+	}
+}
@@ -0,0 +1,284 @@
+
+package sequences;
+
+/**
+ * Composition answers base counts and the statistics made from them,
+ * GC content, skews and entropy, for any window of nucleotide residues.
+ *
+ * The running counts of A, C, G, T and other residues are kept every
+ * <code>interval</code> residues. The counts before a residue are those
+ * of the nearest checkpoint corrected by counting the at most
+ * <code>interval / 2</code> residues in between, which packed residues
+ * count a word at a time. A window is the difference of the counts
+ * before its ends, so every query takes the same short time whatever
+ * the size of the window.
+ *
+ * Windows are given as a first residue index and a number of residues.
+ * On circular residues windows wrap around the origin; on linear
+ * residues they are cut to the residues.
+ *
+ * A composition reads the residues it was made from when queried, so
+ * it is only valid until they change; <code>Sequence.getComposition()
+ * </code> keeps one up to date.
+ */
+public class Composition {
+
+	/** Default number of residues between checkpoints */
+	public static final int DEFAULT_INTERVAL = 256;
+
+	/** The residues */
+	private final ResidueStore residues;
+
+	/** If windows wrap around */
+	private final boolean circular;
+
+	/** Residues between checkpoints */
+	private final int interval;
+
+	/** Number of residues */
+	private final int length;
+
+	/** Counts of A, C, G, T and others before each checkpoint, five
+	 * per checkpoint */
+	private final int[] checkpoints;
+
+	/**
+	 * Constructor with the default interval
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param circular
+	 * 			If windows wrap around
+	 */
+	public Composition(ResidueStore residues, boolean circular) {
+		this(residues, circular, DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param circular
+	 * 			If windows wrap around
+	 * @param interval
+	 * 			Residues between checkpoints, larger takes less memory
+	 * 			and makes queries count more residues
+	 */
+	public Composition(ResidueStore residues, boolean circular,
+			int interval) {
+
+		if (interval < 2) {
+			throw new IllegalArgumentException("Invalid interval " + interval);
+		}
+		this.residues = residues;
+		this.circular = circular;
+		this.interval = interval;
+		this.length = residues.length();
+
+		int count = length / interval + 1;
+		checkpoints = new int[5 * count];
+		int[] running = new int[5];
+		for (int k = 1; k < count; k++) {
+			residues.countCodes((k - 1) * interval, k * interval, running);
+			System.arraycopy(running, 0, checkpoints, 5 * k, 5);
+		}
+	}
+
+	/**
+	 * Gets the number of residues
+	 *
+	 * @return
+	 * 			Number of residues
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Checks if windows wrap around
+	 *
+	 * @return
+	 * 			If circular
+	 */
+	public boolean isCircular() {
+		return circular;
+	}
+
+	/**
+	 * Counts the bases of a window
+	 *
+	 * @param start
+	 * 			First residue index, any index on circular residues
+	 * @param size
+	 * 			Number of residues, at most all on circular residues
+	 * @param counts
+	 * 			Receives the A, C, G and T counts and the count of
+	 * 			everything else, at least five elements
+	 */
+	public void getCounts(int start, int size, int[] counts) {
+
+		for (int i = 0; i < 5; i++) {
+			counts[i] = 0;
+		}
+		if (size < 0 || (circular && size > length)) {
+			throw new IllegalArgumentException("Invalid window size " + size);
+		}
+
+		if (circular) {
+			if (length == 0) {
+				return;
+			}
+			int from = Math.floorMod(start, length);
+			long to = (long) from + size;
+			if (to <= length) {
+				addCounts(from, (int) to, counts);
+			} else {
+				addCounts(from, length, counts);
+				addCounts(0, (int) (to - length), counts);
+			}
+		} else {
+			int from = Math.max(0, start);
+			int to = (int) Math.min(length, (long) start + size);
+			if (from < to) {
+				addCounts(from, to, counts);
+			}
+		}
+	}
+
+	/**
+	 * Gets the GC content of a window, the share of G and C among the
+	 * A, C, G and T
+	 *
+	 * @param start
+	 * 			First residue index
+	 * @param size
+	 * 			Number of residues
+	 * @return
+	 * 			The content from 0 to 1, NaN if there are no bases
+	 */
+	public double getGcContent(int start, int size) {
+
+		int[] counts = new int[5];
+		getCounts(start, size, counts);
+		int gc = counts[NucleotideCode.G] + counts[NucleotideCode.C];
+		int bases = gc + counts[NucleotideCode.A] + counts[NucleotideCode.T];
+		return bases == 0 ? Double.NaN : (double) gc / bases;
+	}
+
+	/**
+	 * Gets the GC skew of a window, (G - C) / (G + C)
+	 *
+	 * @param start
+	 * 			First residue index
+	 * @param size
+	 * 			Number of residues
+	 * @return
+	 * 			The skew from -1 to 1, NaN if there are no G or C
+	 */
+	public double getGcSkew(int start, int size) {
+
+		int[] counts = new int[5];
+		getCounts(start, size, counts);
+		return skew(counts[NucleotideCode.G], counts[NucleotideCode.C]);
+	}
+
+	/**
+	 * Gets the AT skew of a window, (A - T) / (A + T)
+	 *
+	 * @param start
+	 * 			First residue index
+	 * @param size
+	 * 			Number of residues
+	 * @return
+	 * 			The skew from -1 to 1, NaN if there are no A or T
+	 */
+	public double getAtSkew(int start, int size) {
+
+		int[] counts = new int[5];
+		getCounts(start, size, counts);
+		return skew(counts[NucleotideCode.A], counts[NucleotideCode.T]);
+	}
+
+	/**
+	 * Gets the Shannon entropy of the bases of a window
+	 *
+	 * @param start
+	 * 			First residue index
+	 * @param size
+	 * 			Number of residues
+	 * @return
+	 * 			The entropy in bits from 0 to 2, NaN if there are no
+	 * 			bases
+	 */
+	public double getEntropy(int start, int size) {
+
+		int[] counts = new int[5];
+		getCounts(start, size, counts);
+		int bases = counts[0] + counts[1] + counts[2] + counts[3];
+		if (bases == 0) {
+			return Double.NaN;
+		}
+
+		double entropy = 0;
+		for (int c = 0; c < 4; c++) {
+			if (counts[c] > 0) {
+				double p = (double) counts[c] / bases;
+				entropy -= p * Math.log(p);
+			}
+		}
+		return entropy / Math.log(2);
+	}
+
+	/**
+	 * Adds the counts of a range
+	 *
+	 * @param from
+	 * 			First residue index (inclusive)
+	 * @param to
+	 * 			Last residue index (exclusive)
+	 * @param counts
+	 * 			Where to add the counts
+	 */
+	private void addCounts(int from, int to, int[] counts) {
+
+		int[] before = new int[5];
+		int[] after = new int[5];
+		countBefore(from, before);
+		countBefore(to, after);
+		for (int i = 0; i < 5; i++) {
+			counts[i] += after[i] - before[i];
+		}
+	}
+
+	/**
+	 * Counts the bases before a residue, from the nearest checkpoint
+	 *
+	 * @param index
+	 * 			The residue index
+	 * @param counts
+	 * 			Receives the counts
+	 */
+	private void countBefore(int index, int[] counts) {
+
+		int k = index / interval;
+		int offset = index - k * interval;
+		long next = (long) (k + 1) * interval;
+
+		if (offset <= interval / 2 || next > length) {
+			System.arraycopy(checkpoints, 5 * k, counts, 0, 5);
+			residues.countCodes(k * interval, index, counts);
+		} else {
+			int[] between = new int[5];
+			residues.countCodes(index, (int) next, between);
+			for (int i = 0; i < 5; i++) {
+				counts[i] = checkpoints[5 * (k + 1) + i] - between[i];
+			}
+		}
+	}
+
+	/** Skew of two counts, NaN if both are 0 */
+	private static double skew(int a, int b) {
+		return a + b == 0 ? Double.NaN : (double) (a - b) / (a + b);
+	}
+}
@@ -0,0 +1,801 @@
+
+package sequences;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+/**
+ * FmIndex is a full-text index of nucleotide residues, for looking up
+ * many short patterns without walking the residues for each.
+ *
+ * The suffix array of the residues is sorted by SA-IS and turned into
+ * the Burrows-Wheeler transform, which is kept packed at two bits per
+ * row with occurrence counts every 64 rows. Only every
+ * <code>sampleRate</code>th suffix array entry is kept. Counting the
+ * occurrences of a pattern of length m is O(m), locating them
+ * O(m + occ * sampleRate).
+ *
+ * Residues that are not A, C, G or T match nothing. Circular residues
+ * are indexed by their rotations, so occurrences spanning the origin
+ * are found like any other.
+ *
+ * An index is never changed and can be searched from several threads.
+ * It describes the residues it was built from, see
+ * <code>Sequence.getFmIndex()</code> for keeping one up to date.
+ */
+public class FmIndex {
+
+	/** Default distance between sampled suffix array entries */
+	public static final int DEFAULT_SAMPLE_RATE = 32;
+
+	/** Magic bytes starting every saved index */
+	private static final byte[] MAGIC = {'V', 'F', 'M', 'I'};
+
+	/** The version written */
+	private static final int VERSION = 1;
+
+	/** Bytes of the header of a saved index */
+	private static final int HEADER_SIZE = 37;
+
+	/** Text symbol ending linear residues, smallest of all */
+	private static final int SENTINEL = 0;
+
+	/** Text symbol of residues that are not A, C, G or T */
+	private static final int OTHER = 5;
+
+	/** The low bit of every 2-bit field */
+	private static final long LOW_BITS = 0x5555555555555555L;
+
+	/** Number of residues indexed */
+	private final int length;
+
+	/** If the residues wrap around */
+	private final boolean circular;
+
+	/** Length of the shortest repeat that the circular residues are
+	 * made of, the length if none */
+	private final int period;
+
+	/** Rows of the transform */
+	private final int rows;
+
+	/** Distance between sampled entries */
+	private final int sampleRate;
+
+	/** Checksum of the residues */
+	private final long fingerprint;
+
+	/** First row starting with each of A, C, G and T, and the row after
+	 * the last T */
+	private final int[] first = new int[5];
+
+	/** The transform, 32 rows per word; rows that are not A, C, G or T
+	 * are stored as A */
+	private final long[] bwt;
+
+	/** Rows that are not A, C, G or T, 64 rows per word */
+	private final long[] other;
+
+	/** Rows with a sampled entry, 64 rows per word */
+	private final long[] sampled;
+
+	/** Counts of A, C, G and T before each block of 64 rows */
+	private final int[] occ;
+
+	/** Sampled rows before each block of 64 rows */
+	private final int[] sampleRank;
+
+	/** Residue index of each sampled row, in row order */
+	private final int[] samples;
+
+	/** Constructor of a built or loaded index */
+	private FmIndex(int length, boolean circular, int period, int rows,
+			int sampleRate, long fingerprint, long[] bwt, long[] other,
+			long[] sampled, int[] occ, int[] sampleRank, int[] samples) {
+
+		this.length = length;
+		this.circular = circular;
+		this.period = period;
+		this.rows = rows;
+		this.sampleRate = sampleRate;
+		this.fingerprint = fingerprint;
+		this.bwt = bwt;
+		this.other = other;
+		this.sampled = sampled;
+		this.occ = occ;
+		this.sampleRank = sampleRank;
+		this.samples = samples;
+
+		first[0] = circular ? 0 : 1;
+		for (int c = 0; c < 4; c++) {
+			first[c + 1] = first[c] + occ(c, rows);
+		}
+	}
+
+	/**
+	 * Builds an index with the default sample rate
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param circular
+	 * 			If the residues wrap around
+	 * @return
+	 * 			The index
+	 */
+	public static FmIndex build(ResidueStore residues, boolean circular) {
+		return build(residues, circular, DEFAULT_SAMPLE_RATE);
+	}
+
+	/**
+	 * Builds an index.
+	 *
+	 * Sorting the suffixes is sequential, making the transform, the
+	 * counts and the samples from them runs on the common fork-join
+	 * pool.
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param circular
+	 * 			If the residues wrap around
+	 * @param sampleRate
+	 * 			Distance between sampled suffix array entries, lower
+	 * 			locates faster and takes more memory
+	 * @return
+	 * 			The index
+	 */
+	public static FmIndex build(ResidueStore residues, boolean circular,
+			int sampleRate) {
+
+		if (sampleRate < 1) {
+			throw new IllegalArgumentException("Invalid sample rate " +
+					sampleRate);
+		}
+
+		int n = residues.length();
+		final int[] symbols = new int[n];
+		for (int i = 0; i < n; i++) {
+			int code = residues.codeAt(i);
+			symbols[i] = code < 0 ? OTHER : code + 1;
+		}
+		long fingerprint = fingerprint(symbols);
+
+		//A circular text is indexed by its rotations, sorted as the
+		//suffixes of it doubled that start in the first copy. Rotations
+		//must differ for the transform to work, so a text repeating a
+		//shorter one is indexed as that.
+		final int p = circular ? period(symbols) : n;
+		final int[] sa;
+		if (circular) {
+			int[] text = new int[2 * p + 1];
+			System.arraycopy(symbols, 0, text, 0, p);
+			System.arraycopy(symbols, 0, text, p, p);
+			text[2 * p] = SENTINEL;
+			int[] doubled = SuffixArray.build(text, OTHER + 1);
+			sa = new int[p];
+			int j = 0;
+			for (int pos: doubled) {
+				if (pos < p) {
+					sa[j++] = pos;
+				}
+			}
+		} else {
+			int[] text = Arrays.copyOf(symbols, n + 1);
+			text[n] = SENTINEL;
+			sa = SuffixArray.build(text, OTHER + 1);
+		}
+
+		final int rows = sa.length;
+		final boolean wraps = circular;
+		final int rate = sampleRate;
+		final int blocks = (rows >>> 6) + 1;
+		final long[] bwt = new long[2 * blocks];
+		final long[] other = new long[blocks];
+		final long[] sampled = new long[blocks];
+		final int[] occ = new int[4 * blocks];
+		final int[] sampleRank = new int[blocks];
+
+		//Each block is filled independently with its own counts, which
+		//are then summed into counts before the block
+		IntStream.range(0, blocks).parallel().forEach(new IntConsumer() {
+			public void accept(int b) {
+
+				int end = Math.min(rows, (b + 1) << 6);
+				int[] counts = new int[4];
+				for (int row = b << 6; row < end; row++) {
+
+					int pos = sa[row];
+					int symbol;
+					if (pos > 0) {
+						symbol = symbols[pos - 1];
+					} else {
+						symbol = wraps ? symbols[p - 1] : SENTINEL;
+					}
+
+					int r = row & 63;
+					if (symbol == SENTINEL || symbol == OTHER) {
+						other[b] |= 1L << r;
+					} else {
+						bwt[2 * b + (r >>> 5)] |=
+							(long) (symbol - 1) << (2 * (r & 31));
+						counts[symbol - 1]++;
+					}
+					if (pos % rate == 0 || symbol == SENTINEL ||
+							symbol == OTHER) {
+						sampled[b] |= 1L << r;
+					}
+				}
+				System.arraycopy(counts, 0, occ, 4 * b, 4);
+				sampleRank[b] = Long.bitCount(sampled[b]);
+			}
+		});
+
+		int[] sums = new int[4];
+		int sampleCount = 0;
+		for (int b = 0; b < blocks; b++) {
+			for (int c = 0; c < 4; c++) {
+				int count = occ[4 * b + c];
+				occ[4 * b + c] = sums[c];
+				sums[c] += count;
+			}
+			int count = sampleRank[b];
+			sampleRank[b] = sampleCount;
+			sampleCount += count;
+		}
+
+		final int[] samples = new int[sampleCount];
+		IntStream.range(0, blocks).parallel().forEach(new IntConsumer() {
+			public void accept(int b) {
+
+				int j = sampleRank[b];
+				for (long bits = sampled[b]; bits != 0; bits &= bits - 1) {
+					samples[j++] = sa[(b << 6) + Long.numberOfTrailingZeros(bits)];
+				}
+			}
+		});
+
+		return new FmIndex(n, circular, p, rows, sampleRate, fingerprint,
+				bwt, other, sampled, occ, sampleRank, samples);
+	}
+
+	/**
+	 * Gets the number of residues indexed
+	 *
+	 * @return
+	 * 			Number of residues
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Checks if the index was built as circular
+	 *
+	 * @return
+	 * 			If the residues wrap around
+	 */
+	public boolean isCircular() {
+		return circular;
+	}
+
+	/**
+	 * Gets the distance between sampled suffix array entries
+	 *
+	 * @return
+	 * 			The sample rate
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Checks if the index describes residues, by their length and
+	 * checksum, without building an index of them.
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param circular
+	 * 			If the residues wrap around
+	 * @return
+	 * 			If the index is of the residues
+	 */
+	public boolean matches(ResidueStore residues, boolean circular) {
+
+		if (residues.length() != length || circular != this.circular) {
+			return false;
+		}
+		int[] symbols = new int[length];
+		for (int i = 0; i < length; i++) {
+			int code = residues.codeAt(i);
+			symbols[i] = code < 0 ? OTHER : code + 1;
+		}
+		return fingerprint(symbols) == fingerprint;
+	}
+
+	/**
+	 * Counts the occurrences of a pattern
+	 *
+	 * @param pattern
+	 * 			The pattern, of A, C, G and T in either case
+	 * @return
+	 * 			Number of occurrences, 0 for patterns that are empty,
+	 * 			hold other codes or are longer than circular residues
+	 */
+	public int count(CharSequence pattern) {
+
+		int[] codes = encode(pattern);
+		if (codes == null) {
+			return 0;
+		}
+		int[] range = {0, rows};
+		for (int j = codes.length - 1; j >= 0 && range[0] < range[1]; j--) {
+			step(codes[j], range);
+		}
+		return (range[1] - range[0]) * repeats();
+	}
+
+	/**
+	 * Locates the occurrences of a pattern
+	 *
+	 * @param pattern
+	 * 			The pattern, of A, C, G and T in either case
+	 * @return
+	 * 			The <i>On</i> positions of the first residue of each
+	 * 			occurrence, in order
+	 */
+	public int[] locate(CharSequence pattern) {
+		return locate(pattern, 0);
+	}
+
+	/**
+	 * Locates the occurrences of a pattern with up to a number of
+	 * mismatches (substitutions only). Each allowed mismatch multiplies
+	 * the search by up to three, so this is meant for short patterns
+	 * and one or two mismatches. As for exact search, residues that are
+	 * not A, C, G or T are never part of an occurrence.
+	 *
+	 * @param pattern
+	 * 			The pattern, codes other than A, C, G and T always
+	 * 			mismatch
+	 * @param mismatches
+	 * 			Most mismatches allowed
+	 * @return
+	 * 			The <i>On</i> positions of the first residue of each
+	 * 			occurrence, in order
+	 */
+	public int[] locate(CharSequence pattern, int mismatches) {
+
+		int m = pattern.length();
+		if (m == 0 || (circular && m > length)) {
+			return new int[0];
+		}
+		int[] codes = new int[m];
+		for (int j = 0; j < m; j++) {
+			codes[j] = NucleotideCode.encode(pattern.charAt(j));
+		}
+
+		int[] found = new int[16];
+		found = search(codes, m - 1, 0, rows, mismatches, found);
+		int count = found[0];
+
+		int repeats = repeats();
+		int[] positions = new int[count * repeats];
+		for (int i = 0; i < count; i++) {
+
+			int pos = 2 * found[i + 1] + 1;
+			for (int k = 0; k < repeats; k++) {
+				positions[i * repeats + k] = pos + 2 * k * period;
+			}
+		}
+		Arrays.sort(positions);
+		return positions;
+	}
+
+	/**
+	 * Searches the rows matching the rest of a pattern, extending it
+	 * leftwards, and adds the residue indices of matching rows.
+	 *
+	 * @param codes
+	 * 			The pattern codes
+	 * @param j
+	 * 			Last code still to match
+	 * @param lo
+	 * 			First row matching the codes after j
+	 * @param hi
+	 * 			Row after the last matching
+	 * @param left
+	 * 			Mismatches still allowed
+	 * @param found
+	 * 			Number of indices found followed by the indices
+	 * @return
+	 * 			The found indices, grown if needed
+	 */
+	private int[] search(int[] codes, int j, int lo, int hi, int left,
+			int[] found) {
+
+		if (j < 0) {
+			for (int row = lo; row < hi; row++) {
+				if (found[0] + 1 == found.length) {
+					found = Arrays.copyOf(found, found.length * 2);
+				}
+				found[++found[0]] = resolve(row);
+			}
+			return found;
+		}
+
+		int[] range = new int[2];
+		for (int c = 0; c < 4; c++) {
+
+			int cost = c == codes[j] ? 0 : 1;
+			if (cost > left) {
+				continue;
+			}
+			range[0] = lo;
+			range[1] = hi;
+			step(c, range);
+			if (range[0] < range[1]) {
+				found = search(codes, j - 1, range[0], range[1], left - cost,
+						found);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Narrows a range of rows to those preceded by a code
+	 *
+	 * @param c
+	 * 			The code
+	 * @param range
+	 * 			The first row and the row after the last, narrowed
+	 */
+	private void step(int c, int[] range) {
+		range[0] = first[c] + occ(c, range[0]);
+		range[1] = first[c] + occ(c, range[1]);
+	}
+
+	/**
+	 * Finds the residue index of a row by stepping back to a sampled
+	 * row
+	 *
+	 * @param row
+	 * 			The row
+	 * @return
+	 * 			The residue index its suffix starts at
+	 */
+	private int resolve(int row) {
+
+		int steps = 0;
+		while ((sampled[row >>> 6] & (1L << (row & 63))) == 0) {
+
+			int r = row & 63;
+			int c = (int) (bwt[2 * (row >>> 6) + (r >>> 5)] >>>
+					(2 * (r & 31))) & 3;
+			row = first[c] + occ(c, row);
+			steps++;
+		}
+		int b = row >>> 6;
+		int rank = sampleRank[b] +
+			Long.bitCount(sampled[b] & ((1L << (row & 63)) - 1));
+		return samples[rank] + steps;
+	}
+
+	/**
+	 * Counts a code in the rows before a row
+	 *
+	 * @param c
+	 * 			The code
+	 * @param row
+	 * 			The row
+	 * @return
+	 * 			Number of rows before with the code
+	 */
+	private int occ(int c, int row) {
+
+		int b = row >>> 6;
+		int r = row & 63;
+		int count = occ[4 * b + c];
+		if (r == 0) {
+			return count;
+		}
+
+		//Fields equal to the code have both bits of the xor clear
+		long pattern = c * LOW_BITS;
+		long x = bwt[2 * b] ^ pattern;
+		long matches = ~(x | (x >>> 1)) & LOW_BITS;
+		if (r < 32) {
+			matches &= (1L << (2 * r)) - 1;
+		}
+		count += Long.bitCount(matches);
+		if (r > 32) {
+			x = bwt[2 * b + 1] ^ pattern;
+			matches = ~(x | (x >>> 1)) & LOW_BITS & ((1L << (2 * (r - 32))) - 1);
+			count += Long.bitCount(matches);
+		}
+
+		if (c == NucleotideCode.A) {
+			count -= Long.bitCount(other[b] & ((1L << r) - 1));
+		}
+		return count;
+	}
+
+	/** Times the indexed period repeats in circular residues */
+	private int repeats() {
+		return period == 0 ? 0 : length / period;
+	}
+
+	/**
+	 * Encodes a pattern for exact search
+	 *
+	 * @param pattern
+	 * 			The pattern
+	 * @return
+	 * 			The codes, null if it can not occur
+	 */
+	private int[] encode(CharSequence pattern) {
+
+		int m = pattern.length();
+		if (m == 0 || (circular && m > length)) {
+			return null;
+		}
+		int[] codes = new int[m];
+		for (int j = 0; j < m; j++) {
+			codes[j] = NucleotideCode.encode(pattern.charAt(j));
+			if (codes[j] < 0) {
+				return null;
+			}
+		}
+		return codes;
+	}
+
+	/**
+	 * Saves the index
+	 *
+	 * @param file
+	 * 			The file, replaced if it exists
+	 * @throws IOException
+	 * 			If the file can not be written
+	 */
+	public void write(File file) throws IOException {
+
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.put(MAGIC);
+			header.putInt(VERSION);
+			header.putInt(length);
+			header.put((byte) (circular ? 1 : 0));
+			header.putInt(period);
+			header.putInt(rows);
+			header.putInt(sampleRate);
+			header.putLong(fingerprint);
+			header.putInt(samples.length);
+			header.flip();
+			writeFully(channel, header);
+
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+			writeLongs(channel, buf, bwt);
+			writeLongs(channel, buf, other);
+			writeLongs(channel, buf, sampled);
+			writeInts(channel, buf, occ);
+			writeInts(channel, buf, sampleRank);
+			writeInts(channel, buf, samples);
+			flush(channel, buf);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Loads a saved index
+	 *
+	 * @param file
+	 * 			The file
+	 * @return
+	 * 			The index
+	 * @throws IOException
+	 * 			If the file can not be read or is not an index
+	 */
+	public static FmIndex read(File file) throws IOException {
+
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			readFully(channel, header);
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, MAGIC)) {
+				throw new IOException("Not an index: " + file);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported index version " + version);
+			}
+			int length = header.getInt();
+			boolean circular = header.get() != 0;
+			int period = header.getInt();
+			int rows = header.getInt();
+			int sampleRate = header.getInt();
+			long fingerprint = header.getLong();
+			int sampleCount = header.getInt();
+			if (length < 0 || period < 0 || period > length || rows < 0 ||
+					sampleRate < 1 || sampleCount < 0 || sampleCount > rows) {
+				throw new IOException("Corrupt index: " + file);
+			}
+
+			int blocks = (rows >>> 6) + 1;
+			ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+			buf.flip();
+			long[] bwt = readLongs(channel, buf, 2 * blocks);
+			long[] other = readLongs(channel, buf, blocks);
+			long[] sampled = readLongs(channel, buf, blocks);
+			int[] occ = readInts(channel, buf, 4 * blocks);
+			int[] sampleRank = readInts(channel, buf, blocks);
+			int[] samples = readInts(channel, buf, sampleCount);
+
+			return new FmIndex(length, circular, period, rows, sampleRate,
+					fingerprint, bwt, other, sampled, occ, sampleRank, samples);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/** Writes longs through a buffer */
+	private static void writeLongs(FileChannel channel, ByteBuffer buf,
+			long[] values) throws IOException {
+
+		for (long v: values) {
+			if (buf.remaining() < 8) {
+				flush(channel, buf);
+			}
+			buf.putLong(v);
+		}
+	}
+
+	/** Writes ints through a buffer */
+	private static void writeInts(FileChannel channel, ByteBuffer buf,
+			int[] values) throws IOException {
+
+		for (int v: values) {
+			if (buf.remaining() < 4) {
+				flush(channel, buf);
+			}
+			buf.putInt(v);
+		}
+	}
+
+	/** Writes out and empties a buffer */
+	private static void flush(FileChannel channel, ByteBuffer buf)
+			throws IOException {
+
+		buf.flip();
+		writeFully(channel, buf);
+		buf.clear();
+	}
+
+	/** Writes all remaining bytes of a buffer */
+	private static void writeFully(FileChannel channel, ByteBuffer buf)
+			throws IOException {
+
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+	}
+
+	/** Reads longs through a buffer */
+	private static long[] readLongs(FileChannel channel, ByteBuffer buf,
+			int count) throws IOException {
+
+		long[] values = new long[count];
+		for (int i = 0; i < count; i++) {
+			if (buf.remaining() < 8) {
+				refill(channel, buf, 8);
+			}
+			values[i] = buf.getLong();
+		}
+		return values;
+	}
+
+	/** Reads ints through a buffer */
+	private static int[] readInts(FileChannel channel, ByteBuffer buf,
+			int count) throws IOException {
+
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++) {
+			if (buf.remaining() < 4) {
+				refill(channel, buf, 4);
+			}
+			values[i] = buf.getInt();
+		}
+		return values;
+	}
+
+	/** Reads more bytes after those remaining in a buffer, at least
+	 * as many as needed */
+	private static void refill(FileChannel channel, ByteBuffer buf,
+			int needed) throws IOException {
+
+		buf.compact();
+		while (buf.position() < needed) {
+			if (channel.read(buf) < 0) {
+				throw new IOException("Index ends unexpectedly");
+			}
+		}
+		buf.flip();
+	}
+
+	/** Fills a buffer completely */
+	private static void readFully(FileChannel channel, ByteBuffer buf)
+			throws IOException {
+
+		while (buf.hasRemaining()) {
+			if (channel.read(buf) < 0) {
+				throw new IOException("Index ends unexpectedly");
+			}
+		}
+		buf.flip();
+	}
+
+	/**
+	 * Computes the checksum of text symbols
+	 *
+	 * @param symbols
+	 * 			The symbols
+	 * @return
+	 * 			The checksum
+	 */
+	private static long fingerprint(int[] symbols) {
+
+		CRC32 crc = new CRC32();
+		byte[] buf = new byte[8192];
+		for (int i = 0; i < symbols.length; i += buf.length) {
+
+			int end = Math.min(symbols.length, i + buf.length);
+			for (int j = i; j < end; j++) {
+				buf[j - i] = (byte) symbols[j];
+			}
+			crc.update(buf, 0, end - i);
+		}
+		return crc.getValue() ^ ((long) symbols.length << 32);
+	}
+
+	/**
+	 * Finds the length of the shortest text that the symbols repeat a
+	 * whole number of times
+	 *
+	 * @param symbols
+	 * 			The symbols
+	 * @return
+	 * 			The period, the length if they do not repeat
+	 */
+	private static int period(int[] symbols) {
+
+		int n = symbols.length;
+		if (n == 0) {
+			return 0;
+		}
+
+		//Longest proper border of each prefix (Knuth-Morris-Pratt)
+		int[] border = new int[n];
+		for (int i = 1, k = 0; i < n; i++) {
+			while (k > 0 && symbols[i] != symbols[k]) {
+				k = border[k - 1];
+			}
+			if (symbols[i] == symbols[k]) {
+				k++;
+			}
+			border[i] = k;
+		}
+		int p = n - border[n - 1];
+		return n % p == 0 ? p : n;
+	}
+}
@@ -0,0 +1,242 @@
+
+package sequences;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * IntervalIndex is a static implicit interval tree.
+ *
+ * The intervals are sorted by start and the sorted array itself is used
+ * as a balanced binary tree (the node of level <code>k</code> are the
+ * indices with exactly <code>k</code> trailing ones), augmented with
+ * the largest end of each subtree. Overlap queries are then
+ * O(log n + k) without any tree nodes being allocated.
+ *
+ * Intervals are closed and each carries an int value.
+ */
+class IntervalIndex {
+
+	/** Subtrees at or below this level are scanned linearly */
+	private static final int SCAN_LEVEL = 3;
+
+	/** Interval starts, sorted */
+	private final int[] starts;
+
+	/** Interval ends (inclusive) */
+	private final int[] ends;
+
+	/** Interval values */
+	private final int[] values;
+
+	/** Largest end in each subtree */
+	private final int[] maxEnds;
+
+	/** Number of intervals */
+	private final int size;
+
+	/** Level of the root */
+	private final int maxLevel;
+
+	/**
+	 * Builder collects intervals in any order.
+	 */
+	static class Builder {
+
+		/** Starts so far */
+		private int[] starts = new int[16];
+
+		/** Ends so far */
+		private int[] ends = new int[16];
+
+		/** Values so far */
+		private int[] values = new int[16];
+
+		/** Number so far */
+		private int size = 0;
+
+		/**
+		 * Adds an interval
+		 *
+		 * @param start
+		 * 			First position, not negative
+		 * @param end
+		 * 			Last position (inclusive)
+		 * @param value
+		 * 			The value of the interval
+		 */
+		void add(int start, int end, int value) {
+
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			starts[size] = start;
+			ends[size] = end;
+			values[size] = value;
+			size++;
+		}
+
+		/**
+		 * Produces the index
+		 *
+		 * @return
+		 * 			The index
+		 */
+		IntervalIndex build() {
+			return new IntervalIndex(this);
+		}
+	}
+
+	/** Constructor sorting and augmenting the builder's intervals */
+	private IntervalIndex(Builder builder) {
+
+		size = builder.size;
+
+		//Sort by start without boxing: start in high bits, origin in low
+		long[] order = new long[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = ((long) builder.starts[i] << 32) | i;
+		}
+		Arrays.sort(order);
+
+		starts = new int[size];
+		ends = new int[size];
+		values = new int[size];
+		maxEnds = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			int from = (int) order[i];
+			starts[i] = builder.starts[from];
+			ends[i] = builder.ends[from];
+			values[i] = builder.values[from];
+		}
+
+		maxLevel = augment();
+	}
+
+	/**
+	 * Computes the largest end of every subtree.
+	 *
+	 * @return
+	 * 			The level of the root
+	 */
+	private int augment() {
+
+		if (size == 0) {
+			return -1;
+		}
+
+		int lastIndex = 0;
+		int last = 0;
+
+		for (int i = 0; i < size; i += 2) {
+			lastIndex = i;
+			last = ends[i];
+			maxEnds[i] = ends[i];
+		}
+
+		int level = 1;
+		for (; (1 << level) <= size; level++) {
+
+			int x = 1 << (level - 1);
+			int first = (x << 1) - 1;
+			int step = x << 2;
+
+			for (int i = first; i < size; i += step) {
+
+				int left = maxEnds[i - x];
+				int right = i + x < size ? maxEnds[i + x] : last;
+				maxEnds[i] = Math.max(ends[i], Math.max(left, right));
+			}
+
+			lastIndex = ((lastIndex >> level) & 1) != 0 ?
+				lastIndex - x : lastIndex + x;
+			if (lastIndex < size && maxEnds[lastIndex] > last) {
+				last = maxEnds[lastIndex];
+			}
+		}
+		return level - 1;
+	}
+
+	/**
+	 * Gets the number of intervals
+	 *
+	 * @return
+	 * 			Number of intervals
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Finds the intervals overlapping a range.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @param consumer
+	 * 			Receiver of the values of overlapping intervals
+	 */
+	void query(int from, int to, IntConsumer consumer) {
+
+		if (size == 0 || from > to) {
+			return;
+		}
+
+		//Explicit stack of (node, level, visited)
+		int[] nodes = new int[maxLevel * 2 + 4];
+		int[] levels = new int[nodes.length];
+		boolean[] visited = new boolean[nodes.length];
+		int top = 0;
+
+		nodes[0] = (1 << maxLevel) - 1;
+		levels[0] = maxLevel;
+		visited[0] = false;
+		top = 1;
+
+		while (top > 0) {
+
+			top--;
+			int x = nodes[top];
+			int level = levels[top];
+
+			if (level <= SCAN_LEVEL) {
+
+				int i = x >> level << level;
+				int end = Math.min(i + (1 << (level + 1)) - 1, size);
+				for (; i < end && starts[i] <= to; i++) {
+					if (from <= ends[i]) {
+						consumer.accept(values[i]);
+					}
+				}
+
+			} else if (!visited[top]) {
+
+				int left = x - (1 << (level - 1));
+
+				visited[top] = true;
+				top++;
+
+				if (left >= size || maxEnds[left] >= from) {
+					nodes[top] = left;
+					levels[top] = level - 1;
+					visited[top] = false;
+					top++;
+				}
+
+			} else if (x < size && starts[x] <= to) {
+
+				if (from <= ends[x]) {
+					consumer.accept(values[x]);
+				}
+				nodes[top] = x + (1 << (level - 1));
+				levels[top] = level - 1;
+				visited[top] = false;
+				top++;
+			}
+		}
+	}
+}
@@ -0,0 +1,18 @@
+
+package sequences;
+
+/**
+ * KmerConsumer receives the encoded slices of a k-mer walk.
+ */
+public interface KmerConsumer {
+
+	/**
+	 * Accepts a slice
+	 *
+	 * @param pos
+	 * 			The <i>On</i> position of the first residue of the slice
+	 * @param kmer
+	 * 			The encoded slice (see <code>KmerWalker.getKmer()</code>)
+	 */
+	public void accept(int pos, long kmer);
+}
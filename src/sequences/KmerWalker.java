@@ -0,0 +1,207 @@
+
+package sequences;
+
+/**
+ * KmerWalker walks a sequence in slices like the sequence walker, but
+ * produces each slice as a 2-bit encoded number instead of a
+ * <code>String</code>.
+ *
+ * It is a cursor: <code>next()</code> moves to the next slice and the
+ * getters describe the current one. Overlapping slices are rolled
+ * forward, so each residue is read once, and nothing is allocated while
+ * walking.
+ */
+public class KmerWalker {
+
+	/** Largest slice size that can be encoded */
+	public static final int MAX_SLICE_SIZE = 31;
+
+	/** The encoding of slices with residues that are not A, C, G or T */
+	public static final long AMBIGUOUS = -1L;
+
+	/** The walk */
+	private final SliceGeometry geometry;
+
+	/** Mask of a complete slice */
+	private final long sliceMask;
+
+	/** The current slice number */
+	private int slice = -1;
+
+	/** Last residues read, as codes */
+	private long window = 0;
+
+	/** Walk offset after the last residue read */
+	private int windowEnd = 0;
+
+	/** Walk offset of the last ambiguous residue read */
+	private int lastAmbiguous = -1;
+
+	/** The current encoded slice */
+	private long kmer;
+
+	/**
+	 * Constructor
+	 *
+	 * @param seq
+	 * 			The sequence or view to walk
+	 * @param pos
+	 * 			Starting position, must be <i>On</i> (odd)
+	 * @param step
+	 * 			Distance between slice starts, even and positive
+	 * @param sliceSize
+	 * 			Residues per slice, at most <code>MAX_SLICE_SIZE</code>
+	 * @param allowIncomplete
+	 * 			If slices cut short by the end are part of the walk
+	 */
+	public KmerWalker(ResidueSource seq, int pos, int step, int sliceSize,
+			boolean allowIncomplete) {
+
+		if (sliceSize > MAX_SLICE_SIZE) {
+			throw new IllegalArgumentException(
+					"Slices can not be longer than " + MAX_SLICE_SIZE);
+		}
+		geometry = new SliceGeometry(seq, pos, step, sliceSize,
+				allowIncomplete);
+		sliceMask = getMask(sliceSize);
+	}
+
+	/**
+	 * Constructor continuing a walk from one of its slices
+	 *
+	 * @param geometry
+	 * 			The walk
+	 * @param slice
+	 * 			The slice the first <code>next()</code> moves to
+	 */
+	KmerWalker(SliceGeometry geometry, int slice) {
+
+		if (geometry.sliceSize > MAX_SLICE_SIZE) {
+			throw new IllegalArgumentException(
+					"Slices can not be longer than " + MAX_SLICE_SIZE);
+		}
+		this.geometry = geometry;
+		this.slice = slice - 1;
+		sliceMask = getMask(geometry.sliceSize);
+	}
+
+	/**
+	 * Moves to the next slice
+	 *
+	 * @return
+	 * 			If there was a next slice
+	 */
+	public boolean next() {
+
+		if (slice + 1 >= geometry.count) {
+			slice = geometry.count;
+			return false;
+		}
+		slice++;
+
+		int start = geometry.getOffset(slice);
+		int length = geometry.getLength(slice);
+		int end = start + length;
+
+		//No overlap with what was read for previous slice
+		if (windowEnd < start) {
+			windowEnd = start;
+			window = 0;
+		}
+
+		ResidueStore residues = geometry.residues;
+		while (windowEnd < end) {
+
+			int code = residues.codeAt(geometry.getIndex(windowEnd));
+			if (code < 0) {
+				lastAmbiguous = windowEnd;
+				code = 0;
+			}
+			window = ((window << 2) | code) & sliceMask;
+			windowEnd++;
+		}
+
+		if (lastAmbiguous >= start) {
+			kmer = AMBIGUOUS;
+		} else {
+			kmer = window & getMask(length);
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the current slice.
+	 *
+	 * The first residue is in the highest bits, two bits per residue
+	 * (see <code>NucleotideCode</code>), so numeric order is the same as
+	 * alphabetic order for slices of equal length.
+	 *
+	 * @return
+	 * 			The encoded slice or <code>AMBIGUOUS</code>
+	 */
+	public long getKmer() {
+		return kmer;
+	}
+
+	/**
+	 * Gets the model-space position of the current slice
+	 *
+	 * @return
+	 * 			The <i>On</i> position of the first residue
+	 */
+	public int getPos() {
+		return geometry.getPos(slice);
+	}
+
+	/**
+	 * Gets the number of residues in the current slice
+	 *
+	 * @return
+	 * 			The slice length
+	 */
+	public int getLength() {
+		return geometry.getLength(slice);
+	}
+
+	/**
+	 * Gets the number of slices in the whole walk
+	 *
+	 * @return
+	 * 			The number of slices
+	 */
+	public int getCount() {
+		return geometry.count;
+	}
+
+	/**
+	 * Decodes a slice back to text
+	 *
+	 * @param kmer
+	 * 			The encoded slice
+	 * @param length
+	 * 			The slice length
+	 * @return
+	 * 			The residues
+	 */
+	public static String decode(long kmer, int length) {
+
+		char[] chars = new char[length];
+		for (int i = length - 1; i >= 0; i--) {
+			chars[i] = NucleotideCode.decode((int) (kmer & 3));
+			kmer >>>= 2;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Gets the mask of a number of residues
+	 *
+	 * @param length
+	 * 			Number of residues
+	 * @return
+	 * 			The mask
+	 */
+	private static long getMask(int length) {
+		return (1L << (length << 1)) - 1;
+	}
+}
@@ -0,0 +1,21 @@
+
+package sequences;
+
+/**
+ * MotifConsumer receives the hits of a motif scan.
+ */
+public interface MotifConsumer {
+
+	/**
+	 * Accepts a hit
+	 *
+	 * @param motif
+	 * 			The number of the motif in its <code>MotifSet</code>
+	 * @param pos
+	 * 			The <i>On</i> position of the first residue of the hit,
+	 * 			counted on the forward strand also for reverse hits
+	 * @param reverse
+	 * 			If the motif was found on the reverse strand
+	 */
+	public void accept(int motif, int pos, boolean reverse);
+}
@@ -0,0 +1,486 @@
+
+package sequences;
+
+import java.util.*;
+
+import annotation.Feature;
+import collector.Model;
+import point.Point;
+import topologies.Segment;
+
+/**
+ * MotifSet is a compiled set of nucleotide motifs, such as restriction
+ * sites and primers, that can be scanned for in one pass.
+ *
+ * Motifs may use the IUPAC codes, which are expanded into every plain
+ * sequence they stand for. The expansions of all motifs and of their
+ * reverse complements go into one Aho-Corasick automaton, so a scan
+ * reads each residue once whatever the number of motifs, and finds
+ * hits on both strands at the same time. Palindromic motifs are only
+ * reported once, as forward hits.
+ *
+ * A compiled set is never changed and can scan from several threads.
+ */
+public class MotifSet {
+
+	/** Largest number of plain sequences a motif may expand to */
+	public static final int MAX_EXPANSIONS = 1 << 16;
+
+	/** Bases each IUPAC code stands for, bit i for code i */
+	private static final byte[] IUPAC = new byte[128];
+
+	static {
+		set("A", 1);
+		set("C", 2);
+		set("G", 4);
+		set("TU", 8);
+		set("R", 1 | 4);
+		set("Y", 2 | 8);
+		set("S", 2 | 4);
+		set("W", 1 | 8);
+		set("K", 4 | 8);
+		set("M", 1 | 2);
+		set("B", 2 | 4 | 8);
+		set("D", 1 | 4 | 8);
+		set("H", 1 | 2 | 8);
+		set("V", 1 | 2 | 4);
+		set("N", 1 | 2 | 4 | 8);
+	}
+
+	/** Sets the bases of codes, in both cases */
+	private static void set(String codes, int bases) {
+
+		for (char c: codes.toCharArray()) {
+			IUPAC[c] = (byte) bases;
+			IUPAC[Character.toLowerCase(c)] = (byte) bases;
+		}
+	}
+
+	/**
+	 * Builder collects motifs and compiles them.
+	 */
+	public static class Builder {
+
+		/** Names so far */
+		private final List<String> names = new ArrayList<String>();
+
+		/** Motifs so far */
+		private final List<String> motifs = new ArrayList<String>();
+
+		/**
+		 * Adds a motif
+		 *
+		 * @param name
+		 * 			Name of the motif (as an enzyme or primer name)
+		 * @param motif
+		 * 			The motif, in IUPAC nucleotide codes
+		 * @return
+		 * 			The builder
+		 */
+		public Builder add(String name, String motif) {
+
+			if (motif.length() == 0) {
+				throw new IllegalArgumentException("Empty motif " + name);
+			}
+			long expansions = 1;
+			for (int i = 0; i < motif.length(); i++) {
+
+				char c = motif.charAt(i);
+				if (c >= 128 || IUPAC[c] == 0) {
+					throw new IllegalArgumentException("Invalid code '" + c +
+							"' in motif " + name);
+				}
+				expansions *= Integer.bitCount(IUPAC[c]);
+				if (expansions > MAX_EXPANSIONS) {
+					throw new IllegalArgumentException("Motif " + name +
+							" is too degenerate");
+				}
+			}
+			names.add(name);
+			motifs.add(motif);
+			return this;
+		}
+
+		/**
+		 * Compiles the motifs
+		 *
+		 * @return
+		 * 			The motif set
+		 */
+		public MotifSet build() {
+			return new MotifSet(this);
+		}
+	}
+
+	/** Names of the motifs */
+	private final String[] names;
+
+	/** The motifs */
+	private final String[] motifs;
+
+	/** Length of the longest motif */
+	private final int maxLength;
+
+	/** Transitions of the automaton, four per state, with failures
+	 * resolved so that every transition is direct */
+	private int[] delta;
+
+	/** First output of each state, -1 for none */
+	private int[] firstOutput;
+
+	/** Closest state on the failure chain with outputs, 0 for none */
+	private int[] outputLink;
+
+	/** Next output of the same state, -1 for none */
+	private int[] nextOutput;
+
+	/** Motif of each output */
+	private int[] outputMotif;
+
+	/** If each output is a reverse strand hit */
+	private boolean[] outputReverse;
+
+	/** Number of states */
+	private int states = 0;
+
+	/** Number of outputs */
+	private int outputs = 0;
+
+	/** Constructor compiling a builder's motifs */
+	private MotifSet(Builder builder) {
+
+		names = builder.names.toArray(new String[builder.names.size()]);
+		motifs = builder.motifs.toArray(new String[builder.motifs.size()]);
+
+		delta = new int[64 * 4];
+		firstOutput = new int[64];
+		nextOutput = new int[64];
+		outputMotif = new int[64];
+		outputReverse = new boolean[64];
+		Arrays.fill(delta, -1);
+		newState();
+
+		int longest = 0;
+		for (int m = 0; m < motifs.length; m++) {
+
+			insert(m, motifs[m], false);
+			insert(m, reverseComplement(motifs[m]), true);
+			longest = Math.max(longest, motifs[m].length());
+		}
+		maxLength = longest;
+
+		link();
+	}
+
+	/**
+	 * Gets the number of motifs
+	 *
+	 * @return
+	 * 			Number of motifs
+	 */
+	public int size() {
+		return motifs.length;
+	}
+
+	/**
+	 * Gets the name of a motif
+	 *
+	 * @param motif
+	 * 			The motif number
+	 * @return
+	 * 			The name
+	 */
+	public String getName(int motif) {
+		return names[motif];
+	}
+
+	/**
+	 * Gets a motif
+	 *
+	 * @param motif
+	 * 			The motif number
+	 * @return
+	 * 			The motif in IUPAC codes
+	 */
+	public String getMotif(int motif) {
+		return motifs[motif];
+	}
+
+	/**
+	 * Gets the number of states of the automaton
+	 *
+	 * @return
+	 * 			Number of states
+	 */
+	public int getStateCount() {
+		return states;
+	}
+
+	/**
+	 * Scans residues for the motifs.
+	 *
+	 * Hits are reported in order of where they end. Residues that are
+	 * not A, C, G or T match no motif. On circular sequences, hits
+	 * spanning the origin are reported too, once.
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param circular
+	 * 			If the residues wrap around
+	 * @param consumer
+	 * 			Receiver of the hits
+	 */
+	public void scan(ResidueStore residues, boolean circular,
+			MotifConsumer consumer) {
+
+		int n = residues.length();
+		int end = circular ? n + Math.min(maxLength - 1, n - 1) : n;
+		int state = 0;
+
+		for (int i = 0; i < end; i++) {
+
+			int code = residues.codeAt(i < n ? i : i - n);
+			if (code < 0) {
+				state = 0;
+				continue;
+			}
+			state = delta[state * 4 + code];
+
+			int s = firstOutput[state] >= 0 ? state : outputLink[state];
+			for (; s != 0; s = outputLink[s]) {
+				for (int o = firstOutput[s]; o >= 0; o = nextOutput[o]) {
+
+					int length = motifs[outputMotif[o]].length();
+					int start = i - length + 1;
+					if (start < n && length <= n) {
+						consumer.accept(outputMotif[o], 2 * start + 1,
+								outputReverse[o]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Annotates a sequence with its hits. Each motif with hits gets a
+	 * feature holding a segment per hit, from the first to the last
+	 * residue of the hit. Reverse hits are marked in the caption.
+	 *
+	 * @param seq
+	 * 			The sequence
+	 * @param model
+	 * 			The model of the sequence
+	 * @param type
+	 * 			Type of the features (as "restriction_site")
+	 * @return
+	 * 			The features, in order of motif
+	 */
+	List<Feature> annotate(final Sequence seq, final Model model,
+			final String type) {
+
+		final Feature[] features = new Feature[motifs.length];
+		final int size = seq.getSize();
+
+		model.beginBatch();
+		try {
+			scan(seq.getResidueStore(), seq.getAllowsWrap(), new MotifConsumer() {
+				public void accept(int motif, int pos, boolean reverse) {
+
+					if (features[motif] == null) {
+						features[motif] = new Feature(seq);
+						features[motif].setType(type);
+						features[motif].getDocumentation().caption.set(
+								names[motif]);
+					}
+
+					int last = pos + 2 * (motifs[motif].length() - 1);
+					Segment hit = new Segment(model);
+					hit.setCaption(reverse ? names[motif] + " (complement)" :
+							names[motif]);
+					hit.addPoint(new Point(seq, hit, pos));
+					hit.addPoint(new Point(seq, hit, last < size ? last :
+								last - size));
+					features[motif].setTopology(hit);
+				}
+			});
+
+			List<Feature> found = new ArrayList<Feature>();
+			for (Feature f: features) {
+				if (f != null) {
+					seq.addAnnotation(f);
+					found.add(f);
+				}
+			}
+			return found;
+		} finally {
+			model.endBatch();
+		}
+	}
+
+	/**
+	 * Adds every expansion of a motif to the trie
+	 *
+	 * @param motif
+	 * 			The motif number
+	 * @param codes
+	 * 			The motif (or its reverse complement)
+	 * @param reverse
+	 * 			If codes are the reverse complement
+	 */
+	private void insert(int motif, String codes, boolean reverse) {
+
+		int[] path = new int[codes.length() + 1];
+		insert(motif, codes, reverse, 0, path);
+	}
+
+	/**
+	 * Adds the expansions of the rest of a motif below a state
+	 *
+	 * @param motif
+	 * 			The motif number
+	 * @param codes
+	 * 			The motif
+	 * @param reverse
+	 * 			If codes are the reverse complement
+	 * @param depth
+	 * 			Codes already added
+	 * @param path
+	 * 			The states so far
+	 */
+	private void insert(int motif, String codes, boolean reverse, int depth,
+			int[] path) {
+
+		int state = path[depth];
+		if (depth == codes.length()) {
+			addOutput(state, motif, reverse);
+			return;
+		}
+
+		int bases = IUPAC[codes.charAt(depth)];
+		for (int code = 0; code < 4; code++) {
+
+			if ((bases & (1 << code)) == 0) {
+				continue;
+			}
+			int next = delta[state * 4 + code];
+			if (next < 0) {
+				next = newState();
+				delta[state * 4 + code] = next;
+			}
+			path[depth + 1] = next;
+			insert(motif, codes, reverse, depth + 1, path);
+		}
+	}
+
+	/**
+	 * Adds an output to a state, unless the motif already ends there
+	 * (as the reverse complement of a palindrome does)
+	 *
+	 * @param state
+	 * 			The state
+	 * @param motif
+	 * 			The motif number
+	 * @param reverse
+	 * 			If a reverse strand hit
+	 */
+	private void addOutput(int state, int motif, boolean reverse) {
+
+		for (int o = firstOutput[state]; o >= 0; o = nextOutput[o]) {
+			if (outputMotif[o] == motif) {
+				return;
+			}
+		}
+
+		if (outputs == outputMotif.length) {
+			nextOutput = Arrays.copyOf(nextOutput, outputs * 2);
+			outputMotif = Arrays.copyOf(outputMotif, outputs * 2);
+			outputReverse = Arrays.copyOf(outputReverse, outputs * 2);
+		}
+		outputMotif[outputs] = motif;
+		outputReverse[outputs] = reverse;
+		nextOutput[outputs] = firstOutput[state];
+		firstOutput[state] = outputs;
+		outputs++;
+	}
+
+	/**
+	 * Makes a state without transitions
+	 *
+	 * @return
+	 * 			The state
+	 */
+	private int newState() {
+
+		if (states == firstOutput.length) {
+			firstOutput = Arrays.copyOf(firstOutput, states * 2);
+			int old = delta.length;
+			delta = Arrays.copyOf(delta, old * 2);
+			Arrays.fill(delta, old, delta.length, -1);
+		}
+		firstOutput[states] = -1;
+		return states++;
+	}
+
+	/**
+	 * Computes the failures breadth first, resolving every missing
+	 * transition to the one of the failure state and linking each
+	 * state to the closest failure with outputs.
+	 */
+	private void link() {
+
+		int[] fail = new int[states];
+		outputLink = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+
+		for (int code = 0; code < 4; code++) {
+
+			int child = delta[code];
+			if (child < 0) {
+				delta[code] = 0;
+			} else {
+				fail[child] = 0;
+				queue[tail++] = child;
+			}
+		}
+
+		while (head < tail) {
+
+			int state = queue[head++];
+			for (int code = 0; code < 4; code++) {
+
+				int child = delta[state * 4 + code];
+				int failed = delta[fail[state] * 4 + code];
+				if (child < 0) {
+					delta[state * 4 + code] = failed;
+				} else {
+					fail[child] = failed;
+					outputLink[child] = firstOutput[failed] >= 0 ?
+						failed : outputLink[failed];
+					queue[tail++] = child;
+				}
+			}
+		}
+
+		delta = Arrays.copyOf(delta, states * 4);
+		firstOutput = Arrays.copyOf(firstOutput, states);
+	}
+
+	/**
+	 * Gets the reverse complement of a motif
+	 *
+	 * @param motif
+	 * 			The motif in IUPAC codes
+	 * @return
+	 * 			The reverse complement
+	 */
+	static String reverseComplement(String motif) {
+
+		StringBuilder sb = new StringBuilder(motif.length());
+		for (int i = motif.length() - 1; i >= 0; i--) {
+			sb.append(NucleotideCode.complement(motif.charAt(i)));
+		}
+		return sb.toString();
+	}
+}
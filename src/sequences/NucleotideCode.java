@@ -0,0 +1,134 @@
+
+package sequences;
+
+/**
+ * NucleotideCode translates between residue characters and the
+ * 2-bit codes used by packed storage.
+ *
+ * The codes are A=0, C=1, G=2 and T=3, so that the complement of
+ * a code is always <code>3 - code</code>.
+ */
+public final class NucleotideCode {
+
+	/** Code for Adenine */
+	public static final int A = 0;
+
+	/** Code for Cytosine */
+	public static final int C = 1;
+
+	/** Code for Guanine */
+	public static final int G = 2;
+
+	/** Code for Thymine (and Uracil) */
+	public static final int T = 3;
+
+	/** Code for anything that is not a plain nucleotide */
+	public static final int AMBIGUOUS = -1;
+
+	/** Characters of the codes */
+	private static final char[] CHARS = {'A', 'C', 'G', 'T'};
+
+	/** Lookup from character to code */
+	private static final byte[] CODES = new byte[128];
+
+	static {
+		java.util.Arrays.fill(CODES, (byte) AMBIGUOUS);
+		CODES['A'] = A;
+		CODES['a'] = A;
+		CODES['C'] = C;
+		CODES['c'] = C;
+		CODES['G'] = G;
+		CODES['g'] = G;
+		CODES['T'] = T;
+		CODES['t'] = T;
+		CODES['U'] = T;
+		CODES['u'] = T;
+	}
+
+	/** Not to be instanciated */
+	private NucleotideCode() {
+	}
+
+	/**
+	 * Gets the code of a character
+	 *
+	 * @param c
+	 * 			The residue
+	 * @return
+	 * 			The code or <code>AMBIGUOUS</code>
+	 */
+	public static int encode(char c) {
+
+		if (c >= CODES.length) {
+			return AMBIGUOUS;
+		}
+		return CODES[c];
+	}
+
+	/**
+	 * Gets the (upper case) character of a code
+	 *
+	 * @param code
+	 * 			A code between 0 and 3
+	 * @return
+	 * 			The residue
+	 */
+	public static char decode(int code) {
+		return CHARS[code];
+	}
+
+	/**
+	 * Gets the complement of a code
+	 *
+	 * @param code
+	 * 			A code between 0 and 3
+	 * @return
+	 * 			The complementary code
+	 */
+	public static int complement(int code) {
+		return 3 - code;
+	}
+
+	/**
+	 * Gets the complement of a residue character, including the
+	 * IUPAC ambiguity codes. Case is preserved and unknown characters
+	 * are returned as they are.
+	 *
+	 * @param c
+	 * 			The residue
+	 * @return
+	 * 			The complementary residue
+	 */
+	public static char complement(char c) {
+
+		switch (c) {
+			case 'A': return 'T';
+			case 'C': return 'G';
+			case 'G': return 'C';
+			case 'T': return 'A';
+			case 'U': return 'A';
+			case 'R': return 'Y';
+			case 'Y': return 'R';
+			case 'K': return 'M';
+			case 'M': return 'K';
+			case 'B': return 'V';
+			case 'V': return 'B';
+			case 'D': return 'H';
+			case 'H': return 'D';
+			case 'a': return 't';
+			case 'c': return 'g';
+			case 'g': return 'c';
+			case 't': return 'a';
+			case 'u': return 'a';
+			case 'r': return 'y';
+			case 'y': return 'r';
+			case 'k': return 'm';
+			case 'm': return 'k';
+			case 'b': return 'v';
+			case 'v': return 'b';
+			case 'd': return 'h';
+			case 'h': return 'd';
+			default: return c;
+		}
+	}
+}
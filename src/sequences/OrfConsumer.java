@@ -0,0 +1,24 @@
+
+package sequences;
+
+/**
+ * OrfConsumer receives the open reading frames found by an
+ * <code>OrfFinder</code>.
+ */
+public interface OrfConsumer {
+
+	/**
+	 * Accepts an open reading frame
+	 *
+	 * @param frame
+	 * 			The frame of the start codon
+	 * @param first
+	 * 			The <i>On</i> position of the first residue, counted on
+	 * 			the forward strand also for minus frames (where it is the
+	 * 			last residue of the stop codon)
+	 * @param last
+	 * 			The <i>On</i> position of the last residue on the forward
+	 * 			strand, before first if the frame spans the origin
+	 */
+	public void accept(Sequence.ReadingFrame frame, int first, int last);
+}
@@ -0,0 +1,620 @@
+
+package sequences;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import collector.Model;
+import point.Point;
+import topologies.Segment;
+
+/**
+ * OrfFinder finds the open reading frames of nucleotide residues in
+ * all six frames.
+ *
+ * An open reading frame runs from a start codon to the first stop
+ * codon after it in the same frame, both included. Of the start codons
+ * between two stops only the first (in reading direction) begins one,
+ * so each stop ends at most one open reading frame, the longest.
+ * Codons with ambiguous residues are neither starts nor stops. On
+ * linear residues, frames without a stop before the end are not open
+ * reading frames. On circular residues, frames run on across the
+ * origin, but never for longer than the residues.
+ *
+ * The residues are cut into chunks that are scanned on a fork-join
+ * pool. Each chunk reads its residues, and the two after it that the
+ * codons starting at its end need, once and scans the codons of all six
+ * frames from them. What the chunks cannot decide alone, the frames
+ * still open at their ends, is then stitched together in order.
+ *
+ * Settings should not be changed while scanning; a finder can scan
+ * several residues at the same time.
+ */
+public class OrfFinder {
+
+	/** Default shortest open reading frame, in residues */
+	public static final int DEFAULT_MIN_LENGTH = 300;
+
+	/** Default number of codons per chunk */
+	public static final int DEFAULT_CHUNK_SIZE = 3 << 18;
+
+	/** Codon kind of codons that are neither starts nor stops */
+	private static final byte SENSE = 0;
+
+	/** Codon kind of start codons */
+	private static final byte START = 1;
+
+	/** Codon kind of stop codons */
+	private static final byte STOP = 2;
+
+	/** The plus frames, by offset of their first codon */
+	private static final Sequence.ReadingFrame[] PLUS_FRAMES = {
+		Sequence.ReadingFrame.PLUS_ONE, Sequence.ReadingFrame.PLUS_TWO,
+		Sequence.ReadingFrame.PLUS_THREE};
+
+	/** The minus frames, by offset of their first codon from the end */
+	private static final Sequence.ReadingFrame[] MINUS_FRAMES = {
+		Sequence.ReadingFrame.MINUS_ONE, Sequence.ReadingFrame.MINUS_TWO,
+		Sequence.ReadingFrame.MINUS_TRHEE};
+
+	/**
+	 * Summary is what one chunk found. Frames are numbered 0 to 2 for
+	 * the plus strand and 3 to 5 for the minus strand, and positions
+	 * are residue indices along the strand of the frame, so minus
+	 * strand positions count from the end of the residues.
+	 */
+	private static final class Summary {
+
+		/** First stop codon of each frame, -1 for none */
+		final int[] firstStop = new int[6];
+
+		/** Last stop codon of each frame, -1 for none */
+		final int[] lastStop = new int[6];
+
+		/** First start codon before the first stop, -1 for none */
+		final int[] headStart = new int[6];
+
+		/** First start codon after the last stop, -1 for none */
+		final int[] tailStart = new int[6];
+
+		/** Open reading frames between stops of the chunk, as frame,
+		 * first and last residue */
+		final List<int[]> orfs = new ArrayList<int[]>();
+	}
+
+	/**
+	 * ChunkTask scans a range of chunks, splitting it until one chunk
+	 * is left.
+	 */
+	private final class ChunkTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The residues */
+		private final ResidueStore residues;
+
+		/** Where the summaries go, by chunk */
+		private final Summary[] summaries;
+
+		/** First chunk (inclusive) */
+		private final int from;
+
+		/** Last chunk (exclusive) */
+		private final int to;
+
+		ChunkTask(ResidueStore residues, Summary[] summaries, int from,
+				int to) {
+			this.residues = residues;
+			this.summaries = summaries;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (to - from == 1) {
+				summaries[from] = scanChunk(residues, from);
+			} else {
+				int middle = (from + to) >>> 1;
+				invokeAll(new ChunkTask(residues, summaries, from, middle),
+						new ChunkTask(residues, summaries, middle, to));
+			}
+		}
+	}
+
+	/** Kind of each codon on the plus strand */
+	private final byte[] plusKinds = new byte[64];
+
+	/** Kind of each codon (as on the plus strand) on the minus strand */
+	private final byte[] minusKinds = new byte[64];
+
+	/** Shortest open reading frame reported, in residues */
+	private int minLength = DEFAULT_MIN_LENGTH;
+
+	/** Codons per chunk */
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/** The pool scanning the chunks */
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/** Constructor using the starts and stops of the standard code */
+	public OrfFinder() {
+		this(CodonTable.STANDARD);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param table
+	 * 			The codon table whose starts and stops to use
+	 */
+	public OrfFinder(CodonTable table) {
+
+		for (int codon = 0; codon < 64; codon++) {
+			if (table.isStop(codon)) {
+				plusKinds[codon] = STOP;
+			} else if (table.isStart(codon)) {
+				plusKinds[codon] = START;
+			}
+		}
+		updateMinusKinds();
+	}
+
+	/**
+	 * Sets the start codons, replacing those of the codon table
+	 *
+	 * @param codons
+	 * 			The codons (as "ATG"), in A, C, G and T or U
+	 */
+	public void setStartCodons(String... codons) {
+		setKind(START, codons);
+	}
+
+	/**
+	 * Sets the stop codons, replacing those of the codon table
+	 *
+	 * @param codons
+	 * 			The codons (as "TAA"), in A, C, G and T or U
+	 */
+	public void setStopCodons(String... codons) {
+		setKind(STOP, codons);
+	}
+
+	/**
+	 * Sets the shortest open reading frame reported
+	 *
+	 * @param minLength
+	 * 			Number of residues, start and stop codon included
+	 */
+	public void setMinLength(int minLength) {
+		this.minLength = minLength;
+	}
+
+	/**
+	 * Gets the shortest open reading frame reported
+	 *
+	 * @return
+	 * 			Number of residues, start and stop codon included
+	 */
+	public int getMinLength() {
+		return minLength;
+	}
+
+	/**
+	 * Sets the number of codons per chunk. Each chunk is one task, so
+	 * smaller chunks spread better over the pool, larger have less
+	 * overhead.
+	 *
+	 * @param chunkSize
+	 * 			Codons per chunk
+	 */
+	public void setChunkSize(int chunkSize) {
+
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Invalid chunk size " +
+					chunkSize);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets the pool that scans the chunks
+	 *
+	 * @param pool
+	 * 			The pool, the common pool by default
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Finds the open reading frames of residues.
+	 *
+	 * They are passed to the consumer on the calling thread once all
+	 * are found, ordered by their first residue on the forward strand.
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param circular
+	 * 			If the residues wrap around
+	 * @param consumer
+	 * 			Receiver of the open reading frames
+	 */
+	public void scan(ResidueStore residues, boolean circular,
+			OrfConsumer consumer) {
+
+		int n = residues.length();
+		List<int[]> orfs = new ArrayList<int[]>();
+
+		//Every codon within the residues is in one chunk, by its start
+		int codons = Math.max(0, n - 2);
+		int chunks = (int) ((codons + (long) chunkSize - 1) / chunkSize);
+		Summary[] summaries = new Summary[chunks];
+		if (chunks > 0) {
+			pool.invoke(new ChunkTask(residues, summaries, 0, chunks));
+		}
+
+		for (Summary s: summaries) {
+			orfs.addAll(s.orfs);
+		}
+
+		for (int frame = 0; frame < 6; frame++) {
+
+			//The minus strand starts at the last chunk
+			boolean minus = frame >= 3;
+			boolean stopped = false;
+			int open = -1;
+			int lastStop = -1;
+			for (int c = 0; c < chunks; c++) {
+
+				Summary s = summaries[minus ? chunks - 1 - c : c];
+				if (s.firstStop[frame] < 0) {
+					if (open < 0) {
+						open = s.headStart[frame];
+					}
+					continue;
+				}
+
+				//A frame open before the first stop on circular residues
+				//may have begun before the origin, so it is left for the
+				//walk across the origin
+				int start = open >= 0 ? open : s.headStart[frame];
+				if (start >= 0 && (stopped || !circular)) {
+					addOrf(orfs, frame, start, s.firstStop[frame] + 2);
+				}
+				stopped = true;
+				lastStop = s.lastStop[frame];
+				open = s.tailStart[frame];
+			}
+
+			if (circular && lastStop < 0 && n > 0) {
+				lastStop = getOriginStop(residues, frame);
+			}
+			if (circular && lastStop >= 0) {
+				walkOrigin(residues, frame, lastStop, orfs);
+			}
+		}
+
+		List<int[]> found = new ArrayList<int[]>(orfs.size());
+		for (int[] orf: orfs) {
+
+			int frame = orf[0];
+			int first = orf[1];
+			int last = orf[2];
+			Sequence.ReadingFrame readingFrame;
+			if (frame < 3) {
+				first = Math.floorMod(first, n);
+				last = Math.floorMod(last, n);
+				readingFrame = PLUS_FRAMES[first % 3];
+			} else {
+				readingFrame = MINUS_FRAMES[Math.floorMod(first, n) % 3];
+				int forward = Math.floorMod(n - 1 - last, n);
+				last = Math.floorMod(n - 1 - first, n);
+				first = forward;
+			}
+			found.add(new int[] {readingFrame.ordinal(), first, last});
+		}
+		Collections.sort(found, new Comparator<int[]>() {
+			public int compare(int[] a, int[] b) {
+
+				if (a[1] != b[1]) {
+					return a[1] < b[1] ? -1 : 1;
+				} else if (a[2] != b[2]) {
+					return a[2] < b[2] ? -1 : 1;
+				}
+				return a[0] - b[0];
+			}
+		});
+
+		Sequence.ReadingFrame[] frames = Sequence.ReadingFrame.values();
+		for (int[] orf: found) {
+			consumer.accept(frames[orf[0]], 2 * orf[1] + 1, 2 * orf[2] + 1);
+		}
+	}
+
+	/**
+	 * Finds the open reading frames of a sequence and makes a segment
+	 * for each, from its first to its last residue. The caption is the
+	 * frame, as "ORF +1" or "ORF -3".
+	 *
+	 * @param seq
+	 * 			The sequence
+	 * @param model
+	 * 			The model of the sequence
+	 * @return
+	 * 			The segments, ordered by first residue
+	 */
+	List<Segment> annotate(final Sequence seq, final Model model) {
+
+		final List<Segment> segments = new ArrayList<Segment>();
+		model.beginBatch();
+		try {
+			scan(seq.getResidueStore(), seq.getAllowsWrap(), new OrfConsumer() {
+				public void accept(Sequence.ReadingFrame frame, int first,
+						int last) {
+
+					Segment orf = new Segment(model);
+					orf.setCaption("ORF " + (frame.getFrame() > 0 ? "+" : "") +
+							frame.getFrame());
+					orf.addPoint(new Point(seq, orf, first));
+					orf.addPoint(new Point(seq, orf, last));
+					segments.add(orf);
+				}
+			});
+		} finally {
+			model.endBatch();
+		}
+		return segments;
+	}
+
+	/**
+	 * Scans the codons starting in one chunk
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param chunk
+	 * 			The chunk number
+	 * @return
+	 * 			What was found
+	 */
+	private Summary scanChunk(ResidueStore residues, int chunk) {
+
+		int n = residues.length();
+		int from = chunk * chunkSize;
+		int to = (int) Math.min(n - 2, (long) from + chunkSize);
+
+		//Packed codon starting at each residue of the chunk, -1 if
+		//ambiguous
+		byte[] codons = new byte[to - from];
+		int codon = 0;
+		int lastAmbiguous = -1;
+		for (int i = from; i < to + 2; i++) {
+
+			int code = residues.codeAt(i);
+			if (code < 0) {
+				lastAmbiguous = i;
+				code = 0;
+			}
+			codon = ((codon << 2) | code) & 63;
+			if (i - 2 >= from) {
+				codons[i - 2 - from] = (byte) (lastAmbiguous >= i - 2 ? -1 : codon);
+			}
+		}
+
+		Summary s = new Summary();
+		Arrays.fill(s.firstStop, -1);
+		Arrays.fill(s.lastStop, -1);
+		Arrays.fill(s.headStart, -1);
+		int[] open = new int[6];
+		Arrays.fill(open, -1);
+
+		for (int i = from; i < to; i++) {
+
+			int c = codons[i - from];
+			visit(s, open, i % 3, i, c < 0 ? SENSE : plusKinds[c]);
+		}
+		for (int i = to - 1; i >= from; i--) {
+
+			int c = codons[i - from];
+			int j = n - 3 - i;
+			visit(s, open, 3 + j % 3, j, c < 0 ? SENSE : minusKinds[c]);
+		}
+
+		for (int frame = 0; frame < 6; frame++) {
+			if (s.firstStop[frame] < 0) {
+				s.headStart[frame] = open[frame];
+				s.tailStart[frame] = -1;
+			} else {
+				s.tailStart[frame] = open[frame];
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * Takes the next codon of a frame in reading direction
+	 *
+	 * @param s
+	 * 			The chunk summary
+	 * @param open
+	 * 			First start since the last stop of each frame
+	 * @param frame
+	 * 			The frame
+	 * @param pos
+	 * 			Position of the codon along its strand
+	 * @param kind
+	 * 			Kind of the codon
+	 */
+	private void visit(Summary s, int[] open, int frame, int pos, byte kind) {
+
+		if (kind == STOP) {
+			if (s.firstStop[frame] < 0) {
+				s.firstStop[frame] = pos;
+				s.headStart[frame] = open[frame];
+			} else if (open[frame] >= 0) {
+				addOrf(s.orfs, frame, open[frame], pos + 2);
+			}
+			s.lastStop[frame] = pos;
+			open[frame] = -1;
+		} else if (kind == START && open[frame] < 0) {
+			open[frame] = pos;
+		}
+	}
+
+	/**
+	 * Reads on from the last stop of a frame of circular residues that
+	 * starts before the origin, across the origin, up to the first stop
+	 * starting after it. Frames of residues whose length is not a
+	 * multiple of three continue in another frame after the origin, so
+	 * this may take up to three rounds; it always ends at the latest
+	 * back at the stop it started from.
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param frame
+	 * 			The frame
+	 * @param lastStop
+	 * 			Position of the last stop along the strand
+	 * @param orfs
+	 * 			Where to add the open reading frames
+	 */
+	private void walkOrigin(ResidueStore residues, int frame, int lastStop,
+			List<int[]> orfs) {
+
+		int n = residues.length();
+		boolean minus = frame >= 3;
+		int start = -1;
+		for (int pos = lastStop + 3; ; pos += 3) {
+
+			byte kind = getKind(residues, minus, pos);
+			if (kind == STOP) {
+				if (start >= 0 && pos + 2 - start < n) {
+					addOrf(orfs, frame, start, pos + 2);
+				}
+				if (pos >= n) {
+					return;
+				}
+				start = -1;
+			} else if (kind == START && start < 0) {
+				start = pos;
+			}
+		}
+	}
+
+	/**
+	 * Finds the stop codon of a frame of circular residues that spans
+	 * the origin
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param frame
+	 * 			The frame
+	 * @return
+	 * 			Its position along the strand, -1 if none
+	 */
+	private int getOriginStop(ResidueStore residues, int frame) {
+
+		int n = residues.length();
+		for (int pos = Math.max(0, n - 2); pos < n; pos++) {
+			if (pos % 3 == frame % 3 && getKind(residues, frame >= 3, pos) ==
+					STOP) {
+				return pos;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the kind of a codon of circular residues
+	 *
+	 * @param residues
+	 * 			The residues
+	 * @param minus
+	 * 			If on the minus strand
+	 * @param pos
+	 * 			Position of the codon along the strand, may be past
+	 * 			the end
+	 * @return
+	 * 			The kind
+	 */
+	private byte getKind(ResidueStore residues, boolean minus, int pos) {
+
+		int n = residues.length();
+		int codon = 0;
+		for (int i = pos; i < pos + 3; i++) {
+
+			int index = i % n;
+			int code = residues.codeAt(minus ? n - 1 - index : index);
+			if (code < 0) {
+				return SENSE;
+			}
+			codon = (codon << 2) | (minus ? NucleotideCode.complement(code) :
+					code);
+		}
+		return plusKinds[codon];
+	}
+
+	/**
+	 * Adds an open reading frame if it is long enough
+	 *
+	 * @param orfs
+	 * 			Where to add it
+	 * @param frame
+	 * 			The frame
+	 * @param first
+	 * 			Position of the first residue along the strand
+	 * @param last
+	 * 			Position of the last residue along the strand
+	 */
+	private void addOrf(List<int[]> orfs, int frame, int first, int last) {
+
+		if (last - first + 1 >= minLength) {
+			orfs.add(new int[] {frame, first, last});
+		}
+	}
+
+	/**
+	 * Sets the kind of codons, codons that had the kind and are not
+	 * listed becoming sense codons
+	 *
+	 * @param kind
+	 * 			The kind
+	 * @param codons
+	 * 			The codons
+	 */
+	private void setKind(byte kind, String[] codons) {
+
+		byte[] kinds = plusKinds.clone();
+		for (int codon = 0; codon < 64; codon++) {
+			if (kinds[codon] == kind) {
+				kinds[codon] = SENSE;
+			}
+		}
+
+		for (String s: codons) {
+
+			int codon = 0;
+			for (int i = 0; i < s.length(); i++) {
+				int code = NucleotideCode.encode(s.charAt(i));
+				if (code < 0 || s.length() != 3) {
+					throw new IllegalArgumentException("Invalid codon " + s);
+				}
+				codon = (codon << 2) | code;
+			}
+			kinds[codon] = kind;
+		}
+
+		System.arraycopy(kinds, 0, plusKinds, 0, 64);
+		updateMinusKinds();
+	}
+
+	/** Derives the minus strand kinds from the plus strand kinds */
+	private void updateMinusKinds() {
+
+		for (int codon = 0; codon < 64; codon++) {
+			minusKinds[codon] = plusKinds[CodonTable.reverseComplement(codon)];
+		}
+	}
+}
@@ -0,0 +1,331 @@
+
+package sequences;
+
+import java.util.Arrays;
+
+/**
+ * PackedNucleotideStore keeps nucleotides at two bits per residue.
+ *
+ * Residue <code>i</code> lives in word <code>i / 32</code> at bit
+ * <code>2 * (i % 32)</code>. Anything that is not an upper case A, C,
+ * G or T (N, the IUPAC codes, gaps) is recorded in an exception side
+ * table and lower case (soft-masked) stretches in a second one, both as
+ * runs. So long N-stretches and masked repeats stay cheap.
+ */
+public class PackedNucleotideStore extends AbstractResidueStore {
+
+	/** Number of residues in each packed word */
+	public static final int RESIDUES_PER_WORD = 32;
+
+	/** The low bit of every two-bit slot */
+	private static final long LOW_BITS = 0x5555555555555555L;
+
+	/** The packed residues */
+	private final long[] words;
+
+	/** The number of residues */
+	private final int length;
+
+	/** Residues that are not plain upper case nucleotides */
+	private final ResidueRuns exceptions;
+
+	/** Residues that are lower case */
+	private final ResidueRuns lowerCase;
+
+	/**
+	 * Builder for packing residues one at a time, without first
+	 * collecting them as text.
+	 */
+	public static class Builder {
+
+		/** Packed residues so far */
+		private long[] words = new long[16];
+
+		/** Number of residues so far */
+		private int length = 0;
+
+		/** Exceptions so far */
+		private ResidueRuns exceptions = new ResidueRuns();
+
+		/** Lower case stretches so far */
+		private ResidueRuns lowerCase = new ResidueRuns();
+
+		/**
+		 * Appends a residue
+		 *
+		 * @param c
+		 * 			The residue
+		 * @return
+		 * 			The builder
+		 */
+		public Builder append(char c) {
+
+			int wordIndex = length >>> 5;
+			if (wordIndex == words.length) {
+				words = Arrays.copyOf(words, words.length * 2);
+			}
+
+			char upper = c;
+			if (Character.isLowerCase(c)) {
+				upper = Character.toUpperCase(c);
+				lowerCase.add(length, 'a');
+			}
+
+			int code = NucleotideCode.encode(upper);
+			if (code < 0 || NucleotideCode.decode(code) != upper) {
+				exceptions.add(length, upper);
+				if (code < 0) {
+					code = NucleotideCode.A;
+				}
+			}
+
+			words[wordIndex] |= ((long) code) << ((length & 31) << 1);
+			length++;
+			return this;
+		}
+
+		/**
+		 * Appends residues
+		 *
+		 * @param residues
+		 * 			The residues
+		 * @return
+		 * 			The builder
+		 */
+		public Builder append(CharSequence residues) {
+
+			for (int i = 0, l = residues.length(); i < l; i++) {
+				append(residues.charAt(i));
+			}
+			return this;
+		}
+
+		/**
+		 * Produces the store.
+		 *
+		 * @return
+		 * 			The packed store
+		 */
+		public PackedNucleotideStore build() {
+
+			exceptions.trim();
+			lowerCase.trim();
+			return new PackedNucleotideStore(
+					Arrays.copyOf(words, (length + 31) >>> 5), length,
+					exceptions, lowerCase);
+		}
+	}
+
+	/**
+	 * Constructor packing text
+	 *
+	 * @param residues
+	 * 			The sequence-text
+	 */
+	public PackedNucleotideStore(CharSequence residues) {
+		this(new Builder().append(residues).build());
+	}
+
+	/** Copy constructor (the arrays are shared, they are never changed) */
+	private PackedNucleotideStore(PackedNucleotideStore other) {
+		this(other.words, other.length, other.exceptions, other.lowerCase);
+	}
+
+	/**
+	 * Constructor with all parts, as when loading a saved store.
+	 * The parts are not copied and must not be changed afterwards.
+	 *
+	 * @param words
+	 * 			The packed residues, base i at bit 2*(i%32) of word i/32
+	 * @param length
+	 * 			Number of residues
+	 * @param exceptions
+	 * 			Runs of residues that are not A, C, G or T
+	 * @param lowerCase
+	 * 			Runs of lower case residues
+	 */
+	public PackedNucleotideStore(long[] words, int length,
+			ResidueRuns exceptions, ResidueRuns lowerCase) {
+		this.words = words;
+		this.length = length;
+		this.exceptions = exceptions;
+		this.lowerCase = lowerCase;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+
+		checkIndex(index);
+
+		char c;
+		int run = exceptions.size() == 0 ? -1 : exceptions.find(index);
+		if (run < 0) {
+			c = NucleotideCode.decode(getPackedCode(index));
+		} else {
+			c = exceptions.getValue(run);
+		}
+
+		if (lowerCase.size() > 0 && lowerCase.find(index) >= 0) {
+			c = Character.toLowerCase(c);
+		}
+		return c;
+	}
+
+	@Override
+	public int codeAt(int index) {
+
+		checkIndex(index);
+
+		if (exceptions.size() > 0) {
+			int run = exceptions.find(index);
+			if (run >= 0) {
+				return NucleotideCode.encode(exceptions.getValue(run));
+			}
+		}
+		return getPackedCode(index);
+	}
+
+	/**
+	 * Counts codes a word at a time.
+	 *
+	 * For each word the slots equal to a code are found by xor-ing with
+	 * the code repeated over the word, so a full word is counted with a
+	 * handful of bit operations regardless of its content.
+	 */
+	@Override
+	public void countCodes(int from, int to, int[] counts) {
+
+		checkRange(from, to);
+		if (from == to) {
+			return;
+		}
+
+		int firstWord = from >>> 5;
+		int lastWord = (to - 1) >>> 5;
+
+		for (int w = firstWord; w <= lastWord; w++) {
+
+			long mask = LOW_BITS;
+			if (w == firstWord) {
+				mask &= -1L << ((from & 31) << 1);
+			}
+			if (w == lastWord && (to & 31) != 0) {
+				mask &= (1L << ((to & 31) << 1)) - 1;
+			}
+
+			long word = words[w];
+			int total = Long.bitCount(mask);
+			int c = countInWord(word, LOW_BITS, mask);
+			int g = countInWord(word, 0xAAAAAAAAAAAAAAAAL, mask);
+			int t = countInWord(word, -1L, mask);
+
+			counts[NucleotideCode.C] += c;
+			counts[NucleotideCode.G] += g;
+			counts[NucleotideCode.T] += t;
+			counts[NucleotideCode.A] += total - c - g - t;
+		}
+
+		//Exceptions were packed as something, move them to where they belong
+		for (int run = exceptions.findFirstAfter(from);
+				run < exceptions.size() && exceptions.getStart(run) < to;
+				run++) {
+
+			int n = Math.min(exceptions.getEnd(run), to) -
+				Math.max(exceptions.getStart(run), from);
+			int actual = NucleotideCode.encode(exceptions.getValue(run));
+			counts[actual < 0 ? NucleotideCode.A : actual] -= n;
+			counts[actual < 0 ? 4 : actual] += n;
+		}
+	}
+
+	/**
+	 * Counts the slots of a word that are equal to a code.
+	 *
+	 * @param word
+	 * 			The packed word
+	 * @param pattern
+	 * 			The code to compare with, repeated over the word
+	 * @param mask
+	 * 			The low bits of the slots to count
+	 * @return
+	 * 			Number of matching slots
+	 */
+	private static int countInWord(long word, long pattern, long mask) {
+
+		long x = word ^ pattern;
+		return Long.bitCount(~(x | (x >>> 1)) & mask);
+	}
+
+	/**
+	 * Gets the code as packed, without consulting the exceptions
+	 *
+	 * @param index
+	 * 			The residue index
+	 * @return
+	 * 			The packed code
+	 */
+	private int getPackedCode(int index) {
+		return (int) (words[index >>> 5] >>> ((index & 31) << 1)) & 3;
+	}
+
+	/**
+	 * Gets a packed word, for bulk scans.
+	 *
+	 * Exceptions are packed as their code if they have one and as A
+	 * otherwise, so scans that care about N should check
+	 * <code>hasExceptions()</code>.
+	 *
+	 * @param wordIndex
+	 * 			The word number
+	 * @return
+	 * 			The packed word
+	 */
+	public long getWord(int wordIndex) {
+		return words[wordIndex];
+	}
+
+	/**
+	 * Gets the number of packed words
+	 *
+	 * @return
+	 * 			Number of words
+	 */
+	public int getWordCount() {
+		return words.length;
+	}
+
+	/**
+	 * Checks if any residue is not a plain nucleotide
+	 *
+	 * @return
+	 * 			If there are exceptions
+	 */
+	public boolean hasExceptions() {
+		return exceptions.size() > 0;
+	}
+
+	/**
+	 * Gets the runs of residues that are not A, C, G or T
+	 *
+	 * @return
+	 * 			The runs, not to be changed
+	 */
+	public ResidueRuns getExceptions() {
+		return exceptions;
+	}
+
+	/**
+	 * Gets the runs of lower case residues
+	 *
+	 * @return
+	 * 			The runs, not to be changed
+	 */
+	public ResidueRuns getLowerCase() {
+		return lowerCase;
+	}
+}
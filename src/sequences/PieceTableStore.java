@@ -0,0 +1,480 @@
+
+package sequences;
+
+import java.util.Arrays;
+
+/**
+ * PieceTableStore is an editable residue store.
+ *
+ * The residues are described by pieces, each being a stretch of either
+ * the original store or of a buffer that inserted residues are appended
+ * to. Neither is ever changed, an edit only rearranges pieces. The
+ * pieces are kept in a treap keyed implicitly by residue count, so
+ * edits and lookups are O(log p) for p pieces, however long the
+ * sequence.
+ *
+ * Codes and counts are taken from the stores the pieces refer to, so a
+ * packed original keeps its fast counting for unedited stretches.
+ *
+ * A snapshot shares the pieces of the store. Pieces a snapshot may see
+ * are never changed again; edits after it copy the O(log p) pieces on
+ * their way instead.
+ */
+public class PieceTableStore extends AbstractResidueStore {
+
+	/**
+	 * Piece is a node of the treap, a stretch of a source store.
+	 */
+	private static final class Piece {
+
+		/** The store the residues are in */
+		final ResidueStore source;
+
+		/** First index in the source */
+		final int start;
+
+		/** Number of residues */
+		final int length;
+
+		/** Heap priority of the treap */
+		final int priority;
+
+		/** Generation of the store the piece was made in */
+		final int generation;
+
+		/** Residues in the subtree */
+		int total;
+
+		/** Pieces before */
+		Piece left;
+
+		/** Pieces after */
+		Piece right;
+
+		Piece(ResidueStore source, int start, int length, int priority,
+				int generation) {
+			this.source = source;
+			this.start = start;
+			this.length = length;
+			this.priority = priority;
+			this.generation = generation;
+			this.total = length;
+		}
+	}
+
+	/**
+	 * AddBuffer holds all inserted residues, in order of insertion.
+	 */
+	private static final class AddBuffer extends AbstractResidueStore {
+
+		/** The residues, replaced when growing so that snapshots on
+		 * other threads read either array safely */
+		private volatile char[] residues = new char[64];
+
+		/** Number used */
+		private int length = 0;
+
+		/**
+		 * Appends residues
+		 *
+		 * @param s
+		 * 			The residues
+		 * @return
+		 * 			Index of the first appended
+		 */
+		int append(CharSequence s) {
+
+			int start = length;
+			char[] array = residues;
+			if (length + s.length() > array.length) {
+				array = Arrays.copyOf(array,
+						Math.max(array.length * 2, length + s.length()));
+			}
+			for (int i = 0; i < s.length(); i++) {
+				array[length++] = s.charAt(i);
+			}
+			residues = array;
+			return start;
+		}
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			return residues[index];
+		}
+	}
+
+	/** Root of the treap */
+	private Piece root = null;
+
+	/** The inserted residues */
+	private final AddBuffer added;
+
+	/** Number of pieces */
+	private int pieceCount = 0;
+
+	/** State of the priority generator */
+	private int seed = 0x2545F491;
+
+	/** Generation of the pieces that may be changed in place */
+	private int generation = 0;
+
+	/** If the store is a snapshot, which can not be edited */
+	private final boolean frozen;
+
+	/**
+	 * Constructor
+	 *
+	 * @param original
+	 * 			The residues before any edit, never changed
+	 */
+	public PieceTableStore(ResidueStore original) {
+
+		added = new AddBuffer();
+		frozen = false;
+		if (original.length() > 0) {
+			root = newPiece(original, 0, original.length());
+		}
+	}
+
+	/**
+	 * Constructor of snapshots
+	 *
+	 * @param store
+	 * 			The store to share the pieces of
+	 */
+	private PieceTableStore(PieceTableStore store) {
+
+		added = store.added;
+		root = store.root;
+		pieceCount = store.pieceCount;
+		frozen = true;
+	}
+
+	/**
+	 * Makes a snapshot of the residues, which later edits do not change.
+	 * It shares the pieces of the store, so it is made in constant time.
+	 *
+	 * @return
+	 * 			The snapshot, which can not be edited
+	 */
+	public PieceTableStore snapshot() {
+
+		if (frozen) {
+			return this;
+		}
+		generation++;
+		return new PieceTableStore(this);
+	}
+
+	@Override
+	public int length() {
+		return total(root);
+	}
+
+	@Override
+	public char charAt(int index) {
+
+		checkIndex(index);
+		Piece t = root;
+		while (true) {
+
+			int left = total(t.left);
+			if (index < left) {
+				t = t.left;
+			} else if (index < left + t.length) {
+				return t.source.charAt(t.start + index - left);
+			} else {
+				index -= left + t.length;
+				t = t.right;
+			}
+		}
+	}
+
+	@Override
+	public int codeAt(int index) {
+
+		checkIndex(index);
+		Piece t = root;
+		while (true) {
+
+			int left = total(t.left);
+			if (index < left) {
+				t = t.left;
+			} else if (index < left + t.length) {
+				return t.source.codeAt(t.start + index - left);
+			} else {
+				index -= left + t.length;
+				t = t.right;
+			}
+		}
+	}
+
+	@Override
+	public void countCodes(int from, int to, int[] counts) {
+
+		checkRange(from, to);
+		count(root, from, to, counts);
+	}
+
+	/**
+	 * Counts codes in a range of a subtree
+	 *
+	 * @param t
+	 * 			The subtree
+	 * @param from
+	 * 			First index in the subtree (inclusive)
+	 * @param to
+	 * 			Last index in the subtree (exclusive)
+	 * @param counts
+	 * 			Where to add the counts
+	 */
+	private static void count(Piece t, int from, int to, int[] counts) {
+
+		while (t != null && from < to) {
+
+			int left = total(t.left);
+			if (from < left) {
+				count(t.left, from, Math.min(to, left), counts);
+			}
+
+			int s = Math.max(from, left);
+			int e = Math.min(to, left + t.length);
+			if (s < e) {
+				t.source.countCodes(t.start + s - left, t.start + e - left,
+						counts);
+			}
+
+			//Continue to the right without recursing
+			from = Math.max(from - left - t.length, 0);
+			to -= left + t.length;
+			t = t.right;
+		}
+	}
+
+	/**
+	 * Inserts residues
+	 *
+	 * @param index
+	 * 			Index the first inserted residue gets
+	 * @param residues
+	 * 			The residues
+	 */
+	public void insert(int index, CharSequence residues) {
+		replace(index, index, residues);
+	}
+
+	/**
+	 * Deletes residues
+	 *
+	 * @param from
+	 * 			First index (inclusive)
+	 * @param to
+	 * 			Last index (exclusive)
+	 */
+	public void delete(int from, int to) {
+		replace(from, to, "");
+	}
+
+	/**
+	 * Replaces residues
+	 *
+	 * @param from
+	 * 			First index (inclusive)
+	 * @param to
+	 * 			Last index (exclusive)
+	 * @param residues
+	 * 			The new residues
+	 */
+	public void replace(int from, int to, CharSequence residues) {
+
+		if (frozen) {
+			throw new UnsupportedOperationException(
+					"Snapshots can not be edited");
+		}
+		checkRange(from, to);
+
+		Piece[] parts = new Piece[2];
+		split(root, to, parts);
+		Piece after = parts[1];
+		split(parts[0], from, parts);
+		Piece before = parts[0];
+		pieceCount -= countPieces(parts[1]);
+
+		Piece middle = null;
+		if (residues.length() > 0) {
+			middle = newPiece(added, added.append(residues), residues.length());
+		}
+
+		root = merge(merge(before, middle), after);
+	}
+
+	/**
+	 * Checks if the store is a snapshot
+	 *
+	 * @return
+	 * 			If it can not be edited
+	 */
+	public boolean isSnapshot() {
+		return frozen;
+	}
+
+	/**
+	 * Gets the number of pieces, which edits add to. When there are
+	 * many, copying the residues into a fresh store reads faster.
+	 *
+	 * @return
+	 * 			Number of pieces
+	 */
+	public int getPieceCount() {
+		return pieceCount;
+	}
+
+	/**
+	 * Makes a piece with a random priority
+	 *
+	 * @param source
+	 * 			The store
+	 * @param start
+	 * 			First index in the store
+	 * @param length
+	 * 			Number of residues
+	 * @return
+	 * 			The piece
+	 */
+	private Piece newPiece(ResidueStore source, int start, int length) {
+
+		//xorshift
+		seed ^= seed << 13;
+		seed ^= seed >>> 17;
+		seed ^= seed << 5;
+		pieceCount++;
+		return new Piece(source, start, length, seed, generation);
+	}
+
+	/**
+	 * Gets a piece that may be changed, copying it if a snapshot may
+	 * see it
+	 *
+	 * @param t
+	 * 			The piece
+	 * @return
+	 * 			The piece or its copy
+	 */
+	private Piece own(Piece t) {
+
+		if (t.generation == generation) {
+			return t;
+		}
+		Piece copy = new Piece(t.source, t.start, t.length, t.priority,
+				generation);
+		copy.left = t.left;
+		copy.right = t.right;
+		copy.total = t.total;
+		return copy;
+	}
+
+	/**
+	 * Splits a subtree at a residue index.
+	 *
+	 * A piece that the index falls within is cut in two, both halves
+	 * keep its priority so the heap order holds.
+	 *
+	 * @param t
+	 * 			The subtree
+	 * @param index
+	 * 			Residues going to the first part
+	 * @param parts
+	 * 			Receives the first and second part
+	 */
+	private void split(Piece t, int index, Piece[] parts) {
+
+		if (t == null) {
+			parts[0] = null;
+			parts[1] = null;
+			return;
+		}
+
+		int left = total(t.left);
+		if (index <= left) {
+
+			t = own(t);
+			split(t.left, index, parts);
+			t.left = parts[1];
+			update(t);
+			parts[1] = t;
+
+		} else if (index >= left + t.length) {
+
+			t = own(t);
+			split(t.right, index - left - t.length, parts);
+			t.right = parts[0];
+			update(t);
+			parts[0] = t;
+
+		} else {
+
+			int cut = index - left;
+			Piece first = new Piece(t.source, t.start, cut, t.priority,
+					generation);
+			Piece second = new Piece(t.source, t.start + cut, t.length - cut,
+					t.priority, generation);
+			first.left = t.left;
+			second.right = t.right;
+			update(first);
+			update(second);
+			pieceCount++;
+
+			parts[0] = first;
+			parts[1] = second;
+		}
+	}
+
+	/**
+	 * Joins two subtrees, all of the first coming before the second
+	 *
+	 * @param a
+	 * 			First subtree
+	 * @param b
+	 * 			Second subtree
+	 * @return
+	 * 			The joined tree
+	 */
+	private Piece merge(Piece a, Piece b) {
+
+		if (a == null) {
+			return b;
+		} else if (b == null) {
+			return a;
+		} else if (a.priority >= b.priority) {
+			a = own(a);
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		} else {
+			b = own(b);
+			b.left = merge(a, b.left);
+			update(b);
+			return b;
+		}
+	}
+
+	/** Residues in a subtree */
+	private static int total(Piece t) {
+		return t == null ? 0 : t.total;
+	}
+
+	/** Recomputes the residues of a subtree */
+	private static void update(Piece t) {
+		t.total = total(t.left) + t.length + total(t.right);
+	}
+
+	/** Pieces in a subtree */
+	private static int countPieces(Piece t) {
+		return t == null ? 0 : countPieces(t.left) + 1 + countPieces(t.right);
+	}
+}
@@ -0,0 +1,233 @@
+
+package sequences;
+
+import java.util.Arrays;
+
+/**
+ * ResidueRuns is a compact side table of residue runs.
+ *
+ * Each run covers a half-open range of residue indices and carries a
+ * character. Runs are added in increasing index order and adjacent
+ * indices with the same character are merged into one run, so long
+ * stretches of N cost the same as a single N.
+ */
+public final class ResidueRuns {
+
+	/** Run starts (inclusive) */
+	private int[] starts;
+
+	/** Run ends (exclusive) */
+	private int[] ends;
+
+	/** Run characters */
+	private char[] values;
+
+	/** Number of runs */
+	private int size = 0;
+
+	/** Constructor for empty table */
+	public ResidueRuns() {
+		starts = new int[4];
+		ends = new int[4];
+		values = new char[4];
+	}
+
+	/**
+	 * Constructor for table with known runs
+	 *
+	 * @param starts
+	 * 			Run starts (inclusive), sorted
+	 * @param ends
+	 * 			Run ends (exclusive)
+	 * @param values
+	 * 			Run characters
+	 */
+	public ResidueRuns(int[] starts, int[] ends, char[] values) {
+
+		if (starts.length != ends.length || starts.length != values.length) {
+			throw new IllegalArgumentException(
+					"Run arrays must be of equal length");
+		}
+		this.starts = starts;
+		this.ends = ends;
+		this.values = values;
+		this.size = starts.length;
+	}
+
+	/**
+	 * Adds a single residue index to the table.
+	 *
+	 * @param index
+	 * 			Residue index, not less than any index added before
+	 * @param c
+	 * 			The character of the residue
+	 */
+	public void add(int index, char c) {
+		add(index, index + 1, c);
+	}
+
+	/**
+	 * Adds a run of residues to the table.
+	 *
+	 * @param from
+	 * 			First residue index (inclusive)
+	 * @param to
+	 * 			Last residue index (exclusive)
+	 * @param c
+	 * 			The character of the residues
+	 */
+	public void add(int from, int to, char c) {
+
+		if (from >= to) {
+			return;
+		}
+		if (size > 0 && from < ends[size - 1]) {
+			throw new IllegalArgumentException(
+					"Runs must be added in order");
+		}
+		if (size > 0 && ends[size - 1] == from && values[size - 1] == c) {
+			ends[size - 1] = to;
+			return;
+		}
+		if (size == starts.length) {
+			int capacity = Math.max(size * 2, 8);
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		starts[size] = from;
+		ends[size] = to;
+		values[size] = c;
+		size++;
+	}
+
+	/**
+	 * Trims the backing arrays to the number of runs.
+	 */
+	public void trim() {
+
+		if (size < starts.length) {
+			starts = Arrays.copyOf(starts, size);
+			ends = Arrays.copyOf(ends, size);
+			values = Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Gets the number of runs
+	 *
+	 * @return
+	 * 			The number of runs
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the start of a run
+	 *
+	 * @param run
+	 * 			Run number
+	 * @return
+	 * 			First residue index (inclusive)
+	 */
+	public int getStart(int run) {
+		return starts[run];
+	}
+
+	/**
+	 * Gets the end of a run
+	 *
+	 * @param run
+	 * 			Run number
+	 * @return
+	 * 			Last residue index (exclusive)
+	 */
+	public int getEnd(int run) {
+		return ends[run];
+	}
+
+	/**
+	 * Gets the character of a run
+	 *
+	 * @param run
+	 * 			Run number
+	 * @return
+	 * 			The character
+	 */
+	public char getValue(int run) {
+		return values[run];
+	}
+
+	/**
+	 * Finds the run covering an index
+	 *
+	 * @param index
+	 * 			Residue index
+	 * @return
+	 * 			Run number or -1 if index is not in any run
+	 */
+	public int find(int index) {
+
+		int lo = 0;
+		int hi = size - 1;
+
+		while (lo <= hi) {
+
+			int mid = (lo + hi) >>> 1;
+			if (ends[mid] <= index) {
+				lo = mid + 1;
+			} else if (starts[mid] > index) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the first run that ends after an index
+	 *
+	 * @param index
+	 * 			Residue index
+	 * @return
+	 * 			Run number or <code>size()</code> if there is none
+	 */
+	public int findFirstAfter(int index) {
+
+		int lo = 0;
+		int hi = size;
+
+		while (lo < hi) {
+
+			int mid = (lo + hi) >>> 1;
+			if (ends[mid] <= index) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Counts how many residues of a range are covered by runs
+	 *
+	 * @param from
+	 * 			First residue index (inclusive)
+	 * @param to
+	 * 			Last residue index (exclusive)
+	 * @return
+	 * 			Number of covered residues
+	 */
+	public int countCovered(int from, int to) {
+
+		int covered = 0;
+		for (int run = findFirstAfter(from); run < size && starts[run] < to;
+				run++) {
+			covered += Math.min(ends[run], to) - Math.max(starts[run], from);
+		}
+		return covered;
+	}
+}
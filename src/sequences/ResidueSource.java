@@ -0,0 +1,45 @@
+
+package sequences;
+
+/**
+ * ResidueSource is what can be read like a sequence: residues with a
+ * type, a size in model-space and a shape.
+ *
+ * Both <code>Sequence</code> and the views of sequences are sources,
+ * so walks and scans that only read residues work on either.
+ */
+public interface ResidueSource {
+
+	/**
+	 * Gets the type of sequence
+	 *
+	 * @return
+	 * 			The type
+	 */
+	public Sequence.SequenceType getSequenceType();
+
+	/**
+	 * Gets the residues
+	 *
+	 * @return
+	 * 			The store
+	 */
+	public ResidueStore getResidueStore();
+
+	/**
+	 * Returns the size in model-space, two positions per residue and
+	 * one more if linear
+	 *
+	 * @return
+	 * 			The size
+	 */
+	public int getSize();
+
+	/**
+	 * Checks if positions wrap over the origin
+	 *
+	 * @return
+	 * 			If circular
+	 */
+	public boolean getAllowsWrap();
+}
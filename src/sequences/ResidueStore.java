@@ -0,0 +1,57 @@
+
+package sequences;
+
+/**
+ * ResidueStore defines how the residues of a sequence are held.
+ *
+ * All indices are residue indices (zero-based), not model-space
+ * positions. Converting between the two is the business of the
+ * <code>Sequence</code>.
+ */
+public interface ResidueStore {
+
+	/**
+	 * Gets the number of residues held
+	 *
+	 * @return
+	 * 			The number of residues
+	 */
+	public int length();
+
+	/**
+	 * Gets the residue at an index
+	 *
+	 * @param index
+	 * 			The residue index
+	 * @return
+	 * 			The residue character
+	 */
+	public char charAt(int index);
+
+	/**
+	 * Gets the 2-bit nucleotide code at an index
+	 *
+	 * @param index
+	 * 			The residue index
+	 * @return
+	 * 			The code (see <code>NucleotideCode</code>) or
+	 * 			<code>NucleotideCode.AMBIGUOUS</code>
+	 */
+	public int codeAt(int index);
+
+	/**
+	 * Counts the nucleotide codes in a range.
+	 *
+	 * The counts are added to what is already in <code>counts</code>,
+	 * which must hold at least five elements. The first four are the
+	 * A, C, G and T counts, the fifth is everything else.
+	 *
+	 * @param from
+	 * 			First residue index (inclusive)
+	 * @param to
+	 * 			Last residue index (exclusive)
+	 * @param counts
+	 * 			Array to add counts to
+	 */
+	public void countCodes(int from, int to, int[] counts);
+}
@@ -1,17 +1,31 @@
 
 package sequences;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import alignment.Alignment;
+import alignment.PairwiseAligner;
 import annotation.Annotation;
+import annotation.Feature;
 import modelobject.PrototypeModelObject;
 import point.Point;
-import topologies.Orphan;
+import topologies.Segment;
+import topologies.Topology;
 import collector.Model;
+import collector.ModelEvent;
+import collector.ModelSnapshot;
+import collector.Snapshotable;
 
-public class Sequence extends PrototypeModelObject {
+public class Sequence extends PrototypeModelObject
+		implements ResidueSource, Snapshotable {
 
 	/** Sequence Type */
-	enum SequenceType {
+	public enum SequenceType {
 		/** Type of Sequence: Unknown */
 		TYPE_UNKNOWN,
 		/** Type of Sequence: Amino Acid */
@@ -28,7 +42,7 @@ public class Sequence extends PrototypeModelObject {
 	 * <code>NO_FRAME</code> will void any arithemic or logic based
 	 * on reading frames.
 	 */
-	enum ReadingFrame {
+	public enum ReadingFrame {
 		/** Negative direction, offset two steps to the left of the last
 		 * nucleotide.
 		 */
@@ -72,157 +86,191 @@ public class Sequence extends PrototypeModelObject {
 		}
 	}
 
+	/**
+	 * SequenceWalker produces the slices of a walk as text.
+	 *
+	 * See <code>SliceGeometry</code> for the rules of the walk.
+	 */
 	class SequenceWalker implements Iterator<String> {
 
-		/** Walking distance each iteration */
-		private int step = 2;
-
-		/** The slice size */
-		private int sliceSize = 1;
-
-		/** The treatment of incomplete slices (the last one if any) */
-		private boolean allowIncomplete = false;
-
-		/** The current point */
-		private int curPos = 1;
+		/** The walk */
+		private SliceGeometry geometry;
 
-		/** The starting point */
-		private int startPos = 1;
+		/** The next slice number */
+		private int slice = 0;
 
-		/** A point to test postions with */
-		private Point testPoint;
-		
 		/** Slice String Builder. */
 		private StringBuilder nextSlice;
 
-		/** Says if next has been set */
-		private boolean nextIsSet = false;
-
 		SequenceWalker(int pos) {
-			setStartPos(pos);
-			this.nextSlice = new StringBuilder(this.sliceSize);
-			initTestPoint();
+			this(pos, 2);
 		}
 
 		SequenceWalker(int pos, int step) {
-			setStartPos(pos);
-			this.nextSlice= new StringBuilder(this.sliceSize);
-			setStep(step);
-			initTestPoint();
+			this(pos, step, 1, false);
 		}
 
 		SequenceWalker(int pos, int step, int sliceSize, 
 				boolean allowIncomplete) {
-			setStep(step);
-			setStartPos(pos);
-			if (sliceSize < 1) {
-				throw new IllegalArgumentException("Slices must be positive");
-			}
-			this.sliceSize = sliceSize;
-			this.allowIncomplete = allowIncomplete;
-			this.nextSlice= new StringBuilder(this.sliceSize);
 
-			initTestPoint();
+			this.geometry = new SliceGeometry(Sequence.this, pos, step,
+					sliceSize, allowIncomplete);
+			this.nextSlice = new StringBuilder(sliceSize);
 
 		}
 
-		/** Helper method for constructor to init the testPoint */
-		private void initTestPoint() {
+		public boolean hasNext() {
+
+			return slice < geometry.count;
 
-			Orphan top = new Orphan();
-			testPoint = new Point(Sequence.this, top, 1, step);
 		}
 
+		public String next() {
 
-		/** Helper method that verifies constructor start positions. */
-		private void setStartPos(int pos){
-			if (pos % 2 != 1) {
-				throw new IllegalArgumentException(
-						"Positions must be on (odd), not between (even)");
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
-			this.curPos = pos;
-			this.startPos = pos;
 
-		}
-
-		/** Helper method that verifies constructor step size. */
-		private void setStep(int step) {
+			int start = geometry.getOffset(slice);
+			int end = start + geometry.getLength(slice);
 
-			if (step == 0 || step % 2 != 0) {
-				throw new IllegalArgumentException(
-						"Steps must be even non-zero values");
+			nextSlice.delete(0, nextSlice.length());
+			for (int offset = start; offset < end; offset++) {
+				nextSlice.append(residues.charAt(geometry.getIndex(offset)));
 			}
-			this.step = step;
+
+			slice++;
+
+			return nextSlice.toString();
 
 		}
 
-		/**
-		 * Produces the next slice.
-		 *
-		 * A slice is set, even if not all conditions are met.
-		 * The method also lets the iterator know it has calculated
-		 * the next iteration thing so it doesn't have to be done twice
-		 */
-		private void setNextSlize() {
+		public void remove() {
 
-			boolean foundProblem = false;
-			int prevPos = curPos;
+			throw new UnsupportedOperationException(
+					"Removing not allowed");
 
-			nextSlice.delete(0, nextSlice.length());
+		}
+	}
 
-			foundProblem = !testPoint.setPos(curPos + step);
+	/**
+	 * State is a sequence as it was in a model snapshot: its residues,
+	 * shape and annotations, and the topologies of each annotation on
+	 * it. What the annotations hold besides their topologies is not
+	 * part of the state.
+	 */
+	public static final class State implements ResidueSource {
 
-			if (!foundProblem) {
-				for (int i = 0; i < sliceSize; i++) {
-					foundProblem = !testPoint.movePos(1);
-					if (foundProblem ||
-							testPoint.getPos() == startPos ||
-							((!testPoint.getDidWrap()) && (
-								(testPoint.getPos() > startPos) !=
-								(prevPos > startPos)))){
+		/** The type */
+		private final SequenceType sequenceType;
 
-						break;
+		/** The residues, never changed */
+		private final ResidueStore residues;
 
-					} else {
-						nextSlice.append(Sequence.this.getCharAt(testPoint));
-					}
-					prevPos = testPoint.getPos();
-				}
-			}
+		/** The shape */
+		private final PhysicalShape shape;
 
-			nextIsSet = true;
-		}
+		/** The revision */
+		private final int revision;
 
-		public boolean hasNext() {
+		/** The annotations */
+		private final List<Annotation> annotations;
 
-			if (!nextIsSet) {
-				setNextSlize();
-			}
+		/** Topologies of each annotation on the sequence */
+		private final Map<Annotation, List<Topology>> topologies;
 
-			return ((nextSlice.length() == sliceSize) ||
-					(nextSlice.length() > 0 && allowIncomplete));
+		/**
+		 * Constructor
+		 *
+		 * @param seq
+		 * 			The sequence
+		 * @param residues
+		 * 			Residues that are never changed
+		 */
+		State(Sequence seq, ResidueStore residues) {
+
+			sequenceType = seq.sequenceType;
+			this.residues = residues;
+			shape = seq.getShape();
+			revision = seq.getRevision();
+			annotations = Collections.unmodifiableList(
+					new ArrayList<Annotation>(seq.annotations));
+
+			Map<Annotation, List<Topology>> tops =
+				new HashMap<Annotation, List<Topology>>();
+			for (Annotation a: seq.annotations) {
+				List<Topology> list = a.getTopologies(seq);
+				tops.put(a, list == null ? Collections.<Topology>emptyList() :
+						Collections.unmodifiableList(
+							new ArrayList<Topology>(list)));
+			}
+			topologies = tops;
+		}
 
+		@Override
+		public SequenceType getSequenceType() {
+			return sequenceType;
 		}
 
-		public String next() {
+		@Override
+		public ResidueStore getResidueStore() {
+			return residues;
+		}
 
-			if (!nextIsSet) {
-				setNextSlize();
-			}
-			
-			curPos = testPoint.getPos();
+		@Override
+		public int getSize() {
+			int val = shape.equals(PhysicalShape.SHAPE_LINEAR) ? 1: 0;
+			return residues.length() * 2 + val;
+		}
 
-			nextIsSet = false;
+		@Override
+		public boolean getAllowsWrap() {
+			return shape.equals(PhysicalShape.SHAPE_CIRCULAR);
+		}
 
-			return nextSlice.toString();
+		/**
+		 * Gets the shape
+		 *
+		 * @return
+		 * 			The shape
+		 */
+		public PhysicalShape getShape() {
+			return shape;
+		}
 
+		/**
+		 * Gets the revision of the extent
+		 *
+		 * @return
+		 * 			The revision
+		 */
+		public int getRevision() {
+			return revision;
 		}
 
-		public void remove() {
+		/**
+		 * Gets the annotations
+		 *
+		 * @return
+		 * 			The annotations, not to be modified
+		 */
+		public List<Annotation> getAnnotations() {
+			return annotations;
+		}
 
-			throw new UnsupportedOperationException(
-					"Removing not allowed");
+		/**
+		 * Gets the topologies of an annotation on the sequence
+		 *
+		 * @param a
+		 * 			The annotation
+		 * @return
+		 * 			The topologies, not to be modified, empty if the
+		 * 			annotation was not on the sequence
+		 */
+		public List<Topology> getTopologies(Annotation a) {
 
+			List<Topology> tops = topologies.get(a);
+			return tops == null ? Collections.<Topology>emptyList() : tops;
 		}
 	}
 
@@ -232,17 +280,250 @@ public class Sequence extends PrototypeModelObject {
 	/** The model it belongs to */
 	private Model model;
 
-	/** The actual sequence-text */
-	private String sequence;
+	/** The residues (packed if nucleotides) */
+	private ResidueStore residues = new StringResidueStore("");
+
+	/** The annotations, in the order they were added */
+	private Collection<Annotation> annotations =
+		new LinkedHashSet<Annotation>();
+
+	/** Overlap index of the annotations, null when out of date */
+	private AnnotationIndex annotationIndex = null;
+
+	/** Full-text index of the residues, null if never built */
+	private FmIndex fmIndex = null;
+
+	/** Revision the full-text index was made at */
+	private int fmIndexRevision = -1;
 
-	/** The annotations array */
-	private Collection<Annotation> annotations = new ArrayList<Annotation>();
+	/** Window composition of the residues, null if never made */
+	private Composition composition = null;
+
+	/** Revision the composition was made at */
+	private int compositionRevision = -1;
+
+	/** K-mer sketch of the residues, null if never made */
+	private SequenceSketch sketch = null;
+
+	/** Revision the sketch was made at */
+	private int sketchRevision = -1;
+
+	/** Residues of the last snapshot state, null if none was taken */
+	private ResidueStore snapshotResidues = null;
+
+	/** Revision the snapshot residues were taken at */
+	private int snapshotRevision = -1;
+
+	/** Summaries for drawing zoomed out, null if never made */
+	private SummaryPyramid summaryPyramid = null;
 
 	public Sequence(Model mod) {
 		
+		super(mod);
 		model = mod;
 		model.addModelObject(this);
 	}
+
+	/**
+	 * Constructor with id when loading saved stuff
+	 *
+	 * @param mod
+	 * 			The model
+	 * @param id
+	 * 			The saved identifier
+	 */
+	public Sequence(Model mod, int id) {
+
+		super(mod, id);
+		model = mod;
+		model.addModelObject(this);
+	}
+
+	/**
+	 * Gets the type of sequence
+	 *
+	 * @return
+	 * 			The type
+	 */
+	public SequenceType getSequenceType() {
+		return sequenceType;
+	}
+
+	/**
+	 * Sets the type of sequence.
+	 *
+	 * Present residues are kept in their current store, so the type
+	 * should be set before the residues if it matters how they are
+	 * stored.
+	 *
+	 * @param type
+	 * 			The type
+	 */
+	public void setSequenceType(SequenceType type) {
+		sequenceType = type;
+		model.changed(this);
+	}
+
+	/**
+	 * Sets the residues from text.
+	 *
+	 * Nucleotide sequences are packed at two bits per residue, all
+	 * others are kept as text.
+	 *
+	 * @param s
+	 * 			The sequence-text
+	 */
+	public void setSequence(CharSequence s) {
+
+		if (sequenceType.equals(SequenceType.TYPE_NUCLEOTIDE)) {
+			residues = new PackedNucleotideStore(s);
+		} else {
+			residues = new StringResidueStore(s.toString());
+		}
+		changeRevision();
+		annotationIndex = null;
+		model.fireEvent(ModelEvent.Type.RESIDUES_CHANGED, this);
+	}
+
+	/**
+	 * Sets the residue store directly
+	 *
+	 * @param store
+	 * 			The store
+	 */
+	public void setResidueStore(ResidueStore store) {
+		residues = store;
+		changeRevision();
+		annotationIndex = null;
+		model.fireEvent(ModelEvent.Type.RESIDUES_CHANGED, this);
+	}
+
+	/**
+	 * Inserts residues between two residues.
+	 *
+	 * Points at the position stay before the inserted residues, points
+	 * after it move along.
+	 *
+	 * @param pos
+	 * 			An <i>inbetween</i> (even) position
+	 * @param s
+	 * 			The residues
+	 */
+	public void insert(int pos, CharSequence s) {
+
+		if (pos % 2 != 0 || pos < 0 || pos > residues.length() * 2) {
+			throw new IllegalArgumentException(
+					"Insertions must be at inbetween positions, invalid " + pos);
+		}
+		edit(pos / 2, pos / 2, s);
+	}
+
+	/**
+	 * Deletes the residues at the <i>On</i> positions of a range.
+	 *
+	 * Points on the deleted residues collapse to the position where
+	 * they were, points after them move back.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 */
+	public void delete(int from, int to) {
+		replace(from, to, "");
+	}
+
+	/**
+	 * Replaces the residues at the <i>On</i> positions of a range.
+	 *
+	 * Points on the replaced residues collapse to the position before
+	 * the new residues, points after them move along.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @param s
+	 * 			The new residues
+	 */
+	public void replace(int from, int to, CharSequence s) {
+
+		if (from > to || from < 0) {
+			throw new IllegalArgumentException(
+					"Invalid range " + from + " to " + to);
+		}
+		int start = Math.min(from / 2, residues.length());
+		int end = Math.min((to + 1) / 2, residues.length());
+		edit(start, end, s);
+	}
+
+	/**
+	 * Replaces residues, making the residues editable if needed, and
+	 * moves the points on the sequence accordingly.
+	 *
+	 * Only topologies with points on the sequence are visited, and in
+	 * them only the points after the edit.
+	 *
+	 * @param start
+	 * 			First residue index (inclusive)
+	 * @param end
+	 * 			Last residue index (exclusive)
+	 * @param s
+	 * 			The new residues
+	 */
+	private void edit(int start, int end, CharSequence s) {
+
+		if (start == end && s.length() == 0) {
+			return;
+		}
+
+		PieceTableStore store;
+		if (residues instanceof PieceTableStore &&
+				!((PieceTableStore) residues).isSnapshot()) {
+			store = (PieceTableStore) residues;
+		} else {
+			store = new PieceTableStore(residues);
+			residues = store;
+		}
+		store.replace(start, end, s);
+
+		changeRevision();
+		annotationIndex = null;
+
+		int delta = 2 * (s.length() - (end - start));
+		model.beginBatch();
+		try {
+			List<Topology> tops = new ArrayList<Topology>();
+			for (Iterator<Topology> it = getAttachedTopologies(); it.hasNext(); ) {
+				tops.add(it.next());
+			}
+			for (Topology top: tops) {
+				top.targetEdited(this, 2 * start, 2 * end, delta);
+			}
+
+			//Points that collapsed onto the end of a circular sequence
+			//are at its start
+			if (getAllowsWrap() && 2 * start == getSize() && start > 0) {
+				for (Topology top: tops) {
+					top.shiftRange(this, getSize(), getSize(), 0);
+				}
+			}
+			model.fireEvent(ModelEvent.Type.RESIDUES_CHANGED, this);
+		} finally {
+			model.endBatch();
+		}
+	}
+
+	/**
+	 * Gets the residue store
+	 *
+	 * @return
+	 * 			The store
+	 */
+	public ResidueStore getResidueStore() {
+		return residues;
+	}
+
 	/** 
 	 * Returns an iterator for the annotations annotating the
 	 * sequence.
@@ -254,6 +535,169 @@ public class Sequence extends PrototypeModelObject {
 		return annotations.iterator();
 	}
 
+	/**
+	 * Adds an annotation to the sequence, letting the annotation know
+	 * it annotates the sequence if it does not already.
+	 *
+	 * @param a
+	 * 			The annotation
+	 * @return
+	 * 			If annotation was added
+	 */
+	public boolean addAnnotation(Annotation a) {
+
+		if (!a.getAnnotates().contains(this) && !a.setAnnotation(this)) {
+			return false;
+		}
+		if (annotations.contains(a)) {
+			return false;
+		}
+		annotations.add(a);
+		annotationIndex = null;
+		model.changed(this);
+		model.fireEvent(ModelEvent.Type.ANNOTATION_ATTACHED, a);
+		return true;
+	}
+
+	/**
+	 * Removes an annotation from the sequence
+	 *
+	 * @param a
+	 * 			The annotation
+	 * @return
+	 * 			If annotation was present
+	 */
+	public boolean removeAnnotation(Annotation a) {
+
+		if (annotations.remove(a)) {
+			annotationIndex = null;
+			model.changed(this);
+			model.fireEvent(ModelEvent.Type.ANNOTATION_DETACHED, a);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the annotations that have any topology overlapping a range
+	 * of positions.
+	 *
+	 * On circular sequences <code>to</code> may be less than
+	 * <code>from</code> for ranges spanning the origin, and features
+	 * spanning the origin are found from either side.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @return
+	 * 			Iterator over the annotations, each reported once
+	 */
+	public Iterator<Annotation> getAnnotationsOverlapping(int from, int to) {
+		return getAnnotationIndex().getOverlapping(from, to).iterator();
+	}
+
+	/**
+	 * Counts the annotations that have any topology overlapping a range
+	 * of positions.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @return
+	 * 			Number of annotations
+	 * @see #getAnnotationsOverlapping(int, int)
+	 */
+	public int countOverlapping(int from, int to) {
+		return getAnnotationIndex().countOverlapping(from, to);
+	}
+
+	/**
+	 * Gets the overlap index, building it if it is out of date
+	 *
+	 * @return
+	 * 			The index
+	 */
+	private AnnotationIndex getAnnotationIndex() {
+
+		AnnotationIndex index = annotationIndex;
+		if (index == null) {
+			index = new AnnotationIndex(this, annotations);
+			annotationIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * The annotation overlap index is rebuilt on next query.
+	 */
+	@Override
+	public void pointsChanged() {
+		annotationIndex = null;
+	}
+
+	/**
+	 * Only the topology is looked up again in the annotation overlap
+	 * index, unless the index has to be rebuilt.
+	 */
+	@Override
+	public void pointsChanged(Topology top) {
+
+		AnnotationIndex index = annotationIndex;
+		if (index != null && !index.topologyChanged(top)) {
+			annotationIndex = null;
+		}
+	}
+
+	/**
+	 * The topologies of an annotation changed, which snapshots keep and
+	 * listeners are told of.
+	 */
+	@Override
+	public void annotationsChanged() {
+		annotationIndex = null;
+		model.changed(this);
+		model.fireEvent(ModelEvent.Type.ANNOTATION_CHANGED, this);
+	}
+
+	@Override
+	public void setShape(PhysicalShape shape) {
+		super.setShape(shape);
+		annotationIndex = null;
+		model.changed(this);
+	}
+
+	/**
+	 * Makes the state of the sequence for a model snapshot. Edited
+	 * residues are shared with the snapshot rather than copied.
+	 *
+	 * @return
+	 * 			The <code>Sequence.State</code>
+	 */
+	@Override
+	public Object snapshot() {
+
+		if (snapshotResidues == null || snapshotRevision != getRevision()) {
+			snapshotResidues = residues instanceof PieceTableStore ?
+				((PieceTableStore) residues).snapshot() : residues;
+			snapshotRevision = getRevision();
+		}
+		return new State(this, snapshotResidues);
+	}
+
+	/**
+	 * Gets the state of the sequence in a snapshot
+	 *
+	 * @param snap
+	 * 			The snapshot
+	 * @return
+	 * 			The state, null if the sequence was not in the model
+	 */
+	public State getState(ModelSnapshot snap) {
+		return (State) snap.getState(this);
+	}
+
 	public Iterator<String> getSequenceWalker(int pos) {
 		return new SequenceWalker(pos);
 	}
@@ -267,6 +711,410 @@ public class Sequence extends PrototypeModelObject {
 		return new SequenceWalker(pos, stepSize, sliceSize, allowIncomplete);
 	}
 
+	/**
+	 * Returns a walker producing the slices of a walk as 2-bit encoded
+	 * numbers. The walk is the same as that of
+	 * <code>getSequenceWalker</code> with the same parameters.
+	 *
+	 * @param pos
+	 * 			Starting position, must be <i>On</i> (odd)
+	 * @param stepSize
+	 * 			Distance between slice starts, even and positive
+	 * @param sliceSize
+	 * 			Residues per slice
+	 * @param allowIncomplete
+	 * 			If slices cut short by the end are part of the walk
+	 * @return
+	 * 			The walker
+	 */
+	public KmerWalker getKmerWalker(int pos, int stepSize, int sliceSize,
+			boolean allowIncomplete) {
+		return new KmerWalker(this, pos, stepSize, sliceSize, allowIncomplete);
+	}
+
+	/**
+	 * Walks the sequence, passing each encoded slice to a consumer.
+	 *
+	 * @param pos
+	 * 			Starting position, must be <i>On</i> (odd)
+	 * @param stepSize
+	 * 			Distance between slice starts, even and positive
+	 * @param sliceSize
+	 * 			Residues per slice
+	 * @param allowIncomplete
+	 * 			If slices cut short by the end are part of the walk
+	 * @param consumer
+	 * 			Receiver of the slices
+	 */
+	public void walkKmers(int pos, int stepSize, int sliceSize,
+			boolean allowIncomplete, KmerConsumer consumer) {
+
+		KmerWalker walker = getKmerWalker(pos, stepSize, sliceSize,
+				allowIncomplete);
+		while (walker.next()) {
+			consumer.accept(walker.getPos(), walker.getKmer());
+		}
+	}
+
+	/**
+	 * Returns the slices of a walk as a stream. The stream has the same
+	 * slices as <code>getSequenceWalker</code> with the same parameters,
+	 * in the same order, and splits evenly for parallel use.
+	 *
+	 * @param pos
+	 * 			Starting position, must be <i>On</i> (odd)
+	 * @param stepSize
+	 * 			Distance between slice starts, even and positive
+	 * @param sliceSize
+	 * 			Residues per slice
+	 * @param allowIncomplete
+	 * 			If slices cut short by the end are part of the walk
+	 * @param parallel
+	 * 			If the stream is parallel
+	 * @return
+	 * 			The stream
+	 */
+	public Stream<String> sliceStream(int pos, int stepSize, int sliceSize,
+			boolean allowIncomplete, boolean parallel) {
+
+		SliceGeometry geometry = new SliceGeometry(this, pos, stepSize,
+				sliceSize, allowIncomplete);
+		return StreamSupport.stream(new SliceSpliterator.Slices(geometry, 0,
+					geometry.count), parallel);
+	}
+
+	/**
+	 * Returns the slices of a walk as a stream of 2-bit encoded numbers,
+	 * like those of <code>getKmerWalker</code>.
+	 *
+	 * @param pos
+	 * 			Starting position, must be <i>On</i> (odd)
+	 * @param stepSize
+	 * 			Distance between slice starts, even and positive
+	 * @param sliceSize
+	 * 			Residues per slice, at most
+	 * 			<code>KmerWalker.MAX_SLICE_SIZE</code>
+	 * @param allowIncomplete
+	 * 			If slices cut short by the end are part of the walk
+	 * @param parallel
+	 * 			If the stream is parallel
+	 * @return
+	 * 			The stream, <code>KmerWalker.AMBIGUOUS</code> for slices
+	 * 			with residues that are not A, C, G or T
+	 */
+	public LongStream kmerStream(int pos, int stepSize, int sliceSize,
+			boolean allowIncomplete, boolean parallel) {
+
+		SliceGeometry geometry = new SliceGeometry(this, pos, stepSize,
+				sliceSize, allowIncomplete);
+		return StreamSupport.longStream(new SliceSpliterator.Kmers(geometry,
+					0, geometry.count), parallel);
+	}
+
+	/**
+	 * Returns the slices of a walk as a stream of 2-bit encoded numbers
+	 * that fit in an <code>int</code>, such as codons.
+	 *
+	 * @param pos
+	 * 			Starting position, must be <i>On</i> (odd)
+	 * @param stepSize
+	 * 			Distance between slice starts, even and positive
+	 * @param sliceSize
+	 * 			Residues per slice, at most 15
+	 * @param allowIncomplete
+	 * 			If slices cut short by the end are part of the walk
+	 * @param parallel
+	 * 			If the stream is parallel
+	 * @return
+	 * 			The stream, -1 for slices with residues that are not A,
+	 * 			C, G or T
+	 */
+	public IntStream intKmerStream(int pos, int stepSize, int sliceSize,
+			boolean allowIncomplete, boolean parallel) {
+
+		SliceGeometry geometry = new SliceGeometry(this, pos, stepSize,
+				sliceSize, allowIncomplete);
+		return StreamSupport.intStream(new SliceSpliterator.IntKmers(geometry,
+					0, geometry.count), parallel);
+	}
+
+	/**
+	 * Scans the sequence for motifs, on both strands and across the
+	 * origin if circular.
+	 *
+	 * @param motifs
+	 * 			The motifs
+	 * @param consumer
+	 * 			Receiver of the hits
+	 */
+	public void scanMotifs(MotifSet motifs, MotifConsumer consumer) {
+		motifs.scan(residues, getAllowsWrap(), consumer);
+	}
+
+	/**
+	 * Scans the sequence for motifs and annotates it with the hits, a
+	 * feature per motif found and a segment per hit.
+	 *
+	 * @param motifs
+	 * 			The motifs
+	 * @param type
+	 * 			Type of the features (as "restriction_site")
+	 * @return
+	 * 			The features added
+	 */
+	public List<Feature> annotateMotifs(MotifSet motifs, String type) {
+		return motifs.annotate(this, model, type);
+	}
+
+	/**
+	 * Finds the open reading frames of the sequence, in all six frames
+	 * and across the origin if circular, and makes a segment for each.
+	 *
+	 * @param finder
+	 * 			The finder, with its codons and shortest length
+	 * @return
+	 * 			The segments, ordered by first residue
+	 */
+	public List<Segment> findOrfs(OrfFinder finder) {
+		return finder.annotate(this, model);
+	}
+
+	/**
+	 * Aligns the sequence to another and annotates both with the
+	 * alignment, which links the aligned stretches of each.
+	 *
+	 * @param other
+	 * 			The sequence aligned to, of the same model
+	 * @param aligner
+	 * 			The aligner, with its mode and scoring
+	 * @return
+	 * 			The alignment
+	 */
+	public Alignment align(Sequence other, PairwiseAligner aligner) {
+		return aligner.annotate(model, this, other);
+	}
+
+	/**
+	 * Gets the full-text index of the residues, building it if there is
+	 * none or the residues or shape changed since.
+	 *
+	 * @return
+	 * 			The index
+	 */
+	public synchronized FmIndex getFmIndex() {
+
+		checkIndexable();
+		if (fmIndex == null || fmIndexRevision != getRevision()) {
+			fmIndex = FmIndex.build(residues, getAllowsWrap());
+			fmIndexRevision = getRevision();
+		}
+		return fmIndex;
+	}
+
+	/**
+	 * Gets the full-text index of the residues, kept in a file so that
+	 * it is only built once. An index saved in the file is used if it
+	 * describes the present residues, otherwise one is built and saved.
+	 *
+	 * @param file
+	 * 			The index file (as the residue file's name with
+	 * 			<code>.fmi</code> added)
+	 * @return
+	 * 			The index
+	 * @throws IOException
+	 * 			If a built index can not be saved
+	 */
+	public synchronized FmIndex getFmIndex(File file) throws IOException {
+
+		checkIndexable();
+		if (fmIndex == null || fmIndexRevision != getRevision()) {
+
+			FmIndex saved = null;
+			if (file.exists()) {
+				try {
+					saved = FmIndex.read(file);
+				} catch (IOException e) {
+					//Defualt behaviour, rebuild over a broken file
+				}
+			}
+			if (saved != null && saved.matches(residues, getAllowsWrap())) {
+				fmIndex = saved;
+			} else {
+				fmIndex = FmIndex.build(residues, getAllowsWrap());
+				fmIndex.write(file);
+			}
+			fmIndexRevision = getRevision();
+		}
+		return fmIndex;
+	}
+
+	/**
+	 * Gets a view of the minus strand, read from the end
+	 *
+	 * @return
+	 * 			The reverse complement, valid until the sequence changes
+	 * @see SequenceView
+	 */
+	public SequenceView getReverseComplement() {
+		return getView().reverseComplement();
+	}
+
+	/**
+	 * Gets a view of the residues at the <i>On</i> positions of a range.
+	 * On circular sequences <code>to</code> may be less than
+	 * <code>from</code> for ranges spanning the origin.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @return
+	 * 			The subsequence, valid until the sequence changes
+	 * @see SequenceView
+	 */
+	public SequenceView getSubsequence(int from, int to) {
+		return getView().subsequence(from, to);
+	}
+
+	/**
+	 * Gets a view of a circular sequence read from another origin
+	 *
+	 * @param pos
+	 * 			An <i>inbetween</i> (even) position that becomes the
+	 * 			origin
+	 * @return
+	 * 			The rotated sequence, valid until the sequence changes
+	 * @see SequenceView
+	 */
+	public SequenceView getRotated(int pos) {
+		return getView().rotated(pos);
+	}
+
+	/**
+	 * Gets a view of the whole sequence as it is
+	 *
+	 * @return
+	 * 			The view
+	 */
+	public SequenceView getView() {
+		return new SequenceView(this, 0, residues.length(), false,
+				getAllowsWrap());
+	}
+
+	/**
+	 * Gets the window composition of the residues, making it anew if
+	 * the residues or shape changed since it was last made. Windows
+	 * wrap around the origin of circular sequences.
+	 *
+	 * @return
+	 * 			The composition
+	 */
+	public synchronized Composition getComposition() {
+
+		checkIndexable();
+		if (composition == null || compositionRevision != getRevision()) {
+			composition = new Composition(residues, getAllowsWrap());
+			compositionRevision = getRevision();
+		}
+		return composition;
+	}
+
+	/**
+	 * Gets the k-mer sketch of the residues with the default parameters,
+	 * made once and again only after the residues change. On circular
+	 * sequences the k-mers wrap around the origin.
+	 *
+	 * @return
+	 * 			The sketch
+	 */
+	public SequenceSketch getSketch() {
+		return getSketch(SequenceSketch.DEFAULT_KMER_SIZE,
+				SequenceSketch.DEFAULT_SKETCH_SIZE,
+				SequenceSketch.DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Gets a k-mer sketch of the residues. The last sketch is kept and
+	 * reused while the residues and parameters stay the same.
+	 *
+	 * @param kmerSize
+	 * 			Residues per k-mer
+	 * @param sketchSize
+	 * 			Hashes kept
+	 * @param window
+	 * 			K-mers per minimizer window
+	 * @return
+	 * 			The sketch
+	 */
+	public synchronized SequenceSketch getSketch(int kmerSize, int sketchSize,
+			int window) {
+
+		checkIndexable();
+		if (sketch == null || sketchRevision != getRevision() ||
+				!sketch.hasParameters(kmerSize, sketchSize, window)) {
+			sketch = SequenceSketch.build(residues, getAllowsWrap(), kmerSize,
+					sketchSize, window);
+			sketchRevision = getRevision();
+		}
+		return sketch;
+	}
+
+	/**
+	 * Gets the kept sketch without making one
+	 *
+	 * @return
+	 * 			The sketch or null if none describes the present residues
+	 */
+	public synchronized SequenceSketch getCachedSketch() {
+		return sketchRevision == getRevision() ? sketch : null;
+	}
+
+	/**
+	 * Keeps a sketch made earlier, such as one loaded with the residues,
+	 * if it describes the present residues
+	 *
+	 * @param sketch
+	 * 			The sketch
+	 * @return
+	 * 			If the sketch was kept
+	 */
+	public synchronized boolean setSketch(SequenceSketch sketch) {
+
+		if (sketch.getResidueCount() != residues.length() ||
+				sketch.isCircular() != getAllowsWrap()) {
+			return false;
+		}
+		this.sketch = sketch;
+		sketchRevision = getRevision();
+		return true;
+	}
+
+	/**
+	 * Gets the binned summaries of the residues and annotations for
+	 * drawing the sequence zoomed out. The pyramid follows the changes
+	 * of the model by itself.
+	 *
+	 * @return
+	 * 			The pyramid
+	 */
+	public synchronized SummaryPyramid getSummaryPyramid() {
+
+		checkIndexable();
+		if (summaryPyramid == null) {
+			summaryPyramid = new SummaryPyramid(this, model);
+		}
+		return summaryPyramid;
+	}
+
+	/** Makes sure sequence is made of nucleotides */
+	private void checkIndexable() {
+
+		if (!sequenceType.equals(SequenceType.TYPE_NUCLEOTIDE)) {
+			throw new IllegalStateException(
+					"Only nucleotide sequences can be indexed");
+		}
+	}
+
 	/**
 	 * Returns the size in model-space.
 	 *
@@ -281,7 +1129,7 @@ public class Sequence extends PrototypeModelObject {
 	 */
 	public int getSize() {
 		int val = getShape().equals(PhysicalShape.SHAPE_LINEAR) ? 1: 0;
-		return sequence.length() * 2 + val;
+		return residues.length() * 2 + val;
 	}
 
 	/**
@@ -307,7 +1155,7 @@ public class Sequence extends PrototypeModelObject {
 					"The point does not annotate this sequence.");
 		}
 
-		return sequence.charAt(pos);
+		return residues.charAt(pos);
 
 	}
 }
@@ -0,0 +1,703 @@
+
+package sequences;
+
+import java.util.Arrays;
+
+/**
+ * SequenceSketch is a small summary of the k-mers of nucleotide residues
+ * from which the similarity of sequences is estimated without comparing
+ * their residues.
+ *
+ * A sketch is made in a single pass over the residues. Each k-mer is
+ * read on both strands and the smaller encoding, the canonical k-mer,
+ * is hashed, so a sequence and its reverse complement get the same
+ * sketch. K-mers with residues other than A, C, G or T are left out. On
+ * circular residues the k-mers across the origin are read too, so a
+ * rotated sequence also gets the same sketch.
+ *
+ * A sketch holds three views of the hashes:
+ * <ul>
+ * <li>the <code>sketchSize</code> smallest distinct hashes (bottom-k
+ * MinHash), from which the Jaccard index of the k-mer sets is
+ * estimated;</li>
+ * <li>the smallest hash in each of <code>sketchSize</code> bins of the
+ * hash range (one permutation MinHash), so that hashes at the same
+ * place in two signatures are equal with the Jaccard index as
+ * probability, which <code>SketchIndex</code> uses to find similar
+ * sequences;</li>
+ * <li>the minimizers, the smallest hash of every <code>window</code>
+ * consecutive k-mers, which sample the whole sequence densely enough
+ * for containment and seeding.</li>
+ * </ul>
+ *
+ * Sketches are immutable. Only sketches of the same k-mer size and
+ * sketch size can be compared. <code>Sequence.getSketch()</code> keeps
+ * one up to date.
+ */
+public final class SequenceSketch {
+
+	/** Default k-mer size */
+	public static final int DEFAULT_KMER_SIZE = 21;
+
+	/** Default number of hashes kept */
+	public static final int DEFAULT_SKETCH_SIZE = 1024;
+
+	/** Default number of k-mers per minimizer window */
+	public static final int DEFAULT_WINDOW = 10;
+
+	/** Largest k-mer size */
+	public static final int MAX_KMER_SIZE = KmerWalker.MAX_SLICE_SIZE;
+
+	/** Hash of bins without k-mers */
+	private static final long EMPTY = Long.MAX_VALUE;
+
+	/** Residues per k-mer */
+	private final int kmerSize;
+
+	/** Hashes kept */
+	private final int sketchSize;
+
+	/** K-mers per minimizer window */
+	private final int window;
+
+	/** Number of residues sketched */
+	private final int residueCount;
+
+	/** If the residues were circular */
+	private final boolean circular;
+
+	/** Smallest distinct hashes, ascending */
+	private final long[] bottom;
+
+	/** Smallest hash of each bin, empty bins filled from their neighbours */
+	private final long[] signature;
+
+	/** Distinct minimizer hashes, ascending */
+	private final long[] minimizers;
+
+	/**
+	 * Constructor, used when sketches are loaded
+	 *
+	 * @param kmerSize
+	 * 			Residues per k-mer
+	 * @param sketchSize
+	 * 			Hashes kept
+	 * @param window
+	 * 			K-mers per minimizer window
+	 * @param residueCount
+	 * 			Number of residues sketched
+	 * @param circular
+	 * 			If the residues were circular
+	 * @param bottom
+	 * 			Smallest distinct hashes, ascending
+	 * @param signature
+	 * 			Smallest hash of each bin
+	 * @param minimizers
+	 * 			Distinct minimizer hashes, ascending
+	 */
+	public SequenceSketch(int kmerSize, int sketchSize, int window,
+			int residueCount, boolean circular, long[] bottom,
+			long[] signature, long[] minimizers) {
+
+		checkParameters(kmerSize, sketchSize, window);
+		if (bottom.length > sketchSize || signature.length != sketchSize) {
+			throw new IllegalArgumentException(
+					"Hashes do not match the sketch size");
+		}
+		this.kmerSize = kmerSize;
+		this.sketchSize = sketchSize;
+		this.window = window;
+		this.residueCount = residueCount;
+		this.circular = circular;
+		this.bottom = bottom;
+		this.signature = signature;
+		this.minimizers = minimizers;
+	}
+
+	/**
+	 * Sketches residues with the default parameters
+	 *
+	 * @param residues
+	 * 			The nucleotide residues
+	 * @param circular
+	 * 			If k-mers wrap around the origin
+	 * @return
+	 * 			The sketch
+	 */
+	public static SequenceSketch build(ResidueStore residues,
+			boolean circular) {
+		return build(residues, circular, DEFAULT_KMER_SIZE,
+				DEFAULT_SKETCH_SIZE, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Sketches residues
+	 *
+	 * @param residues
+	 * 			The nucleotide residues
+	 * @param circular
+	 * 			If k-mers wrap around the origin
+	 * @param kmerSize
+	 * 			Residues per k-mer, at most <code>MAX_KMER_SIZE</code>
+	 * @param sketchSize
+	 * 			Hashes kept
+	 * @param window
+	 * 			K-mers per minimizer window
+	 * @return
+	 * 			The sketch
+	 */
+	public static SequenceSketch build(ResidueStore residues,
+			boolean circular, int kmerSize, int sketchSize, int window) {
+
+		checkParameters(kmerSize, sketchSize, window);
+		int n = residues.length();
+		Builder builder = new Builder(sketchSize, window);
+
+		//The first k - 1 residues are read again to close the circle
+		int end = circular && n >= kmerSize ? n + kmerSize - 1 : n;
+		long mask = (1L << (2 * kmerSize)) - 1;
+		int shift = 2 * (kmerSize - 1);
+		long forward = 0;
+		long reverse = 0;
+		int valid = 0;
+
+		for (int i = 0; i < end; i++) {
+
+			int code = residues.codeAt(i < n ? i : i - n);
+			if (code < 0) {
+				valid = 0;
+			} else {
+				forward = ((forward << 2) | code) & mask;
+				reverse = (reverse >>> 2) | ((long) (3 - code) << shift);
+				valid++;
+			}
+			if (i >= kmerSize - 1) {
+				builder.add(valid >= kmerSize ?
+						mix(Math.min(forward, reverse)) : EMPTY);
+			}
+		}
+
+		return builder.build(kmerSize, n, circular);
+	}
+
+	/**
+	 * Checks the sketch parameters
+	 *
+	 * @param kmerSize
+	 * 			Residues per k-mer
+	 * @param sketchSize
+	 * 			Hashes kept
+	 * @param window
+	 * 			K-mers per minimizer window
+	 */
+	private static void checkParameters(int kmerSize, int sketchSize,
+			int window) {
+
+		if (kmerSize < 1 || kmerSize > MAX_KMER_SIZE) {
+			throw new IllegalArgumentException(
+					"K-mer size must be between 1 and " + MAX_KMER_SIZE);
+		}
+		if (sketchSize < 1 || window < 1) {
+			throw new IllegalArgumentException(
+					"Sketch size and window must be positive");
+		}
+	}
+
+	/**
+	 * Gets the k-mer size
+	 *
+	 * @return
+	 * 			Residues per k-mer
+	 */
+	public int getKmerSize() {
+		return kmerSize;
+	}
+
+	/**
+	 * Gets the sketch size
+	 *
+	 * @return
+	 * 			Hashes kept
+	 */
+	public int getSketchSize() {
+		return sketchSize;
+	}
+
+	/**
+	 * Gets the minimizer window
+	 *
+	 * @return
+	 * 			K-mers per window
+	 */
+	public int getWindow() {
+		return window;
+	}
+
+	/**
+	 * Gets the number of residues sketched
+	 *
+	 * @return
+	 * 			The number of residues
+	 */
+	public int getResidueCount() {
+		return residueCount;
+	}
+
+	/**
+	 * Gets if k-mers wrapped around the origin
+	 *
+	 * @return
+	 * 			If circular
+	 */
+	public boolean isCircular() {
+		return circular;
+	}
+
+	/**
+	 * Gets the smallest distinct hashes
+	 *
+	 * @return
+	 * 			A copy of the hashes, ascending
+	 */
+	public long[] getHashes() {
+		return bottom.clone();
+	}
+
+	/**
+	 * Gets the smallest hash of each bin of the hash range
+	 *
+	 * @return
+	 * 			A copy of the signature
+	 */
+	public long[] getSignature() {
+		return signature.clone();
+	}
+
+	/**
+	 * Gets the minimizers
+	 *
+	 * @return
+	 * 			A copy of the distinct minimizer hashes, ascending
+	 */
+	public long[] getMinimizers() {
+		return minimizers.clone();
+	}
+
+	/**
+	 * Gets the hash of a bin without copying
+	 *
+	 * @param bin
+	 * 			The bin
+	 * @return
+	 * 			The hash
+	 */
+	long getSignature(int bin) {
+		return signature[bin];
+	}
+
+	/**
+	 * Gets if the residues had no k-mers to sketch
+	 *
+	 * @return
+	 * 			If empty
+	 */
+	public boolean isEmpty() {
+		return bottom.length == 0;
+	}
+
+	/**
+	 * Estimates the Jaccard index of the k-mer sets of two sketches from
+	 * the smallest hashes of their union.
+	 *
+	 * @param other
+	 * 			The other sketch
+	 * @return
+	 * 			The estimate, between 0 and 1
+	 */
+	public double jaccard(SequenceSketch other) {
+
+		checkComparable(other);
+		int size = Math.min(sketchSize, other.sketchSize);
+		int i = 0;
+		int j = 0;
+		int union = 0;
+		int shared = 0;
+		while (union < size && (i < bottom.length || j < other.bottom.length)) {
+
+			long a = i < bottom.length ? bottom[i] : EMPTY;
+			long b = j < other.bottom.length ? other.bottom[j] : EMPTY;
+			if (a == b) {
+				shared++;
+				i++;
+				j++;
+			} else if (a < b) {
+				i++;
+			} else {
+				j++;
+			}
+			union++;
+		}
+		return union == 0 ? 0 : (double) shared / union;
+	}
+
+	/**
+	 * Estimates the share of the k-mers of this sketch that are also in
+	 * another, from the minimizers. Used to find sequences contained in
+	 * others, such as plasmid fragments.
+	 *
+	 * @param other
+	 * 			The other sketch
+	 * @return
+	 * 			The estimate, between 0 and 1
+	 */
+	public double containment(SequenceSketch other) {
+
+		checkComparable(other);
+		if (minimizers.length == 0) {
+			return 0;
+		}
+		int i = 0;
+		int j = 0;
+		int shared = 0;
+		while (i < minimizers.length && j < other.minimizers.length) {
+
+			if (minimizers[i] == other.minimizers[j]) {
+				shared++;
+				i++;
+				j++;
+			} else if (minimizers[i] < other.minimizers[j]) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return (double) shared / minimizers.length;
+	}
+
+	/**
+	 * Estimates the mutation distance of two sketches (the Mash
+	 * distance) from their Jaccard index
+	 *
+	 * @param other
+	 * 			The other sketch
+	 * @return
+	 * 			The distance, 0 for equal k-mer sets and
+	 * 			<code>Double.POSITIVE_INFINITY</code> for none shared
+	 */
+	public double distance(SequenceSketch other) {
+
+		double j = jaccard(other);
+		if (j == 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return -Math.log(2 * j / (1 + j)) / kmerSize;
+	}
+
+	/**
+	 * Checks that another sketch can be compared with this one
+	 *
+	 * @param other
+	 * 			The other sketch
+	 */
+	private void checkComparable(SequenceSketch other) {
+
+		if (other.kmerSize != kmerSize || other.sketchSize != sketchSize) {
+			throw new IllegalArgumentException(
+					"Sketches of different k-mer or sketch size");
+		}
+	}
+
+	/**
+	 * Gets if this sketch was made with parameters
+	 *
+	 * @param kmerSize
+	 * 			Residues per k-mer
+	 * @param sketchSize
+	 * 			Hashes kept
+	 * @param window
+	 * 			K-mers per minimizer window
+	 * @return
+	 * 			If the parameters are those of the sketch
+	 */
+	public boolean hasParameters(int kmerSize, int sketchSize, int window) {
+		return this.kmerSize == kmerSize && this.sketchSize == sketchSize &&
+			this.window == window;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+
+		if (!(obj instanceof SequenceSketch)) {
+			return false;
+		}
+		SequenceSketch other = (SequenceSketch) obj;
+		return hasParameters(other.kmerSize, other.sketchSize, other.window) &&
+			Arrays.equals(bottom, other.bottom) &&
+			Arrays.equals(signature, other.signature) &&
+			Arrays.equals(minimizers, other.minimizers);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(signature);
+	}
+
+	/**
+	 * Mixes the bits of a value (the splitmix64 finalizer)
+	 *
+	 * @param x
+	 * 			The value
+	 * @return
+	 * 			The hash
+	 */
+	static long mix(long x) {
+
+		x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+		x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+		return x ^ (x >>> 31);
+	}
+
+	/**
+	 * Builder collects the hashes of the k-mers in order
+	 */
+	private static final class Builder {
+
+		/** Hashes kept */
+		private final int sketchSize;
+
+		/** K-mers per minimizer window */
+		private final int window;
+
+		/** Hashes below the threshold, sorted and cut when full */
+		private final long[] smallest;
+
+		/** Number of hashes in <code>smallest</code> */
+		private int smallestCount = 0;
+
+		/** Hashes from here up are not among the smallest */
+		private long threshold = EMPTY;
+
+		/** Smallest hash of each bin */
+		private final long[] bins;
+
+		/** Hashes of the window, ascending from the head */
+		private final long[] queueHash;
+
+		/** K-mer numbers of the window queue */
+		private final int[] queueKmer;
+
+		/** First of the window queue */
+		private int queueHead = 0;
+
+		/** Length of the window queue */
+		private int queueLength = 0;
+
+		/** Hashes of the first k-mers, to close circular windows */
+		private final long[] first;
+
+		/** Number of k-mers added */
+		private int kmers = 0;
+
+		/** Minimizers picked, with repeats */
+		private long[] picked = new long[16];
+
+		/** Number of minimizers picked */
+		private int pickedCount = 0;
+
+		/**
+		 * Constructor
+		 *
+		 * @param sketchSize
+		 * 			Hashes kept
+		 * @param window
+		 * 			K-mers per minimizer window
+		 */
+		Builder(int sketchSize, int window) {
+
+			this.sketchSize = sketchSize;
+			this.window = window;
+			smallest = new long[2 * sketchSize];
+			bins = new long[sketchSize];
+			Arrays.fill(bins, EMPTY);
+			queueHash = new long[window];
+			queueKmer = new int[window];
+			first = new long[window - 1];
+		}
+
+		/**
+		 * Adds the hash of the next k-mer
+		 *
+		 * @param hash
+		 * 			The hash, <code>EMPTY</code> for k-mers that are left out
+		 */
+		void add(long hash) {
+
+			if (kmers < first.length) {
+				first[kmers] = hash;
+			}
+			if (hash != EMPTY) {
+				addToBottom(hash);
+				int bin = (int) (((hash >>> 32) * sketchSize) >>> 32);
+				bins[bin] = Math.min(bins[bin], hash);
+			}
+			addToWindow(hash);
+		}
+
+		/**
+		 * Keeps a hash if it may be among the smallest
+		 *
+		 * @param hash
+		 * 			The hash
+		 */
+		private void addToBottom(long hash) {
+
+			if (hash >= threshold) {
+				return;
+			}
+			smallest[smallestCount++] = hash;
+			if (smallestCount == smallest.length) {
+				cutSmallest();
+			}
+		}
+
+		/**
+		 * Sorts the kept hashes and cuts them to the distinct smallest,
+		 * lowering the threshold once there are enough
+		 */
+		private void cutSmallest() {
+
+			Arrays.sort(smallest, 0, smallestCount);
+			int distinct = 0;
+			for (int i = 0; i < smallestCount && distinct < sketchSize; i++) {
+				if (distinct == 0 || smallest[distinct - 1] != smallest[i]) {
+					smallest[distinct++] = smallest[i];
+				}
+			}
+			smallestCount = distinct;
+			if (distinct == sketchSize) {
+				threshold = smallest[distinct - 1];
+			}
+		}
+
+		/**
+		 * Moves the minimizer window on by a k-mer
+		 *
+		 * @param hash
+		 * 			Hash of the k-mer
+		 */
+		private void addToWindow(long hash) {
+
+			int kmer = kmers++;
+			if (queueLength > 0 && queueKmer[queueHead] <= kmer - window) {
+				queueHead = (queueHead + 1) % window;
+				queueLength--;
+			}
+			if (hash != EMPTY) {
+
+				while (queueLength > 0 &&
+						queueHash[(queueHead + queueLength - 1) % window] >= hash) {
+					queueLength--;
+				}
+				int tail = (queueHead + queueLength) % window;
+				queueHash[tail] = hash;
+				queueKmer[tail] = kmer;
+				queueLength++;
+			}
+			if (kmer >= window - 1 && queueLength > 0) {
+				pick(queueHash[queueHead]);
+			}
+		}
+
+		/**
+		 * Records a minimizer
+		 *
+		 * @param hash
+		 * 			The hash
+		 */
+		private void pick(long hash) {
+
+			if (pickedCount > 0 && picked[pickedCount - 1] == hash) {
+				return;
+			}
+			if (pickedCount == picked.length) {
+				picked = Arrays.copyOf(picked, 2 * picked.length);
+			}
+			picked[pickedCount++] = hash;
+		}
+
+		/**
+		 * Makes the sketch
+		 *
+		 * @param kmerSize
+		 * 			Residues per k-mer
+		 * @param residueCount
+		 * 			Number of residues
+		 * @param circular
+		 * 			If the k-mers went around the origin
+		 * @return
+		 * 			The sketch
+		 */
+		SequenceSketch build(int kmerSize, int residueCount, boolean circular) {
+
+			int count = kmers;
+			if (circular) {
+
+				//Windows across the origin
+				for (int i = 0; i < Math.min(first.length, count); i++) {
+					addToWindow(first[i]);
+				}
+			}
+			if (pickedCount == 0 && queueLength > 0) {
+
+				//Too short for a whole window
+				pick(queueHash[queueHead]);
+			}
+
+			cutSmallest();
+			long[] bottom = Arrays.copyOf(smallest, smallestCount);
+
+			long[] minimizers = Arrays.copyOf(picked, pickedCount);
+			Arrays.sort(minimizers);
+			int distinct = 0;
+			for (int i = 0; i < minimizers.length; i++) {
+				if (distinct == 0 || minimizers[distinct - 1] != minimizers[i]) {
+					minimizers[distinct++] = minimizers[i];
+				}
+			}
+
+			return new SequenceSketch(kmerSize, sketchSize, window,
+					residueCount, circular, bottom, densify(bins),
+					Arrays.copyOf(minimizers, distinct));
+		}
+
+		/**
+		 * Fills empty bins from the next bin with a hash, mixed with the
+		 * distance to it, so that signatures stay comparable bin by bin
+		 *
+		 * @param bins
+		 * 			Smallest hash of each bin
+		 * @return
+		 * 			The bins
+		 */
+		private static long[] densify(long[] bins) {
+
+			long[] filled = bins.clone();
+			int size = bins.length;
+			for (int i = 0; i < size; i++) {
+
+				if (bins[i] != EMPTY) {
+					continue;
+				}
+				for (int d = 1; d < size; d++) {
+
+					long next = bins[(i + d) % size];
+					if (next != EMPTY) {
+						filled[i] = mix(next + d);
+						break;
+					}
+				}
+			}
+			return filled;
+		}
+	}
+}
@@ -0,0 +1,389 @@
+
+package sequences;
+
+import point.Point;
+import topologies.Topology;
+
+/**
+ * SequenceView reads a part of a sequence, or its minus strand, or the
+ * sequence from another origin, without copying residues and without
+ * becoming part of the model.
+ *
+ * A view is a stretch of consecutive residues of its sequence read
+ * forwards, or backwards and complemented. Views of views are made
+ * from the sequence directly, so however they are combined a view
+ * holds the same few numbers. The residues are read from the sequence
+ * when asked for.
+ *
+ * Positions on a view follow the same rules as on a sequence (odd
+ * positions are <i>On</i> residues, even positions <i>inbetween</i>)
+ * and map to positions of the sequence, so points made through the
+ * view annotate the sequence. Reading backwards, the position between
+ * two residues maps to the position between the same two residues on
+ * the sequence.
+ *
+ * A view is only valid until the residues or shape of its sequence
+ * change; using it after that throws an
+ * <code>IllegalStateException</code>.
+ */
+public class SequenceView implements ResidueSource {
+
+	/**
+	 * ViewStore reads the residues of the view from the sequence's store
+	 */
+	private class ViewStore extends AbstractResidueStore {
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+
+			checkCurrent();
+			checkIndex(index);
+			char c = parent.getResidueStore().charAt(getParentIndex(index));
+			return reversed ? NucleotideCode.complement(c) : c;
+		}
+
+		@Override
+		public int codeAt(int index) {
+
+			checkCurrent();
+			checkIndex(index);
+			int code = parent.getResidueStore().codeAt(getParentIndex(index));
+			return reversed && code >= 0 ? NucleotideCode.complement(code) :
+				code;
+		}
+
+		@Override
+		public void countCodes(int from, int to, int[] counts) {
+
+			checkCurrent();
+			checkRange(from, to);
+			if (from == to) {
+				return;
+			}
+
+			ResidueStore store = parent.getResidueStore();
+			int n = store.length();
+			int first = getParentIndex(reversed ? to - 1 : from);
+			int count = to - from;
+			int[] found = reversed ? new int[5] : counts;
+			if (first + count <= n) {
+				store.countCodes(first, first + count, found);
+			} else {
+				store.countCodes(first, n, found);
+				store.countCodes(0, first + count - n, found);
+			}
+
+			if (reversed) {
+				for (int code = 0; code < 4; code++) {
+					counts[code] += found[NucleotideCode.complement(code)];
+				}
+				counts[4] += found[4];
+			}
+		}
+	}
+
+	/** The sequence */
+	private final Sequence parent;
+
+	/** Residue index on the sequence of the first residue */
+	private final int start;
+
+	/** Number of residues */
+	private final int length;
+
+	/** If read backwards and complemented */
+	private final boolean reversed;
+
+	/** If the view wraps over its origin */
+	private final boolean circular;
+
+	/** Revision of the sequence the view was made at */
+	private final int revision;
+
+	/** The residues */
+	private final ViewStore store = new ViewStore();
+
+	/**
+	 * Constructor
+	 *
+	 * @param parent
+	 * 			The sequence
+	 * @param start
+	 * 			Residue index on the sequence of the first residue
+	 * @param length
+	 * 			Number of residues
+	 * @param reversed
+	 * 			If read backwards and complemented
+	 * @param circular
+	 * 			If the view wraps over its origin
+	 */
+	SequenceView(Sequence parent, int start, int length, boolean reversed,
+			boolean circular) {
+
+		this.parent = parent;
+		this.start = start;
+		this.length = length;
+		this.reversed = reversed;
+		this.circular = circular;
+		this.revision = parent.getRevision();
+	}
+
+	/**
+	 * Gets the sequence viewed
+	 *
+	 * @return
+	 * 			The sequence
+	 */
+	public Sequence getParent() {
+		return parent;
+	}
+
+	/**
+	 * Checks if the view reads the minus strand of the sequence
+	 *
+	 * @return
+	 * 			If read backwards and complemented
+	 */
+	public boolean isReversed() {
+		return reversed;
+	}
+
+	@Override
+	public Sequence.SequenceType getSequenceType() {
+		return parent.getSequenceType();
+	}
+
+	@Override
+	public ResidueStore getResidueStore() {
+		checkCurrent();
+		return store;
+	}
+
+	@Override
+	public int getSize() {
+		return length * 2 + (circular ? 0 : 1);
+	}
+
+	@Override
+	public boolean getAllowsWrap() {
+		return circular;
+	}
+
+	/**
+	 * Gets the reverse complement of the view
+	 *
+	 * @return
+	 * 			A view reading the same residues backwards and
+	 * 			complemented
+	 */
+	public SequenceView reverseComplement() {
+
+		checkCurrent();
+		if (!parent.getSequenceType().equals(
+					Sequence.SequenceType.TYPE_NUCLEOTIDE)) {
+			throw new IllegalStateException(
+					"Only nucleotide sequences have complements");
+		}
+		int first = length == 0 ? start : getParentIndex(length - 1);
+		return new SequenceView(parent, first, length, !reversed, circular);
+	}
+
+	/**
+	 * Gets a part of the view.
+	 *
+	 * Like <code>Sequence.replace</code> the part is the residues at
+	 * the <i>On</i> positions of a range. On circular views
+	 * <code>to</code> may be less than <code>from</code> for a part
+	 * spanning the origin. The part is always linear.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @return
+	 * 			The view of the part
+	 */
+	public SequenceView subsequence(int from, int to) {
+
+		checkCurrent();
+		int size = getSize();
+		if (circular && size > 0) {
+			from = Math.floorMod(from, size);
+			to = Math.floorMod(to, size);
+			if (to < from) {
+				to += size;
+			}
+		}
+		if (from > to || from < 0 || (!circular && to >= size)) {
+			throw new IllegalArgumentException(
+					"Invalid range " + from + " to " + to);
+		}
+
+		int first = from / 2;
+		int count = (to + 1) / 2 - first;
+		return new SequenceView(parent, length == 0 ? start :
+				getParentIndex(first % length), count, reversed, false);
+	}
+
+	/**
+	 * Gets the view read from another origin
+	 *
+	 * @param pos
+	 * 			An <i>inbetween</i> (even) position that becomes the
+	 * 			origin
+	 * @return
+	 * 			The rotated view
+	 */
+	public SequenceView rotated(int pos) {
+
+		checkCurrent();
+		if (!circular) {
+			throw new IllegalStateException(
+					"Only circular sequences can be rotated");
+		} else if (pos % 2 != 0) {
+			throw new IllegalArgumentException(
+					"Origins must be at inbetween positions, invalid " + pos);
+		}
+		int first = length == 0 ? 0 : Math.floorMod(pos / 2, length);
+		return new SequenceView(parent, length == 0 ? start :
+				getParentIndex(first), length, reversed, true);
+	}
+
+	/**
+	 * Maps a position of the view to the sequence
+	 *
+	 * @param pos
+	 * 			Position on the view, any position on circular views
+	 * @return
+	 * 			The position on the sequence
+	 */
+	public int toParentPosition(int pos) {
+
+		checkCurrent();
+		int size = getSize();
+		if (circular && size > 0) {
+			pos = Math.floorMod(pos, size);
+		} else if (pos < 0 || pos >= size) {
+			throw new IllegalArgumentException(
+					"Position " + pos + " is outside the view");
+		}
+
+		int mapped = reversed ? 2 * start + 2 - pos : 2 * start + pos;
+		return parent.getAllowsWrap() && parent.getSize() > 0 ?
+			Math.floorMod(mapped, parent.getSize()) : mapped;
+	}
+
+	/**
+	 * Maps a position of the sequence to the view
+	 *
+	 * @param pos
+	 * 			Position on the sequence
+	 * @return
+	 * 			The position on the view, -1 if the view does not have it
+	 */
+	public int toViewPosition(int pos) {
+
+		checkCurrent();
+		int mapped = reversed ? 2 * start + 2 - pos : pos - 2 * start;
+		if (parent.getAllowsWrap() && parent.getSize() > 0) {
+			mapped = Math.floorMod(mapped, parent.getSize());
+		}
+		return mapped >= 0 && mapped < getSize() ? mapped : -1;
+	}
+
+	/**
+	 * Makes a point on the sequence at a position of the view. As with
+	 * the point constructor, the point still has to be added to the
+	 * topology.
+	 *
+	 * @param top
+	 * 			The topology that uses the point
+	 * @param pos
+	 * 			Position on the view
+	 * @return
+	 * 			The point, annotating the sequence
+	 */
+	public Point createPoint(Topology top, int pos) {
+		return new Point(parent, top, toParentPosition(pos));
+	}
+
+	/**
+	 * Adds the points of a range of the view to a topology, in the
+	 * order of the sequence so that the topology covers the same
+	 * residues there also when the view is reversed.
+	 *
+	 * @param top
+	 * 			The topology, such as a <code>Segment</code>
+	 * @param from
+	 * 			First position on the view
+	 * @param to
+	 * 			Last position on the view
+	 * @return
+	 * 			If both points were added
+	 */
+	public boolean addRange(Topology top, int from, int to) {
+
+		Point first = createPoint(top, reversed ? to : from);
+		Point last = createPoint(top, reversed ? from : to);
+		return top.addPoint(first) & top.addPoint(last);
+	}
+
+	/**
+	 * Returns a walker producing the slices of a walk on the view as
+	 * 2-bit encoded numbers
+	 *
+	 * @param pos
+	 * 			Starting position, must be <i>On</i> (odd)
+	 * @param stepSize
+	 * 			Distance between slice starts, even and positive
+	 * @param sliceSize
+	 * 			Residues per slice
+	 * @param allowIncomplete
+	 * 			If slices cut short by the end are part of the walk
+	 * @return
+	 * 			The walker
+	 */
+	public KmerWalker getKmerWalker(int pos, int stepSize, int sliceSize,
+			boolean allowIncomplete) {
+		return new KmerWalker(this, pos, stepSize, sliceSize, allowIncomplete);
+	}
+
+	@Override
+	public String toString() {
+		return getResidueStore().toString();
+	}
+
+	/**
+	 * Gets the residue index on the sequence of a residue of the view
+	 *
+	 * @param index
+	 * 			Residue index on the view
+	 * @return
+	 * 			Residue index on the sequence
+	 */
+	private int getParentIndex(int index) {
+
+		int i = reversed ? start - index : start + index;
+		int n = parent.getResidueStore().length();
+		if (i < 0) {
+			i += n;
+		} else if (i >= n) {
+			i -= n;
+		}
+		return i;
+	}
+
+	/** Makes sure the sequence did not change since the view was made */
+	private void checkCurrent() {
+
+		if (parent.getRevision() != revision) {
+			throw new IllegalStateException(
+					"The sequence changed since the view was made");
+		}
+	}
+}
@@ -0,0 +1,378 @@
+
+package sequences;
+
+import java.util.*;
+
+import collector.Model;
+import modelobject.ModelObject;
+
+/**
+ * SketchIndex finds sequences similar to a sequence without comparing
+ * it to every sequence, by locality sensitive hashing of sketch
+ * signatures.
+ *
+ * The signature of each sketch is cut into <code>bands</code> bands of
+ * <code>rows</code> bins, and the sequence is put in one bucket per
+ * band by the hash of the band. Sequences sharing a bucket are
+ * candidates, which are then compared by their sketches. Two sequences
+ * share a band with probability <code>1 - (1 - J^rows)^bands</code>
+ * for a Jaccard index <code>J</code>, so the steep rise of this curve,
+ * near <code>(1 / bands)^(1 / rows)</code>, sets how similar sequences
+ * must be to be found; more rows make it steeper and raise it, more
+ * bands lower it.
+ *
+ * The index keeps the sketch each sequence had when it was added, so
+ * sequences changed afterwards should be added again. Only nucleotide
+ * sequences with at least one k-mer are indexed. An index can be used
+ * by several threads.
+ */
+public class SketchIndex {
+
+	/** Default number of bands */
+	public static final int DEFAULT_BANDS = 32;
+
+	/** Default number of bins per band */
+	public static final int DEFAULT_ROWS = 4;
+
+	/** Number of bands */
+	private final int bands;
+
+	/** Bins per band */
+	private final int rows;
+
+	/** Residues per k-mer of the sketches */
+	private final int kmerSize;
+
+	/** Hashes kept by the sketches */
+	private final int sketchSize;
+
+	/** K-mers per minimizer window of the sketches */
+	private final int window;
+
+	/** Buckets of each band by band hash */
+	private final List<Map<Long, List<Sequence>>> buckets;
+
+	/** Sketches of the indexed sequences */
+	private final Map<Sequence, SequenceSketch> sketches =
+		new LinkedHashMap<Sequence, SequenceSketch>();
+
+	/** Constructor with default sketches and bands */
+	public SketchIndex() {
+		this(DEFAULT_BANDS, DEFAULT_ROWS);
+	}
+
+	/**
+	 * Constructor with default sketches
+	 *
+	 * @param bands
+	 * 			Number of bands
+	 * @param rows
+	 * 			Bins per band
+	 */
+	public SketchIndex(int bands, int rows) {
+		this(bands, rows, SequenceSketch.DEFAULT_KMER_SIZE,
+				SequenceSketch.DEFAULT_SKETCH_SIZE, SequenceSketch.DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param bands
+	 * 			Number of bands
+	 * @param rows
+	 * 			Bins per band
+	 * @param kmerSize
+	 * 			Residues per k-mer of the sketches
+	 * @param sketchSize
+	 * 			Hashes kept by the sketches, at least
+	 * 			<code>bands * rows</code>
+	 * @param window
+	 * 			K-mers per minimizer window of the sketches
+	 */
+	public SketchIndex(int bands, int rows, int kmerSize, int sketchSize,
+			int window) {
+
+		if (bands < 1 || rows < 1 || bands * rows > sketchSize) {
+			throw new IllegalArgumentException(
+					"Bands do not fit in the sketch size");
+		}
+		this.bands = bands;
+		this.rows = rows;
+		this.kmerSize = kmerSize;
+		this.sketchSize = sketchSize;
+		this.window = window;
+		buckets = new ArrayList<Map<Long, List<Sequence>>>(bands);
+		for (int b = 0; b < bands; b++) {
+			buckets.add(new HashMap<Long, List<Sequence>>());
+		}
+	}
+
+	/**
+	 * Gets the number of indexed sequences
+	 *
+	 * @return
+	 * 			The number of sequences
+	 */
+	public synchronized int size() {
+		return sketches.size();
+	}
+
+	/**
+	 * Adds the nucleotide sequences of a model
+	 *
+	 * @param model
+	 * 			The model
+	 */
+	public void add(Model model) {
+
+		for (Iterator<ModelObject> it = model.getModelObjects(); it.hasNext(); ) {
+
+			ModelObject obj = it.next();
+			if (obj instanceof Sequence && ((Sequence) obj).getSequenceType()
+					.equals(Sequence.SequenceType.TYPE_NUCLEOTIDE)) {
+				add((Sequence) obj);
+			}
+		}
+	}
+
+	/**
+	 * Adds a sequence, or updates it with its present sketch
+	 *
+	 * @param seq
+	 * 			The nucleotide sequence
+	 * @return
+	 * 			If the sequence was indexed, false if it has no k-mers
+	 */
+	public boolean add(Sequence seq) {
+
+		SequenceSketch sketch = seq.getSketch(kmerSize, sketchSize, window);
+		synchronized (this) {
+
+			remove(seq);
+			if (sketch.isEmpty()) {
+				return false;
+			}
+			sketches.put(seq, sketch);
+			for (int b = 0; b < bands; b++) {
+
+				Long key = Long.valueOf(getBandHash(sketch, b));
+				List<Sequence> bucket = buckets.get(b).get(key);
+				if (bucket == null) {
+					bucket = new ArrayList<Sequence>(1);
+					buckets.get(b).put(key, bucket);
+				}
+				bucket.add(seq);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Removes a sequence
+	 *
+	 * @param seq
+	 * 			The sequence
+	 * @return
+	 * 			If it was indexed
+	 */
+	public synchronized boolean remove(Sequence seq) {
+
+		SequenceSketch sketch = sketches.remove(seq);
+		if (sketch == null) {
+			return false;
+		}
+		for (int b = 0; b < bands; b++) {
+
+			Long key = Long.valueOf(getBandHash(sketch, b));
+			List<Sequence> bucket = buckets.get(b).get(key);
+			bucket.remove(seq);
+			if (bucket.isEmpty()) {
+				buckets.get(b).remove(key);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the sequences sharing a band with a sketch
+	 *
+	 * @param sketch
+	 * 			The sketch, made with the parameters of the index
+	 * @return
+	 * 			The candidates, not yet compared
+	 */
+	public synchronized Set<Sequence> getCandidates(SequenceSketch sketch) {
+
+		checkSketch(sketch);
+		Set<Sequence> candidates = new LinkedHashSet<Sequence>();
+		if (sketch.isEmpty()) {
+			return candidates;
+		}
+		for (int b = 0; b < bands; b++) {
+
+			List<Sequence> bucket = buckets.get(b).get(
+					Long.valueOf(getBandHash(sketch, b)));
+			if (bucket != null) {
+				candidates.addAll(bucket);
+			}
+		}
+		return candidates;
+	}
+
+	/**
+	 * Finds the indexed sequences similar to a sequence
+	 *
+	 * @param seq
+	 * 			The nucleotide sequence, left out of the result
+	 * @param minJaccard
+	 * 			Smallest estimated Jaccard index of the k-mers
+	 * @return
+	 * 			The similar sequences, most similar first
+	 */
+	public List<Sequence> findSimilar(Sequence seq, double minJaccard) {
+
+		List<Sequence> found = findSimilar(
+				seq.getSketch(kmerSize, sketchSize, window), minJaccard);
+		found.remove(seq);
+		return found;
+	}
+
+	/**
+	 * Finds the indexed sequences similar to a sketch
+	 *
+	 * @param sketch
+	 * 			The sketch, made with the parameters of the index
+	 * @param minJaccard
+	 * 			Smallest estimated Jaccard index of the k-mers
+	 * @return
+	 * 			The similar sequences, most similar first
+	 */
+	public synchronized List<Sequence> findSimilar(SequenceSketch sketch,
+			double minJaccard) {
+
+		final Map<Sequence, Double> similar = new HashMap<Sequence, Double>();
+		for (Sequence candidate: getCandidates(sketch)) {
+
+			double j = sketch.jaccard(sketches.get(candidate));
+			if (j >= minJaccard) {
+				similar.put(candidate, Double.valueOf(j));
+			}
+		}
+
+		List<Sequence> found = new ArrayList<Sequence>(similar.keySet());
+		Collections.sort(found, new Comparator<Sequence>() {
+			@Override
+			public int compare(Sequence a, Sequence b) {
+				return similar.get(b).compareTo(similar.get(a));
+			}
+		});
+		return found;
+	}
+
+	/**
+	 * Groups the indexed sequences into clusters of similar sequences.
+	 * Sequences are in the same cluster if a chain of sequences, each
+	 * similar to the next, joins them; copies end up together, so the
+	 * first of each cluster can be kept when deduplicating.
+	 *
+	 * @param minJaccard
+	 * 			Smallest estimated Jaccard index of similar sequences
+	 * @return
+	 * 			The clusters, in the order their first sequences were
+	 * 			added, singletons included
+	 */
+	public synchronized List<List<Sequence>> cluster(double minJaccard) {
+
+		List<Sequence> order = new ArrayList<Sequence>(sketches.keySet());
+		Map<Sequence, Integer> number = new HashMap<Sequence, Integer>();
+		for (int i = 0; i < order.size(); i++) {
+			number.put(order.get(i), Integer.valueOf(i));
+		}
+		int[] parent = new int[order.size()];
+		for (int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+		}
+
+		for (int i = 0; i < order.size(); i++) {
+
+			SequenceSketch sketch = sketches.get(order.get(i));
+			for (Sequence candidate: getCandidates(sketch)) {
+
+				int j = number.get(candidate).intValue();
+				if (j <= i || find(parent, i) == find(parent, j)) {
+					continue;
+				}
+				if (sketch.jaccard(sketches.get(candidate)) >= minJaccard) {
+					parent[find(parent, j)] = find(parent, i);
+				}
+			}
+		}
+
+		Map<Integer, List<Sequence>> clusters =
+			new LinkedHashMap<Integer, List<Sequence>>();
+		for (int i = 0; i < order.size(); i++) {
+
+			Integer root = Integer.valueOf(find(parent, i));
+			List<Sequence> cluster = clusters.get(root);
+			if (cluster == null) {
+				cluster = new ArrayList<Sequence>();
+				clusters.put(root, cluster);
+			}
+			cluster.add(order.get(i));
+		}
+		return new ArrayList<List<Sequence>>(clusters.values());
+	}
+
+	/**
+	 * Finds the root of a set, halving the path on the way
+	 *
+	 * @param parent
+	 * 			Parent of each element
+	 * @param i
+	 * 			The element
+	 * @return
+	 * 			The root
+	 */
+	private static int find(int[] parent, int i) {
+
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Checks that a sketch can be looked up
+	 *
+	 * @param sketch
+	 * 			The sketch
+	 */
+	private void checkSketch(SequenceSketch sketch) {
+
+		if (sketch.getKmerSize() != kmerSize ||
+				sketch.getSketchSize() != sketchSize) {
+			throw new IllegalArgumentException(
+					"Sketch not made with the parameters of the index");
+		}
+	}
+
+	/**
+	 * Hashes a band of a signature
+	 *
+	 * @param sketch
+	 * 			The sketch
+	 * @param band
+	 * 			The band
+	 * @return
+	 * 			The hash
+	 */
+	private long getBandHash(SequenceSketch sketch, int band) {
+
+		long hash = band;
+		for (int r = band * rows; r < (band + 1) * rows; r++) {
+			hash = SequenceSketch.mix(hash ^ sketch.getSignature(r));
+		}
+		return hash;
+	}
+}
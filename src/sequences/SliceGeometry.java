@@ -0,0 +1,151 @@
+
+package sequences;
+
+/**
+ * SliceGeometry holds the rules of walking a sequence in slices.
+ *
+ * A walk starts at an <i>On</i> position and the slice number
+ * <code>i</code> starts <code>i * step</code> further along (in model
+ * units, so a step of two is the next residue). Each slice holds up to
+ * <code>sliceSize</code> consecutive residues.
+ *
+ * On a linear sequence the walk ends at the end of the sequence. On a
+ * circular sequence slices wrap over the origin but the walk never
+ * passes its own starting residue, so it covers each residue once.
+ * Slices cut short by either end are incomplete and only part of the
+ * walk if incomplete slices are allowed; they are always the last ones.
+ */
+final class SliceGeometry {
+
+	/** The residues walked */
+	final ResidueStore residues;
+
+	/** If the walk wraps over the origin */
+	final boolean wraps;
+
+	/** Residue index of the first slice */
+	final int startIndex;
+
+	/** Residues between slice starts */
+	final int stepResidues;
+
+	/** Residues per complete slice */
+	final int sliceSize;
+
+	/** Residues from the start until the walk ends */
+	final int available;
+
+	/** Number of slices in the walk */
+	final int count;
+
+	/**
+	 * Constructor, validating the walk parameters
+	 *
+	 * @param seq
+	 * 			The sequence or view
+	 * @param pos
+	 * 			Starting position, must be <i>On</i> (odd)
+	 * @param step
+	 * 			Distance between slice starts, even and positive
+	 * @param sliceSize
+	 * 			Residues per slice, positive
+	 * @param allowIncomplete
+	 * 			If slices cut short by the end are part of the walk
+	 */
+	SliceGeometry(ResidueSource seq, int pos, int step, int sliceSize,
+			boolean allowIncomplete) {
+
+		if (pos % 2 == 0) {
+			throw new IllegalArgumentException(
+					"Positions must be on (odd), not between (even)");
+		}
+		if (step <= 0 || step % 2 != 0) {
+			throw new IllegalArgumentException(
+					"Steps must be even positive values");
+		}
+		if (sliceSize < 1) {
+			throw new IllegalArgumentException("Slices must be positive");
+		}
+
+		residues = seq.getResidueStore();
+		wraps = seq.getAllowsWrap();
+		stepResidues = step / 2;
+		this.sliceSize = sliceSize;
+
+		int length = residues.length();
+		int index = (pos - 1) / 2;
+
+		if (wraps) {
+			startIndex = length == 0 ? 0 : Math.floorMod(index, length);
+			available = length;
+		} else {
+			if (pos < 0 || index > length) {
+				throw new IllegalArgumentException(
+						"Position " + pos + " is outside the sequence");
+			}
+			startIndex = index;
+			available = length - index;
+		}
+
+		if (allowIncomplete) {
+			count = (available + stepResidues - 1) / stepResidues;
+		} else if (available >= sliceSize) {
+			count = (available - sliceSize) / stepResidues + 1;
+		} else {
+			count = 0;
+		}
+	}
+
+	/**
+	 * Gets how far into the walk a slice starts
+	 *
+	 * @param slice
+	 * 			The slice number
+	 * @return
+	 * 			Residues from the start of the walk
+	 */
+	int getOffset(int slice) {
+		return slice * stepResidues;
+	}
+
+	/**
+	 * Gets the number of residues in a slice
+	 *
+	 * @param slice
+	 * 			The slice number
+	 * @return
+	 * 			The slice length
+	 */
+	int getLength(int slice) {
+		return Math.min(sliceSize, available - slice * stepResidues);
+	}
+
+	/**
+	 * Gets the residue index of a walk offset
+	 *
+	 * @param offset
+	 * 			Residues from the start of the walk
+	 * @return
+	 * 			The residue index
+	 */
+	int getIndex(int offset) {
+
+		int index = startIndex + offset;
+		if (wraps && index >= residues.length()) {
+			index -= residues.length();
+		}
+		return index;
+	}
+
+	/**
+	 * Gets the model-space position where a slice starts
+	 *
+	 * @param slice
+	 * 			The slice number
+	 * @return
+	 * 			The <i>On</i> position of the first residue
+	 */
+	int getPos(int slice) {
+		return getIndex(getOffset(slice)) * 2 + 1;
+	}
+}
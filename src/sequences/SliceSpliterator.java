@@ -0,0 +1,238 @@
+
+package sequences;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+
+/**
+ * SliceSpliterator splits the slices of a walk for streams.
+ *
+ * The slices of a walk are numbered (see <code>SliceGeometry</code>),
+ * so a spliterator is a range of slice numbers and splitting it halves
+ * the range. Every part starts at a slice of the walk and the parts
+ * together give exactly the slices of the walker, in the same order,
+ * also where a circular walk wraps and stops before its start.
+ *
+ * The slices come as text, or encoded like <code>KmerWalker</code> as
+ * <code>long</code>s or, for slices of at most
+ * <code>MAX_INT_SLICE_SIZE</code> residues, as <code>int</code>s.
+ */
+final class SliceSpliterator {
+
+	/** Largest slice size that can be encoded in an <code>int</code> */
+	static final int MAX_INT_SLICE_SIZE = 15;
+
+	/** Fewest slices in a part that is split further */
+	private static final int MIN_SPLIT = 1024;
+
+	/** Characteristics of all the spliterators */
+	private static final int CHARACTERISTICS = Spliterator.ORDERED |
+		Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.IMMUTABLE |
+		Spliterator.NONNULL;
+
+	/** Not to be instanciated */
+	private SliceSpliterator() {
+	}
+
+	/**
+	 * Range is a range of slices of a walk
+	 */
+	private abstract static class Range {
+
+		/** The walk */
+		final SliceGeometry geometry;
+
+		/** Next slice */
+		int from;
+
+		/** Slice after the last */
+		final int to;
+
+		Range(SliceGeometry geometry, int from, int to) {
+			this.geometry = geometry;
+			this.from = from;
+			this.to = to;
+		}
+
+		/**
+		 * Gets where to split, giving the slices before to a new part
+		 *
+		 * @return
+		 * 			The first slice left in this part, -1 for no split
+		 */
+		int split() {
+
+			if (to - from < 2 * MIN_SPLIT) {
+				return -1;
+			}
+			int mid = (from + to) >>> 1;
+			from = mid;
+			return mid;
+		}
+
+		public long estimateSize() {
+			return to - from;
+		}
+
+		public int characteristics() {
+			return CHARACTERISTICS;
+		}
+	}
+
+	/**
+	 * Slices gives the slices as text
+	 */
+	static final class Slices extends Range implements Spliterator<String> {
+
+		/** Builds the slices */
+		private final StringBuilder slice;
+
+		Slices(SliceGeometry geometry, int from, int to) {
+			super(geometry, from, to);
+			slice = new StringBuilder(geometry.sliceSize);
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super String> action) {
+
+			if (from >= to) {
+				return false;
+			}
+
+			int start = geometry.getOffset(from);
+			int end = start + geometry.getLength(from);
+			slice.setLength(0);
+			for (int offset = start; offset < end; offset++) {
+				slice.append(geometry.residues.charAt(geometry.getIndex(offset)));
+			}
+			from++;
+			action.accept(slice.toString());
+			return true;
+		}
+
+		@Override
+		public Spliterator<String> trySplit() {
+
+			int first = from;
+			int mid = split();
+			return mid < 0 ? null : new Slices(geometry, first, mid);
+		}
+	}
+
+	/**
+	 * Kmers gives the slices encoded as <code>long</code>s
+	 */
+	static final class Kmers extends Range implements Spliterator.OfLong {
+
+		/** Walker at the slice before the next, null until walked */
+		private KmerWalker walker;
+
+		Kmers(SliceGeometry geometry, int from, int to) {
+			super(geometry, from, to);
+		}
+
+		@Override
+		public boolean tryAdvance(LongConsumer action) {
+
+			if (from >= to) {
+				return false;
+			}
+			if (walker == null) {
+				walker = new KmerWalker(geometry, from);
+			}
+			walker.next();
+			from++;
+			action.accept(walker.getKmer());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(LongConsumer action) {
+
+			if (from >= to) {
+				return;
+			}
+			if (walker == null) {
+				walker = new KmerWalker(geometry, from);
+			}
+			for (; from < to; from++) {
+				walker.next();
+				action.accept(walker.getKmer());
+			}
+		}
+
+		@Override
+		public Spliterator.OfLong trySplit() {
+
+			int first = from;
+			int mid = split();
+			if (mid < 0) {
+				return null;
+			}
+			walker = null;
+			return new Kmers(geometry, first, mid);
+		}
+	}
+
+	/**
+	 * IntKmers gives the slices encoded as <code>int</code>s
+	 */
+	static final class IntKmers extends Range implements Spliterator.OfInt {
+
+		/** Walker at the slice before the next, null until walked */
+		private KmerWalker walker;
+
+		IntKmers(SliceGeometry geometry, int from, int to) {
+
+			super(geometry, from, to);
+			if (geometry.sliceSize > MAX_INT_SLICE_SIZE) {
+				throw new IllegalArgumentException(
+						"Slices can not be longer than " + MAX_INT_SLICE_SIZE);
+			}
+		}
+
+		@Override
+		public boolean tryAdvance(IntConsumer action) {
+
+			if (from >= to) {
+				return false;
+			}
+			if (walker == null) {
+				walker = new KmerWalker(geometry, from);
+			}
+			walker.next();
+			from++;
+			action.accept((int) walker.getKmer());
+			return true;
+		}
+
+		@Override
+		public void forEachRemaining(IntConsumer action) {
+
+			if (from >= to) {
+				return;
+			}
+			if (walker == null) {
+				walker = new KmerWalker(geometry, from);
+			}
+			for (; from < to; from++) {
+				walker.next();
+				action.accept((int) walker.getKmer());
+			}
+		}
+
+		@Override
+		public Spliterator.OfInt trySplit() {
+
+			int first = from;
+			int mid = split();
+			if (mid < 0) {
+				return null;
+			}
+			walker = null;
+			return new IntKmers(geometry, first, mid);
+		}
+	}
+}
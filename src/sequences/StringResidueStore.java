@@ -0,0 +1,38 @@
+
+package sequences;
+
+/**
+ * StringResidueStore keeps the residues as plain text.
+ *
+ * This is the store used for amino acids and sequences of unknown type.
+ */
+public class StringResidueStore extends AbstractResidueStore {
+
+	/** The actual sequence-text */
+	private final String residues;
+
+	/**
+	 * Constructor
+	 *
+	 * @param residues
+	 * 			The sequence-text
+	 */
+	public StringResidueStore(String residues) {
+		this.residues = residues;
+	}
+
+	@Override
+	public int length() {
+		return residues.length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return residues.charAt(index);
+	}
+
+	@Override
+	public String toString() {
+		return residues;
+	}
+}
@@ -0,0 +1,207 @@
+
+package sequences;
+
+import java.util.Arrays;
+
+/**
+ * SuffixArray sorts the suffixes of a text by induced sorting (SA-IS),
+ * in time and extra space linear in the length of the text.
+ */
+final class SuffixArray {
+
+	/** Not to be instanciated */
+	private SuffixArray() {
+	}
+
+	/**
+	 * Sorts the suffixes of a text.
+	 *
+	 * @param text
+	 * 			The text, symbols from 0 up to (but not including)
+	 * 			<code>alphabet</code>, ending with a 0 that occurs
+	 * 			nowhere else
+	 * @param alphabet
+	 * 			Number of symbols
+	 * @return
+	 * 			Start of each suffix, in sorted order
+	 */
+	static int[] build(int[] text, int alphabet) {
+
+		int[] sa = new int[text.length];
+		sais(text, sa, text.length, alphabet);
+		return sa;
+	}
+
+	/**
+	 * Sorts the suffixes of the first n symbols of a text
+	 *
+	 * @param s
+	 * 			The text
+	 * @param sa
+	 * 			Receives the suffix array
+	 * @param n
+	 * 			Length of the text
+	 * @param k
+	 * 			Number of symbols
+	 */
+	private static void sais(int[] s, int[] sa, int n, int k) {
+
+		//The lone sentinel is not a leftmost S-type suffix
+		if (n == 1) {
+			sa[0] = 0;
+			return;
+		}
+
+		//Type of each suffix, true for S (smaller than the next)
+		boolean[] t = new boolean[n];
+		t[n - 1] = true;
+		for (int i = n - 2; i >= 0; i--) {
+			t[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && t[i + 1]);
+		}
+
+		//Sort the LMS substrings
+		int[] bucket = new int[k];
+		getBuckets(s, bucket, n, k, true);
+		Arrays.fill(sa, 0, n, -1);
+		for (int i = 1; i < n; i++) {
+			if (isLms(t, i)) {
+				sa[--bucket[s[i]]] = i;
+			}
+		}
+		induce(s, sa, t, bucket, n, k);
+
+		//Gather the sorted LMS substrings and name them
+		int n1 = 0;
+		for (int i = 0; i < n; i++) {
+			if (isLms(t, sa[i])) {
+				sa[n1++] = sa[i];
+			}
+		}
+		Arrays.fill(sa, n1, n, -1);
+
+		int name = 0;
+		int prev = -1;
+		for (int i = 0; i < n1; i++) {
+
+			int pos = sa[i];
+			boolean diff = false;
+			for (int d = 0; ; d++) {
+
+				if (prev == -1 || s[pos + d] != s[prev + d] ||
+						t[pos + d] != t[prev + d]) {
+					diff = true;
+					break;
+				} else if (d > 0 && (isLms(t, pos + d) || isLms(t, prev + d))) {
+					break;
+				}
+			}
+			if (diff) {
+				name++;
+				prev = pos;
+			}
+			sa[n1 + pos / 2] = name - 1;
+		}
+		for (int i = n - 1, j = n - 1; i >= n1; i--) {
+			if (sa[i] >= 0) {
+				sa[j--] = sa[i];
+			}
+		}
+
+		//Sort the LMS suffixes, recursing if names are not unique
+		int[] s1 = Arrays.copyOfRange(sa, n - n1, n);
+		int[] sa1 = new int[n1];
+		if (name < n1) {
+			sais(s1, sa1, n1, name);
+		} else {
+			for (int i = 0; i < n1; i++) {
+				sa1[s1[i]] = i;
+			}
+		}
+
+		//Induce the suffix array from the sorted LMS suffixes
+		for (int i = 1, j = 0; i < n; i++) {
+			if (isLms(t, i)) {
+				s1[j++] = i;
+			}
+		}
+		for (int i = 0; i < n1; i++) {
+			sa1[i] = s1[sa1[i]];
+		}
+		getBuckets(s, bucket, n, k, true);
+		Arrays.fill(sa, 0, n, -1);
+		for (int i = n1 - 1; i >= 0; i--) {
+			int j = sa1[i];
+			sa[--bucket[s[j]]] = j;
+		}
+		induce(s, sa, t, bucket, n, k);
+	}
+
+	/**
+	 * Induces L-type suffixes from the left, then S-type from the right
+	 *
+	 * @param s
+	 * 			The text
+	 * @param sa
+	 * 			The partial suffix array
+	 * @param t
+	 * 			The suffix types
+	 * @param bucket
+	 * 			Bucket workspace
+	 * @param n
+	 * 			Length of the text
+	 * @param k
+	 * 			Number of symbols
+	 */
+	private static void induce(int[] s, int[] sa, boolean[] t, int[] bucket,
+			int n, int k) {
+
+		getBuckets(s, bucket, n, k, false);
+		for (int i = 0; i < n; i++) {
+			int j = sa[i] - 1;
+			if (j >= 0 && !t[j]) {
+				sa[bucket[s[j]]++] = j;
+			}
+		}
+
+		getBuckets(s, bucket, n, k, true);
+		for (int i = n - 1; i >= 0; i--) {
+			int j = sa[i] - 1;
+			if (j >= 0 && t[j]) {
+				sa[--bucket[s[j]]] = j;
+			}
+		}
+	}
+
+	/**
+	 * Computes where the bucket of each symbol starts or ends
+	 *
+	 * @param s
+	 * 			The text
+	 * @param bucket
+	 * 			Receives the bucket bounds
+	 * @param n
+	 * 			Length of the text
+	 * @param k
+	 * 			Number of symbols
+	 * @param ends
+	 * 			If ends (exclusive) rather than starts
+	 */
+	private static void getBuckets(int[] s, int[] bucket, int n, int k,
+			boolean ends) {
+
+		Arrays.fill(bucket, 0, k, 0);
+		for (int i = 0; i < n; i++) {
+			bucket[s[i]]++;
+		}
+		int sum = 0;
+		for (int c = 0; c < k; c++) {
+			sum += bucket[c];
+			bucket[c] = ends ? sum : sum - bucket[c];
+		}
+	}
+
+	/** Checks if a suffix is leftmost S-type */
+	private static boolean isLms(boolean[] t, int i) {
+		return i > 0 && t[i] && !t[i - 1];
+	}
+}
@@ -0,0 +1,775 @@
+
+package sequences;
+
+import java.util.*;
+
+import annotation.Annotation;
+import collector.Model;
+import collector.ModelEvent;
+import collector.ModelListener;
+import point.Point;
+import topologies.Topology;
+
+/**
+ * SummaryPyramid summarises a sequence and its annotations in bins at
+ * several levels of detail, for drawing them zoomed out without
+ * visiting every residue and point.
+ *
+ * Level 0 has bins of <code>BASE_BIN</code> residues and each level
+ * above has bins twice as wide, up to one bin for the whole sequence.
+ * For each bin there is the residue composition, the number of
+ * features overlapping it and their coverage, the number of residues
+ * of the bin covered summed over the features. Features are the
+ * topologies (and child topologies) of the annotations of the
+ * sequence; on circular sequences a two-point topology whose first
+ * point lies after its second spans the origin.
+ *
+ * Each level keeps its feature counts and coverage in Fenwick trees of
+ * differences, so a feature changing updates O(log bins) entries per
+ * level and a bin is read in O(log bins). The composition of a bin
+ * comes from the sequence's <code>Composition</code> in constant time.
+ * Bins are handed out as tiles of <code>TILE_BINS</code> bins, which
+ * are kept in a cache of the most recently used tiles.
+ *
+ * The pyramid listens to the model. Moved, added and removed points of
+ * known features update it incrementally when it is next queried;
+ * attached and detached annotations and changed residues make it
+ * rescan the annotations, as do topologies added to or removed from
+ * them. Cached tiles are dropped only where the summaries changed.
+ */
+public class SummaryPyramid {
+
+	/** Residues per bin of level 0 */
+	public static final int BASE_BIN = 64;
+
+	/** Bins per tile */
+	public static final int TILE_BINS = 256;
+
+	/** Default number of tiles cached */
+	public static final int DEFAULT_CACHE_TILES = 512;
+
+	/**
+	 * Tile is a run of consecutive bins of one level. Tiles are never
+	 * changed; a changed region gets new tiles.
+	 */
+	public static final class Tile {
+
+		/** The level */
+		private final int level;
+
+		/** First bin */
+		private final int firstBin;
+
+		/** Residues per bin */
+		private final int binWidth;
+
+		/** Residues of each bin, the last may be short */
+		private final int[] residues;
+
+		/** Counts of A, C, G, T and others, five per bin */
+		private final int[] composition;
+
+		/** Features overlapping each bin */
+		private final int[] featureCounts;
+
+		/** Residues covered by features in each bin */
+		private final long[] coverage;
+
+		/** Constructor */
+		private Tile(int level, int firstBin, int binWidth, int bins) {
+			this.level = level;
+			this.firstBin = firstBin;
+			this.binWidth = binWidth;
+			this.residues = new int[bins];
+			this.composition = new int[5 * bins];
+			this.featureCounts = new int[bins];
+			this.coverage = new long[bins];
+		}
+
+		/**
+		 * Gets the level of the tile
+		 *
+		 * @return
+		 * 			The level
+		 */
+		public int getLevel() {
+			return level;
+		}
+
+		/**
+		 * Gets the first bin of the tile
+		 *
+		 * @return
+		 * 			The bin number within the level
+		 */
+		public int getFirstBin() {
+			return firstBin;
+		}
+
+		/**
+		 * Gets the number of bins of the tile
+		 *
+		 * @return
+		 * 			Number of bins, less than <code>TILE_BINS</code> for
+		 * 			the last tile of a level
+		 */
+		public int getBinCount() {
+			return residues.length;
+		}
+
+		/**
+		 * Gets the residues per bin
+		 *
+		 * @return
+		 * 			The bin width
+		 */
+		public int getBinWidth() {
+			return binWidth;
+		}
+
+		/**
+		 * Gets the number of residues of a bin
+		 *
+		 * @param bin
+		 * 			Bin number within the level
+		 * @return
+		 * 			The bin width, less for the last bin
+		 */
+		public int getResidues(int bin) {
+			return residues[bin - firstBin];
+		}
+
+		/**
+		 * Gets the composition of a bin
+		 *
+		 * @param bin
+		 * 			Bin number within the level
+		 * @param counts
+		 * 			Receives the A, C, G and T counts and the count of
+		 * 			everything else
+		 */
+		public void getCounts(int bin, int[] counts) {
+			System.arraycopy(composition, 5 * (bin - firstBin), counts, 0, 5);
+		}
+
+		/**
+		 * Gets the GC content of a bin
+		 *
+		 * @param bin
+		 * 			Bin number within the level
+		 * @return
+		 * 			The content from 0 to 1, NaN if there are no bases
+		 */
+		public double getGcContent(int bin) {
+
+			int i = 5 * (bin - firstBin);
+			int gc = composition[i + NucleotideCode.C] +
+				composition[i + NucleotideCode.G];
+			int bases = gc + composition[i + NucleotideCode.A] +
+				composition[i + NucleotideCode.T];
+			return bases == 0 ? Double.NaN : (double) gc / bases;
+		}
+
+		/**
+		 * Gets the number of features overlapping a bin
+		 *
+		 * @param bin
+		 * 			Bin number within the level
+		 * @return
+		 * 			Number of features
+		 */
+		public int getFeatureCount(int bin) {
+			return featureCounts[bin - firstBin];
+		}
+
+		/**
+		 * Gets the residues of a bin covered by features, summed over the
+		 * features
+		 *
+		 * @param bin
+		 * 			Bin number within the level
+		 * @return
+		 * 			The coverage
+		 */
+		public long getCoverage(int bin) {
+			return coverage[bin - firstBin];
+		}
+
+		/**
+		 * Gets the mean number of features covering the residues of a bin
+		 *
+		 * @param bin
+		 * 			Bin number within the level
+		 * @return
+		 * 			The depth
+		 */
+		public double getDepth(int bin) {
+			return (double) coverage[bin - firstBin] / residues[bin - firstBin];
+		}
+	}
+
+	/**
+	 * DifferenceTree is a Fenwick tree over the differences of
+	 * neighbouring values, adding to ranges and reading single values
+	 * in O(log n).
+	 */
+	private static final class DifferenceTree {
+
+		/** The tree, one-based */
+		private final long[] tree;
+
+		/**
+		 * Constructor building the tree from differences in linear time
+		 *
+		 * @param differences
+		 * 			Value of each element minus the one before, one extra
+		 * 			element at the end is ignored
+		 */
+		DifferenceTree(long[] differences) {
+
+			int n = differences.length - 1;
+			tree = new long[n + 1];
+			for (int i = 1; i <= n; i++) {
+
+				tree[i] += differences[i - 1];
+				int parent = i + (i & -i);
+				if (parent <= n) {
+					tree[parent] += tree[i];
+				}
+			}
+		}
+
+		/** Adds to the elements of a range (inclusive) */
+		void add(int from, int to, long value) {
+			addDifference(from, value);
+			addDifference(to + 1, -value);
+		}
+
+		/** Reads an element */
+		long get(int index) {
+
+			long sum = 0;
+			for (int i = index + 1; i > 0; i -= i & -i) {
+				sum += tree[i];
+			}
+			return sum;
+		}
+
+		/** Adds to the difference of an element */
+		private void addDifference(int index, long value) {
+			for (int i = index + 1; i < tree.length; i += i & -i) {
+				tree[i] += value;
+			}
+		}
+	}
+
+	/** The sequence */
+	private final Sequence seq;
+
+	/** The model of the sequence */
+	private final Model model;
+
+	/** Receiver of the model's changes */
+	private final ModelListener listener = new ModelListener() {
+		public void modelChanged(ModelEvent event) {
+			SummaryPyramid.this.modelChanged(event);
+		}
+	};
+
+	/** Largest number of tiles cached */
+	private int cacheTiles = DEFAULT_CACHE_TILES;
+
+	/** The cached tiles by level and index, in access order */
+	private final LinkedHashMap<Long, Tile> tiles =
+		new LinkedHashMap<Long, Tile>(64, 0.75f, true);
+
+	/** Residue ranges of each feature, first and last residue of one
+	 * range or of two ranges if the feature spans the origin, null for
+	 * features with no points on the sequence */
+	private final Map<Topology, int[]> features =
+		new HashMap<Topology, int[]>();
+
+	/** Features with points that changed since last brought up to date */
+	private final Set<Topology> changed = new LinkedHashSet<Topology>();
+
+	/** If the annotations must be scanned again */
+	private boolean rescan = true;
+
+	/** Revision of the sequence summarised, -1 for none */
+	private int revision = -1;
+
+	/** Number of residues summarised */
+	private int length;
+
+	/** Feature counts of each level */
+	private DifferenceTree[] counts;
+
+	/** Coverage of each level */
+	private DifferenceTree[] coverage;
+
+	/**
+	 * Constructor, starting to follow the changes of the model
+	 *
+	 * @param seq
+	 * 			The sequence
+	 * @param model
+	 * 			The model of the sequence
+	 */
+	SummaryPyramid(Sequence seq, Model model) {
+		this.seq = seq;
+		this.model = model;
+		model.addModelListener(listener);
+	}
+
+	/**
+	 * Stops following the model. A closed pyramid must not be used.
+	 */
+	public void close() {
+		model.removeModelListener(listener);
+	}
+
+	/**
+	 * Sets the number of tiles cached
+	 *
+	 * @param cacheTiles
+	 * 			Largest number of tiles to keep
+	 */
+	public synchronized void setCacheTiles(int cacheTiles) {
+		this.cacheTiles = cacheTiles;
+		trimCache();
+	}
+
+	/**
+	 * Gets the number of levels
+	 *
+	 * @return
+	 * 			Number of levels
+	 */
+	public synchronized int getLevelCount() {
+		update();
+		return counts.length;
+	}
+
+	/**
+	 * Gets the residues per bin of a level
+	 *
+	 * @param level
+	 * 			The level
+	 * @return
+	 * 			The bin width
+	 */
+	public int getBinWidth(int level) {
+		return BASE_BIN << level;
+	}
+
+	/**
+	 * Gets the number of bins of a level
+	 *
+	 * @param level
+	 * 			The level
+	 * @return
+	 * 			Number of bins
+	 */
+	public synchronized int getBinCount(int level) {
+		update();
+		return binCount(level);
+	}
+
+	/**
+	 * Gets the level to draw at a zoom, the coarsest whose bins are no
+	 * wider than a pixel
+	 *
+	 * @param residuesPerPixel
+	 * 			Residues drawn per pixel
+	 * @return
+	 * 			The level
+	 */
+	public synchronized int getLevel(double residuesPerPixel) {
+
+		update();
+		int level = 0;
+		while (level + 1 < counts.length &&
+				getBinWidth(level + 1) <= residuesPerPixel) {
+			level++;
+		}
+		return level;
+	}
+
+	/**
+	 * Gets a tile, from the cache if it is there
+	 *
+	 * @param level
+	 * 			The level
+	 * @param index
+	 * 			The tile number within the level, tile i starting at bin
+	 * 			<code>i * TILE_BINS</code>
+	 * @return
+	 * 			The tile
+	 */
+	public synchronized Tile getTile(int level, int index) {
+
+		update();
+		if (level < 0 || level >= counts.length || index < 0 ||
+				index * (long) TILE_BINS >= binCount(level)) {
+			throw new IndexOutOfBoundsException("No tile " + index +
+					" at level " + level);
+		}
+
+		Long key = key(level, index);
+		Tile tile = tiles.get(key);
+		if (tile == null) {
+			tile = makeTile(level, index);
+			tiles.put(key, tile);
+			trimCache();
+		}
+		return tile;
+	}
+
+	/**
+	 * Takes note of model changes, the work is left for the next query
+	 *
+	 * @param event
+	 * 			The change
+	 */
+	private synchronized void modelChanged(ModelEvent event) {
+
+		switch (event.getType()) {
+		case ANNOTATION_ATTACHED:
+		case ANNOTATION_DETACHED:
+		case TOPOLOGY_ADDED:
+		case TOPOLOGY_REMOVED:
+			rescan = true;
+			break;
+		case ANNOTATION_CHANGED:
+			if (event.getSubjects().contains(seq)) {
+				rescan = true;
+			}
+			break;
+		case POINT_ADDED:
+		case POINT_REMOVED:
+		case POINT_MOVED:
+			for (Object subject: event.getSubjects()) {
+
+				Point p = (Point) subject;
+				if (!p.annotatesObject(seq)) {
+					continue;
+				}
+				if (features.containsKey(p.getTopology())) {
+					changed.add(p.getTopology());
+				} else if (event.getType() == ModelEvent.Type.POINT_ADDED) {
+					//May be a child added without points to a feature
+					rescan = true;
+				}
+			}
+			break;
+		case OBJECT_REMOVED:
+			if (event.getSubjects().contains(seq)) {
+				close();
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/** Brings the summaries up to date */
+	private void update() {
+
+		if (revision != seq.getRevision()) {
+			length = seq.getResidueStore().length();
+			revision = seq.getRevision();
+			rescan = true;
+		}
+		if (rescan) {
+			build();
+			return;
+		}
+
+		for (Topology top: changed) {
+
+			int[] old = features.get(top);
+			int[] ranges = getRanges(top);
+			if (Arrays.equals(old, ranges)) {
+				continue;
+			}
+			apply(old, -1);
+			apply(ranges, 1);
+			features.put(top, ranges);
+		}
+		changed.clear();
+	}
+
+	/** Scans the annotations and makes every level anew */
+	private void build() {
+
+		features.clear();
+		for (Iterator<Annotation> it = seq.getAnnotations(); it.hasNext(); ) {
+			for (Topology top: it.next().getTopologies(seq)) {
+				addFeatures(top);
+			}
+		}
+
+		int levels = 1;
+		while ((long) getBinWidth(levels - 1) < length) {
+			levels++;
+		}
+		counts = new DifferenceTree[levels];
+		coverage = new DifferenceTree[levels];
+
+		for (int level = 0; level < levels; level++) {
+
+			int bins = binCount(level);
+			long[] countDifferences = new long[bins + 1];
+			long[] coverageDifferences = new long[bins + 1];
+			for (int[] ranges: features.values()) {
+				if (ranges == null) {
+					continue;
+				}
+				addRanges(ranges, level, 1, countDifferences,
+						coverageDifferences);
+			}
+			counts[level] = new DifferenceTree(countDifferences);
+			coverage[level] = new DifferenceTree(coverageDifferences);
+		}
+
+		tiles.clear();
+		changed.clear();
+		rescan = false;
+	}
+
+	/**
+	 * Adds a topology and its children as features
+	 *
+	 * @param top
+	 * 			The topology
+	 */
+	private void addFeatures(Topology top) {
+
+		features.put(top, getRanges(top));
+		for (Iterator<Topology> it = top.getChildIterator(); it.hasNext(); ) {
+			addFeatures(it.next());
+		}
+	}
+
+	/**
+	 * Gets the residues a topology covers on the sequence
+	 *
+	 * @param top
+	 * 			The topology
+	 * @return
+	 * 			First and last residue of one or two ranges, null if the
+	 * 			topology has no points on the sequence
+	 */
+	private int[] getRanges(Topology top) {
+
+		int count = 0;
+		int first = 0;
+		int last = 0;
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+
+		for (Iterator<Point> it = top.getPointIterator(); it.hasNext(); ) {
+
+			Point p = it.next();
+			if (!p.annotatesObject(seq)) {
+				continue;
+			}
+			int pos = p.getPos();
+			if (count == 0) {
+				first = pos;
+			}
+			last = pos;
+			min = Math.min(min, pos);
+			max = Math.max(max, pos);
+			count++;
+		}
+
+		if (count == 0 || length == 0) {
+			return null;
+		} else if (count == 2 && seq.getAllowsWrap() && first > last) {
+			if (last == 0) {
+				return new int[] {toResidue(first), length - 1};
+			}
+			return new int[] {toResidue(first), length - 1, 0,
+				toResidue(last - 1)};
+		}
+		int from = toResidue(min);
+		return new int[] {from, Math.max(from, toResidue(max - 1))};
+	}
+
+	/** Gets the residue at or after a position, within the residues */
+	private int toResidue(int pos) {
+		return Math.max(0, Math.min(length - 1, pos / 2));
+	}
+
+	/**
+	 * Adds or removes a feature at every level, dropping the cached
+	 * tiles it is in
+	 *
+	 * @param ranges
+	 * 			The residues of the feature, null for none
+	 * @param sign
+	 * 			1 to add, -1 to remove
+	 */
+	private void apply(int[] ranges, int sign) {
+
+		if (ranges == null) {
+			return;
+		}
+		for (int level = 0; level < counts.length; level++) {
+
+			addRanges(ranges, level, sign, null, null);
+			int width = getBinWidth(level);
+			for (int i = 0; i < ranges.length; i += 2) {
+				dropTiles(level, ranges[i] / width, ranges[i + 1] / width);
+			}
+		}
+	}
+
+	/**
+	 * Adds a feature to the counts and coverage of one level, either to
+	 * arrays of differences or to the trees of the level
+	 *
+	 * @param ranges
+	 * 			The residues of the feature
+	 * @param level
+	 * 			The level
+	 * @param sign
+	 * 			1 to add, -1 to remove
+	 * @param countDifferences
+	 * 			Feature count differences, null for the tree
+	 * @param coverageDifferences
+	 * 			Coverage differences, null for the tree
+	 */
+	private void addRanges(int[] ranges, int level, int sign,
+			long[] countDifferences, long[] coverageDifferences) {
+
+		int width = getBinWidth(level);
+		int lastBin = -1;
+		for (int i = 0; i < ranges.length; i += 2) {
+
+			int from = ranges[i];
+			int to = ranges[i + 1];
+			int firstBin = from / width;
+			int toBin = to / width;
+
+			//The range after the origin may end in the first bin of the
+			//range before it, which is only counted once
+			int countTo = lastBin < 0 ? toBin : Math.min(toBin, lastBin - 1);
+			if (countTo >= firstBin) {
+				add(countDifferences, counts[level], firstBin, countTo, sign);
+			}
+			lastBin = lastBin < 0 ? firstBin : Math.min(lastBin, firstBin);
+
+			if (firstBin == toBin) {
+				add(coverageDifferences, coverage[level], firstBin, firstBin,
+						sign * (long) (to - from + 1));
+			} else {
+				add(coverageDifferences, coverage[level], firstBin, firstBin,
+						sign * (long) ((firstBin + 1) * width - from));
+				add(coverageDifferences, coverage[level], toBin, toBin,
+						sign * (long) (to - toBin * width + 1));
+				if (toBin - firstBin > 1) {
+					add(coverageDifferences, coverage[level], firstBin + 1,
+							toBin - 1, sign * (long) width);
+				}
+			}
+		}
+	}
+
+	/** Adds to a range of bins, in differences if given, else the tree */
+	private static void add(long[] differences, DifferenceTree tree,
+			int from, int to, long value) {
+
+		if (differences != null) {
+			differences[from] += value;
+			differences[to + 1] -= value;
+		} else {
+			tree.add(from, to, value);
+		}
+	}
+
+	/**
+	 * Makes a tile
+	 *
+	 * @param level
+	 * 			The level
+	 * @param index
+	 * 			The tile number
+	 * @return
+	 * 			The tile
+	 */
+	private Tile makeTile(int level, int index) {
+
+		int width = getBinWidth(level);
+		int firstBin = index * TILE_BINS;
+		int bins = Math.min(TILE_BINS, binCount(level) - firstBin);
+		Tile tile = new Tile(level, firstBin, width, bins);
+
+		Composition composition = seq.getComposition();
+		int[] binCounts = new int[5];
+		for (int i = 0; i < bins; i++) {
+
+			int bin = firstBin + i;
+			int start = bin * width;
+			tile.residues[i] = (int) Math.min(width, (long) length - start);
+			composition.getCounts(start, tile.residues[i], binCounts);
+			System.arraycopy(binCounts, 0, tile.composition, 5 * i, 5);
+			tile.featureCounts[i] = (int) counts[level].get(bin);
+			tile.coverage[i] = coverage[level].get(bin);
+		}
+		return tile;
+	}
+
+	/**
+	 * Drops the cached tiles of a level holding a range of bins
+	 *
+	 * @param level
+	 * 			The level
+	 * @param fromBin
+	 * 			First bin
+	 * @param toBin
+	 * 			Last bin
+	 */
+	private void dropTiles(int level, int fromBin, int toBin) {
+
+		int fromTile = fromBin / TILE_BINS;
+		int toTile = toBin / TILE_BINS;
+		if (toTile - fromTile < tiles.size()) {
+			for (int index = fromTile; index <= toTile; index++) {
+				tiles.remove(key(level, index));
+			}
+		} else {
+			for (Iterator<Tile> it = tiles.values().iterator(); it.hasNext(); ) {
+
+				Tile tile = it.next();
+				int index = tile.firstBin / TILE_BINS;
+				if (tile.level == level && index >= fromTile && index <= toTile) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/** Drops the least recently used tiles beyond the cache size */
+	private void trimCache() {
+
+		Iterator<Tile> it = tiles.values().iterator();
+		while (tiles.size() > cacheTiles && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+	}
+
+	/** Number of bins of a level */
+	private int binCount(int level) {
+
+		int width = getBinWidth(level);
+		return (int) ((length + (long) width - 1) / width);
+	}
+
+	/** Cache key of a tile */
+	private static Long key(int level, int index) {
+		return Long.valueOf(((long) level << 32) | index);
+	}
+}
@@ -0,0 +1,95 @@
+
+package sequences;
+
+/**
+ * TranslatedFrame is the amino acid view of one reading frame of a
+ * nucleotide sequence.
+ *
+ * It is a residue store of its own, so it can be walked and scanned
+ * like any other amino acid sequence, and it knows where each amino
+ * acid came from on the nucleotide sequence.
+ */
+public class TranslatedFrame extends AbstractResidueStore {
+
+	/** The frame translated */
+	private final Sequence.ReadingFrame frame;
+
+	/** Number of nucleotides in the translated sequence */
+	private final int nucleotides;
+
+	/** The amino acids */
+	private final byte[] aminoAcids;
+
+	/**
+	 * Constructor
+	 *
+	 * @param frame
+	 * 			The frame translated
+	 * @param nucleotides
+	 * 			Number of nucleotides in the translated sequence
+	 * @param aminoAcids
+	 * 			The amino acids
+	 */
+	TranslatedFrame(Sequence.ReadingFrame frame, int nucleotides,
+			byte[] aminoAcids) {
+		this.frame = frame;
+		this.nucleotides = nucleotides;
+		this.aminoAcids = aminoAcids;
+	}
+
+	/**
+	 * Gets the number of amino acids in a frame
+	 *
+	 * @param frame
+	 * 			The frame
+	 * @param nucleotides
+	 * 			Number of nucleotides in the sequence
+	 * @return
+	 * 			Number of complete codons
+	 */
+	static int getCodonCount(Sequence.ReadingFrame frame, int nucleotides) {
+
+		int offset = Math.abs(frame.getFrame()) - 1;
+		return nucleotides > offset ? (nucleotides - offset) / 3 : 0;
+	}
+
+	@Override
+	public int length() {
+		return aminoAcids.length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) aminoAcids[index];
+	}
+
+	/**
+	 * Gets the frame translated
+	 *
+	 * @return
+	 * 			The frame
+	 */
+	public Sequence.ReadingFrame getFrame() {
+		return frame;
+	}
+
+	/**
+	 * Gets the nucleotide index where the codon of an amino acid begins.
+	 *
+	 * For the minus frames this is the highest index of the codon, since
+	 * the codon is read backwards on the plus strand.
+	 *
+	 * @param index
+	 * 			The amino acid index
+	 * @return
+	 * 			The nucleotide index
+	 */
+	public int getNucleotideIndex(int index) {
+
+		int offset = Math.abs(frame.getFrame()) - 1 + 3 * index;
+		if (frame.getFrame() > 0) {
+			return offset;
+		}
+		return nucleotides - 1 - offset;
+	}
+}
@@ -0,0 +1,386 @@
+
+package sequences;
+
+import java.util.*;
+
+/**
+ * Translator produces the amino acid views of the reading frames of
+ * nucleotide sequences.
+ *
+ * Codons are looked up packed in the codon table, and all six frames
+ * can be produced in one pass over the sequence. Translations are cached
+ * per sequence and frame until the sequence changes; the cache holds a
+ * bounded number of amino acids and drops the least recently used
+ * translations first.
+ *
+ * Circular sequences are translated as if linear from their first
+ * residue.
+ */
+public class Translator {
+
+	/** Default number of amino acids to keep cached */
+	public static final long DEFAULT_CACHE_SIZE = 1L << 26;
+
+	/** The frames there are */
+	private static final Sequence.ReadingFrame[] PLUS_FRAMES = {
+		Sequence.ReadingFrame.PLUS_ONE, Sequence.ReadingFrame.PLUS_TWO,
+		Sequence.ReadingFrame.PLUS_THREE};
+
+	/** The minus frames there are */
+	private static final Sequence.ReadingFrame[] MINUS_FRAMES = {
+		Sequence.ReadingFrame.MINUS_ONE, Sequence.ReadingFrame.MINUS_TWO,
+		Sequence.ReadingFrame.MINUS_TRHEE};
+
+	/**
+	 * CacheKey identifies a translation by the sequence instance and
+	 * the frame.
+	 */
+	private static class CacheKey {
+
+		/** The sequence */
+		private final Sequence sequence;
+
+		/** The frame */
+		private final Sequence.ReadingFrame frame;
+
+		/** Constructor */
+		CacheKey(Sequence sequence, Sequence.ReadingFrame frame) {
+			this.sequence = sequence;
+			this.frame = frame;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+
+			if (!(o instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) o;
+			return sequence == other.sequence && frame == other.frame;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(sequence) * 31 + frame.hashCode();
+		}
+	}
+
+	/**
+	 * CacheEntry is a translation and the revision of the sequence it
+	 * was made from.
+	 */
+	private static class CacheEntry {
+
+		/** The translation */
+		private final TranslatedFrame translation;
+
+		/** The sequence revision */
+		private final int revision;
+
+		/** Constructor */
+		CacheEntry(TranslatedFrame translation, int revision) {
+			this.translation = translation;
+			this.revision = revision;
+		}
+	}
+
+	/** The codon table used */
+	private final CodonTable table;
+
+	/** Largest number of amino acids to keep cached */
+	private final long maxCachedResidues;
+
+	/** Number of amino acids cached */
+	private long cachedResidues = 0;
+
+	/** The cache, in access order */
+	private final LinkedHashMap<CacheKey, CacheEntry> cache =
+		new LinkedHashMap<CacheKey, CacheEntry>(16, 0.75f, true);
+
+	/** Constructor using the standard codon table */
+	public Translator() {
+		this(CodonTable.STANDARD);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param table
+	 * 			The codon table to use
+	 */
+	public Translator(CodonTable table) {
+		this(table, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param table
+	 * 			The codon table to use
+	 * @param maxCachedResidues
+	 * 			Largest number of amino acids to keep cached
+	 */
+	public Translator(CodonTable table, long maxCachedResidues) {
+		this.table = table;
+		this.maxCachedResidues = maxCachedResidues;
+	}
+
+	/**
+	 * Gets the codon table
+	 *
+	 * @return
+	 * 			The table
+	 */
+	public CodonTable getCodonTable() {
+		return table;
+	}
+
+	/**
+	 * Translates one reading frame
+	 *
+	 * @param seq
+	 * 			A nucleotide sequence
+	 * @param frame
+	 * 			The frame, any but <code>NO_FRAME</code>
+	 * @return
+	 * 			The translation
+	 */
+	public TranslatedFrame translate(Sequence seq,
+			Sequence.ReadingFrame frame) {
+
+		checkTranslatable(seq);
+		if (frame.equals(Sequence.ReadingFrame.NO_FRAME)) {
+			throw new IllegalArgumentException(
+					"No frame can not be translated");
+		}
+
+		int revision = seq.getRevision();
+		TranslatedFrame translation = getCached(seq, frame, revision);
+		if (translation == null) {
+			translation = translateFrame(seq.getResidueStore(), frame);
+			putCached(seq, translation, revision);
+		}
+		return translation;
+	}
+
+	/**
+	 * Translates all six reading frames in one pass.
+	 *
+	 * @param seq
+	 * 			A nucleotide sequence
+	 * @return
+	 * 			The translations by frame
+	 */
+	public EnumMap<Sequence.ReadingFrame, TranslatedFrame> translateAll(
+			Sequence seq) {
+
+		checkTranslatable(seq);
+
+		int revision = seq.getRevision();
+		EnumMap<Sequence.ReadingFrame, TranslatedFrame> translations =
+			new EnumMap<Sequence.ReadingFrame, TranslatedFrame>(
+					Sequence.ReadingFrame.class);
+
+		for (int f = 0; f < 3; f++) {
+			addCached(translations, seq, PLUS_FRAMES[f], revision);
+			addCached(translations, seq, MINUS_FRAMES[f], revision);
+		}
+		if (translations.size() == 6) {
+			return translations;
+		}
+
+		translations = translateFrames(seq.getResidueStore());
+		for (TranslatedFrame translation: translations.values()) {
+			putCached(seq, translation, revision);
+		}
+		return translations;
+	}
+
+	/**
+	 * Drops all cached translations of a sequence
+	 *
+	 * @param seq
+	 * 			The sequence
+	 */
+	public synchronized void invalidate(Sequence seq) {
+
+		for (Iterator<Map.Entry<CacheKey, CacheEntry>> it =
+				cache.entrySet().iterator(); it.hasNext(); ) {
+
+			Map.Entry<CacheKey, CacheEntry> e = it.next();
+			if (e.getKey().sequence == seq) {
+				cachedResidues -= e.getValue().translation.length();
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops all cached translations
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		cachedResidues = 0;
+	}
+
+	/** Makes sure sequence is made of nucleotides */
+	private static void checkTranslatable(Sequence seq) {
+
+		if (!seq.getSequenceType().equals(
+					Sequence.SequenceType.TYPE_NUCLEOTIDE)) {
+			throw new IllegalArgumentException(
+					"Only nucleotide sequences can be translated");
+		}
+	}
+
+	/** Adds a cached translation to a map if there is one */
+	private void addCached(
+			EnumMap<Sequence.ReadingFrame, TranslatedFrame> translations,
+			Sequence seq, Sequence.ReadingFrame frame, int revision) {
+
+		TranslatedFrame translation = getCached(seq, frame, revision);
+		if (translation != null) {
+			translations.put(frame, translation);
+		}
+	}
+
+	/** Gets a cached translation if it is of the right revision */
+	private synchronized TranslatedFrame getCached(Sequence seq,
+			Sequence.ReadingFrame frame, int revision) {
+
+		CacheEntry entry = cache.get(new CacheKey(seq, frame));
+		if (entry == null || entry.revision != revision) {
+			return null;
+		}
+		return entry.translation;
+	}
+
+	/** Caches a translation, evicting the least recently used ones */
+	private synchronized void putCached(Sequence seq,
+			TranslatedFrame translation, int revision) {
+
+		CacheEntry old = cache.put(new CacheKey(seq, translation.getFrame()),
+				new CacheEntry(translation, revision));
+		if (old != null) {
+			cachedResidues -= old.translation.length();
+		}
+		cachedResidues += translation.length();
+
+		Iterator<CacheEntry> it = cache.values().iterator();
+		while (cachedResidues > maxCachedResidues && it.hasNext()) {
+
+			CacheEntry eldest = it.next();
+			cachedResidues -= eldest.translation.length();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Translates one frame
+	 *
+	 * @param residues
+	 * 			The nucleotides
+	 * @param frame
+	 * 			The frame
+	 * @return
+	 * 			The translation
+	 */
+	private TranslatedFrame translateFrame(ResidueStore residues,
+			Sequence.ReadingFrame frame) {
+
+		int n = residues.length();
+		int offset = Math.abs(frame.getFrame()) - 1;
+		boolean plus = frame.getFrame() > 0;
+		byte[] aminoAcids = new byte[TranslatedFrame.getCodonCount(frame, n)];
+
+		for (int m = 0; m < aminoAcids.length; m++) {
+
+			int start = plus ? offset + 3 * m : n - 3 - offset - 3 * m;
+			int codon = 0;
+			boolean ambiguous = false;
+
+			for (int i = start; i < start + 3; i++) {
+				int code = residues.codeAt(i);
+				if (code < 0) {
+					ambiguous = true;
+					code = 0;
+				}
+				codon = (codon << 2) | code;
+			}
+
+			if (ambiguous) {
+				aminoAcids[m] = (byte) CodonTable.UNKNOWN;
+			} else if (plus) {
+				aminoAcids[m] = (byte) table.translate(codon);
+			} else {
+				aminoAcids[m] = (byte) table.translateReverse(codon);
+			}
+		}
+		return new TranslatedFrame(frame, n, aminoAcids);
+	}
+
+	/**
+	 * Translates all six frames in one pass.
+	 *
+	 * Every codon of the plus strand belongs to one plus frame and, read
+	 * backwards as its reverse complement, to one minus frame.
+	 *
+	 * @param residues
+	 * 			The nucleotides
+	 * @return
+	 * 			The translations
+	 */
+	private EnumMap<Sequence.ReadingFrame, TranslatedFrame> translateFrames(
+			ResidueStore residues) {
+
+		int n = residues.length();
+		byte[][] plus = new byte[3][];
+		byte[][] minus = new byte[3][];
+
+		for (int f = 0; f < 3; f++) {
+			plus[f] = new byte[TranslatedFrame.getCodonCount(PLUS_FRAMES[f], n)];
+			minus[f] = new byte[TranslatedFrame.getCodonCount(MINUS_FRAMES[f], n)];
+		}
+
+		int codon = 0;
+		int lastAmbiguous = -1;
+
+		for (int i = 0; i < n; i++) {
+
+			int code = residues.codeAt(i);
+			if (code < 0) {
+				lastAmbiguous = i;
+				code = 0;
+			}
+			codon = ((codon << 2) | code) & 63;
+
+			int start = i - 2;
+			if (start < 0) {
+				continue;
+			}
+
+			//Index of the codon's first base on the minus strand
+			int reverse = n - 3 - start;
+
+			if (lastAmbiguous >= start) {
+				plus[start % 3][start / 3] = (byte) CodonTable.UNKNOWN;
+				minus[reverse % 3][reverse / 3] = (byte) CodonTable.UNKNOWN;
+			} else {
+				plus[start % 3][start / 3] = (byte) table.translate(codon);
+				minus[reverse % 3][reverse / 3] =
+					(byte) table.translateReverse(codon);
+			}
+		}
+
+		EnumMap<Sequence.ReadingFrame, TranslatedFrame> translations =
+			new EnumMap<Sequence.ReadingFrame, TranslatedFrame>(
+					Sequence.ReadingFrame.class);
+		for (int f = 0; f < 3; f++) {
+			translations.put(PLUS_FRAMES[f],
+					new TranslatedFrame(PLUS_FRAMES[f], n, plus[f]));
+			translations.put(MINUS_FRAMES[f],
+					new TranslatedFrame(MINUS_FRAMES[f], n, minus[f]));
+		}
+		return translations;
+	}
+}
@@ -0,0 +1,323 @@
+
+package storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * ChunkReader reads the sections of a snapshot from a channel.
+ *
+ * Sections are read one chunk at a time, so a section never has to be
+ * in memory in full, and skipped sections are not read at all.
+ */
+class ChunkReader {
+
+	/** The channel read from */
+	private final SeekableByteChannel channel;
+
+	/** The decompressor */
+	private final Inflater inflater = new Inflater();
+
+	/** The current chunk, ready for reading */
+	private final ByteBuffer chunk =
+		ByteBuffer.allocate(SnapshotFormat.CHUNK_SIZE);
+
+	/** Stored chunk bytes */
+	private final ByteBuffer stored =
+		ByteBuffer.allocate(SnapshotFormat.CHUNK_SIZE);
+
+	/** Chunk or section header being read */
+	private final ByteBuffer header = ByteBuffer.allocate(12);
+
+	/** Channel position where the current section ends */
+	private long sectionEnd = -1;
+
+	/**
+	 * Constructor
+	 *
+	 * @param channel
+	 * 			The channel, positioned where the snapshot starts
+	 */
+	ChunkReader(SeekableByteChannel channel) {
+
+		this.channel = channel;
+		chunk.limit(0);
+	}
+
+	/**
+	 * Reads and checks the snapshot header
+	 *
+	 * @return
+	 * 			The version of the snapshot
+	 * @throws IOException
+	 * 			If not a snapshot or of a newer version
+	 */
+	int readHeader() throws IOException {
+
+		header.clear().limit(8);
+		readFully(header);
+		header.flip();
+
+		for (byte b: SnapshotFormat.MAGIC) {
+			if (header.get() != b) {
+				throw new IOException("Not a snapshot");
+			}
+		}
+		int version = header.getInt();
+		if (version < 1 || version > SnapshotFormat.VERSION) {
+			throw new IOException("Unsupported snapshot version " + version);
+		}
+		return version;
+	}
+
+	/**
+	 * Moves to the next section, skipping what is left of the current
+	 *
+	 * @return
+	 * 			The tag of the section
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	int nextSection() throws IOException {
+
+		if (sectionEnd >= 0) {
+			channel.position(sectionEnd);
+		}
+
+		header.clear();
+		readFully(header);
+		header.flip();
+
+		int tag = header.getInt();
+		long length = header.getLong();
+		if (length < 0) {
+			throw new IOException("Corrupt section length");
+		}
+		sectionEnd = channel.position() + length;
+		chunk.clear().limit(0);
+		return tag;
+	}
+
+	/**
+	 * Releases the decompressor
+	 */
+	void close() {
+		inflater.end();
+	}
+
+	int readByte() throws IOException {
+		ensure(1);
+		return chunk.get();
+	}
+
+	int readInt() throws IOException {
+		ensure(4);
+		return chunk.getInt();
+	}
+
+	long readLong() throws IOException {
+		ensure(8);
+		return chunk.getLong();
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 *
+	 * @return
+	 * 			The value
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	int readVarInt() throws IOException {
+
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+
+			int b = readByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return v;
+			}
+		}
+		throw new IOException("Corrupt varint");
+	}
+
+	/**
+	 * Reads a zig-zag encoded signed varint
+	 *
+	 * @return
+	 * 			The value
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	int readSignedVarInt() throws IOException {
+
+		int v = readVarInt();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Reads longs
+	 *
+	 * @param values
+	 * 			Where to put them
+	 * @param offset
+	 * 			First to read
+	 * @param count
+	 * 			Number to read
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	void readLongs(long[] values, int offset, int count) throws IOException {
+
+		while (count > 0) {
+
+			ensure(8);
+			int n = Math.min(count, chunk.remaining() / 8);
+			chunk.asLongBuffer().get(values, offset, n);
+			chunk.position(chunk.position() + n * 8);
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Reads a string
+	 *
+	 * @return
+	 * 			The string
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	String readString() throws IOException {
+
+		byte[] bytes = new byte[readVarInt()];
+		int offset = 0;
+		while (offset < bytes.length) {
+
+			ensure(1);
+			int n = Math.min(bytes.length - offset, chunk.remaining());
+			chunk.get(bytes, offset, n);
+			offset += n;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Reads a string that may be null
+	 *
+	 * @return
+	 * 			The string or null
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	String readNullableString() throws IOException {
+		return readByte() == 0 ? null : readString();
+	}
+
+	/**
+	 * Makes sure the chunk has bytes left, reading the next if needed.
+	 * Writers never split values, so an exhausted chunk is enough.
+	 *
+	 * @param bytes
+	 * 			Bytes needed
+	 * @throws IOException
+	 * 			If reading failed or section is exhausted
+	 */
+	private void ensure(int bytes) throws IOException {
+
+		if (chunk.remaining() >= bytes) {
+			return;
+		}
+		if (chunk.hasRemaining()) {
+			throw new IOException("Value split between chunks");
+		}
+		readChunk();
+		if (chunk.remaining() < bytes) {
+			throw new IOException("Value split between chunks");
+		}
+	}
+
+	/**
+	 * Reads the next chunk of the section
+	 *
+	 * @throws IOException
+	 * 			If reading failed or section is exhausted
+	 */
+	private void readChunk() throws IOException {
+
+		if (sectionEnd < 0 || channel.position() >= sectionEnd) {
+			throw new EOFException("End of section");
+		}
+
+		header.clear().limit(9);
+		readFully(header);
+		header.flip();
+
+		byte method = header.get();
+		int rawLength = header.getInt();
+		int storedLength = header.getInt();
+		if (rawLength < 0 || rawLength > chunk.capacity() ||
+				storedLength < 0 || storedLength > stored.capacity()) {
+			throw new IOException("Corrupt chunk");
+		}
+
+		chunk.clear();
+		if (method == SnapshotFormat.CHUNK_RAW) {
+
+			chunk.limit(rawLength);
+			readFully(chunk);
+
+		} else if (method == SnapshotFormat.CHUNK_DEFLATED) {
+
+			stored.clear().limit(storedLength);
+			readFully(stored);
+
+			inflater.reset();
+			inflater.setInput(stored.array(), 0, storedLength);
+			try {
+				int n = 0;
+				while (n < rawLength && !inflater.finished()) {
+					int m = inflater.inflate(chunk.array(), n, rawLength - n);
+					if (m == 0 && (inflater.needsInput() ||
+								inflater.needsDictionary())) {
+						break;
+					}
+					n += m;
+				}
+				if (n != rawLength) {
+					throw new IOException("Corrupt chunk");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt chunk", e);
+			}
+			chunk.position(rawLength);
+
+		} else {
+			throw new IOException("Unknown chunk method " + method);
+		}
+		chunk.flip();
+	}
+
+	/**
+	 * Fills a buffer from the channel
+	 *
+	 * @param buffer
+	 * 			The buffer
+	 * @throws IOException
+	 * 			If the channel ended first
+	 */
+	private void readFully(ByteBuffer buffer) throws IOException {
+
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("Snapshot ended unexpectedly");
+			}
+		}
+	}
+}
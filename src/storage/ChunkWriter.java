@@ -0,0 +1,317 @@
+
+package storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+
+/**
+ * ChunkWriter writes the sections of a snapshot to a channel.
+ *
+ * Values are gathered in a buffer of one chunk, which is deflated (if
+ * that makes it smaller and compression is on) and written when full.
+ * The length of a section is patched into its header when it ends.
+ */
+class ChunkWriter {
+
+	/** The channel written to */
+	private final SeekableByteChannel channel;
+
+	/** The compressor or null if not compressing */
+	private final Deflater deflater;
+
+	/** The chunk being gathered */
+	private final ByteBuffer chunk =
+		ByteBuffer.allocate(SnapshotFormat.CHUNK_SIZE);
+
+	/** Deflated chunk bytes */
+	private byte[] deflated;
+
+	/** Chunk header to be written */
+	private final ByteBuffer chunkHeader = ByteBuffer.allocate(9);
+
+	/** Channel position of the current section's header, -1 if none */
+	private long sectionStart = -1;
+
+	/**
+	 * Constructor
+	 *
+	 * @param channel
+	 * 			The channel, positioned where the snapshot starts
+	 * @param compress
+	 * 			If chunks should be deflated
+	 */
+	ChunkWriter(SeekableByteChannel channel, boolean compress) {
+
+		this.channel = channel;
+		if (compress) {
+			deflater = new Deflater(Deflater.BEST_SPEED);
+			deflated = new byte[SnapshotFormat.CHUNK_SIZE + 64];
+		} else {
+			deflater = null;
+		}
+	}
+
+	/**
+	 * Writes the snapshot header
+	 *
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	void writeHeader() throws IOException {
+
+		ByteBuffer header = ByteBuffer.allocate(8);
+		header.put(SnapshotFormat.MAGIC);
+		header.putInt(SnapshotFormat.VERSION);
+		header.flip();
+		writeFully(header);
+	}
+
+	/**
+	 * Starts a section
+	 *
+	 * @param tag
+	 * 			The section tag
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	void beginSection(int tag) throws IOException {
+
+		if (sectionStart >= 0) {
+			throw new IllegalStateException("Section not ended");
+		}
+		sectionStart = channel.position();
+
+		ByteBuffer header = ByteBuffer.allocate(12);
+		header.putInt(tag);
+		header.putLong(0);
+		header.flip();
+		writeFully(header);
+	}
+
+	/**
+	 * Ends the current section, writing what is gathered and its length
+	 *
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	void endSection() throws IOException {
+
+		flushChunk();
+
+		long end = channel.position();
+		ByteBuffer length = ByteBuffer.allocate(8);
+		length.putLong(end - sectionStart - 12);
+		length.flip();
+
+		channel.position(sectionStart + 4);
+		writeFully(length);
+		channel.position(end);
+		sectionStart = -1;
+	}
+
+	/**
+	 * Releases the compressor
+	 */
+	void close() {
+
+		if (deflater != null) {
+			deflater.end();
+		}
+	}
+
+	void writeByte(int b) throws IOException {
+		ensure(1);
+		chunk.put((byte) b);
+	}
+
+	void writeInt(int v) throws IOException {
+		ensure(4);
+		chunk.putInt(v);
+	}
+
+	void writeLong(long v) throws IOException {
+		ensure(8);
+		chunk.putLong(v);
+	}
+
+	/**
+	 * Writes a value as unsigned varint, seven bits per byte
+	 *
+	 * @param v
+	 * 			The value (treated as unsigned)
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	void writeVarInt(int v) throws IOException {
+
+		ensure(5);
+		while ((v & ~0x7F) != 0) {
+			chunk.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		chunk.put((byte) v);
+	}
+
+	/**
+	 * Writes a signed value as zig-zag varint, so that small negative
+	 * values are short too.
+	 *
+	 * @param v
+	 * 			The value
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	void writeSignedVarInt(int v) throws IOException {
+		writeVarInt((v << 1) ^ (v >> 31));
+	}
+
+	/**
+	 * Writes longs
+	 *
+	 * @param values
+	 * 			Array of longs
+	 * @param offset
+	 * 			First to write
+	 * @param count
+	 * 			Number to write
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	void writeLongs(long[] values, int offset, int count) throws IOException {
+
+		while (count > 0) {
+
+			ensure(8);
+			int n = Math.min(count, chunk.remaining() / 8);
+			LongBuffer longs = chunk.asLongBuffer();
+			longs.put(values, offset, n);
+			chunk.position(chunk.position() + n * 8);
+			offset += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Writes a string as varint byte-length and UTF-8 bytes
+	 *
+	 * @param s
+	 * 			The string
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	void writeString(String s) throws IOException {
+
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(bytes.length);
+
+		int offset = 0;
+		while (offset < bytes.length) {
+
+			ensure(1);
+			int n = Math.min(bytes.length - offset, chunk.remaining());
+			chunk.put(bytes, offset, n);
+			offset += n;
+		}
+	}
+
+	/**
+	 * Writes a string that may be null, as a presence byte and string
+	 *
+	 * @param s
+	 * 			The string or null
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	void writeNullableString(String s) throws IOException {
+
+		writeByte(s == null ? 0 : 1);
+		if (s != null) {
+			writeString(s);
+		}
+	}
+
+	/**
+	 * Makes room in the chunk, writing it if needed
+	 *
+	 * @param bytes
+	 * 			Room needed
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	private void ensure(int bytes) throws IOException {
+
+		if (sectionStart < 0) {
+			throw new IllegalStateException("Not in a section");
+		}
+		if (chunk.remaining() < bytes) {
+			flushChunk();
+		}
+	}
+
+	/**
+	 * Writes the gathered chunk
+	 *
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	private void flushChunk() throws IOException {
+
+		int rawLength = chunk.position();
+		if (rawLength == 0) {
+			return;
+		}
+
+		byte method = SnapshotFormat.CHUNK_RAW;
+		int storedLength = rawLength;
+
+		if (deflater != null) {
+
+			deflater.reset();
+			deflater.setInput(chunk.array(), 0, rawLength);
+			deflater.finish();
+
+			int n = 0;
+			while (!deflater.finished() && n < deflated.length) {
+				n += deflater.deflate(deflated, n, deflated.length - n);
+			}
+			if (deflater.finished() && n < rawLength) {
+				method = SnapshotFormat.CHUNK_DEFLATED;
+				storedLength = n;
+			}
+		}
+
+		chunkHeader.clear();
+		chunkHeader.put(method);
+		chunkHeader.putInt(rawLength);
+		chunkHeader.putInt(storedLength);
+		chunkHeader.flip();
+		writeFully(chunkHeader);
+
+		if (method == SnapshotFormat.CHUNK_DEFLATED) {
+			writeFully(ByteBuffer.wrap(deflated, 0, storedLength));
+		} else {
+			chunk.flip();
+			writeFully(chunk);
+		}
+		chunk.clear();
+	}
+
+	/**
+	 * Writes all of a buffer
+	 *
+	 * @param buffer
+	 * 			The buffer
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	private void writeFully(ByteBuffer buffer) throws IOException {
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
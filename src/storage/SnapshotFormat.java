@@ -0,0 +1,111 @@
+
+package storage;
+
+/**
+ * SnapshotFormat describes the binary layout of saved models.
+ *
+ * A snapshot starts with the magic bytes <code>VUFS</code> and the
+ * format version (int). Then follow sections, each being a tag (int),
+ * the length of its body in bytes (long) and the body. The last section
+ * is the end tag with an empty body. Since every section carries its
+ * length, readers can skip sections they do not need or do not know.
+ *
+ * Section bodies are written as chunks of at most
+ * <code>CHUNK_SIZE</code> bytes: a method byte (raw or deflated), the
+ * raw length (int), the stored length (int) and the stored bytes. No
+ * value is split between chunks, except for the bytes of strings.
+ *
+ * Counts, indices and lengths are unsigned varints; positions and other
+ * values that are written as differences to the previous value are
+ * zig-zag encoded signed varints. Objects are referred to by their
+ * order in the objects section and topologies by their order in the
+ * topologies section. Enumerations are written by ordinal, so new
+ * constants must only ever be added last.
+ */
+public final class SnapshotFormat {
+
+	/** Magic bytes starting every snapshot */
+	static final byte[] MAGIC = {'V', 'U', 'F', 'S'};
+
+	/** The version written */
+	static final int VERSION = 1;
+
+	/** Largest number of section bytes per chunk */
+	static final int CHUNK_SIZE = 1 << 20;
+
+	/** Chunk method for bytes stored as is */
+	static final byte CHUNK_RAW = 0;
+
+	/** Chunk method for deflated bytes */
+	static final byte CHUNK_DEFLATED = 1;
+
+	/** Tag of the closing section */
+	static final int END_TAG = 0;
+
+	/** Object kind of sequences */
+	static final byte OBJECT_SEQUENCE = 1;
+
+	/** Residue storage of sequences without residues */
+	static final byte RESIDUES_NONE = 0;
+
+	/** Residue storage as text */
+	static final byte RESIDUES_TEXT = 1;
+
+	/** Residue storage as packed nucleotides */
+	static final byte RESIDUES_PACKED = 2;
+
+	/**
+	 * The sections of a snapshot, in the order they are written.
+	 * Each section may refer to the ones before it.
+	 */
+	public enum Section {
+		/** The model objects with their identifiers and shapes */
+		OBJECTS(1),
+		/** The residues of the sequences */
+		RESIDUES(2),
+		/** The topologies with their points */
+		TOPOLOGIES(3),
+		/** The annotations and what they annotate */
+		ANNOTATIONS(4),
+		/** The k-mer sketches kept by the sequences */
+		SKETCHES(5);
+
+		/** The tag written before the section */
+		private final int tag;
+
+		private Section(int tag) {
+			this.tag = tag;
+		}
+
+		/**
+		 * Gets the tag of the section
+		 *
+		 * @return
+		 * 			The tag
+		 */
+		int getTag() {
+			return tag;
+		}
+
+		/**
+		 * Gets the section with a tag
+		 *
+		 * @param tag
+		 * 			The tag
+		 * @return
+		 * 			The section or null if tag is unknown
+		 */
+		static Section fromTag(int tag) {
+
+			for (Section s: values()) {
+				if (s.tag == tag) {
+					return s;
+				}
+			}
+			return null;
+		}
+	}
+
+	private SnapshotFormat() {
+	}
+}
@@ -0,0 +1,535 @@
+
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import annotation.Annotation;
+import annotation.Feature;
+import annotation.documentation.AnnotationDocumentation;
+import annotation.documentation.DocumentationField;
+import collector.Model;
+import modelobject.ModelObject;
+import modelobject.PrototypeModelObject;
+import point.Point;
+import sequences.PackedNucleotideStore;
+import sequences.ResidueRuns;
+import sequences.Sequence;
+import sequences.SequenceSketch;
+import sequences.StringResidueStore;
+import topologies.Topology;
+
+/**
+ * SnapshotReader loads a model saved by <code>SnapshotWriter</code>.
+ *
+ * The file is streamed through a channel one chunk at a time. Sections
+ * that are not wanted (or not known to this version) are skipped
+ * without being read. Objects get back the identifiers they were saved
+ * with, so the model loaded into should not already use them.
+ */
+public class SnapshotReader {
+
+	/** The snapshot file */
+	private final File file;
+
+	/** The sections to load */
+	private EnumSet<SnapshotFormat.Section> sections =
+		EnumSet.allOf(SnapshotFormat.Section.class);
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 * 			The snapshot file
+	 */
+	public SnapshotReader(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Sets which sections to load. Objects are always loaded; without
+	 * residues the sequences are empty and without topologies the
+	 * annotations have none.
+	 *
+	 * @param sections
+	 * 			The sections
+	 */
+	public void setSections(EnumSet<SnapshotFormat.Section> sections) {
+
+		this.sections = EnumSet.copyOf(sections);
+		this.sections.add(SnapshotFormat.Section.OBJECTS);
+	}
+
+	/**
+	 * Loads the snapshot into a model. Listeners of the model get the
+	 * changes as one batch.
+	 *
+	 * @param model
+	 * 			The model to load into
+	 * @return
+	 * 			The loaded sequences, in saved order
+	 * @throws IOException
+	 * 			If reading failed, the file is not a snapshot or an
+	 * 			identifier is already used in the model
+	 */
+	public List<Sequence> read(Model model) throws IOException {
+
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		ChunkReader in = new ChunkReader(channel);
+
+		List<Sequence> sequences = null;
+		List<Topology> tops = null;
+
+		model.beginBatch();
+		try {
+			in.readHeader();
+
+			int tag;
+			while ((tag = in.nextSection()) != SnapshotFormat.END_TAG) {
+
+				SnapshotFormat.Section section = SnapshotFormat.Section.fromTag(tag);
+				if (section == null || !sections.contains(section)) {
+					continue;
+				}
+
+				switch (section) {
+					case OBJECTS:
+						sequences = readObjects(in, model);
+						break;
+					case RESIDUES:
+						readResidues(in, requireObjects(sequences));
+						break;
+					case TOPOLOGIES:
+						tops = readTopologies(in, model,
+								requireObjects(sequences));
+						break;
+					case ANNOTATIONS:
+						readAnnotations(in, requireObjects(sequences), tops);
+						break;
+					case SKETCHES:
+						readSketches(in, requireObjects(sequences));
+						break;
+				}
+			}
+		} finally {
+			in.close();
+			channel.close();
+			model.endBatch();
+		}
+
+		return requireObjects(sequences);
+	}
+
+	/**
+	 * Checks that the objects section has been read
+	 *
+	 * @param sequences
+	 * 			The sequences read or null
+	 * @return
+	 * 			The sequences
+	 * @throws IOException
+	 * 			If objects are missing
+	 */
+	private static List<Sequence> requireObjects(List<Sequence> sequences)
+			throws IOException {
+
+		if (sequences == null) {
+			throw new IOException("Snapshot has no objects section");
+		}
+		return sequences;
+	}
+
+	/**
+	 * Reads the objects section
+	 *
+	 * @param in
+	 * 			The reader
+	 * @param model
+	 * 			The model
+	 * @return
+	 * 			The sequences
+	 * @throws IOException
+	 * 			If reading failed or an identifier is taken
+	 */
+	private static List<Sequence> readObjects(ChunkReader in, Model model)
+			throws IOException {
+
+		int count = in.readVarInt();
+		List<Sequence> sequences = new ArrayList<Sequence>(count);
+		int id = 0;
+
+		for (int i = 0; i < count; i++) {
+
+			int kind = in.readByte();
+			if (kind != SnapshotFormat.OBJECT_SEQUENCE) {
+				throw new IOException("Unknown object kind " + kind);
+			}
+			id += in.readSignedVarInt();
+			ModelObject.PhysicalShape shape = getConstant(
+					ModelObject.PhysicalShape.values(), in.readByte());
+			Sequence.SequenceType type = getConstant(
+					Sequence.SequenceType.values(), in.readByte());
+
+			Sequence seq = new Sequence(model, id);
+			if (seq.getIdentifier() != id) {
+				model.removeModelObject(seq);
+				throw new IOException("Identifier " + id +
+						" is already used in the model");
+			}
+			seq.setShape(shape);
+			seq.setSequenceType(type);
+			sequences.add(seq);
+		}
+		return sequences;
+	}
+
+	/**
+	 * Reads the residues section
+	 *
+	 * @param in
+	 * 			The reader
+	 * @param sequences
+	 * 			The sequences
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	private static void readResidues(ChunkReader in, List<Sequence> sequences)
+			throws IOException {
+
+		int count = in.readVarInt();
+		if (count != sequences.size()) {
+			throw new IOException("Residues do not match the objects");
+		}
+
+		for (Sequence seq: sequences) {
+
+			int storage = in.readByte();
+			if (storage == SnapshotFormat.RESIDUES_NONE) {
+
+				continue;
+
+			} else if (storage == SnapshotFormat.RESIDUES_TEXT) {
+
+				seq.setResidueStore(new StringResidueStore(in.readString()));
+
+			} else if (storage == SnapshotFormat.RESIDUES_PACKED) {
+
+				int length = in.readVarInt();
+				long[] words = new long[
+					(length + PackedNucleotideStore.RESIDUES_PER_WORD - 1) /
+					PackedNucleotideStore.RESIDUES_PER_WORD];
+				in.readLongs(words, 0, words.length);
+				ResidueRuns exceptions = readRuns(in);
+				ResidueRuns lowerCase = readRuns(in);
+
+				seq.setResidueStore(new PackedNucleotideStore(words, length,
+							exceptions, lowerCase));
+
+			} else {
+				throw new IOException("Unknown residue storage " + storage);
+			}
+		}
+	}
+
+	/**
+	 * Reads the sketches section. Sketches are given back to their
+	 * sequences, which keep them if they match the residues.
+	 *
+	 * @param in
+	 * 			The reader
+	 * @param sequences
+	 * 			The sequences
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	private static void readSketches(ChunkReader in, List<Sequence> sequences)
+			throws IOException {
+
+		int count = in.readVarInt();
+		for (int i = 0; i < count; i++) {
+
+			Sequence seq = getItem(sequences, in.readVarInt());
+			int kmerSize = in.readVarInt();
+			int sketchSize = in.readVarInt();
+			int window = in.readVarInt();
+			int residueCount = in.readVarInt();
+			boolean circular = in.readByte() != 0;
+
+			long[] hashes = new long[in.readVarInt()];
+			in.readLongs(hashes, 0, hashes.length);
+			long[] signature = new long[sketchSize];
+			in.readLongs(signature, 0, signature.length);
+			long[] minimizers = new long[in.readVarInt()];
+			in.readLongs(minimizers, 0, minimizers.length);
+
+			try {
+				seq.setSketch(new SequenceSketch(kmerSize, sketchSize, window,
+						residueCount, circular, hashes, signature, minimizers));
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Broken sketch: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Reads a run table
+	 *
+	 * @param in
+	 * 			The reader
+	 * @return
+	 * 			The runs
+	 * @throws IOException
+	 * 			If reading failed
+	 */
+	private static ResidueRuns readRuns(ChunkReader in) throws IOException {
+
+		int count = in.readVarInt();
+		int[] starts = new int[count];
+		int[] ends = new int[count];
+		char[] values = new char[count];
+
+		int previousEnd = 0;
+		for (int r = 0; r < count; r++) {
+
+			starts[r] = previousEnd + in.readVarInt();
+			ends[r] = starts[r] + in.readVarInt();
+			values[r] = (char) in.readVarInt();
+			previousEnd = ends[r];
+		}
+		return new ResidueRuns(starts, ends, values);
+	}
+
+	/**
+	 * Reads the topologies section
+	 *
+	 * @param in
+	 * 			The reader
+	 * @param model
+	 * 			The model
+	 * @param sequences
+	 * 			The sequences
+	 * @return
+	 * 			The topologies
+	 * @throws IOException
+	 * 			If reading failed or a topology could not be made
+	 */
+	private static List<Topology> readTopologies(ChunkReader in, Model model,
+			List<Sequence> sequences) throws IOException {
+
+		int count = in.readVarInt();
+		List<Topology> tops = new ArrayList<Topology>(count);
+		int[][] children = new int[count][];
+
+		for (int t = 0; t < count; t++) {
+
+			Topology top = makeTopology(in.readString(), model);
+			top.setCaption(in.readString());
+
+			int points = in.readVarInt();
+			int pos = 0;
+			for (int i = 0; i < points; i++) {
+
+				Sequence target = getItem(sequences, in.readVarInt());
+				pos += in.readSignedVarInt();
+				int stepSize = in.readVarInt();
+
+				Point p = stepSize == 2 ? new Point(target, top, pos) :
+					new Point(target, top, pos, stepSize);
+				top.addPoint(p);
+			}
+
+			children[t] = new int[in.readVarInt()];
+			for (int i = 0; i < children[t].length; i++) {
+				children[t][i] = in.readVarInt();
+			}
+			tops.add(top);
+		}
+
+		for (int t = 0; t < count; t++) {
+			for (int child: children[t]) {
+				tops.get(t).addTopology(getItem(tops, child));
+			}
+		}
+		return tops;
+	}
+
+	/**
+	 * Makes an empty topology of a saved class
+	 *
+	 * @param kind
+	 * 			The class name
+	 * @param model
+	 * 			The model
+	 * @return
+	 * 			The topology
+	 * @throws IOException
+	 * 			If the class is unknown or has no suitable constructor
+	 */
+	private static Topology makeTopology(String kind, Model model)
+			throws IOException {
+
+		try {
+			Class<? extends Topology> c =
+				Class.forName(kind).asSubclass(Topology.class);
+			try {
+				return c.getConstructor(Model.class).newInstance(model);
+			} catch (NoSuchMethodException e) {
+				return c.getConstructor().newInstance();
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Cannot make topology " + kind, e);
+		} catch (ClassCastException e) {
+			throw new IOException(kind + " is not a topology", e);
+		}
+	}
+
+	/**
+	 * Reads the annotations section
+	 *
+	 * @param in
+	 * 			The reader
+	 * @param sequences
+	 * 			The sequences
+	 * @param tops
+	 * 			The topologies or null if not loaded
+	 * @throws IOException
+	 * 			If reading failed or an annotation could not be made
+	 */
+	private static void readAnnotations(ChunkReader in, List<Sequence> sequences,
+			List<Topology> tops) throws IOException {
+
+		int count = in.readVarInt();
+		for (int a = 0; a < count; a++) {
+
+			Annotation annotation = makeAnnotation(in.readString());
+			String type = in.readString();
+			if (annotation instanceof Feature) {
+				((Feature) annotation).setType(type);
+			}
+
+			AnnotationDocumentation doc = annotation.getDocumentation();
+			setField(doc.publication, in.readNullableString());
+			setField(doc.link, in.readNullableString());
+			setField(doc.title, in.readNullableString());
+			setField(doc.caption, in.readNullableString());
+			setField(doc.doi, in.readNullableString());
+
+			PrototypeModelObject[] annotates =
+				new PrototypeModelObject[in.readVarInt()];
+			for (int i = 0; i < annotates.length; i++) {
+				annotates[i] = getItem(sequences, in.readVarInt());
+			}
+			annotation.setAnnotation(annotates);
+
+			int topCount = in.readVarInt();
+			for (int i = 0; i < topCount; i++) {
+
+				int index = in.readVarInt();
+				if (tops != null) {
+					annotation.setTopology(getItem(tops, index));
+				}
+			}
+
+			int attached = in.readVarInt();
+			for (int i = 0; i < attached; i++) {
+				getItem(sequences, in.readVarInt()).addAnnotation(annotation);
+			}
+		}
+	}
+
+	/**
+	 * Makes an empty annotation of a saved class
+	 *
+	 * @param kind
+	 * 			The class name
+	 * @return
+	 * 			The annotation
+	 * @throws IOException
+	 * 			If the class is unknown or has no suitable constructor
+	 */
+	private static Annotation makeAnnotation(String kind) throws IOException {
+
+		if (kind.equals(Feature.class.getName())) {
+			return new Feature();
+		}
+
+		try {
+			Class<? extends Annotation> c =
+				Class.forName(kind).asSubclass(Annotation.class);
+			Constructor<? extends Annotation> constructor;
+			try {
+				constructor = c.getConstructor();
+				return constructor.newInstance();
+			} catch (NoSuchMethodException e) {
+				constructor = c.getConstructor(PrototypeModelObject[].class);
+				return constructor.newInstance(
+						(Object) new PrototypeModelObject[0]);
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new IOException("Cannot make annotation " + kind, e);
+		} catch (ClassCastException e) {
+			throw new IOException(kind + " is not an annotation", e);
+		}
+	}
+
+	/**
+	 * Sets a documentation field if there is a value
+	 *
+	 * @param field
+	 * 			The field
+	 * @param value
+	 * 			The value or null
+	 */
+	private static void setField(DocumentationField field, String value) {
+
+		if (value != null) {
+			field.set(value);
+		}
+	}
+
+	/**
+	 * Gets an item by saved order number
+	 *
+	 * @param items
+	 * 			The items
+	 * @param index
+	 * 			The number
+	 * @return
+	 * 			The item
+	 * @throws IOException
+	 * 			If number is out of range
+	 */
+	private static <T> T getItem(List<T> items, int index) throws IOException {
+
+		if (index < 0 || index >= items.size()) {
+			throw new IOException("Corrupt reference " + index);
+		}
+		return items.get(index);
+	}
+
+	/**
+	 * Gets an enumeration constant by saved ordinal
+	 *
+	 * @param constants
+	 * 			The constants
+	 * @param ordinal
+	 * 			The ordinal
+	 * @return
+	 * 			The constant
+	 * @throws IOException
+	 * 			If ordinal is out of range
+	 */
+	private static <T> T getConstant(T[] constants, int ordinal)
+			throws IOException {
+
+		if (ordinal < 0 || ordinal >= constants.length) {
+			throw new IOException("Corrupt constant " + ordinal);
+		}
+		return constants[ordinal];
+	}
+}
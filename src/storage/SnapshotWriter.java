@@ -0,0 +1,522 @@
+
+package storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import annotation.Annotation;
+import annotation.Feature;
+import annotation.documentation.AnnotationDocumentation;
+import collector.Model;
+import modelobject.ModelObject;
+import point.Point;
+import sequences.PackedNucleotideStore;
+import sequences.ResidueRuns;
+import sequences.ResidueStore;
+import sequences.Sequence;
+import sequences.SequenceSketch;
+import topologies.Topology;
+
+/**
+ * SnapshotWriter saves a whole model as a binary snapshot.
+ *
+ * Nucleotide sequences are saved packed, two bits per residue, and the
+ * positions of a topology's points as differences to the previous
+ * point. See <code>SnapshotFormat</code> for the layout.
+ */
+public class SnapshotWriter {
+
+	/** The snapshot file */
+	private final File file;
+
+	/** If chunks are deflated */
+	private boolean compressed = false;
+
+	/** Order number of each object */
+	private Map<ModelObject, Integer> objectIndex;
+
+	/** Order number of each topology */
+	private Map<Topology, Integer> topologyIndex;
+
+	/**
+	 * Constructor
+	 *
+	 * @param file
+	 * 			The snapshot file, replaced if it exists
+	 */
+	public SnapshotWriter(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Sets if the sections should be compressed. Packed residues hardly
+	 * compress, so this mostly pays off for many annotations.
+	 *
+	 * @param compressed
+	 * 			If compressing
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Writes the snapshot
+	 *
+	 * @param model
+	 * 			The model to save
+	 * @throws IOException
+	 * 			If writing failed or the model holds what cannot be saved
+	 */
+	public void write(Model model) throws IOException {
+
+		List<Sequence> sequences = collectObjects(model);
+		List<Topology> tops = collectTopologies(model);
+		List<Annotation> annotations = collectAnnotations(sequences);
+
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ChunkWriter out = new ChunkWriter(channel, compressed);
+
+		try {
+			out.writeHeader();
+
+			out.beginSection(SnapshotFormat.Section.OBJECTS.getTag());
+			writeObjects(out, sequences);
+			out.endSection();
+
+			out.beginSection(SnapshotFormat.Section.RESIDUES.getTag());
+			writeResidues(out, sequences);
+			out.endSection();
+
+			out.beginSection(SnapshotFormat.Section.TOPOLOGIES.getTag());
+			writeTopologies(out, tops);
+			out.endSection();
+
+			out.beginSection(SnapshotFormat.Section.ANNOTATIONS.getTag());
+			writeAnnotations(out, annotations, sequences);
+			out.endSection();
+
+			out.beginSection(SnapshotFormat.Section.SKETCHES.getTag());
+			writeSketches(out, sequences);
+			out.endSection();
+
+			out.beginSection(SnapshotFormat.END_TAG);
+			out.endSection();
+		} finally {
+			out.close();
+			channel.close();
+			objectIndex = null;
+			topologyIndex = null;
+		}
+	}
+
+	/**
+	 * Numbers the objects of the model
+	 *
+	 * @param model
+	 * 			The model
+	 * @return
+	 * 			The sequences in order
+	 * @throws IOException
+	 * 			If an object is not a sequence
+	 */
+	private List<Sequence> collectObjects(Model model) throws IOException {
+
+		List<Sequence> sequences = new ArrayList<Sequence>();
+		objectIndex = new HashMap<ModelObject, Integer>();
+
+		for (Iterator<ModelObject> it = model.getModelObjects(); it.hasNext(); ) {
+
+			ModelObject obj = it.next();
+			if (!(obj instanceof Sequence)) {
+				throw new IOException("Cannot save objects of " +
+						obj.getClass().getName());
+			}
+			objectIndex.put(obj, sequences.size());
+			sequences.add((Sequence) obj);
+		}
+		return sequences;
+	}
+
+	/**
+	 * Numbers the topologies of the model and their children
+	 *
+	 * @param model
+	 * 			The model
+	 * @return
+	 * 			The topologies in order
+	 */
+	private List<Topology> collectTopologies(Model model) {
+
+		List<Topology> tops = new ArrayList<Topology>();
+		topologyIndex = new HashMap<Topology, Integer>();
+
+		for (Iterator<Topology> it = model.getTopologies(); it.hasNext(); ) {
+			collectTopology(it.next(), tops);
+		}
+		return tops;
+	}
+
+	/**
+	 * Numbers a topology and its children
+	 *
+	 * @param top
+	 * 			The topology
+	 * @param tops
+	 * 			The topologies so far
+	 */
+	private void collectTopology(Topology top, List<Topology> tops) {
+
+		if (topologyIndex.containsKey(top)) {
+			return;
+		}
+		topologyIndex.put(top, tops.size());
+		tops.add(top);
+
+		for (Iterator<Topology> it = top.getChildIterator(); it.hasNext(); ) {
+			collectTopology(it.next(), tops);
+		}
+	}
+
+	/**
+	 * Gathers the annotations attached to the sequences
+	 *
+	 * @param sequences
+	 * 			The sequences
+	 * @return
+	 * 			Each annotation once
+	 */
+	private static List<Annotation> collectAnnotations(List<Sequence> sequences) {
+
+		Set<Annotation> annotations = new LinkedHashSet<Annotation>();
+		for (Sequence seq: sequences) {
+			for (Iterator<Annotation> it = seq.getAnnotations(); it.hasNext(); ) {
+				annotations.add(it.next());
+			}
+		}
+		return new ArrayList<Annotation>(annotations);
+	}
+
+	/**
+	 * Writes the objects section
+	 *
+	 * @param out
+	 * 			The writer
+	 * @param sequences
+	 * 			The sequences
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	private static void writeObjects(ChunkWriter out, List<Sequence> sequences)
+			throws IOException {
+
+		out.writeVarInt(sequences.size());
+		int previousId = 0;
+		for (Sequence seq: sequences) {
+
+			out.writeByte(SnapshotFormat.OBJECT_SEQUENCE);
+			out.writeSignedVarInt(seq.getIdentifier() - previousId);
+			out.writeByte(seq.getShape().ordinal());
+			out.writeByte(seq.getSequenceType().ordinal());
+			previousId = seq.getIdentifier();
+		}
+	}
+
+	/**
+	 * Writes the residues section
+	 *
+	 * @param out
+	 * 			The writer
+	 * @param sequences
+	 * 			The sequences
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	private static void writeResidues(ChunkWriter out, List<Sequence> sequences)
+			throws IOException {
+
+		out.writeVarInt(sequences.size());
+		for (Sequence seq: sequences) {
+
+			ResidueStore store = seq.getResidueStore();
+
+			if (store.length() == 0) {
+
+				out.writeByte(SnapshotFormat.RESIDUES_NONE);
+
+			} else if (store instanceof PackedNucleotideStore ||
+					seq.getSequenceType().equals(
+						Sequence.SequenceType.TYPE_NUCLEOTIDE)) {
+
+				out.writeByte(SnapshotFormat.RESIDUES_PACKED);
+				writePacked(out, store);
+
+			} else {
+
+				out.writeByte(SnapshotFormat.RESIDUES_TEXT);
+				StringBuilder text = new StringBuilder(store.length());
+				for (int i = 0; i < store.length(); i++) {
+					text.append(store.charAt(i));
+				}
+				out.writeString(text.toString());
+			}
+		}
+	}
+
+	/**
+	 * Writes the sketches section: the sketches the sequences keep for
+	 * their present residues, so they need not be made again
+	 *
+	 * @param out
+	 * 			The writer
+	 * @param sequences
+	 * 			The sequences
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	private static void writeSketches(ChunkWriter out, List<Sequence> sequences)
+			throws IOException {
+
+		List<Integer> kept = new ArrayList<Integer>();
+		List<SequenceSketch> sketches = new ArrayList<SequenceSketch>();
+		for (int i = 0; i < sequences.size(); i++) {
+
+			SequenceSketch sketch = sequences.get(i).getCachedSketch();
+			if (sketch != null) {
+				kept.add(Integer.valueOf(i));
+				sketches.add(sketch);
+			}
+		}
+
+		out.writeVarInt(sketches.size());
+		for (int i = 0; i < sketches.size(); i++) {
+
+			SequenceSketch sketch = sketches.get(i);
+			out.writeVarInt(kept.get(i).intValue());
+			out.writeVarInt(sketch.getKmerSize());
+			out.writeVarInt(sketch.getSketchSize());
+			out.writeVarInt(sketch.getWindow());
+			out.writeVarInt(sketch.getResidueCount());
+			out.writeByte(sketch.isCircular() ? 1 : 0);
+
+			long[] hashes = sketch.getHashes();
+			out.writeVarInt(hashes.length);
+			out.writeLongs(hashes, 0, hashes.length);
+			long[] signature = sketch.getSignature();
+			out.writeLongs(signature, 0, signature.length);
+			long[] minimizers = sketch.getMinimizers();
+			out.writeVarInt(minimizers.length);
+			out.writeLongs(minimizers, 0, minimizers.length);
+		}
+	}
+
+	/**
+	 * Writes residues packed, packing them first if needed
+	 *
+	 * @param out
+	 * 			The writer
+	 * @param store
+	 * 			The residues
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	private static void writePacked(ChunkWriter out, ResidueStore store)
+			throws IOException {
+
+		PackedNucleotideStore packed;
+		if (store instanceof PackedNucleotideStore) {
+			packed = (PackedNucleotideStore) store;
+		} else {
+			PackedNucleotideStore.Builder builder =
+				new PackedNucleotideStore.Builder();
+			for (int i = 0; i < store.length(); i++) {
+				builder.append(store.charAt(i));
+			}
+			packed = builder.build();
+		}
+
+		int length = packed.length();
+		int wordCount = (length + PackedNucleotideStore.RESIDUES_PER_WORD - 1) /
+			PackedNucleotideStore.RESIDUES_PER_WORD;
+
+		out.writeVarInt(length);
+		long[] words = new long[Math.min(wordCount, 4096)];
+		for (int w = 0; w < wordCount; w += words.length) {
+
+			int n = Math.min(words.length, wordCount - w);
+			for (int i = 0; i < n; i++) {
+				words[i] = packed.getWord(w + i);
+			}
+			out.writeLongs(words, 0, n);
+		}
+
+		writeRuns(out, packed.getExceptions());
+		writeRuns(out, packed.getLowerCase());
+	}
+
+	/**
+	 * Writes a run table, each run as distance from the end of the
+	 * previous run, length and character.
+	 *
+	 * @param out
+	 * 			The writer
+	 * @param runs
+	 * 			The runs
+	 * @throws IOException
+	 * 			If writing failed
+	 */
+	private static void writeRuns(ChunkWriter out, ResidueRuns runs)
+			throws IOException {
+
+		out.writeVarInt(runs.size());
+		int previousEnd = 0;
+		for (int r = 0; r < runs.size(); r++) {
+
+			out.writeVarInt(runs.getStart(r) - previousEnd);
+			out.writeVarInt(runs.getEnd(r) - runs.getStart(r));
+			out.writeVarInt(runs.getValue(r));
+			previousEnd = runs.getEnd(r);
+		}
+	}
+
+	/**
+	 * Writes the topologies section
+	 *
+	 * @param out
+	 * 			The writer
+	 * @param tops
+	 * 			The topologies
+	 * @throws IOException
+	 * 			If writing failed or a point targets an unknown object
+	 */
+	private void writeTopologies(ChunkWriter out, List<Topology> tops)
+			throws IOException {
+
+		out.writeVarInt(tops.size());
+		for (Topology top: tops) {
+
+			out.writeString(top.getClass().getName());
+			out.writeString(top.getCaption() == null ? "" : top.getCaption());
+
+			List<Point> points = new ArrayList<Point>();
+			for (Iterator<Point> it = top.getPointIterator(); it.hasNext(); ) {
+				points.add(it.next());
+			}
+
+			out.writeVarInt(points.size());
+			int previousPos = 0;
+			for (Point p: points) {
+
+				out.writeVarInt(getObjectIndex(p.getTarget()));
+				out.writeSignedVarInt(p.getPos() - previousPos);
+				out.writeVarInt(p.getStepSize());
+				previousPos = p.getPos();
+			}
+
+			List<Topology> children = new ArrayList<Topology>();
+			for (Iterator<Topology> it = top.getChildIterator(); it.hasNext(); ) {
+				children.add(it.next());
+			}
+
+			out.writeVarInt(children.size());
+			for (Topology child: children) {
+				out.writeVarInt(topologyIndex.get(child));
+			}
+		}
+	}
+
+	/**
+	 * Writes the annotations section
+	 *
+	 * @param out
+	 * 			The writer
+	 * @param annotations
+	 * 			The annotations
+	 * @param sequences
+	 * 			The sequences, for finding which have which annotation
+	 * @throws IOException
+	 * 			If writing failed or an annotation refers to what is not
+	 * 			part of the model
+	 */
+	private void writeAnnotations(ChunkWriter out, List<Annotation> annotations,
+			List<Sequence> sequences) throws IOException {
+
+		Map<Annotation, List<Integer>> attached =
+			new HashMap<Annotation, List<Integer>>();
+		for (int i = 0; i < sequences.size(); i++) {
+			for (Iterator<Annotation> it = sequences.get(i).getAnnotations();
+					it.hasNext(); ) {
+
+				Annotation a = it.next();
+				List<Integer> to = attached.get(a);
+				if (to == null) {
+					to = new ArrayList<Integer>(1);
+					attached.put(a, to);
+				}
+				to.add(i);
+			}
+		}
+
+		out.writeVarInt(annotations.size());
+		for (Annotation a: annotations) {
+
+			out.writeString(a.getClass().getName());
+			out.writeString(a instanceof Feature ? ((Feature) a).getType() : "");
+
+			AnnotationDocumentation doc = a.getDocumentation();
+			out.writeNullableString(doc.publication.get());
+			out.writeNullableString(doc.link.get());
+			out.writeNullableString(doc.title.get());
+			out.writeNullableString(doc.caption.get());
+			out.writeNullableString(doc.doi.get());
+
+			Set<? extends ModelObject> annotates = a.getAnnotates();
+			out.writeVarInt(annotates.size());
+			for (ModelObject obj: annotates) {
+				out.writeVarInt(getObjectIndex(obj));
+			}
+
+			List<Topology> tops = a.getAllTopologies();
+			out.writeVarInt(tops.size());
+			for (Topology top: tops) {
+
+				Integer index = topologyIndex.get(top);
+				if (index == null) {
+					throw new IOException(
+							"Annotation topology is not part of the model");
+				}
+				out.writeVarInt(index);
+			}
+
+			List<Integer> to = attached.get(a);
+			out.writeVarInt(to.size());
+			for (int i: to) {
+				out.writeVarInt(i);
+			}
+		}
+	}
+
+	/**
+	 * Gets the order number of an object
+	 *
+	 * @param obj
+	 * 			The object
+	 * @return
+	 * 			The number
+	 * @throws IOException
+	 * 			If the object is not part of the model
+	 */
+	private int getObjectIndex(ModelObject obj) throws IOException {
+
+		Integer index = objectIndex.get(obj);
+		if (index == null) {
+			throw new IOException("Object " + obj.getIdentifier() +
+					" is not part of the model");
+		}
+		return index;
+	}
+}
@@ -3,6 +3,7 @@ package topologies;
 
 import java.util.*;
 import collector.Model;
+import collector.ModelEvent;
 import point.Point;
 import modelobject.ModelObject;
 
@@ -13,8 +14,15 @@ abstract class AbstractTopology implements Topology {
 	protected Collection<Topology> childTopologies = new ArrayList<Topology>(1);
 	protected Collection<Point> points = new ArrayList<Point>(1);
 
+	/** The points of each target, ordered by position */
+	protected Map<ModelObject, PointIndex> pointIndexes =
+		new HashMap<ModelObject, PointIndex>(2);
+
 	protected Model model;
 
+	/** Above this many points moving together, indexes are reordered */
+	private static final int RESORT_THRESHOLD = 8;
+
 	public AbstractTopology() {
 
 	}
@@ -35,58 +43,217 @@ abstract class AbstractTopology implements Topology {
 		return points.iterator();
 	}
 
+	/**
+	 * Get points iterator for an object.
+	 *
+	 * The points come ordered by position.
+	 *
+	 * @param target
+	 * 			The thing the points should point to
+	 * @return
+	 * 			Iterator
+	 */
 	@Override
 	public Iterator<Point> getPointIterator(ModelObject target) {
+		return getPointsInRange(target, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public Iterator<Point> getPointAt(ModelObject target, int pos) {
+		return getPointsInRange(target, pos, pos);
+	}
 
-		Collection<Point> filteredPoints = new ArrayList<Point>(1);
+	@Override
+	public Iterator<Point> getPointsInRange(ModelObject target, int from,
+			int to) {
 
-		for (Point point: points) {
+		PointIndex index = pointIndexes.get(target);
 
-			if (point.annotatesObject(target)) {
-				filteredPoints.add(point);
+		if (index == null) {
+			return Collections.<Point>emptyIterator();
+		}
+		return index.iterator(from, to);
+	}
+
+	@Override
+	public boolean addPoint(Point p) {
+
+		//Defualt behaviour is to allow 
+		if (!points.add(p)) {
+			return false;
+		}
+
+		PointIndex index = pointIndexes.get(p.getTarget());
+		if (index == null) {
+			index = new PointIndex();
+			pointIndexes.put(p.getTarget(), index);
+			p.getTarget().topologyAttached(this, true);
+		}
+		index.add(p);
+		p.getTarget().pointsChanged(this);
+		if (model != null) {
+			model.fireEvent(ModelEvent.Type.POINT_ADDED, p);
+		}
+		return true;
+	}
+
+	@Override
+	public boolean removePoint(Point p) {
+
+		//Defualt behaviour is to allow 
+		if (!points.remove(p)) {
+			return false;
+		}
+
+		PointIndex index = pointIndexes.get(p.getTarget());
+		if (index != null) {
+			index.remove(p);
+			if (index.size() == 0) {
+				pointIndexes.remove(p.getTarget());
+				p.getTarget().topologyAttached(this, false);
 			}
 		}
+		p.getTarget().pointsChanged(this);
+		if (model != null) {
+			model.fireEvent(ModelEvent.Type.POINT_REMOVED, p);
+		}
+		return true;
 
-		return filteredPoints.iterator();
 	}
 
 	@Override
-	public Iterator<Point> getPointAt(ModelObject target, int pos) {
+	public void pointMoved(Point p, int oldPos) {
 
-		Collection<Point> filteredPoints = new ArrayList<Point>(1);
+		PointIndex index = pointIndexes.get(p.getTarget());
+		if (index != null && index.moved(p, oldPos)) {
+			p.getTarget().pointsChanged(this);
+			if (model != null) {
+				model.fireEvent(ModelEvent.Type.POINT_MOVED, p);
+			}
+		}
+	}
 
-		for (Point point: points) {
+	@Override
+	public void pointsMoved(Point[] moved, int[] oldPositions, int from,
+			int to) {
 
-			if (point.annotatesObject(target) && (point.getPos() == pos)) {
+		if (to - from <= RESORT_THRESHOLD) {
 
-				filteredPoints.add(point);
+			for (int i = from; i < to; i++) {
+				if (moved[i].getPos() != oldPositions[i]) {
+					pointMoved(moved[i], oldPositions[i]);
+				}
 			}
+			return;
+		}
+
+		//Many moved, so reorder each index once instead
+		Set<ModelObject> targets = new HashSet<ModelObject>();
+		for (int i = from; i < to; i++) {
+			targets.add(moved[i].getTarget());
+		}
+		for (ModelObject target: targets) {
 
+			PointIndex index = pointIndexes.get(target);
+			if (index != null) {
+				index.resort();
+				target.pointsChanged(this);
+			}
 		}
-		return filteredPoints.iterator();
 
+		if (model != null) {
+
+			model.beginBatch();
+			try {
+				for (int i = from; i < to; i++) {
+					if (moved[i].getPos() != oldPositions[i]) {
+						model.fireEvent(ModelEvent.Type.POINT_MOVED, moved[i]);
+					}
+				}
+			} finally {
+				model.endBatch();
+			}
+		}
 	}
 
 	@Override
-	public boolean addPoint(Point p) {
+	public void targetEdited(ModelObject target, int from, int to,
+			int delta) {
 
-		//Defualt behaviour is to allow 
-		return points.add(p);
+		PointIndex index = pointIndexes.get(target);
+		if (index == null) {
+			return;
+		}
+
+		List<Point> moved = index.rebase(from, to, delta);
+		if (moved.isEmpty()) {
+			return;
+		}
+		target.pointsChanged(this);
+
+		if (model != null) {
+
+			model.beginBatch();
+			try {
+				for (Point p: moved) {
+					model.fireEvent(ModelEvent.Type.POINT_MOVED, p);
+				}
+			} finally {
+				model.endBatch();
+			}
+		}
 	}
 
 	@Override
-	public boolean removePoint(Point p) {
+	public boolean shiftRange(ModelObject target, int from, int to,
+			int delta) {
 
-		//Defualt behaviour is to allow 
-		return points.remove(p);
+		PointIndex index = pointIndexes.get(target);
+		if (index == null) {
+			return true;
+		}
+
+		List<Point> inRange = new ArrayList<Point>();
+		if (from <= to) {
+			addAll(inRange, index.iterator(from, to));
+		} else if (target.getAllowsWrap()) {
+			addAll(inRange, index.iterator(from, Integer.MAX_VALUE));
+			addAll(inRange, index.iterator(Integer.MIN_VALUE, to));
+		} else {
+			throw new IllegalArgumentException(
+					"Only ranges on circular targets can span the origin");
+		}
 
+		return Point.moveAll(inRange.toArray(new Point[inRange.size()]), delta);
+	}
+
+	/**
+	 * Adds what an iterator gives to a list
+	 *
+	 * @param list
+	 * 			The list
+	 * @param it
+	 * 			The iterator
+	 */
+	private static void addAll(List<Point> list, Iterator<Point> it) {
+
+		while (it.hasNext()) {
+			list.add(it.next());
+		}
 	}
 
 	@Override
 	public boolean addTopology(Topology top) {
 
 		//Defualt behaviour is to allow 
-		return childTopologies.add(top);
+		if (childTopologies.add(top)) {
+			notifyTargets(top);
+			if (model != null) {
+				model.changed(this);
+			}
+			return true;
+		}
+		return false;
 
 	}
 
@@ -94,14 +261,43 @@ abstract class AbstractTopology implements Topology {
 	public boolean removeTopology(Topology top) {
 
 		//Defualt behaviour is to allow 
-		return childTopologies.remove(top);
+		if (childTopologies.remove(top)) {
+			notifyTargets(top);
+			if (model != null) {
+				model.changed(this);
+			}
+			return true;
+		}
+		return false;
+
+	}
 
+	/**
+	 * Lets the targets of a topology's points know that the points
+	 * have changed what they are part of.
+	 *
+	 * @param top
+	 * 			The topology
+	 */
+	protected static void notifyTargets(Topology top) {
+
+		for (Iterator<Point> it = top.getPointIterator(); it.hasNext(); ) {
+			ModelObject target = it.next().getTarget();
+			target.pointsChanged();
+			target.annotationsChanged();
+		}
+		for (Iterator<Topology> it = top.getChildIterator(); it.hasNext(); ) {
+			notifyTargets(it.next());
+		}
 	}
 
 	@Override
 	public void setCaption(String s) {
 
 		caption = s;
+		if (model != null) {
+			model.changed(this);
+		}
 
 	}
 
@@ -128,4 +324,16 @@ abstract class AbstractTopology implements Topology {
 
 		return true;
 	}
+
+	@Override
+	public boolean allowMoves(Point[] moved, int[] positions, int from,
+			int to) {
+
+		for (int i = from; i < to; i++) {
+			if (!allowMove(moved[i], positions[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
 }
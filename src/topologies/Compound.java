@@ -0,0 +1,32 @@
+
+package topologies;
+
+import collector.Model;
+
+/**
+ * Compound is a topology made of its children, such as a feature
+ * location joined from exons or read on the minus strand. The caption
+ * tells how the children make it up, as the operator of the location
+ * it was read from: "join", "order" or "complement".
+ */
+public class Compound extends AbstractTopology {
+
+	public Compound(Model m) {
+
+		super(m);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param m
+	 * 			The model
+	 * @param caption
+	 * 			How the children make up the topology
+	 */
+	public Compound(Model m, String caption) {
+
+		super(m);
+		this.caption = caption;
+	}
+}
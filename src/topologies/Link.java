@@ -0,0 +1,16 @@
+package topologies;
+
+import collector.Model;
+
+/**
+ * Link ties together topologies that correspond to each other, such as
+ * the stretches of two sequences that align. The topologies linked are
+ * its children; it may also hold any number of points of its own.
+ */
+public class Link extends AbstractTopology {
+
+	public Link(Model m) {
+
+		super(m);
+	}
+}
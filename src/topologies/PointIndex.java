@@ -0,0 +1,308 @@
+
+package topologies;
+
+import java.util.*;
+import point.Point;
+
+/**
+ * PointIndex keeps the points of a topology that annotate one target
+ * ordered by position.
+ *
+ * Points and their positions are held in parallel arrays, so lookups
+ * are binary searches over a primitive array and range queries walk a
+ * contiguous stretch of it.
+ */
+class PointIndex {
+
+	/** The points, ordered by position */
+	private Point[] points = new Point[2];
+
+	/** The positions of the points, as indexed */
+	private int[] positions = new int[2];
+
+	/** Number of points */
+	private int size = 0;
+
+	/** Counts modifications, so that iterators can detect them */
+	private int modCount = 0;
+
+	/**
+	 * RangeIterator is a lazy iterator over the points in a range of
+	 * positions.
+	 */
+	private class RangeIterator implements Iterator<Point> {
+
+		/** Next slot */
+		private int slot;
+
+		/** Last position included */
+		private final int to;
+
+		/** Modifications when iterator was made */
+		private final int expectedModCount = modCount;
+
+		/** Constructor */
+		RangeIterator(int from, int to) {
+			this.slot = lowerBound(from);
+			this.to = to;
+		}
+
+		public boolean hasNext() {
+
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			return slot < size && positions[slot] <= to;
+		}
+
+		public Point next() {
+
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return points[slot++];
+		}
+
+		public void remove() {
+
+			throw new UnsupportedOperationException(
+					"Removing not allowed");
+		}
+	}
+
+	/**
+	 * Gets the number of points
+	 *
+	 * @return
+	 * 			Number of points
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a point after all points at the same position
+	 *
+	 * @param p
+	 * 			The point
+	 */
+	void add(Point p) {
+
+		if (size == points.length) {
+			points = Arrays.copyOf(points, size * 2);
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+
+		int pos = p.getPos();
+		int slot = upperBound(pos);
+		System.arraycopy(points, slot, points, slot + 1, size - slot);
+		System.arraycopy(positions, slot, positions, slot + 1, size - slot);
+		points[slot] = p;
+		positions[slot] = pos;
+		size++;
+		modCount++;
+	}
+
+	/**
+	 * Removes a point
+	 *
+	 * @param p
+	 * 			The point
+	 * @return
+	 * 			If point was in the index
+	 */
+	boolean remove(Point p) {
+
+		int slot = find(p, p.getPos());
+		if (slot < 0) {
+			return false;
+		}
+
+		System.arraycopy(points, slot + 1, points, slot, size - slot - 1);
+		System.arraycopy(positions, slot + 1, positions, slot,
+				size - slot - 1);
+		size--;
+		points[size] = null;
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Moves a point to where its position now belongs
+	 *
+	 * @param p
+	 * 			The point, already at its new position
+	 * @param oldPos
+	 * 			The position it was indexed at
+	 * @return
+	 * 			If point was in the index
+	 */
+	boolean moved(Point p, int oldPos) {
+
+		int slot = find(p, oldPos);
+		if (slot < 0) {
+			return false;
+		}
+
+		int pos = p.getPos();
+		int target;
+
+		if (pos == oldPos) {
+			return true;
+		} else if (pos > oldPos) {
+			target = upperBound(pos) - 1;
+			System.arraycopy(points, slot + 1, points, slot, target - slot);
+			System.arraycopy(positions, slot + 1, positions, slot,
+					target - slot);
+		} else {
+			target = upperBound(pos);
+			System.arraycopy(points, target, points, target + 1, slot - target);
+			System.arraycopy(positions, target, positions, target + 1,
+					slot - target);
+		}
+
+		points[target] = p;
+		positions[target] = pos;
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Reorders all points by their present positions, as after many
+	 * points moved at once. Points at the same position keep their
+	 * order, and runs that stayed in order cost little.
+	 */
+	void resort() {
+
+		Arrays.sort(points, 0, size, new Comparator<Point>() {
+			public int compare(Point a, Point b) {
+				return Integer.compare(a.getPos(), b.getPos());
+			}
+		});
+		for (int slot = 0; slot < size; slot++) {
+			positions[slot] = points[slot].getPos();
+		}
+		modCount++;
+	}
+
+	/**
+	 * Moves points after an edit of the target. Points after from and
+	 * before to collapse onto from, points from to onwards move by
+	 * delta. As delta is never less than <code>from - to</code>, the
+	 * order stays the same and only positions change.
+	 *
+	 * @param from
+	 * 			Position just before the replaced residues
+	 * @param to
+	 * 			Position just after the replaced residues
+	 * @param delta
+	 * 			Change of size in model-space
+	 * @return
+	 * 			The points that moved
+	 */
+	List<Point> rebase(int from, int to, int delta) {
+
+		List<Point> moved = new ArrayList<Point>();
+		for (int slot = upperBound(from); slot < size; slot++) {
+
+			int pos = positions[slot] < to ? from : positions[slot] + delta;
+			if (pos != positions[slot]) {
+				positions[slot] = pos;
+				points[slot].relocate(pos);
+				moved.add(points[slot]);
+			}
+		}
+		if (!moved.isEmpty()) {
+			modCount++;
+		}
+		return moved;
+	}
+
+	/**
+	 * Gets a lazy iterator over the points in a range of positions.
+	 *
+	 * The iterator fails if the index is modified while iterating.
+	 *
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @return
+	 * 			The iterator
+	 */
+	Iterator<Point> iterator(int from, int to) {
+		return new RangeIterator(from, to);
+	}
+
+	/**
+	 * Finds the slot of a point
+	 *
+	 * @param p
+	 * 			The point
+	 * @param pos
+	 * 			The position it is indexed at
+	 * @return
+	 * 			The slot or -1 if not found
+	 */
+	private int find(Point p, int pos) {
+
+		for (int slot = lowerBound(pos);
+				slot < size && positions[slot] == pos; slot++) {
+
+			if (points[slot] == p) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Gets the first slot with position not less than pos
+	 *
+	 * @param pos
+	 * 			The position
+	 * @return
+	 * 			The slot
+	 */
+	private int lowerBound(int pos) {
+
+		int lo = 0;
+		int hi = size;
+
+		while (lo < hi) {
+
+			int mid = (lo + hi) >>> 1;
+			if (positions[mid] < pos) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Gets the first slot with position greater than pos
+	 *
+	 * @param pos
+	 * 			The position
+	 * @return
+	 * 			The slot
+	 */
+	private int upperBound(int pos) {
+
+		int lo = 0;
+		int hi = size;
+
+		while (lo < hi) {
+
+			int mid = (lo + hi) >>> 1;
+			if (positions[mid] <= pos) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+}
@@ -11,4 +11,9 @@ public class Segment extends Singularity {
 		super(m);
 
 	}
+
+	@Override
+	protected int getMaxPoints() {
+		return maxPoints;
+	}
 }
@@ -12,12 +12,25 @@ public class Singularity extends AbstractTopology {
 		super(m);
 	}
 
+	/**
+	 * Gets the number of points the topology may hold.
+	 *
+	 * Static fields are not overridden by subclasses, so each
+	 * subclass with its own <code>maxPoints</code> overrides this.
+	 *
+	 * @return
+	 * 			The number of points
+	 */
+	protected int getMaxPoints() {
+		return maxPoints;
+	}
+
 	@Override
 	public boolean addPoint(Point p) {
 
-		if (points.size() < maxPoints) {
+		if (points.size() < getMaxPoints()) {
 
-			return points.add(p);
+			return super.addPoint(p);
 
 		} else {
 
@@ -48,6 +48,22 @@ public interface Topology {
 	 */
 	public Iterator<Point> getPointAt(ModelObject target, int pos);
 
+	/**
+	 * Returns iterator for points on target within a range of
+	 * positions, ordered by position.
+	 *
+	 * @param target
+	 * 			The annotee
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive)
+	 * @return
+	 * 			The points in the range
+	 */
+	public Iterator<Point> getPointsInRange(ModelObject target, int from,
+			int to);
+
 	/**
 	 * Adds a new point to the Topology.
 	 * Generally intended to be used during the construction
@@ -125,4 +141,92 @@ public interface Topology {
 	 * 			Success-statement
 	 */
 	public boolean allowMove(Point p, int pos);
+
+	/**
+	 * For point to report a move it has made, so that the topology
+	 * can keep track of where its points are.
+	 *
+	 * @param p
+	 * 			Point, already at its new position
+	 * @param oldPos
+	 * 			Position before the move
+	 */
+	public void pointMoved(Point p, int oldPos);
+
+	/**
+	 * For points moving together to check if the moves are allowed,
+	 * all at once.
+	 *
+	 * The positions have been made valid point-positions.
+	 *
+	 * @param points
+	 * 			Points, those from <code>from</code> up to (but not
+	 * 			including) <code>to</code> belong to this topology
+	 * @param positions
+	 * 			New position of each point
+	 * @param from
+	 * 			First point to check
+	 * @param to
+	 * 			Point after the last to check
+	 * @return
+	 * 			If all moves are allowed
+	 */
+	public boolean allowMoves(Point[] points, int[] positions, int from,
+			int to);
+
+	/**
+	 * For points that moved together to report the moves.
+	 *
+	 * @param points
+	 * 			Points, already at their new positions, those from
+	 * 			<code>from</code> up to (but not including) <code>to</code>
+	 * 			belong to this topology
+	 * @param oldPositions
+	 * 			Position of each point before the move
+	 * @param from
+	 * 			First point moved
+	 * @param to
+	 * 			Point after the last moved
+	 */
+	public void pointsMoved(Point[] points, int[] oldPositions, int from,
+			int to);
+
+	/**
+	 * Moves the topology's points on a target that are within a range
+	 * of positions, all or none.
+	 *
+	 * @param target
+	 * 			The annotee
+	 * @param from
+	 * 			First position (inclusive)
+	 * @param to
+	 * 			Last position (inclusive), before from if the range spans
+	 * 			the origin of a circular target
+	 * @param delta
+	 * 			Distance to move in model-space
+	 * @return
+	 * 			If the move was allowed
+	 */
+	public boolean shiftRange(ModelObject target, int from, int to, int delta);
+
+	/**
+	 * Updates the points on a target after residues of the target were
+	 * replaced. Points are moved without asking, as the residues they
+	 * were at are gone.
+	 *
+	 * Points after <code>from</code> and before <code>to</code> were
+	 * on replaced residues and move to <code>from</code>. Points at or
+	 * after <code>to</code> (but not at <code>from</code>) move by
+	 * <code>delta</code>.
+	 *
+	 * @param target
+	 * 			The edited target
+	 * @param from
+	 * 			Position just before the replaced residues
+	 * @param to
+	 * 			Position just after the replaced residues
+	 * @param delta
+	 * 			Change of size in model-space
+	 */
+	public void targetEdited(ModelObject target, int from, int to, int delta);
 }